@@ -0,0 +1,170 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * a single micro-benchmark. subclasses prepare their data in setUp() and do
+ * one unit of work per call to run(); measure() takes care of warming up,
+ * timing, and counting the bytes allocated by the benchmark thread.
+ */
+public abstract class Benchmark {
+
+	/**
+	 * the measurements of one benchmark at one data size
+	 */
+	public static class Result {
+		public final String name;
+		public final int rows;
+		public final int iterations;
+		public final double meanNanos, minNanos;
+		public final double allocatedBytes;
+
+		Result(String name, int rows, int iterations, double meanNanos,
+				double minNanos, double allocatedBytes) {
+			this.name = name;
+			this.rows = rows;
+			this.iterations = iterations;
+			this.meanNanos = meanNanos;
+			this.minNanos = minNanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		/**
+		 * @return bytes allocated per second (or -1 if unknown)
+		 */
+		public double allocationRate() {
+			return allocatedBytes < 0 ? -1 : allocatedBytes * 1e9 / meanNanos;
+		}
+
+		/**
+		 * @return operations per second
+		 */
+		public double throughput() {
+			return 1e9 / meanNanos;
+		}
+	}
+
+	// results are parked here so the JIT can't optimize the work away
+	public static volatile Object sink;
+
+	private final String name;
+
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * set up and run the benchmark
+	 * 
+	 * @param rows
+	 *            the data size
+	 * @param warmups
+	 *            the number of unmeasured runs
+	 * @param iterations
+	 *            the number of measured runs
+	 * @return the measurements
+	 * 
+	 * @throws Exception
+	 *             if the benchmark fails
+	 */
+	public Result measure(int rows, int warmups, int iterations)
+			throws Exception {
+		setUp(rows);
+		try {
+			for (int i = 0; i < warmups; i++) {
+				sink = run();
+			}
+
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			long total = 0, min = Long.MAX_VALUE;
+			long allocated = 0;
+			boolean countAllocations = true;
+			for (int i = 0; i < iterations; i++) {
+				long before = allocatedBytes(threads);
+				long start = System.nanoTime();
+				sink = run();
+				long elapsed = System.nanoTime() - start;
+				long after = allocatedBytes(threads);
+
+				total += elapsed;
+				min = Math.min(min, elapsed);
+				if (before < 0 || after < 0) {
+					countAllocations = false;
+				}
+				allocated += after - before;
+			}
+			return new Result(name, rows, iterations, (double) total
+					/ iterations, min, countAllocations ? (double) allocated
+					/ iterations : -1);
+		} finally {
+			sink = null;
+			tearDown();
+		}
+	}
+
+	/**
+	 * do one unit of work
+	 * 
+	 * @return anything the work produced (to keep it from being optimized
+	 *         away)
+	 * 
+	 * @throws Exception
+	 *             if the benchmark fails
+	 */
+	protected abstract Object run() throws Exception;
+
+	/**
+	 * prepare data for <em>rows</em> rows; not timed
+	 * 
+	 * @param rows
+	 *            the data size
+	 * 
+	 * @throws Exception
+	 *             if the benchmark can't be set up
+	 */
+	protected void setUp(int rows) throws Exception {
+	}
+
+	/**
+	 * release whatever setUp() created; not timed
+	 */
+	protected void tearDown() {
+	}
+
+	/**
+	 * @return the bytes allocated so far by the current thread, or -1 if the
+	 *         JVM can't tell
+	 */
+	private static long allocatedBytes(ThreadMXBean threads) {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import net.cliftonsnyder.svgchart.SVGChart;
+import net.cliftonsnyder.svgchart.data.ColumnarDataSet;
+import net.cliftonsnyder.svgchart.data.DataSet;
+import net.cliftonsnyder.svgchart.output.SVGWriter;
+import net.cliftonsnyder.svgchart.parse.BarChartDataParser;
+import net.cliftonsnyder.svgchart.types.BarChart;
+
+/**
+ * the svgchart benchmark suite: parsing (one- vs two-column input, few vs
+ * many distinct keys), DataSet point storage and min/max tracking, bar chart
+ * layout, and serialization with and without pretty-printing. each benchmark
+ * is run at every requested data size, and reports time per operation,
+ * throughput (operations and rows per second) and allocation rate.
+ * 
+ * usage (with the main classes in build/ and these in build-bench/):
+ * 
+ * <pre>
+ * bin/svgchart-bench [-r ROWS[,ROWS...]] [-w WARMUPS] [-i ITERATIONS] [REGEX]
+ * </pre>
+ * 
+ * ROWS defaults to 1000,10000,100000,1000000 (10000000 works too, given
+ * enough heap); REGEX selects benchmarks by name.
+ */
+public class Benchmarks {
+
+	// "few" distinct keys, regardless of the number of rows
+	private static final int FEW_KEYS = 100;
+
+	// bars drawn by the layout/serialization benchmarks are capped here, so
+	// the largest sizes measure throughput rather than heap exhaustion
+	private static final int MAX_BARS = 1000000;
+
+	public static void main(String[] args) throws Exception {
+		String rows = "1000,10000,100000,1000000";
+		int warmups = 5, iterations = 10;
+		Pattern filter = Pattern.compile(".*");
+		for (int i = 0; i < args.length; i++) {
+			if ("-r".equals(args[i]) && i + 1 < args.length) {
+				rows = args[++i];
+			} else if ("-w".equals(args[i]) && i + 1 < args.length) {
+				warmups = Integer.parseInt(args[++i]);
+			} else if ("-i".equals(args[i]) && i + 1 < args.length) {
+				iterations = Integer.parseInt(args[++i]);
+			} else if (args[i].startsWith("-")) {
+				System.err.println("usage: svgchart-bench [-r ROWS[,ROWS...]] "
+						+ "[-w WARMUPS] [-i ITERATIONS] [REGEX]");
+				System.exit(1);
+			} else {
+				filter = Pattern.compile(args[i]);
+			}
+		}
+
+		System.out.println(String.format("%-28s %10s %14s %12s %14s %12s",
+				"benchmark", "rows", "ns/op", "ops/s", "rows/s", "alloc MB/s"));
+		for (Benchmark b : all()) {
+			if (!filter.matcher(b.getName()).find()) {
+				continue;
+			}
+			for (String r : rows.split(",")) {
+				Benchmark.Result result = b.measure(
+						(int) Double.parseDouble(r.trim()), warmups,
+						iterations);
+				System.out.println(String.format(
+						"%-28s %10d %14.0f %12.2f %14.0f %12.1f",
+						result.name, result.rows, result.meanNanos, result
+								.throughput(), result.throughput()
+								* result.rows, result.allocationRate()
+								/ (1024 * 1024)));
+			}
+		}
+	}
+
+	static List<Benchmark> all() {
+		List<Benchmark> all = new ArrayList<Benchmark>();
+		all.add(new ParseBenchmark("parse.1col.fewKeys", false, true));
+		all.add(new ParseBenchmark("parse.1col.manyKeys", false, false));
+		all.add(new ParseBenchmark("parse.2col.fewKeys", true, true));
+		all.add(new ParseBenchmark("parse.2col.manyKeys", true, false));
+		all.add(new DataSetBenchmark("dataset.addPoint", false));
+		all.add(new DataSetBenchmark("dataset.columnar.addPoint", true));
+		all.add(new ChartBenchmark("bar.createChart", null, false));
+		all.add(new ChartBenchmark("bar.printChart.pretty", true, false));
+		all.add(new ChartBenchmark("bar.printChart.compact", false, false));
+		all.add(new ChartBenchmark("bar.printChart.merged", false, true));
+		return all;
+	}
+
+	/**
+	 * one- or two-column input with <em>rows</em> lines
+	 */
+	static byte[] input(int rows, boolean twoColumn, boolean fewKeys) {
+		Random random = new Random(rows);
+		int keys = fewKeys ? FEW_KEYS : Math.max(rows / 2, 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(rows * 12);
+		PrintStream ps = new PrintStream(out);
+		for (int i = 0; i < rows; i++) {
+			ps.print("key");
+			ps.print(random.nextInt(keys));
+			if (twoColumn) {
+				ps.print(' ');
+				ps.print(random.nextInt(1000));
+			}
+			ps.print('\n');
+		}
+		ps.flush();
+		return out.toByteArray();
+	}
+
+	static class ParseBenchmark extends Benchmark {
+		private final boolean twoColumn, fewKeys;
+		private byte[] input;
+
+		ParseBenchmark(String name, boolean twoColumn, boolean fewKeys) {
+			super(name);
+			this.twoColumn = twoColumn;
+			this.fewKeys = fewKeys;
+		}
+
+		@Override
+		protected Object run() throws Exception {
+			BarChartDataParser parser = new BarChartDataParser();
+			parser.parseInput(new ByteArrayInputStream(input));
+			return parser.getYData();
+		}
+
+		@Override
+		protected void setUp(int rows) {
+			input = input(rows, twoColumn, fewKeys);
+		}
+
+		@Override
+		protected void tearDown() {
+			input = null;
+		}
+	}
+
+	static class DataSetBenchmark extends Benchmark {
+		private final boolean columnar;
+		private double[] values;
+
+		DataSetBenchmark(String name, boolean columnar) {
+			super(name);
+			this.columnar = columnar;
+		}
+
+		@Override
+		protected Object run() {
+			DataSet data = columnar ? new ColumnarDataSet() : new DataSet();
+			for (int i = 0; i < values.length; i += 2) {
+				data.addPoint(values[i], values[i + 1]);
+			}
+			return data;
+		}
+
+		@Override
+		protected void setUp(int rows) {
+			Random random = new Random(rows);
+			values = new double[rows * 2];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = random.nextGaussian();
+			}
+		}
+
+		@Override
+		protected void tearDown() {
+			values = null;
+		}
+	}
+
+	/**
+	 * with indent == null, layout alone (elements are formatted, but
+	 * discarded); otherwise the full printChart(). merged charts are written
+	 * as --compact --plain-bars would write them
+	 */
+	static class ChartBenchmark extends Benchmark {
+		private final Boolean indent;
+		private final boolean merged;
+		private BarChart chart;
+
+		ChartBenchmark(String name, Boolean indent, boolean merged) {
+			super(name);
+			this.indent = indent;
+			this.merged = merged;
+		}
+
+		@Override
+		protected Object run() throws Exception {
+			if (indent == null) {
+				chart.createChart(new SVGWriter(new NullWriter(), false));
+				return chart;
+			}
+			CountingOutputStream out = new CountingOutputStream();
+			chart.printChart(out, indent);
+			return out.count;
+		}
+
+		@Override
+		protected void setUp(int rows) throws Exception {
+			chart = new BarChart();
+			if (merged) {
+				chart.setPrecision(SVGChart.COMPACT_PRECISION);
+				chart.setMergeBars(true);
+				chart.setBarClasses(false);
+			}
+			// one bar per row
+			int bars = Math.min(rows, MAX_BARS);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bars * 16);
+			PrintStream ps = new PrintStream(out);
+			Random random = new Random(rows);
+			for (int i = 0; i < bars; i++) {
+				ps.print("key" + i + " " + random.nextInt(1000) + "\n");
+			}
+			ps.flush();
+			chart.parseInput(new ByteArrayInputStream(out.toByteArray()));
+		}
+
+		@Override
+		protected void tearDown() {
+			chart = null;
+		}
+	}
+
+	static class CountingOutputStream extends OutputStream {
+		long count = 0;
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+	}
+
+	static class NullWriter extends Writer {
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+		}
+	}
+}
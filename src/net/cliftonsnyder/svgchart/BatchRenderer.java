@@ -0,0 +1,340 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.cliftonsnyder.svgchart.cache.RenderCache;
+import net.cliftonsnyder.svgchart.io.Streams;
+import net.cliftonsnyder.svgchart.output.Rasterizer;
+import net.cliftonsnyder.svgchart.parse.ParseException;
+import net.cliftonsnyder.svgchart.stats.Stats;
+
+/**
+ * renders many charts in one JVM, on a fixed-size pool of threads. jobs are
+ * read from a manifest with one job per line:
+ * 
+ * <pre>
+ * TYPE INPUT OUTPUT [WIDTH [HEIGHT [STYLESHEET]]]
+ * </pre>
+ * 
+ * fields are separated by whitespace; '-' in an optional field means "use the
+ * default". blank lines and lines starting with '#' are ignored. a job that
+ * fails is reported (and its partial output removed), and the others carry
+ * on.
+ */
+public class BatchRenderer {
+
+	/**
+	 * a single chart to render
+	 */
+	public static class Job {
+		public final int lineNumber;
+		public final String type, input, output, styleSheet;
+		public final double width, height;
+
+		public Job(int lineNumber, String type, String input, String output,
+				double width, double height, String styleSheet) {
+			this.lineNumber = lineNumber;
+			this.type = type;
+			this.input = input;
+			this.output = output;
+			this.width = width;
+			this.height = height;
+			this.styleSheet = styleSheet;
+		}
+
+		@Override
+		public String toString() {
+			return "line " + lineNumber + " (" + input + " -> " + output + ")";
+		}
+	}
+
+	/**
+	 * the outcome of a job: error is null if it succeeded
+	 */
+	public static class Result {
+		public final Job job;
+		public final Throwable error;
+		public final long millis;
+		public final Stats stats;
+
+		public Result(Job job, Throwable error, long millis, Stats stats) {
+			this.job = job;
+			this.error = error;
+			this.millis = millis;
+			this.stats = stats;
+		}
+	}
+
+	private final int threads;
+	private RenderOptions options = new RenderOptions.Builder().build();
+	private ChartRenderer renderer = new ChartRenderer();
+
+	/**
+	 * @param threads
+	 *            the number of charts to render at once
+	 */
+	public BatchRenderer(int threads) {
+		this.threads = Math.max(threads, 1);
+	}
+
+	/**
+	 * read a manifest
+	 * 
+	 * @param in
+	 *            the InputStream from which to read
+	 * @return the jobs, in manifest order
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the manifest is invalid
+	 */
+	public static List<Job> readManifest(InputStream in) throws IOException,
+			ParseException {
+		List<Job> jobs = new ArrayList<Job>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(in));
+		String line;
+		int lineNumber = 0;
+		while ((line = br.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			String[] items = line.split("\\s+");
+			if (items.length < 3 || items.length > 6) {
+				throw new ParseException("invalid job at line " + lineNumber
+						+ ": '" + line + "'");
+			}
+			try {
+				jobs.add(new Job(lineNumber, items[0], items[1], items[2],
+						field(items, 3, SVGChart.DEFAULT_WIDTH), field(items,
+								4, SVGChart.DEFAULT_HEIGHT),
+						items.length > 5 && !"-".equals(items[5]) ? items[5]
+								: SVGChart.DEFAULT_STYLESHEET));
+			} catch (NumberFormatException e) {
+				throw new ParseException("invalid width or height at line "
+						+ lineNumber + ": '" + line + "'");
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * render every job; this blocks until they have all finished
+	 * 
+	 * @param jobs
+	 *            the jobs
+	 * @return the results, in the same order as the jobs
+	 */
+	public List<Result> render(List<Job> jobs) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			for (final Job job : jobs) {
+				futures.add(pool.submit(new Callable<Result>() {
+					public Result call() {
+						long start = System.currentTimeMillis();
+						Stats stats = new Stats();
+						stats.setInput(job.input);
+						Throwable error = null;
+						try {
+							render(job, stats);
+						} catch (Exception e) {
+							error = e;
+						} catch (OutOfMemoryError e) {
+							// one huge input shouldn't take the batch down
+							error = e;
+						}
+						stats.finish();
+						return new Result(job, error, System
+								.currentTimeMillis()
+								- start, stats);
+					}
+				}));
+			}
+
+			List<Result> results = new ArrayList<Result>();
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					results.add(new Result(jobs.get(i), e.getCause(), 0,
+							Stats.DISABLED));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					results.add(new Result(jobs.get(i), e, 0, Stats.DISABLED));
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * render a single job on the calling thread
+	 * 
+	 * @param job
+	 *            the job
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void render(Job job) throws IOException, ParseException {
+		render(job, Stats.DISABLED);
+	}
+
+	/**
+	 * render a single job on the calling thread, recording its phases
+	 * 
+	 * @param job
+	 *            the job
+	 * @param stats
+	 *            where to record the phases
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void render(Job job, Stats stats) throws IOException,
+			ParseException {
+		stats.begin(Stats.Phase.ARGS);
+		File output = new File(job.output);
+		RenderOptions options = new RenderOptions.Builder(this.options)
+				.setType(job.type).setWidth(job.width)
+				.setHeight(job.height).setStyleSheet(job.styleSheet)
+				.setFormat(Rasterizer.isPNG(output) ? RenderOptions.Format.PNG
+						: RenderOptions.Format.SVG).setParallelism(1).build();
+		stats.end(Stats.Phase.ARGS);
+
+		FileSink sink = new FileSink(output);
+		try {
+			renderer.render(options, new File(job.input), sink, stats);
+			sink.finish();
+		} catch (Throwable e) {
+			sink.abort(e);
+			throw e;
+		}
+	}
+
+	public RenderOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * @param cache
+	 *            a cache to consult before rendering each job (and to store
+	 *            the results in), or null
+	 */
+	public void setCache(RenderCache cache) {
+		this.renderer = new ChartRenderer(cache);
+	}
+
+	/**
+	 * @param options
+	 *            the options every job is rendered with, but for its type,
+	 *            size and stylesheet (and the format, which the name of its
+	 *            output decides)
+	 */
+	public void setOptions(RenderOptions options) {
+		this.options = options;
+	}
+
+	private static double field(String[] items, int i, double defaultValue) {
+		if (items.length <= i || "-".equals(items[i])) {
+			return defaultValue;
+		}
+		return Double.parseDouble(items[i]);
+	}
+
+	/**
+	 * writes a job's output to a temporary file, created once its input has
+	 * been read, and moves it into place once it is complete; a job that
+	 * fails leaves any existing output as it was
+	 */
+	private static class FileSink implements ChartRenderer.Sink {
+
+		private final File file;
+		private File tmp;
+		private OutputStream out;
+
+		FileSink(File file) {
+			this.file = file;
+		}
+
+		public OutputStream open() throws IOException {
+			// in the same directory, so that it can be moved into place
+			// atomically
+			tmp = File.createTempFile(file.getName() + ".", ".tmp", file
+					.getAbsoluteFile().getParentFile());
+			out = Streams.create(tmp, Streams.isSVGZ(file));
+			return out;
+		}
+
+		/**
+		 * close the output and move it into place
+		 */
+		void finish() throws IOException {
+			// closing finishes a gzip stream, so it has to succeed too
+			out.close();
+			Streams.moveIntoPlace(tmp, file);
+		}
+
+		/**
+		 * close and delete the output after <em>e</em> stopped the job,
+		 * adding any error in closing to <em>e</em>
+		 */
+		void abort(Throwable e) {
+			try {
+				if (out != null) {
+					out.close();
+				}
+			} catch (IOException closing) {
+				e.addSuppressed(closing);
+			} finally {
+				if (tmp != null) {
+					tmp.delete();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import net.cliftonsnyder.svgchart.cache.RenderCache;
+import net.cliftonsnyder.svgchart.output.PooledWriter;
+import net.cliftonsnyder.svgchart.output.SVGWriter;
+import net.cliftonsnyder.svgchart.parse.ParseException;
+import net.cliftonsnyder.svgchart.stats.Stats;
+
+/**
+ * renders charts from RenderOptions and data, for callers that embed
+ * svgchart rather than run it. a renderer keeps no state between charts
+ * (each render() makes a chart of its own, from the options), so one
+ * instance can serve any number of threads at once; failures are thrown,
+ * never turned into an exit. SVG is written through a PooledWriter, so that
+ * renders don't each allocate a buffer of their own.
+ * 
+ * with a RenderCache, SVG output is looked up in (and stored in) the cache.
+ */
+public class ChartRenderer {
+
+	/**
+	 * where a chart is written to
+	 */
+	public interface Sink {
+
+		/**
+		 * called once the chart's data has been read, so that nothing is
+		 * written for input that turns out to be invalid
+		 * 
+		 * @return the stream to write the chart to; the renderer flushes it,
+		 *         but doesn't close it
+		 * 
+		 * @throws IOException
+		 *             if the stream can't be opened
+		 */
+		OutputStream open() throws IOException;
+	}
+
+	private final RenderCache cache;
+
+	/**
+	 * create a renderer without a cache
+	 */
+	public ChartRenderer() {
+		this(null);
+	}
+
+	/**
+	 * @param cache
+	 *            a cache to consult before rendering (and to store the
+	 *            results in), or null
+	 */
+	public ChartRenderer(RenderCache cache) {
+		this.cache = cache;
+	}
+
+	public RenderCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * render a chart of the (uncompressed) data read from <em>in</em> to
+	 * <em>out</em>, which is flushed, but not closed
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the options are invalid (see
+	 *             RenderOptions.createChart())
+	 */
+	public void render(RenderOptions options, InputStream in,
+			final OutputStream out) throws IOException, ParseException {
+		render(options, in, new Sink() {
+			public OutputStream open() {
+				return out;
+			}
+		}, Stats.DISABLED);
+	}
+
+	/**
+	 * render a chart of the (uncompressed) data read from <em>in</em> to
+	 * <em>sink</em>, recording its phases in <em>stats</em>
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the options are invalid (see
+	 *             RenderOptions.createChart())
+	 */
+	public void render(RenderOptions options, InputStream in, Sink sink,
+			Stats stats) throws IOException, ParseException {
+		SVGChart chart = options.createChart();
+		chart.setStats(stats);
+		RenderCache.Lookup lookup = null;
+		try {
+			if (!isCached(options)) {
+				chart.parseInput(in);
+			} else {
+				// on a miss, the spooled copy of the input is a regular file
+				lookup = cache.lookup(chart, options.isIndent(), in);
+				if (!lookup.isHit()) {
+					chart.parseInput(lookup.getInput(), options
+							.getParallelism());
+				}
+			}
+			write(chart, options, lookup, sink, stats);
+		} finally {
+			if (lookup != null) {
+				lookup.close();
+			}
+		}
+	}
+
+	/**
+	 * render a chart of the data in <em>input</em> (a regular file, which
+	 * may be compressed) to <em>sink</em>, recording its phases in
+	 * <em>stats</em>
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the options are invalid (see
+	 *             RenderOptions.createChart())
+	 */
+	public void render(RenderOptions options, File input, Sink sink,
+			Stats stats) throws IOException, ParseException {
+		SVGChart chart = options.createChart();
+		chart.setStats(stats);
+		RenderCache.Lookup lookup = isCached(options) ? cache.lookup(chart,
+				options.isIndent(), input) : null;
+		try {
+			if (lookup == null || !lookup.isHit()) {
+				chart.parseInput(input, options.getParallelism());
+			}
+			write(chart, options, lookup, sink, stats);
+		} finally {
+			if (lookup != null) {
+				lookup.close();
+			}
+		}
+	}
+
+	/**
+	 * @return whether charts made with <em>options</em> go through the cache,
+	 *         which holds SVG only
+	 */
+	private boolean isCached(RenderOptions options) {
+		return cache != null && options.getFormat() == RenderOptions.Format.SVG;
+	}
+
+	/**
+	 * write the chart (read unless the lookup is a hit) to the sink
+	 */
+	private static void write(SVGChart chart, RenderOptions options,
+			RenderCache.Lookup lookup, Sink sink, Stats stats)
+			throws IOException {
+		OutputStream out = stats.countOutput(sink.open());
+		if (lookup != null && lookup.isHit()) {
+			stats.begin(Stats.Phase.SERIALIZE);
+			lookup.writeTo(out);
+			out.flush();
+			stats.end(Stats.Phase.SERIALIZE);
+		} else if (options.getFormat() == RenderOptions.Format.PNG) {
+			chart.printPNG(out, options.getParallelism());
+		} else {
+			PooledWriter writer = PooledWriter.open(lookup == null ? out
+					: lookup.capture(out));
+			chart.printChart(new SVGWriter(writer, options.isIndent(), chart
+					.getPrecision()));
+			writer.close();
+			if (lookup != null) {
+				lookup.store();
+			}
+		}
+	}
+}
@@ -0,0 +1,497 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import net.cliftonsnyder.svgchart.cache.RenderCache;
+import net.cliftonsnyder.svgchart.data.CountMap;
+import net.cliftonsnyder.svgchart.data.DensityGrid;
+import net.cliftonsnyder.svgchart.io.Streams;
+import net.cliftonsnyder.svgchart.parse.ParseException;
+import net.cliftonsnyder.svgchart.parse.TimeSeriesParser;
+import net.cliftonsnyder.svgchart.stats.Stats;
+import net.cliftonsnyder.svgchart.types.HistogramChart;
+import net.cliftonsnyder.svgchart.types.LineChart;
+import net.cliftonsnyder.svgchart.types.ScatterChart;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * an HTTP server that renders charts on request. chart data is POSTed as the
+ * request body (in the same format svgchart reads from its input); options
+ * are given as query parameters:
+ * 
+ * <pre>
+ * POST /?type=bar&amp;width=400&amp;height=300&amp;stylesheet=s.css&amp;sort=value&amp;top=10
+ * </pre>
+ * 
+ * bar charts also take <em>stacked</em>=true (for three-column input), line
+ * charts <em>downsample</em> (lttb, minmax or none), and both
+ * <em>bucket</em> (a time bucket width such as 5m, to count lines of a log
+ * per bucket). <em>compact</em>=true asks for compact output, as --compact
+ * does, <em>precision</em> rounds numbers to that many decimal places, and
+ * <em>plain</em>=true gives every bar the class "bar"; histograms take
+ * <em>bins</em> and <em>binning</em> (fixed, log or quantile), scatter
+ * charts <em>density</em> (grid or hex), <em>binsize</em> and
+ * <em>maxpoints</em>; for bar charts and histograms, <em>format</em>=png
+ * draws a PNG image instead of SVG. only <em>type</em> is required. the
+ * body may be gzip (or zstd) compressed. the SVG is streamed back as it is
+ * produced, gzipped if the client sends Accept-Encoding: gzip. if the server
+ * has a RenderCache, GET /stats reports its hit and miss counts.
+ * 
+ * each request gets its own thread (a virtual thread, where the JVM has
+ * them). at most <em>maxConcurrent</em> requests are rendered at once;
+ * requests that can't get a slot within a short wait are turned away with a
+ * 503, and bodies larger than <em>maxBodySize</em> with a 413, so that load
+ * spikes are shed rather than piling up in memory.
+ */
+public class ChartServer {
+
+	public static final int DEFAULT_MAX_CONCURRENT = 4 * Runtime.getRuntime()
+			.availableProcessors();
+	public static final long DEFAULT_MAX_BODY_SIZE = 64L * 1024 * 1024;
+
+	// how long a request may wait for a rendering slot
+	private static final long QUEUE_TIMEOUT_MILLIS = 1000;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Semaphore slots;
+	private final long maxBodySize;
+	private volatile ChartRenderer renderer = new ChartRenderer();
+
+	/**
+	 * create a server (call start() to start it)
+	 * 
+	 * @param address
+	 *            the address to listen on
+	 * @param maxConcurrent
+	 *            the maximum number of charts to render at once
+	 * @param maxBodySize
+	 *            the maximum size of a request body, in bytes
+	 * 
+	 * @throws IOException
+	 *             if the server can't be bound to <em>address</em>
+	 */
+	public ChartServer(InetSocketAddress address, int maxConcurrent,
+			long maxBodySize) throws IOException {
+		this.slots = new Semaphore(Math.max(maxConcurrent, 1));
+		this.maxBodySize = maxBodySize;
+		this.executor = newThreadPerTaskExecutor();
+		this.server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					ChartServer.this.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the address the server is listening on
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/**
+	 * @param cache
+	 *            a cache to consult before rendering (and to store the
+	 *            results in), or null
+	 */
+	public void setCache(RenderCache cache) {
+		this.renderer = new ChartRenderer(cache);
+	}
+
+	/**
+	 * start accepting requests
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * stop the server, giving requests in progress up to <em>delay</em>
+	 * seconds to finish
+	 * 
+	 * @param delay
+	 *            the number of seconds to wait
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		executor.shutdown();
+	}
+
+	/**
+	 * read the rendering options from the request's query parameters
+	 * 
+	 * @return the options
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if a parameter is missing or invalid
+	 */
+	protected RenderOptions createOptions(Map<String, String> params) {
+		String type = params.get("type");
+		if (type == null) {
+			throw new IllegalArgumentException("missing parameter 'type'");
+		}
+		RenderOptions.Builder options = new RenderOptions.Builder()
+				.setType(type);
+		options.setWidth(number(params, "width", SVGChart.DEFAULT_WIDTH));
+		options.setHeight(number(params, "height", SVGChart.DEFAULT_HEIGHT));
+		if (params.containsKey("stylesheet")) {
+			options.setStyleSheet(params.get("stylesheet"));
+		}
+		options.setCompact("true".equals(params.get("compact")));
+		if (params.containsKey("precision")) {
+			// createChart() rejects anything out of range
+			options.setPrecision((int) number(params, "precision", -1));
+		}
+		if (params.containsKey("bucket")) {
+			// parseDuration() throws IllegalArgumentException itself
+			options.setTimeBucket(TimeSeriesParser.parseDuration(params
+					.get("bucket")));
+		}
+		if ("png".equals(params.get("format"))) {
+			options.setFormat(RenderOptions.Format.PNG);
+		}
+
+		// histograms
+		options.setBins((int) number(params, "bins", 0));
+		if (params.containsKey("binning")) {
+			try {
+				options.setBinning(HistogramChart.Binning.valueOf(params.get(
+						"binning").toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("invalid binning value '"
+						+ params.get("binning") + "'");
+			}
+		}
+
+		// bar charts
+		if (params.containsKey("sort")) {
+			try {
+				options.setOrder(CountMap.Order.valueOf(params.get("sort")
+						.toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("invalid sort order '"
+						+ params.get("sort") + "'");
+			}
+		}
+		options.setTop((int) number(params, "top", 0));
+		options.setStacked("true".equals(params.get("stacked")));
+		options.setBarClasses(!"true".equals(params.get("plain")));
+
+		// scatter charts
+		if (params.containsKey("density")) {
+			try {
+				options.setDensity(ScatterChart.Binning.valueOf(params.get(
+						"density").toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("invalid density value '"
+						+ params.get("density") + "'");
+			}
+		}
+		options.setBinSize(number(params, "binsize",
+				ScatterChart.DEFAULT_BIN_SIZE));
+		options.setMaxPoints((int) Math.min(Integer.MAX_VALUE, number(params,
+				"maxpoints", DensityGrid.DEFAULT_MAX_POINTS)));
+
+		// line charts
+		if (params.containsKey("downsample")) {
+			try {
+				options.setDownsampling(LineChart.Downsampling.valueOf(params
+						.get("downsample").toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("invalid downsample value '"
+						+ params.get("downsample") + "'");
+			}
+		}
+		return options.build();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		ChartRenderer renderer = this.renderer;
+		RenderCache cache = renderer.getCache();
+		if ("GET".equals(exchange.getRequestMethod())
+				&& "/stats".equals(exchange.getRequestURI().getPath())) {
+			if (cache == null) {
+				respond(exchange, 404, "no cache configured");
+			} else {
+				respond(exchange, 200, "memory hits: "
+						+ cache.getMemoryHits() + "\ndisk hits: "
+						+ cache.getDiskHits() + "\nmisses: "
+						+ cache.getMisses());
+			}
+			return;
+		}
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			exchange.getResponseHeaders().set("Allow", "POST");
+			respond(exchange, 405, "chart data must be POSTed");
+			return;
+		}
+		String length = exchange.getRequestHeaders().getFirst(
+				"Content-Length");
+		if (length != null) {
+			try {
+				if (Long.parseLong(length.trim()) > maxBodySize) {
+					respond(exchange, 413, "request body too large (limit: "
+							+ maxBodySize + " bytes)");
+					return;
+				}
+			} catch (NumberFormatException e) {
+				respond(exchange, 400, "invalid Content-Length");
+				return;
+			}
+		}
+
+		try {
+			if (!slots.tryAcquire(QUEUE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				respond(exchange, 503, "server busy");
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "server shutting down");
+			return;
+		}
+
+		Stats stats = new Stats();
+		stats.setInput(exchange.getRequestURI().toString());
+		try {
+			RenderOptions options;
+			try {
+				stats.begin(Stats.Phase.ARGS);
+				options = createOptions(query(exchange));
+				stats.end(Stats.Phase.ARGS);
+			} catch (IllegalArgumentException e) {
+				respond(exchange, 400, e.getMessage());
+				return;
+			}
+
+			// the limit applies to the decompressed body, so a small gzip
+			// bomb is turned away as well
+			InputStream body = new LimitedInputStream(Streams
+					.decompress(exchange.getRequestBody()), maxBodySize);
+			ResponseSink sink = new ResponseSink(exchange, options
+					.getFormat() == RenderOptions.Format.PNG);
+			try {
+				renderer.render(options, body, sink, stats);
+			} catch (BodyTooLargeException e) {
+				if (sink.response != null) {
+					throw e;
+				}
+				respond(exchange, 413, e.getMessage());
+				return;
+			} catch (IllegalArgumentException e) {
+				// includes a NumberFormatException from the data
+				if (sink.response != null) {
+					throw e;
+				}
+				respond(exchange, 400, e.getMessage());
+				return;
+			} catch (ParseException e) {
+				respond(exchange, 400, "error parsing input: " + e.getMessage());
+				return;
+			}
+			sink.response.close();
+		} finally {
+			slots.release();
+			stats.finish();
+		}
+	}
+
+	private static boolean acceptsGzip(HttpExchange exchange) {
+		List<String> values = exchange.getRequestHeaders().get(
+				"Accept-Encoding");
+		if (values != null) {
+			for (String value : values) {
+				for (String coding : value.split(",")) {
+					if ("gzip".equals(coding.split(";")[0].trim())) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void respond(HttpExchange exchange, int status,
+			String message) throws IOException {
+		byte[] body = (message + "\n").getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type",
+				"text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.flush();
+	}
+
+	/**
+	 * @return an executor that runs every task on a new virtual thread if the
+	 *         JVM supports them, or on a (cached) platform thread if not
+	 */
+	private static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private static double number(Map<String, String> params, String name,
+			double defaultValue) {
+		String value = params.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			double d = Double.parseDouble(value);
+			if (d >= 0 && d < Double.POSITIVE_INFINITY) {
+				return d;
+			}
+		} catch (NumberFormatException e) {
+			// fall through
+		}
+		throw new IllegalArgumentException("invalid " + name + " value '"
+				+ value + "'");
+	}
+
+	private static Map<String, String> query(HttpExchange exchange)
+			throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int eq = pair.indexOf('=');
+				String name = eq < 0 ? pair : pair.substring(0, eq);
+				String value = eq < 0 ? "" : pair.substring(eq + 1);
+				params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder
+						.decode(value, "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	private static class BodyTooLargeException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		BodyTooLargeException(long limit) {
+			super("request body too large (limit: " + limit + " bytes)");
+		}
+	}
+
+	/**
+	 * fails with a BodyTooLargeException once more than <em>limit</em> bytes
+	 * have been read (for bodies without a Content-Length)
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+
+		private final long limit;
+		private long count = 0;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.limit = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count(n);
+			}
+			return n;
+		}
+
+		private void count(long n) throws BodyTooLargeException {
+			count += n;
+			if (count > limit) {
+				throw new BodyTooLargeException(limit);
+			}
+		}
+	}
+
+	/**
+	 * sends the response headers once the request body has been read (until
+	 * then, an error can still be answered with an error status), and then
+	 * streams the chart back
+	 */
+	private static class ResponseSink implements ChartRenderer.Sink {
+
+		private final HttpExchange exchange;
+		private final boolean png;
+		OutputStream response;
+
+		ResponseSink(HttpExchange exchange, boolean png) {
+			this.exchange = exchange;
+			this.png = png;
+		}
+
+		public OutputStream open() throws IOException {
+			exchange.getResponseHeaders().set("Content-Type",
+					png ? "image/png" : "image/svg+xml; charset=UTF-8");
+			// PNG is compressed already
+			boolean gzip = !png && acceptsGzip(exchange);
+			if (gzip) {
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			exchange.sendResponseHeaders(200, 0);
+			response = gzip ? new GZIPOutputStream(exchange
+					.getResponseBody(), Streams.GZIP_BUFFER_SIZE) : exchange
+					.getResponseBody();
+			return response;
+		}
+	}
+}
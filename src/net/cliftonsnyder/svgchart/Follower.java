@@ -0,0 +1,325 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import net.cliftonsnyder.svgchart.io.Streams;
+import net.cliftonsnyder.svgchart.parse.ParseException;
+import net.cliftonsnyder.svgchart.stats.Stats;
+import net.cliftonsnyder.svgchart.types.BarChart;
+
+/**
+ * keeps a bar chart of a growing file (typically a log) up to date. the file
+ * is polled for new lines; only the bytes appended since the last poll are
+ * read, and they are added to the counts the chart keeps in memory (see
+ * BarChart.parseMore()), so the cost of a refresh depends on how much has
+ * been appended rather than on the size of the file. the chart is rendered
+ * again once the refresh interval has passed with new lines waiting, or as
+ * soon as a given number of new lines have arrived, whichever comes first.
+ * 
+ * each rendering is written to a temporary file next to the output and moved
+ * into place, so readers of the output never see a half-written chart. if the
+ * file shrinks, or is replaced (as when a log is rotated), it is read again
+ * from the start.
+ */
+public class Follower {
+
+	public static final long DEFAULT_REFRESH_MILLIS = 10000;
+
+	// the longest we wait before looking for new lines
+	private static final long POLL_MILLIS = 1000;
+
+	private final BarChart chart;
+	private final File input, output;
+	private boolean indent = true;
+	private long refreshMillis = DEFAULT_REFRESH_MILLIS;
+	private long refreshLines = 0;
+	private PrintStream statsOut;
+
+	// how far into the file has been read (always to the end of a line), and
+	// which file that is
+	private long offset = 0;
+	private Object fileKey;
+
+	/**
+	 * @param chart
+	 *            the chart, with its settings applied
+	 * @param input
+	 *            the (uncompressed) file to follow
+	 * @param output
+	 *            where to write the chart; it is gzipped if the name ends in
+	 *            Streams.SVGZ_EXTENSION
+	 */
+	public Follower(BarChart chart, File input, File output) {
+		this.chart = chart;
+		this.input = input;
+		this.output = output;
+	}
+
+	/**
+	 * read the whole file and render the chart, then follow the file until
+	 * the thread is interrupted
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void run() throws IOException, ParseException {
+		Stats stats = start();
+		poll();
+		render(stats);
+		long rendered = System.currentTimeMillis();
+		long pending = 0;
+		stats = null;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(Math.min(POLL_MILLIS, refreshMillis));
+				if (stats == null) {
+					stats = start();
+				}
+				pending += poll();
+				long now = System.currentTimeMillis();
+				if (pending > 0
+						&& (now - rendered >= refreshMillis || refreshLines > 0
+								&& pending >= refreshLines)) {
+					render(stats);
+					stats = null;
+					rendered = now;
+					pending = 0;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * read whatever complete lines have been appended to the file since the
+	 * last poll
+	 * 
+	 * @return the number of lines read
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public long poll() throws IOException, ParseException {
+		Path path = input.toPath();
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			// rotated away, and not yet replaced
+			return 0;
+		}
+		try {
+			Object key = Files.readAttributes(path, BasicFileAttributes.class)
+					.fileKey();
+			long size = channel.size();
+			if (size < offset || fileKey != null && !fileKey.equals(key)) {
+				chart.reset();
+				offset = 0;
+			}
+			fileKey = key;
+
+			long end = lineEnd(channel, offset, size);
+			if (end == offset) {
+				return 0;
+			}
+			channel.position(offset);
+			// most polls find a few lines, not megabytes
+			InputStream in = new BufferedInputStream(new RangeInputStream(
+					Channels.newInputStream(channel), end - offset),
+					(int) Math.min(end - offset, Streams.BUFFER_SIZE));
+			long lines = chart.parseMore(in);
+			offset = end;
+			return lines;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param indent
+	 *            whether to pretty-print the chart (the default)
+	 */
+	public void setIndent(boolean indent) {
+		this.indent = indent;
+	}
+
+	/**
+	 * @param refreshLines
+	 *            render the chart as soon as this many new lines have
+	 *            arrived, without waiting for the refresh interval; 0 (the
+	 *            default) always waits
+	 */
+	public void setRefreshLines(long refreshLines) {
+		this.refreshLines = refreshLines;
+	}
+
+	/**
+	 * @param refreshMillis
+	 *            the shortest time between renderings of the chart, as long
+	 *            as fewer than the refresh lines have arrived
+	 */
+	public void setRefreshMillis(long refreshMillis) {
+		this.refreshMillis = Math.max(refreshMillis, 1);
+	}
+
+	/**
+	 * @param statsOut
+	 *            where to print the phases of each refresh, as JSON, or null
+	 *            not to (the default)
+	 */
+	public void setStatsOut(PrintStream statsOut) {
+		this.statsOut = statsOut;
+	}
+
+	private void render(Stats stats) throws IOException {
+		// in the same directory, so that it can be moved into place
+		// atomically
+		File tmp = new File(output.getPath() + ".tmp");
+		OutputStream out = null;
+		try {
+			out = Streams.create(tmp, Streams.isSVGZ(output));
+			chart.printChart(stats.countOutput(out), indent);
+			// closing finishes a gzip stream, so it has to succeed too
+			out.close();
+			Streams.moveIntoPlace(tmp, output);
+		} catch (Throwable e) {
+			// report the rendering error, not whatever closing makes of it
+			try {
+				if (out != null) {
+					out.close();
+				}
+			} catch (IOException closing) {
+				e.addSuppressed(closing);
+			} finally {
+				tmp.delete();
+			}
+			throw e;
+		}
+
+		stats.finish();
+		if (statsOut != null) {
+			statsOut.println(stats.toJSON());
+		}
+	}
+
+	/**
+	 * @return fresh Stats for the next refresh, in use by the chart
+	 */
+	private Stats start() {
+		Stats stats = new Stats();
+		stats.setInput(input.getPath());
+		chart.setStats(stats);
+		return stats;
+	}
+
+	/**
+	 * @return the offset just past the last newline in [from, to), or
+	 *         <em>from</em> if there isn't one
+	 */
+	private static long lineEnd(FileChannel channel, long from, long to)
+			throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(8192);
+		long end = to;
+		while (end > from) {
+			int n = (int) Math.min(buf.capacity(), end - from);
+			long start = end - n;
+			buf.clear();
+			buf.limit(n);
+			while (buf.hasRemaining()) {
+				if (channel.read(buf, start + buf.position()) < 0) {
+					break; // truncated since we looked
+				}
+			}
+			for (int i = buf.position() - 1; i >= 0; i--) {
+				if (buf.get(i) == '\n') {
+					return start + i + 1;
+				}
+			}
+			end = start;
+		}
+		return from;
+	}
+
+	/**
+	 * the next <em>remaining</em> bytes of a stream
+	 */
+	private static class RangeInputStream extends FilterInputStream {
+
+		private long remaining;
+
+		RangeInputStream(InputStream in, long remaining) {
+			super(in);
+			this.remaining = remaining;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			int b = super.read();
+			if (b >= 0) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			int n = super.read(b, off, (int) Math.min(len, remaining));
+			if (n > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public void close() {
+			// the channel is closed by poll()
+		}
+	}
+}
@@ -20,46 +20,173 @@
  */
 package net.cliftonsnyder.svgchart;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.util.Arrays;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
 
+import net.cliftonsnyder.svgchart.cache.RenderCache;
+import net.cliftonsnyder.svgchart.data.CountMap;
+import net.cliftonsnyder.svgchart.data.DensityGrid;
+import net.cliftonsnyder.svgchart.io.Snapshot;
+import net.cliftonsnyder.svgchart.io.Streams;
+import net.cliftonsnyder.svgchart.output.DoubleFormatter;
+import net.cliftonsnyder.svgchart.output.Rasterizer;
+import net.cliftonsnyder.svgchart.parse.BarChartDataParser;
+import net.cliftonsnyder.svgchart.parse.LineChartDataParser;
+import net.cliftonsnyder.svgchart.parse.TimeSeriesParser;
+import net.cliftonsnyder.svgchart.stats.Stats;
 import net.cliftonsnyder.svgchart.types.BarChart;
+import net.cliftonsnyder.svgchart.types.HistogramChart;
+import net.cliftonsnyder.svgchart.types.LineChart;
+import net.cliftonsnyder.svgchart.types.ScatterChart;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
-import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 public class Main {
 
-	private static final String USAGE = "svgchart -t TYPE [OPTIONS]";
+	// megabytes
+	private static final long DEFAULT_CACHE_MEMORY = 64;
+	private static final long DEFAULT_CACHE_SIZE = 1024;
+
+	private static final String USAGE = "svgchart (-t TYPE | -b BATCH | "
+			+ "-p PORT | --snapshot | --merge-snapshots SNAPSHOT...) "
+			+ "[OPTIONS]";
 
 	public static void main(String[] args) {
+		Stats stats = new Stats();
+		stats.begin(Stats.Phase.ARGS);
+
 		Options options = new Options();
+		options.addOption("b", "batch", true, "render every job in manifest "
+				+ "file BATCH, one per line: TYPE INPUT OUTPUT [WIDTH [HEIGHT "
+				+ "[STYLESHEET]]]");
+		options.addOption(null, "binning", true,
+				"histogram: fixed (equal widths), log (equal widths on a "
+						+ "log scale) or quantile (equal counts) [default: "
+						+ "fixed]");
+		options.addOption(null, "bins", true,
+				"histogram: number of bins, at most "
+						+ HistogramChart.MAX_BINS + " [default: chosen from "
+						+ "the spread of the values]");
+		options.addOption(null, "bin-size", true,
+				"scatter: width of a density bin, in pixels [default: "
+						+ ScatterChart.DEFAULT_BIN_SIZE + "]");
 		options.addOption("c", "stylesheet", true, "CSS stylesheet (default: "
 				+ SVGChart.DEFAULT_STYLESHEET + ")");
+		options.addOption(null, "columnar", false,
+				"bar, histogram, line, scatter: convert the input into the "
+						+ "binary columnar form, written to the output, "
+						+ "rather than a chart; charts read columnar files "
+						+ "without parsing any text");
+		options.addOption(null, "compact", false,
+				"compact output: no indentation, numbers rounded to "
+						+ SVGChart.COMPACT_PRECISION + " decimal places (unless "
+						+ "--precision says otherwise), and bars of the same "
+						+ "class merged into one path");
+		options.addOption(null, "cache-dir", true,
+				"cache rendered charts in DIR, keyed by a hash of the input "
+						+ "and options");
+		options.addOption(null, "cache-memory", true,
+				"most megabytes of rendered charts to cache in memory "
+						+ "[default: " + DEFAULT_CACHE_MEMORY + "]");
+		options.addOption(null, "cache-size", true,
+				"most megabytes of rendered charts to cache on disk "
+						+ "[default: " + DEFAULT_CACHE_SIZE + "]");
+		options.addOption(null, "density", true,
+				"scatter: shape of the bins that points are counted into, "
+						+ "once there are too many to draw (see "
+						+ "--max-points): grid or hex [default: hex]");
+		options.addOption("d", "downsample", true,
+				"line: thin out series with more points than pixels: lttb, "
+						+ "minmax or none [default: lttb]");
+		options.addOption("f", "follow", false,
+				"bar: keep reading the input file as it grows, and render "
+						+ "the chart to the output file again as new lines "
+						+ "arrive (see --refresh)");
 		options.addOption("h", "height", true, "chart height");
+		options.addOption("z", "gzip", false, "gzip the output (implied by "
+				+ "an output file ending in " + Streams.SVGZ_EXTENSION + ")");
 		options.addOption("i", "input-file", true,
-				"input file [default: stdin]");
+				"input file, optionally gzip (or zstd) compressed [default: "
+						+ "stdin]");
+		options.addOption("j", "jobs", true,
+				"number of threads used to read an input file, or to render "
+						+ "batch jobs (0: one per processor) [default: 1]");
+		options.addOption(null, "max-points", true,
+				"scatter: most points drawn one by one; beyond that, they are "
+						+ "binned [default: "
+						+ DensityGrid.DEFAULT_MAX_POINTS + "]");
+		options.addOption(null, "memory-budget", true,
+				"bar: count every item exactly in about MB megabytes of "
+						+ "memory, spilling sorted partial counts to "
+						+ "temporary files beyond that (with --top, the top "
+						+ "N and 'other' are then exact)");
+		options.addOption(null, "merge-snapshots", false,
+				"merge the snapshots named after the options into one, "
+						+ "written to the output");
+		options.addOption("n", "top", true,
+				"bar: draw only the N most frequent items, plus an 'other' "
+						+ "bar (approximate; memory is bounded by N)");
 		options.addOption("o", "output-file", true,
 				"output file [default: stdout]");
+		options.addOption(null, "plain-bars", false,
+				"bar: give every bar the class 'bar' rather than a class of "
+						+ "its own (so that --compact can merge them)");
+		options.addOption(null, "precision", true,
+				"round numbers in the output to N decimal places (0-"
+						+ DoubleFormatter.MAX_PRECISION + ")");
+		options.addOption(null, "png", false, "bar: draw the chart as a PNG "
+				+ "image rather than SVG (implied by an output file ending in "
+				+ Rasterizer.PNG_EXTENSION + ")");
+		options.addOption("p", "port", true, "serve charts over HTTP on PORT "
+				+ "(POST the data; pass options as query parameters)");
+		options.addOption(null, "max-body", true,
+				"server: largest request body accepted, in bytes [default: "
+						+ ChartServer.DEFAULT_MAX_BODY_SIZE + "]");
+		options.addOption(null, "max-requests", true,
+				"server: most charts rendered at once [default: "
+						+ ChartServer.DEFAULT_MAX_CONCURRENT + "]");
+		options.addOption(null, "refresh", true,
+				"follow: render the chart at most once per DURATION (e.g. 5s, "
+						+ "1m) [default: "
+						+ (Follower.DEFAULT_REFRESH_MILLIS / 1000) + "s]");
+		options.addOption(null, "refresh-lines", true,
+				"follow: render the chart as soon as N new lines have "
+						+ "arrived, without waiting for --refresh");
+		options.addOption("s", "sort", true,
+				"bar order: input, name or value [default: input]");
+		options.addOption(null, "snapshot", false,
+				"write the counts of one- or two-column input to the output "
+						+ "as a binary snapshot, rather than a chart; "
+						+ "snapshots can be merged, and read as the input "
+						+ "of a bar chart");
+		options.addOption(null, "stacked", false,
+				"bar: stack the series of three-column (x, name, count) input "
+						+ "instead of drawing them side by side");
+		options.addOption(null, "stats", false,
+				"print the time taken and memory allocated by each phase, "
+						+ "as JSON, to stderr");
 		options.addOption("w", "width", true, "chart width");
 		options.addOption("?", "help", false, "print a brief help message");
 
-		Option type = new Option("t", "type", true, "chart type "
-				+ Arrays.toString(SVGChart.TYPES));
-		type.setRequired(true);
-		options.addOption(type);
+		options.addOption("T", "time-bucket", true,
+				"bar, line: count lines per time bucket of WIDTH (e.g. 30s, 5m, "
+						+ "1h, 1d), by the first timestamp on each line "
+						+ "(ISO-8601, [CLF] or epoch seconds/millis)");
+
+		options.addOption("t", "type", true, "chart type "
+				+ Arrays.toString(SVGChart.TYPES) + " (required)");
 
 		CommandLineParser parser = new GnuParser();
 		HelpFormatter formatter = new HelpFormatter();
@@ -79,34 +206,149 @@ public class Main {
 			System.exit(1);
 		}
 
-		SVGChart chart = null;
-		String tmp = line.getOptionValue("type");
-		Matcher m = null;
-		for (Pattern p : SVGChart.TYPE_PATTERNS) {
-			if ((m = p.matcher(tmp)).matches()) {
-				switch (m.group().charAt(0)) {
-				case 'l':
-					// DEBUG
-					System.err.println("line");
-					break;
-				case 'b':
-					System.err.println("bar");
-					chart = new BarChart();
-					break;
-				case 'p':
-					System.err.println("pie");
-					break;
-				default:
-					System.err.println("unknown or unimplemented chart type: '"
+		int jobs = parseCount(line, "jobs", 1);
+		if (jobs == 0) {
+			jobs = Runtime.getRuntime().availableProcessors();
+		}
+		int top = parseCount(line, "top", 0);
+		long memoryBudget = parseCount(line, "memory-budget", 0L) << 20;
+		String tmp = line.getOptionValue("sort", "input");
+		CountMap.Order order = null;
+		try {
+			order = CountMap.Order.valueOf(tmp.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err
+					.println("unable to parse command line: invalid sort order '"
 							+ tmp + "'");
-					System.exit(1);
-				}
+			System.exit(1);
+		}
+
+		tmp = line.getOptionValue("downsample", "lttb");
+		LineChart.Downsampling downsampling = null;
+		try {
+			downsampling = LineChart.Downsampling.valueOf(tmp.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("unable to parse command line: "
+					+ "invalid downsample value '" + tmp + "'");
+			System.exit(1);
+		}
+
+		int bins = parseCount(line, "bins", 0);
+		if (bins > HistogramChart.MAX_BINS) {
+			System.err.println("unable to parse command line: "
+					+ "invalid bins value '" + line.getOptionValue("bins")
+					+ "'");
+			System.exit(1);
+		}
+		tmp = line.getOptionValue("binning", "fixed");
+		HistogramChart.Binning binning = null;
+		try {
+			binning = HistogramChart.Binning.valueOf(tmp.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("unable to parse command line: "
+					+ "invalid binning value '" + tmp + "'");
+			System.exit(1);
+		}
+
+		tmp = line.getOptionValue("density", "hex");
+		ScatterChart.Binning density = null;
+		try {
+			density = ScatterChart.Binning.valueOf(tmp.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("unable to parse command line: "
+					+ "invalid density value '" + tmp + "'");
+			System.exit(1);
+		}
+		double binSize = ScatterChart.DEFAULT_BIN_SIZE;
+		if (line.hasOption("bin-size")) {
+			tmp = line.getOptionValue("bin-size");
+			try {
+				binSize = Double.parseDouble(tmp);
+			} catch (NumberFormatException e) {
+				binSize = 0;
+			}
+			if (!(binSize >= 1)) {
+				System.err.println("unable to parse command line: "
+						+ "invalid bin-size value '" + tmp + "'");
+				System.exit(1);
+			}
+		}
+		int maxPoints = parseCount(line, "max-points",
+				DensityGrid.DEFAULT_MAX_POINTS);
+
+		long timeBucket = 0;
+		if (line.hasOption("time-bucket")) {
+			try {
+				timeBucket = TimeSeriesParser.parseDuration(line
+						.getOptionValue("time-bucket"));
+			} catch (IllegalArgumentException e) {
+				System.err.println("unable to parse command line: "
+						+ "invalid time-bucket value '"
+						+ line.getOptionValue("time-bucket") + "'");
+				System.exit(1);
 			}
 		}
 
+		boolean compact = line.hasOption("compact");
+		int precision = -1;
+		if (line.hasOption("precision")) {
+			tmp = line.getOptionValue("precision");
+			try {
+				precision = Integer.parseInt(tmp);
+			} catch (NumberFormatException e) {
+				precision = -1;
+			}
+			if (precision < 0 || precision > DoubleFormatter.MAX_PRECISION) {
+				System.err.println("unable to parse command line: "
+						+ "invalid precision value '" + tmp + "'");
+				System.exit(1);
+			}
+		}
+
+		RenderOptions.Builder builder = new RenderOptions.Builder()
+				.setOrder(order).setTop(top).setMemoryBudget(memoryBudget)
+				.setStacked(line.hasOption("stacked"))
+				.setBarClasses(!line.hasOption("plain-bars"))
+				.setDownsampling(downsampling).setBins(bins)
+				.setBinning(binning).setDensity(density).setBinSize(binSize)
+				.setMaxPoints(maxPoints).setTimeBucket(timeBucket)
+				.setCompact(compact).setPrecision(precision)
+				.setParallelism(jobs);
+
+		RenderCache cache = createCache(line);
+
+		if (line.hasOption("batch")) {
+			System.exit(batch(line.getOptionValue("batch"), jobs, builder
+					.build(), cache, line.hasOption("stats")));
+		}
+
+		if (line.hasOption("merge-snapshots")) {
+			System.exit(mergeSnapshots(line.getArgs(), line));
+		}
+
+		if (line.hasOption("snapshot")) {
+			System.exit(snapshot(line, jobs, memoryBudget));
+		}
+
+		if (line.hasOption("port")) {
+			serve(parseCount(line, "port", 0), parseCount(line,
+					"max-requests", ChartServer.DEFAULT_MAX_CONCURRENT),
+					parseCount(line, "max-body",
+							ChartServer.DEFAULT_MAX_BODY_SIZE), cache);
+			return;
+		}
+
+		if (!line.hasOption("type")) {
+			System.err.println("unable to parse command line: "
+					+ "Missing required option: t");
+			formatter.printHelp(USAGE, options);
+			System.exit(1);
+		}
+		builder.setType(line.getOptionValue("type"));
+
 		try {
-			chart.setWidth(Double.parseDouble(line.getOptionValue("width", ""
-					+ SVGChart.DEFAULT_WIDTH)));
+			builder.setWidth(Double.parseDouble(line.getOptionValue("width",
+					"" + SVGChart.DEFAULT_WIDTH)));
 		} catch (NumberFormatException e) {
 			System.err
 					.println("unable to parse command line: invalid width value '"
@@ -115,8 +357,8 @@ public class Main {
 		}
 
 		try {
-			chart.setHeight(Double.parseDouble(line.getOptionValue("height", ""
-					+ SVGChart.DEFAULT_HEIGHT)));
+			builder.setHeight(Double.parseDouble(line.getOptionValue(
+					"height", "" + SVGChart.DEFAULT_HEIGHT)));
 		} catch (NumberFormatException e) {
 			System.err
 					.println("unable to parse command line: invalid height value '"
@@ -124,10 +366,33 @@ public class Main {
 			System.exit(1);
 		}
 
+		builder.setStyleSheet(line.getOptionValue("stylesheet",
+				SVGChart.DEFAULT_STYLESHEET));
+
+		RenderOptions renderOptions = builder.build();
+		SVGChart chart = null;
+		try {
+			chart = renderOptions.createChart();
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+
+		if (line.hasOption("columnar")) {
+			System.exit(columnar(chart, line));
+		}
+
+		if (line.hasOption("follow")) {
+			System.exit(follow(chart, line, !compact));
+		}
+
 		InputStream in = System.in;
+		File inputFile = null;
 		tmp = line.getOptionValue("input-file", "-");
 		if ("-".equals(tmp)) {
 			in = System.in;
+		} else if (new File(tmp).isFile()) {
+			inputFile = new File(tmp);
 		} else {
 			try {
 				in = new FileInputStream(tmp);
@@ -137,38 +402,418 @@ public class Main {
 			}
 		}
 
-		PrintStream out = System.out;
 		tmp = line.getOptionValue("output-file", "-");
-		if ("-".equals(tmp)) {
-			out = System.out;
-		} else {
+		boolean png = line.hasOption("png")
+				|| (!"-".equals(tmp) && Rasterizer.isPNG(new File(tmp)));
+		if (png) {
+			renderOptions = builder.setFormat(RenderOptions.Format.PNG)
+					.build();
+		}
+		// PNG is compressed already
+		OutputSink sink = new OutputSink(tmp, !png
+				&& (line.hasOption("gzip") || !"-".equals(tmp)
+						&& Streams.isSVGZ(new File(tmp))));
+
+		stats.setInput(line.getOptionValue("input-file", "-"));
+		stats.end(Stats.Phase.ARGS);
+
+		ChartRenderer renderer = new ChartRenderer(cache);
+		try {
+			if (inputFile != null) {
+				renderer.render(renderOptions, inputFile, sink, stats);
+			} else {
+				renderer.render(renderOptions, Streams.decompress(in), sink,
+						stats);
+			}
+			sink.out.close();
+		} catch (IOException e) {
+			if (sink.out == null) {
+				System.err.println("I/O error while reading input"
+						+ (e.getMessage() != null ? ": " + e.getMessage()
+								: ""));
+			} else {
+				System.err.println("error serializing output");
+			}
+			System.exit(1);
+		} catch (net.cliftonsnyder.svgchart.parse.ParseException e) {
+			System.err.println("error parsing input: " + e.getMessage());
+			System.exit(1);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} catch (UnsupportedOperationException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+
+		stats.finish();
+		if (line.hasOption("stats")) {
+			System.err.println(stats.toJSON());
+		}
+	}
+
+	/**
+	 * render every job in a batch manifest
+	 * 
+	 * @return the exit status: 0 if every job succeeded, 1 otherwise
+	 */
+	private static int batch(String manifest, int threads,
+			RenderOptions options, RenderCache cache, boolean printStats) {
+		List<BatchRenderer.Job> jobs = null;
+		try {
+			InputStream in = "-".equals(manifest) ? System.in
+					: new FileInputStream(manifest);
 			try {
-				out = new PrintStream(new FileOutputStream(tmp));
-			} catch (FileNotFoundException e) {
-				System.err.println("output file not found: '" + tmp + "'");
-				System.exit(1);
+				jobs = BatchRenderer.readManifest(in);
+			} finally {
+				in.close();
 			}
+		} catch (FileNotFoundException e) {
+			System.err.println("manifest file not found: '" + manifest + "'");
+			return 1;
+		} catch (IOException e) {
+			System.err.println("I/O error while reading manifest");
+			return 1;
+		} catch (net.cliftonsnyder.svgchart.parse.ParseException e) {
+			System.err.println("error parsing manifest: " + e.getMessage());
+			return 1;
 		}
 
-		tmp = line.getOptionValue("stylesheet", SVGChart.DEFAULT_STYLESHEET);
-		chart.setStyleSheet(tmp);
+		BatchRenderer renderer = new BatchRenderer(threads);
+		renderer.setOptions(options);
+		renderer.setCache(cache);
+		int failed = 0;
+		for (BatchRenderer.Result result : renderer.render(jobs)) {
+			if (result.error != null) {
+				failed++;
+				System.err.println("FAILED " + result.job + ": "
+						+ describe(result.error));
+			} else if (printStats) {
+				System.err.println(result.stats.toJSON());
+			}
+		}
+		System.err.println((jobs.size() - failed) + " of " + jobs.size()
+				+ " charts rendered");
+		if (cache != null) {
+			System.err.println("cache " + cache);
+		}
+		return failed == 0 ? 0 : 1;
+	}
 
+	/**
+	 * @return the cache asked for on the command line, or null
+	 */
+	private static RenderCache createCache(CommandLine line) {
+		if (!line.hasOption("cache-dir") && !line.hasOption("cache-memory")) {
+			return null;
+		}
+		File directory = null;
+		if (line.hasOption("cache-dir")) {
+			directory = new File(line.getOptionValue("cache-dir"));
+		}
+		long memory = parseCount(line, "cache-memory", DEFAULT_CACHE_MEMORY);
+		long disk = parseCount(line, "cache-size", DEFAULT_CACHE_SIZE);
 		try {
-			chart.parseInput(in);
+			return new RenderCache(memory << 20, directory, disk << 20);
 		} catch (IOException e) {
-			System.err.println("I/O error while reading input");
+			System.err.println(e.getMessage());
 			System.exit(1);
+			return null;
+		}
+	}
+
+	private static String describe(Throwable t) {
+		if (t instanceof FileNotFoundException) {
+			return "file not found: " + t.getMessage();
+		} else if (t instanceof net.cliftonsnyder.svgchart.parse.ParseException) {
+			return "error parsing input: " + t.getMessage();
+		} else if (t.getMessage() != null) {
+			return t.getMessage();
+		}
+		return t.toString();
+	}
+
+	/**
+	 * parse a non-negative integer option, exiting with an error message if
+	 * it is invalid
+	 */
+	private static int parseCount(CommandLine line, String option,
+			int defaultValue) {
+		long n = parseCount(line, option, (long) defaultValue);
+		if (n > Integer.MAX_VALUE) {
+			System.err.println("unable to parse command line: invalid "
+					+ option + " value '" + line.getOptionValue(option) + "'");
+			System.exit(1);
+		}
+		return (int) n;
+	}
+
+	private static long parseCount(CommandLine line, String option,
+			long defaultValue) {
+		String value = line.getOptionValue(option, "" + defaultValue);
+		try {
+			long n = Long.parseLong(value);
+			if (n >= 0) {
+				return n;
+			}
+		} catch (NumberFormatException e) {
+			// fall through
+		}
+		System.err.println("unable to parse command line: invalid " + option
+				+ " value '" + value + "'");
+		System.exit(1);
+		return defaultValue;
+	}
+
+	/**
+	 * write the merge of <em>files</em> to the output
+	 * 
+	 * @return the exit status
+	 */
+	private static int mergeSnapshots(String[] files, CommandLine line) {
+		if (files.length == 0) {
+			System.err.println("unable to parse command line: "
+					+ "no snapshots to merge");
+			return 1;
+		}
+		Snapshot merged = new Snapshot();
+		for (String file : files) {
+			if (!new File(file).isFile()) {
+				System.err.println("snapshot file not found: '" + file + "'");
+				return 1;
+			}
+			try {
+				merged.merge(Snapshot.read(new File(file)));
+			} catch (IOException e) {
+				System.err.println("unable to read snapshot: "
+						+ e.getMessage());
+				return 1;
+			}
+		}
+		return writeSnapshot(merged, line);
+	}
+
+	/**
+	 * write a snapshot of the input to the output
+	 * 
+	 * @return the exit status
+	 */
+	private static int snapshot(CommandLine line, int jobs,
+			long memoryBudget) {
+		String input = line.getOptionValue("input-file", "-");
+		BarChartDataParser parser = new BarChartDataParser();
+		parser.setMemoryBudget(memoryBudget);
+		try {
+			if ("-".equals(input)) {
+				parser.parseInput(Streams.decompress(System.in));
+			} else if (new File(input).isFile()) {
+				parser.parseInput(new File(input), jobs);
+			} else {
+				System.err.println("input file not found: '" + input + "'");
+				return 1;
+			}
+			return writeSnapshot(parser.toSnapshot(), line);
+		} catch (IOException e) {
+			System.err.println("I/O error while reading input"
+					+ (e.getMessage() != null ? ": " + e.getMessage() : ""));
 		} catch (net.cliftonsnyder.svgchart.parse.ParseException e) {
 			System.err.println("error parsing input: " + e.getMessage());
+		} catch (IllegalStateException e) {
+			System.err.println(e.getMessage());
 		}
+		return 1;
+	}
 
-		chart.createChart();
+	private static int writeSnapshot(Snapshot snapshot, CommandLine line) {
+		String output = line.getOptionValue("output-file", "-");
+		try {
+			OutputStream out = "-".equals(output) ? Streams.stdout(line
+					.hasOption("gzip")) : Streams.create(new File(output), line
+					.hasOption("gzip"));
+			try {
+				snapshot.write(out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			System.err.println("unable to write snapshot to '" + output + "'"
+					+ (e.getMessage() != null ? ": " + e.getMessage() : ""));
+			return 1;
+		}
+		return 0;
+	}
 
+	/**
+	 * convert the text input into a columnar file, written to the output
+	 * 
+	 * @return the exit status
+	 */
+	private static int columnar(SVGChart chart, CommandLine line) {
+		if ((!(chart instanceof BarChart) && !(chart instanceof LineChart)
+				&& !(chart instanceof ScatterChart))
+				|| chart.getTimeBucket() > 0) {
+			System.err.println("only bar, histogram, line and scatter charts "
+					+ "(without time buckets) can convert their input");
+			return 1;
+		}
+		String input = line.getOptionValue("input-file", "-");
+		String output = line.getOptionValue("output-file", "-");
+		InputStream in = null;
+		OutputStream out = null;
 		try {
-			chart.printChart(out, true);
+			if ("-".equals(input)) {
+				in = Streams.decompress(System.in);
+			} else if (new File(input).isFile()) {
+				in = Streams.open(new File(input));
+			} else {
+				System.err.println("input file not found: '" + input + "'");
+				return 1;
+			}
+			out = "-".equals(output) ? Streams.stdout(line.hasOption("gzip"))
+					: Streams.create(new File(output), line.hasOption("gzip"));
+			if (chart instanceof BarChart && !(chart instanceof HistogramChart)) {
+				BarChartDataParser.export(in, out);
+			} else {
+				LineChartDataParser.export(in, out);
+			}
+			out.close();
+			return 0;
+		} catch (IOException e) {
+			System.err.println("I/O error while converting input"
+					+ (e.getMessage() != null ? ": " + e.getMessage() : ""));
+		} catch (net.cliftonsnyder.svgchart.parse.ParseException e) {
+			System.err.println("error parsing input: " + e.getMessage());
+		} catch (NumberFormatException e) {
+			System.err.println("error parsing input: " + e.getMessage());
+		} finally {
+			try {
+				if (in != null) {
+					in.close();
+				}
+			} catch (IOException e) {
+				// nothing more to be done
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * follow the input file until the JVM is shut down
+	 * 
+	 * @return the exit status, should following fail
+	 */
+	private static int follow(SVGChart chart, CommandLine line,
+			boolean indent) {
+		String input = line.getOptionValue("input-file", "-");
+		String output = line.getOptionValue("output-file", "-");
+		if (!(chart instanceof BarChart) || chart.getTimeBucket() > 0) {
+			System.err.println("only bar charts (without time buckets) can "
+					+ "follow their input");
+			return 1;
+		}
+		if ("-".equals(input) || "-".equals(output)) {
+			System.err.println("following needs an input file and an output "
+					+ "file");
+			return 1;
+		}
+
+		long refresh = Follower.DEFAULT_REFRESH_MILLIS;
+		if (line.hasOption("refresh")) {
+			try {
+				refresh = TimeSeriesParser.parseDuration(line
+						.getOptionValue("refresh"));
+			} catch (IllegalArgumentException e) {
+				System.err.println("unable to parse command line: "
+						+ "invalid refresh value '"
+						+ line.getOptionValue("refresh") + "'");
+				return 1;
+			}
+		}
+
+		File file = new File(input);
+		try {
+			if (Streams.isCompressed(file)) {
+				System.err.println("a compressed file can't be followed: '"
+						+ input + "'");
+				return 1;
+			}
+		} catch (IOException e) {
+			System.err.println("input file not found: '" + input + "'");
+			return 1;
+		}
+
+		Follower follower = new Follower((BarChart) chart, file, new File(
+				output));
+		follower.setIndent(indent);
+		follower.setRefreshMillis(refresh);
+		follower.setRefreshLines(parseCount(line, "refresh-lines", 0L));
+		if (line.hasOption("stats")) {
+			follower.setStatsOut(System.err);
+		}
+		try {
+			follower.run();
+		} catch (IOException e) {
+			System.err.println("I/O error while following '" + input + "'"
+					+ (e.getMessage() != null ? ": " + e.getMessage() : ""));
+			return 1;
+		} catch (net.cliftonsnyder.svgchart.parse.ParseException e) {
+			System.err.println("error parsing input: " + e.getMessage());
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * run the chart server until the JVM is shut down
+	 */
+	private static void serve(int port, int maxConcurrent, long maxBodySize,
+			RenderCache cache) {
+		final ChartServer server;
+		try {
+			server = new ChartServer(new InetSocketAddress(port),
+					maxConcurrent, maxBodySize);
 		} catch (IOException e) {
-			System.err.println("error serializing output");
+			System.err.println("unable to listen on port " + port + ": "
+					+ e.getMessage());
 			System.exit(1);
+			return;
+		}
+		server.setCache(cache);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				server.stop(1);
+			}
+		});
+		server.start();
+		System.err.println("listening on port "
+				+ server.getAddress().getPort());
+	}
+
+	/**
+	 * opens the output file (or stdout), once the input has been read
+	 */
+	private static class OutputSink implements ChartRenderer.Sink {
+
+		private final String name;
+		private final boolean gzip;
+		OutputStream out;
+
+		OutputSink(String name, boolean gzip) {
+			this.name = name;
+			this.gzip = gzip;
+		}
+
+		public OutputStream open() {
+			try {
+				out = "-".equals(name) ? Streams.stdout(gzip) : Streams
+						.create(new File(name), gzip);
+			} catch (IOException e) {
+				System.err.println("unable to open output file: '" + name
+						+ "'");
+				System.exit(1);
+			}
+			return out;
 		}
 	}
 }
@@ -0,0 +1,512 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart;
+
+import net.cliftonsnyder.svgchart.data.CountMap;
+import net.cliftonsnyder.svgchart.data.DensityGrid;
+import net.cliftonsnyder.svgchart.types.BarChart;
+import net.cliftonsnyder.svgchart.types.HistogramChart;
+import net.cliftonsnyder.svgchart.types.LineChart;
+import net.cliftonsnyder.svgchart.types.ScatterChart;
+
+/**
+ * everything that decides how a chart is rendered apart from its data: the
+ * chart type, size and stylesheet, the output format, and the settings of
+ * each chart type (those that don't apply to the type being rendered are
+ * ignored). options are immutable, so a single instance can be shared by any
+ * number of threads; they are made by a Builder, which starts out with the
+ * same defaults as the command line. createChart() turns them into a chart,
+ * ready to read its data.
+ */
+public final class RenderOptions {
+
+	/**
+	 * what a chart is rendered as
+	 */
+	public enum Format {
+		SVG, PNG
+	}
+
+	/**
+	 * the largest width or height of a chart
+	 */
+	public static final int MAX_SIZE = 100000;
+
+	/**
+	 * the most pixels in a PNG chart (4096 x 4096, 64 MB as ARGB), which is
+	 * drawn into an image held in memory
+	 */
+	public static final long MAX_PNG_PIXELS = 1L << 24;
+
+	/**
+	 * makes RenderOptions; each setter returns the builder itself
+	 */
+	public static class Builder {
+
+		private String type;
+		private double width = SVGChart.DEFAULT_WIDTH;
+		private double height = SVGChart.DEFAULT_HEIGHT;
+		private String styleSheet = SVGChart.DEFAULT_STYLESHEET;
+		private Format format = Format.SVG;
+		private boolean compact = false;
+		private int precision = -1;
+		private long timeBucket = 0;
+		private int parallelism = 1;
+		private CountMap.Order order = CountMap.Order.INPUT;
+		private int top = 0;
+		private long memoryBudget = 0;
+		private boolean stacked = false;
+		private boolean barClasses = true;
+		private LineChart.Downsampling downsampling = LineChart.Downsampling.LTTB;
+		private int bins = 0;
+		private HistogramChart.Binning binning = HistogramChart.Binning.FIXED;
+		private ScatterChart.Binning density = ScatterChart.Binning.HEX;
+		private double binSize = ScatterChart.DEFAULT_BIN_SIZE;
+		private int maxPoints = DensityGrid.DEFAULT_MAX_POINTS;
+
+		/**
+		 * start from the defaults
+		 */
+		public Builder() {
+		}
+
+		/**
+		 * start from <em>options</em>
+		 * 
+		 * @param options
+		 *            the options to copy
+		 */
+		public Builder(RenderOptions options) {
+			type = options.type;
+			width = options.width;
+			height = options.height;
+			styleSheet = options.styleSheet;
+			format = options.format;
+			compact = options.compact;
+			precision = options.precision;
+			timeBucket = options.timeBucket;
+			parallelism = options.parallelism;
+			order = options.order;
+			top = options.top;
+			memoryBudget = options.memoryBudget;
+			stacked = options.stacked;
+			barClasses = options.barClasses;
+			downsampling = options.downsampling;
+			bins = options.bins;
+			binning = options.binning;
+			density = options.density;
+			binSize = options.binSize;
+			maxPoints = options.maxPoints;
+		}
+
+		public RenderOptions build() {
+			return new RenderOptions(this);
+		}
+
+		/**
+		 * @see BarChart#setBarClasses(boolean)
+		 */
+		public Builder setBarClasses(boolean barClasses) {
+			this.barClasses = barClasses;
+			return this;
+		}
+
+		/**
+		 * @see HistogramChart#setBinning(HistogramChart.Binning)
+		 */
+		public Builder setBinning(HistogramChart.Binning binning) {
+			this.binning = binning;
+			return this;
+		}
+
+		/**
+		 * @see HistogramChart#setBins(int)
+		 */
+		public Builder setBins(int bins) {
+			this.bins = bins;
+			return this;
+		}
+
+		/**
+		 * @see ScatterChart#setBinSize(double)
+		 */
+		public Builder setBinSize(double binSize) {
+			this.binSize = binSize;
+			return this;
+		}
+
+		/**
+		 * write the SVG without indentation, round its numbers to
+		 * SVGChart.COMPACT_PRECISION decimal places (unless setPrecision()
+		 * says otherwise), and merge the bars of bar charts and histograms
+		 * (see BarChart.setMergeBars())
+		 */
+		public Builder setCompact(boolean compact) {
+			this.compact = compact;
+			return this;
+		}
+
+		/**
+		 * @see ScatterChart#setBinning(ScatterChart.Binning)
+		 */
+		public Builder setDensity(ScatterChart.Binning density) {
+			this.density = density;
+			return this;
+		}
+
+		/**
+		 * @see LineChart#setDownsampling(LineChart.Downsampling)
+		 */
+		public Builder setDownsampling(LineChart.Downsampling downsampling) {
+			this.downsampling = downsampling;
+			return this;
+		}
+
+		/**
+		 * render the chart as SVG (the default) or, for bar charts and
+		 * histograms, as a PNG image
+		 */
+		public Builder setFormat(Format format) {
+			this.format = format;
+			return this;
+		}
+
+		public Builder setHeight(double height) {
+			this.height = height;
+			return this;
+		}
+
+		/**
+		 * @see ScatterChart#setMaxPoints(int)
+		 */
+		public Builder setMaxPoints(int maxPoints) {
+			this.maxPoints = maxPoints;
+			return this;
+		}
+
+		/**
+		 * @see BarChart#setMemoryBudget(long)
+		 */
+		public Builder setMemoryBudget(long memoryBudget) {
+			this.memoryBudget = memoryBudget;
+			return this;
+		}
+
+		/**
+		 * @see BarChart#setOrder(CountMap.Order)
+		 */
+		public Builder setOrder(CountMap.Order order) {
+			this.order = order;
+			return this;
+		}
+
+		/**
+		 * use up to <em>parallelism</em> threads to read an input file (see
+		 * SVGChart.parseInput(File, int)) and to draw a PNG image (default:
+		 * 1)
+		 */
+		public Builder setParallelism(int parallelism) {
+			this.parallelism = Math.max(parallelism, 1);
+			return this;
+		}
+
+		/**
+		 * round numbers to <em>precision</em> decimal places, or (given -1,
+		 * the default) to the chart's own precision
+		 * 
+		 * @see SVGChart#setPrecision(int)
+		 */
+		public Builder setPrecision(int precision) {
+			this.precision = precision;
+			return this;
+		}
+
+		/**
+		 * @see BarChart#setStacked(boolean)
+		 */
+		public Builder setStacked(boolean stacked) {
+			this.stacked = stacked;
+			return this;
+		}
+
+		public Builder setStyleSheet(String styleSheet) {
+			this.styleSheet = styleSheet;
+			return this;
+		}
+
+		/**
+		 * @see SVGChart#setTimeBucket(long)
+		 */
+		public Builder setTimeBucket(long timeBucket) {
+			this.timeBucket = timeBucket;
+			return this;
+		}
+
+		/**
+		 * @see BarChart#setTop(int)
+		 */
+		public Builder setTop(int top) {
+			this.top = top;
+			return this;
+		}
+
+		/**
+		 * @param type
+		 *            a chart type matching one of SVGChart.TYPE_PATTERNS
+		 */
+		public Builder setType(String type) {
+			this.type = type;
+			return this;
+		}
+
+		public Builder setWidth(double width) {
+			this.width = width;
+			return this;
+		}
+	}
+
+	private final String type;
+	private final double width;
+	private final double height;
+	private final String styleSheet;
+	private final Format format;
+	private final boolean compact;
+	private final int precision;
+	private final long timeBucket;
+	private final int parallelism;
+	private final CountMap.Order order;
+	private final int top;
+	private final long memoryBudget;
+	private final boolean stacked;
+	private final boolean barClasses;
+	private final LineChart.Downsampling downsampling;
+	private final int bins;
+	private final HistogramChart.Binning binning;
+	private final ScatterChart.Binning density;
+	private final double binSize;
+	private final int maxPoints;
+
+	private RenderOptions(Builder builder) {
+		type = builder.type;
+		width = builder.width;
+		height = builder.height;
+		styleSheet = builder.styleSheet;
+		format = builder.format;
+		compact = builder.compact;
+		precision = builder.precision;
+		timeBucket = builder.timeBucket;
+		parallelism = builder.parallelism;
+		order = builder.order;
+		top = builder.top;
+		memoryBudget = builder.memoryBudget;
+		stacked = builder.stacked;
+		barClasses = builder.barClasses;
+		downsampling = builder.downsampling;
+		bins = builder.bins;
+		binning = builder.binning;
+		density = builder.density;
+		binSize = builder.binSize;
+		maxPoints = builder.maxPoints;
+	}
+
+	/**
+	 * @return a new chart of the options' type, configured by them
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the type is missing or unknown, the size is out of
+	 *             bounds, or an option is invalid for the type
+	 */
+	public SVGChart createChart() {
+		if (type == null) {
+			throw new IllegalArgumentException("missing chart type");
+		}
+		SVGChart chart = SVGChart.newInstance(type);
+		if (chart == null) {
+			throw new IllegalArgumentException(
+					"unknown or unimplemented chart type: '" + type + "'");
+		}
+		// checked before anything is read or drawn: the size decides how
+		// much memory a PNG needs
+		if (!(width > 0 && width <= MAX_SIZE)) {
+			throw new IllegalArgumentException("invalid width " + width
+					+ " (must be more than 0, and at most " + MAX_SIZE + ")");
+		}
+		if (!(height > 0 && height <= MAX_SIZE)) {
+			throw new IllegalArgumentException("invalid height " + height
+					+ " (must be more than 0, and at most " + MAX_SIZE + ")");
+		}
+		if (format == Format.PNG
+				&& Math.ceil(width) * Math.ceil(height) > MAX_PNG_PIXELS) {
+			throw new IllegalArgumentException("PNG charts are limited to "
+					+ MAX_PNG_PIXELS + " pixels, not " + width + " x "
+					+ height);
+		}
+		if (chart instanceof HistogramChart) {
+			((HistogramChart) chart).setBins(bins);
+			((HistogramChart) chart).setBinning(binning);
+			((HistogramChart) chart).setMergeBars(compact);
+		} else if (chart instanceof BarChart) {
+			((BarChart) chart).setOrder(order);
+			((BarChart) chart).setTop(top);
+			((BarChart) chart).setMemoryBudget(memoryBudget);
+			((BarChart) chart).setStacked(stacked);
+			((BarChart) chart).setMergeBars(compact);
+			((BarChart) chart).setBarClasses(barClasses);
+		} else if (chart instanceof LineChart) {
+			((LineChart) chart).setDownsampling(downsampling);
+		} else if (chart instanceof ScatterChart) {
+			((ScatterChart) chart).setBinning(density);
+			((ScatterChart) chart).setBinSize(binSize);
+			((ScatterChart) chart).setMaxPoints(maxPoints);
+		}
+		if (timeBucket > 0
+				&& (chart instanceof HistogramChart
+						|| !(chart instanceof BarChart)
+						&& !(chart instanceof LineChart))) {
+			throw new IllegalArgumentException("time buckets are only "
+					+ "supported by bar and line charts, not " + getTypeName()
+					+ " charts");
+		}
+		if (format == Format.PNG && !(chart instanceof BarChart)) {
+			throw new IllegalArgumentException(
+					"PNG output is only supported by bar charts and histograms");
+		}
+		// the stylesheet ends up in the xml-stylesheet PI; it's escaped
+		// there too, but a URL has no business containing any of these
+		if (styleSheet != null
+				&& (styleSheet.indexOf('"') >= 0
+						|| styleSheet.indexOf('<') >= 0
+						|| styleSheet.indexOf('>') >= 0 || styleSheet
+						.contains("?>"))) {
+			throw new IllegalArgumentException("invalid stylesheet URL: '"
+					+ styleSheet + "'");
+		}
+		chart.setWidth(width);
+		chart.setHeight(height);
+		chart.setStyleSheet(styleSheet);
+		chart.setTimeBucket(timeBucket);
+		if (precision >= 0) {
+			chart.setPrecision(precision);
+		} else if (compact) {
+			chart.setPrecision(SVGChart.COMPACT_PRECISION);
+		}
+		return chart;
+	}
+
+	public double getBinSize() {
+		return binSize;
+	}
+
+	public HistogramChart.Binning getBinning() {
+		return binning;
+	}
+
+	public int getBins() {
+		return bins;
+	}
+
+	public ScatterChart.Binning getDensity() {
+		return density;
+	}
+
+	public LineChart.Downsampling getDownsampling() {
+		return downsampling;
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	public double getHeight() {
+		return height;
+	}
+
+	public int getMaxPoints() {
+		return maxPoints;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public CountMap.Order getOrder() {
+		return order;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	public String getStyleSheet() {
+		return styleSheet;
+	}
+
+	public long getTimeBucket() {
+		return timeBucket;
+	}
+
+	public int getTop() {
+		return top;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public double getWidth() {
+		return width;
+	}
+
+	public boolean hasBarClasses() {
+		return barClasses;
+	}
+
+	public boolean isCompact() {
+		return compact;
+	}
+
+	/**
+	 * @return whether SVG output is pretty-printed: unless it's compact
+	 */
+	public boolean isIndent() {
+		return !compact;
+	}
+
+	public boolean isStacked() {
+		return stacked;
+	}
+
+	/**
+	 * @return the full name of the chart type (e.g. "histogram" for "h")
+	 */
+	private String getTypeName() {
+		for (int i = 0; i < SVGChart.TYPE_PATTERNS.length; i++) {
+			if (SVGChart.TYPE_PATTERNS[i].matcher(type).matches()) {
+				return SVGChart.TYPES[i].replaceAll("[()]", "");
+			}
+		}
+		return type;
+	}
+}
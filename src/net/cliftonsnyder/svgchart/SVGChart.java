@@ -20,29 +20,31 @@
  */
 package net.cliftonsnyder.svgchart;
 
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
 import net.cliftonsnyder.svgchart.data.DataSet;
+import net.cliftonsnyder.svgchart.io.Streams;
+import net.cliftonsnyder.svgchart.output.DoubleFormatter;
+import net.cliftonsnyder.svgchart.output.Rasterizer;
+import net.cliftonsnyder.svgchart.output.SVGTemplate;
+import net.cliftonsnyder.svgchart.output.SVGWriter;
 import net.cliftonsnyder.svgchart.parse.ParseException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.DocumentType;
-import org.w3c.dom.Element;
-import org.w3c.dom.ProcessingInstruction;
-import org.w3c.dom.bootstrap.DOMImplementationRegistry;
-import org.w3c.dom.ls.DOMImplementationLS;
-import org.w3c.dom.ls.LSOutput;
-import org.w3c.dom.ls.LSSerializer;
+import net.cliftonsnyder.svgchart.stats.Stats;
+import net.cliftonsnyder.svgchart.types.BarChart;
+import net.cliftonsnyder.svgchart.types.HistogramChart;
+import net.cliftonsnyder.svgchart.types.LineChart;
+import net.cliftonsnyder.svgchart.types.ScatterChart;
 
 public abstract class SVGChart {
 
@@ -55,22 +57,74 @@ public abstract class SVGChart {
 
 	public static final String DEFAULT_STYLESHEET = "svgchart-style.css";
 
+	/**
+	 * the number of decimal places in compact output, unless asked otherwise
+	 */
+	public static final int COMPACT_PRECISION = 2;
+
 	public static final String[] TYPES = { "(l)ine", "((h)ist)ogram", "(p)ie",
-			"(b)ar" };
+			"(b)ar", "(s)catter" };
 
 	public static final Pattern[] TYPE_PATTERNS = {
 			Pattern.compile("(l(ine)?)"),
 			Pattern.compile("(h((ist(ogram)?)?))"),
-			Pattern.compile("(p(ie)?)"), Pattern.compile("(b(ar)?)") };
+			Pattern.compile("(p(ie)?)"), Pattern.compile("(b(ar)?)"),
+			Pattern.compile("(s(catter)?)") };
+
+	/**
+	 * the most document templates kept (see writeFrame())
+	 */
+	public static final int TEMPLATE_CACHE_SIZE = 64;
+
+	// templates by chart type, size, stylesheet and output settings, least
+	// recently used first; batch jobs and server requests mostly share a few
+	private static final Map<String, SVGTemplate> TEMPLATES = new LinkedHashMap<String, SVGTemplate>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, SVGTemplate> eldest) {
+			return size() > TEMPLATE_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * create a chart of the given type
+	 * 
+	 * @param type
+	 *            a chart type matching one of TYPE_PATTERNS
+	 * @return a new chart, or null if the type is unknown or unimplemented
+	 */
+	public static SVGChart newInstance(String type) {
+		for (Pattern p : TYPE_PATTERNS) {
+			if (p.matcher(type).matches()) {
+				switch (type.charAt(0)) {
+				case 'b':
+					return new BarChart();
+				case 'h':
+					return new HistogramChart();
+				case 'l':
+					return new LineChart();
+				case 's':
+					return new ScatterChart();
+				default:
+					return null;
+				}
+			}
+		}
+		return null;
+	}
 
-	protected Document xmldoc;
-	private Element svg;
 	protected double width = DEFAULT_WIDTH, height = DEFAULT_HEIGHT,
 			topMargin = DEFAULT_TOP_MARGIN,
 			bottomMargin = DEFAULT_BOTTOM_MARGIN,
 			rightMargin = DEFAULT_RIGHT_MARGIN,
 			leftMargin = DEFAULT_LEFT_MARGIN;
 	protected String styleSheet = DEFAULT_STYLESHEET;
+	protected Stats stats = Stats.DISABLED;
+	protected long timeBucket = 0;
+	protected int precision = -1;
 
 	protected Collection<DataSet> yData;
 
@@ -87,40 +141,6 @@ public abstract class SVGChart {
 		// want xData to be null (may not be used!)
 		// xData = new ArrayList<Point>();
 		yData = new ArrayList<DataSet>();
-
-		try {
-
-			DocumentBuilderFactory factory = DocumentBuilderFactory
-					.newInstance();
-			factory.setNamespaceAware(true);
-
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			xmldoc = builder.newDocument();
-
-			ProcessingInstruction pi = (ProcessingInstruction) xmldoc
-					.createProcessingInstruction("xml-stylesheet",
-							"type=\"text/css\" href=\"" + styleSheet + "\"");
-			xmldoc.appendChild(pi);
-
-			System.err.println("*** " + xmldoc.getDocumentElement());
-
-			DocumentType docType = builder.getDOMImplementation()
-					.createDocumentType("svg", "-//W3C//DTD SVG 1.1//EN",
-							"http://www.w3.org/Graphics/SVG/1.1/DTD/svg11.dtd");
-			xmldoc.appendChild(docType);
-
-			svg = xmldoc.createElement("svg");
-
-			svg.setAttribute("xmlns", "http://www.w3.org/2000/svg");
-			svg.setAttribute("width", "" + width);
-			svg.setAttribute("height", "" + height);
-
-			xmldoc.appendChild(svg);
-		} catch (ParserConfigurationException e) {
-			// this shouldn't happen...right?
-			System.err.println("error generating a new XML document");
-			System.exit(1);
-		}
 	}
 
 	public double calculateChartHeight() {
@@ -139,15 +159,18 @@ public abstract class SVGChart {
 		return topMargin;
 	}
 
-	public void createChart() {
-		Element canvas = xmldoc.createElement("g");
-		canvas.setAttribute("id", "canvas");
-
-		svg.appendChild(canvas);
-		createChart(canvas);
-	}
-
-	public abstract void createChart(Element canvas);
+	/**
+	 * emit the chart body (i.e. the contents of the canvas) to <em>out</em>;
+	 * elements should be written as they are computed rather than collected
+	 * up front
+	 * 
+	 * @param out
+	 *            the writer to emit elements to
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public abstract void createChart(SVGWriter out) throws IOException;
 
 	public double getBottomMargin() {
 		return bottomMargin;
@@ -165,10 +188,35 @@ public abstract class SVGChart {
 		return rightMargin;
 	}
 
+	/**
+	 * @return a description of every setting that affects the chart's output
+	 *         (everything but the data itself); two charts of the same class
+	 *         with the same settings render the same data identically
+	 */
+	public String getSettings() {
+		return getClass().getName() + ";width=" + width + ";height=" + height
+				+ ";margins=" + topMargin + "," + rightMargin + ","
+				+ bottomMargin + "," + leftMargin + ";stylesheet="
+				+ styleSheet + ";timeBucket=" + timeBucket + ";precision="
+				+ precision;
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
 	public String getStyleSheet() {
 		return styleSheet;
 	}
 
+	public long getTimeBucket() {
+		return timeBucket;
+	}
+
 	public double getTopMargin() {
 		return topMargin;
 	}
@@ -177,36 +225,193 @@ public abstract class SVGChart {
 		return width;
 	}
 
+	/**
+	 * work out whatever createChart() needs to know before it starts writing
+	 * (scales, positions, etc.); printChart() calls this first, so that the
+	 * layout can be measured apart from serialization. charts that lay
+	 * themselves out as they go needn't override it
+	 */
+	protected void layout() {
+	}
+
+	/**
+	 * draw the chart, laid out by layout(), with Java2D: the same chart
+	 * createChart() writes, in the example stylesheet's colors (see
+	 * Rasterizer). this is called once per tile, possibly by several threads
+	 * at once, so it mustn't change the chart. charts that can be drawn this
+	 * way override it
+	 * 
+	 * @param g
+	 *            where to draw
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the chart can't be drawn this way
+	 */
+	protected void paint(Graphics2D g) {
+		throw new UnsupportedOperationException(
+				"PNG output isn't supported by this chart type");
+	}
+
 	public abstract void parseInput(InputStream in) throws IOException,
 			ParseException;
 
-	public void printChart(PrintStream out, boolean indent) throws IOException {
-		DOMImplementationRegistry registry = null;
+	/**
+	 * read the chart data from a regular file, which may be compressed (see
+	 * Streams.open()); charts that can make use of several threads (or of
+	 * random access to the file) should override this. by default, the
+	 * (decompressed) file is simply handed to parseInput(InputStream)
+	 * 
+	 * @param file
+	 *            the file from which to read
+	 * @param parallelism
+	 *            the number of threads the chart may use
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void parseInput(File file, int parallelism) throws IOException,
+			ParseException {
+		InputStream in = Streams.open(file);
 		try {
-			registry = DOMImplementationRegistry.newInstance();
-		} catch (ClassCastException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (InstantiationException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IllegalAccessException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			parseInput(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * write the chart, as an SVG document, to <em>out</em>; <em>out</em> is
+	 * flushed, but not closed
+	 * 
+	 * @param out
+	 *            the OutputStream to write to
+	 * @param indent
+	 *            whether to pretty-print the output
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void printChart(OutputStream out, boolean indent)
+			throws IOException {
+		printChart(new SVGWriter(out, indent, precision));
+	}
+
+	/**
+	 * write the chart, as an SVG document, to <em>writer</em> (which should
+	 * round numbers to the chart's precision); <em>writer</em> is flushed
+	 * 
+	 * @param writer
+	 *            the writer to write to
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void printChart(SVGWriter writer) throws IOException {
+		stats.begin(Stats.Phase.LAYOUT);
+		layout();
+		stats.end(Stats.Phase.LAYOUT);
+
+		stats.begin(Stats.Phase.SERIALIZE);
+		String key = getClass().getName() + ";width=" + width + ";height="
+				+ height + ";stylesheet=" + styleSheet + ";precision="
+				+ writer.getPrecision() + ";indent=" + writer.isIndent();
+		SVGTemplate template;
+		synchronized (TEMPLATES) {
+			template = TEMPLATES.get(key);
+		}
+		if (template != null) {
+			writer.writeTemplate(template);
+		} else {
+			writer.startTemplate();
+			writeFrame(writer);
+			template = writer.endTemplate();
+			synchronized (TEMPLATES) {
+				TEMPLATES.put(key, template);
+			}
+		}
+
+		createChart(writer);
+		for (int i = template.getDepth(); i > 0; i--) {
+			writer.endElement();
 		}
+		writer.flush();
+		stats.end(Stats.Phase.SERIALIZE);
+	}
 
-		DOMImplementationLS impl = (DOMImplementationLS) registry
-				.getDOMImplementation("LS");
+	/**
+	 * draw the chart as a PNG image (of width by height pixels, rounded up)
+	 * to <em>out</em>, without writing any SVG; <em>out</em> is flushed, but
+	 * not closed
+	 * 
+	 * @param out
+	 *            the OutputStream to write to
+	 * @param parallelism
+	 *            the number of threads that may draw tiles of the image
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the chart can't be drawn as an image
+	 */
+	public void printPNG(OutputStream out, int parallelism) throws IOException {
+		stats.begin(Stats.Phase.LAYOUT);
+		layout();
+		stats.end(Stats.Phase.LAYOUT);
+
+		stats.begin(Stats.Phase.SERIALIZE);
+		try {
+			BufferedImage image = Rasterizer.render((int) Math.ceil(width),
+					(int) Math.ceil(height), parallelism,
+					new Rasterizer.Painter() {
+						public void paint(Graphics2D g) {
+							SVGChart.this.paint(g);
+						}
+					});
+			Rasterizer.writePNG(image, out);
+		} finally {
+			discardLayout();
+		}
+		stats.end(Stats.Phase.SERIALIZE);
+	}
 
-		LSSerializer writer = impl.createLSSerializer();
-		writer.getDomConfig().setParameter("format-pretty-print", true);
-		LSOutput output = impl.createLSOutput();
-		output.setByteStream(out);
-		writer.write(xmldoc, output);
+	/**
+	 * forget the layout made by layout() once the chart has been drawn;
+	 * charts that keep one should override this
+	 */
+	protected void discardLayout() {
+	}
 
+	/**
+	 * write the start of the document, up to the element createChart()
+	 * writes into, which is left open. the result is cached as a template,
+	 * so it may depend only on the chart's type, width, height and
+	 * stylesheet and the writer's settings
+	 * 
+	 * @param out
+	 *            the writer
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	protected void writeFrame(SVGWriter out) throws IOException {
+		out.writeDeclaration();
+		out.writeProcessingInstruction("xml-stylesheet",
+				"type=\"text/css\" href=\""
+						+ SVGWriter.escapeAttribute(styleSheet) + "\"");
+		out.writeDocType("svg", SVGWriter.SVG_PUBLIC_ID,
+				SVGWriter.SVG_SYSTEM_ID);
+
+		out.startElement("svg");
+		out.attribute("height", height);
+		out.attribute("width", width);
+		out.attribute("xmlns", SVGWriter.SVG_NAMESPACE);
+
+		out.startElement("g");
+		out.attribute("id", "canvas");
 	}
 
 	public void setBottomMargin(double bottomMargin) {
@@ -223,14 +428,53 @@ public abstract class SVGChart {
 		calculateChartWidth();
 	}
 
+	/**
+	 * round the numbers in the output to <em>precision</em> decimal places
+	 * 
+	 * @param precision
+	 *            the number of decimal places (at most
+	 *            DoubleFormatter.MAX_PRECISION), or -1 to write numbers in full
+	 */
+	public void setPrecision(int precision) {
+		if (precision < -1 || precision > DoubleFormatter.MAX_PRECISION) {
+			throw new IllegalArgumentException("precision out of range: "
+					+ precision);
+		}
+		this.precision = precision;
+	}
+
 	public void setRightMargin(double rightMargin) {
 		this.rightMargin = rightMargin;
 	}
 
+	/**
+	 * record the phases of reading and printing this chart in <em>stats</em>
+	 * 
+	 * @param stats
+	 *            where to record them (or null, not to)
+	 */
+	public void setStats(Stats stats) {
+		this.stats = stats == null ? Stats.DISABLED : stats;
+	}
+
 	public void setStyleSheet(String styleSheet) {
 		this.styleSheet = styleSheet;
 	}
 
+	/**
+	 * read the input as a time series: count its lines per bucket of
+	 * <em>timeBucket</em> milliseconds, by the first timestamp on each line
+	 * (see TimeSeriesParser). bar and line charts support this; other charts
+	 * ignore it
+	 * 
+	 * @param timeBucket
+	 *            the width of a bucket in milliseconds, or 0 to read the input
+	 *            as usual (the default)
+	 */
+	public void setTimeBucket(long timeBucket) {
+		this.timeBucket = timeBucket;
+	}
+
 	public void setTopMargin(double topMargin) {
 		this.topMargin = topMargin;
 	}
@@ -0,0 +1,516 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.cliftonsnyder.svgchart.SVGChart;
+
+/**
+ * a content-addressed cache of rendered charts. the key is a SHA-256 hash of
+ * the input bytes together with every setting that affects the output
+ * (chart type, size, margins, stylesheet, ...; see SVGChart.getSettings()).
+ * 
+ * entries live in a bounded in-memory LRU and, optionally, in a directory on
+ * disk that is also kept under a size limit (least recently used entries are
+ * deleted first). a hit is streamed straight to the output: nothing is parsed
+ * or rendered.
+ * 
+ * typical use:
+ * 
+ * <pre>
+ * RenderCache.Lookup lookup = cache.lookup(chart, indent, in);
+ * try {
+ * 	if (lookup.isHit()) {
+ * 		lookup.writeTo(out);
+ * 	} else {
+ * 		chart.parseInput(lookup.getInput(), 1);
+ * 		chart.printChart(lookup.capture(out), indent);
+ * 		lookup.store();
+ * 	}
+ * } finally {
+ * 	lookup.close();
+ * }
+ * </pre>
+ * 
+ * this class is thread-safe.
+ */
+public class RenderCache {
+
+	private static final String SUFFIX = ".svg";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final long memoryLimit;
+	private final File directory;
+	private final long diskLimit;
+
+	// key -> rendered chart, in access order
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(
+			16, 0.75f, true);
+	private long memorySize = 0;
+
+	// key -> size of the file on disk, in access order
+	private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(
+			16, 0.75f, true);
+	private long diskSize = 0;
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * create a cache
+	 * 
+	 * @param memoryLimit
+	 *            the most bytes of rendered charts to keep in memory
+	 * @param directory
+	 *            the directory for the on-disk tier (created if necessary),
+	 *            or null for none
+	 * @param diskLimit
+	 *            the most bytes of rendered charts to keep on disk
+	 * 
+	 * @throws IOException
+	 *             if the directory can't be created or read
+	 */
+	public RenderCache(long memoryLimit, File directory, long diskLimit)
+			throws IOException {
+		this.memoryLimit = memoryLimit;
+		this.directory = directory;
+		this.diskLimit = diskLimit;
+		if (directory != null) {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("unable to create cache directory '"
+						+ directory + "'");
+			}
+			// pick up what's already there, oldest first
+			File[] files = directory.listFiles();
+			if (files == null) {
+				throw new IOException("unable to read cache directory '"
+						+ directory + "'");
+			}
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File a, File b) {
+					long d = a.lastModified() - b.lastModified();
+					return d < 0 ? -1 : (d > 0 ? 1 : 0);
+				}
+			});
+			for (File f : files) {
+				String name = f.getName();
+				if (f.isFile() && name.endsWith(SUFFIX)) {
+					disk.put(name.substring(0, name.length() - SUFFIX.length()),
+							f.length());
+					diskSize += f.length();
+				}
+			}
+			synchronized (this) {
+				evictFromDisk();
+			}
+		}
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	public long getMemoryHits() {
+		return memoryHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * look up the chart for the data in <em>input</em> (which is read once,
+	 * to hash it)
+	 * 
+	 * @param chart
+	 *            the (configured, but not yet used) chart
+	 * @param indent
+	 *            whether the chart will be pretty-printed
+	 * @param input
+	 *            a regular file holding the data
+	 * @return the result of the lookup
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public Lookup lookup(SVGChart chart, boolean indent, File input)
+			throws IOException {
+		MessageDigest digest = newDigest(chart, indent);
+		InputStream in = new DigestInputStream(new FileInputStream(input),
+				digest);
+		try {
+			byte[] buf = new byte[64 * 1024];
+			while (in.read(buf) >= 0) {
+				// just hashing
+			}
+		} finally {
+			in.close();
+		}
+		return new Lookup(hex(digest.digest()), input, false);
+	}
+
+	/**
+	 * look up the chart for the data in <em>input</em>. the data is spooled
+	 * to a temporary file as it is hashed, so that it can be parsed on a miss
+	 * 
+	 * @param chart
+	 *            the (configured, but not yet used) chart
+	 * @param indent
+	 *            whether the chart will be pretty-printed
+	 * @param input
+	 *            the data
+	 * @return the result of the lookup
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public Lookup lookup(SVGChart chart, boolean indent, InputStream input)
+			throws IOException {
+		MessageDigest digest = newDigest(chart, indent);
+		File spool = File.createTempFile("svgchart", ".spool", directory);
+		boolean done = false;
+		try {
+			OutputStream out = new FileOutputStream(spool);
+			try {
+				byte[] buf = new byte[64 * 1024];
+				int n;
+				while ((n = input.read(buf)) >= 0) {
+					digest.update(buf, 0, n);
+					out.write(buf, 0, n);
+				}
+			} finally {
+				out.close();
+			}
+			done = true;
+		} finally {
+			if (!done) {
+				spool.delete();
+			}
+		}
+		return new Lookup(hex(digest.digest()), spool, true);
+	}
+
+	@Override
+	public String toString() {
+		return "hits: " + (getMemoryHits() + getDiskHits()) + " ("
+				+ getDiskHits() + " from disk), misses: " + getMisses();
+	}
+
+	/**
+	 * @return the chart stored under <em>key</em> (moving it into memory if
+	 *         it was only on disk), or null if there isn't one
+	 */
+	private byte[] get(String key) throws IOException {
+		synchronized (this) {
+			byte[] svg = memory.get(key);
+			if (svg != null) {
+				memoryHits.incrementAndGet();
+				return svg;
+			}
+			if (directory == null || disk.get(key) == null) {
+				return null;
+			}
+		}
+
+		File f = file(key);
+		byte[] svg;
+		try {
+			svg = readFully(f);
+		} catch (IOException e) {
+			// evicted (or damaged) under our feet: treat it as a miss
+			synchronized (this) {
+				Long size = disk.remove(key);
+				if (size != null) {
+					diskSize -= size;
+				}
+			}
+			return null;
+		}
+		f.setLastModified(System.currentTimeMillis());
+		diskHits.incrementAndGet();
+		synchronized (this) {
+			putInMemory(key, svg);
+		}
+		return svg;
+	}
+
+	private File file(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+
+	private void evictFromDisk() {
+		List<String> evicted = new ArrayList<String>();
+		Iterator<Map.Entry<String, Long>> i = disk.entrySet().iterator();
+		while (diskSize > diskLimit && i.hasNext()) {
+			Map.Entry<String, Long> e = i.next();
+			diskSize -= e.getValue();
+			evicted.add(e.getKey());
+			i.remove();
+		}
+		for (String key : evicted) {
+			file(key).delete();
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		char[] c = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			c[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			c[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(c);
+	}
+
+	private static MessageDigest newDigest(SVGChart chart, boolean indent) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM is required to have SHA-256
+			throw new IllegalStateException(e);
+		}
+		try {
+			digest.update((chart.getSettings() + ";indent=" + indent + "\n")
+					.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return digest;
+	}
+
+	private void put(String key, byte[] svg) throws IOException {
+		synchronized (this) {
+			putInMemory(key, svg);
+		}
+		if (directory == null || svg.length > diskLimit) {
+			return;
+		}
+
+		// write under a temporary name, so readers never see half a chart
+		File tmp = File.createTempFile("svgchart", ".tmp", directory);
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(svg);
+			} finally {
+				out.close();
+			}
+			File f = file(key);
+			f.delete();
+			if (!tmp.renameTo(f)) {
+				throw new IOException("unable to write cache entry '" + f
+						+ "'");
+			}
+		} finally {
+			tmp.delete();
+		}
+		synchronized (this) {
+			Long old = disk.put(key, (long) svg.length);
+			diskSize += svg.length - (old == null ? 0 : old);
+			evictFromDisk();
+		}
+	}
+
+	private void putInMemory(String key, byte[] svg) {
+		if (svg.length > memoryLimit) {
+			return;
+		}
+		byte[] old = memory.put(key, svg);
+		memorySize += svg.length - (old == null ? 0 : old.length);
+		Iterator<byte[]> i = memory.values().iterator();
+		while (memorySize > memoryLimit && i.hasNext()) {
+			memorySize -= i.next().length;
+			i.remove();
+		}
+	}
+
+	private static byte[] readFully(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					(int) f.length());
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * the outcome of a cache lookup
+	 */
+	public class Lookup {
+
+		private final String key;
+		private final File input;
+		private final boolean temporary;
+		private byte[] svg;
+		private Capture capture;
+
+		private Lookup(String key, File input, boolean temporary)
+				throws IOException {
+			this.key = key;
+			this.input = input;
+			this.temporary = temporary;
+			this.svg = get(key);
+			if (svg == null) {
+				misses.incrementAndGet();
+			}
+		}
+
+		/**
+		 * wrap <em>out</em> so that everything written to it is also kept,
+		 * to be stored by store()
+		 * 
+		 * @param out
+		 *            the real output
+		 * @return the stream to print the chart to
+		 */
+		public OutputStream capture(OutputStream out) {
+			capture = new Capture(out, Math.max(memoryLimit,
+					directory == null ? 0 : diskLimit));
+			return capture;
+		}
+
+		/**
+		 * release the lookup's resources (i.e. delete any spooled input)
+		 */
+		public void close() {
+			if (temporary) {
+				input.delete();
+			}
+		}
+
+		/**
+		 * @return the input data as a regular file (to parse on a miss); only
+		 *         valid until close()
+		 */
+		public File getInput() {
+			return input;
+		}
+
+		/**
+		 * @return the cache key
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		public boolean isHit() {
+			return svg != null;
+		}
+
+		/**
+		 * store whatever was written through capture() (unless it was too big
+		 * to cache)
+		 * 
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		public void store() throws IOException {
+			if (capture != null && !capture.overflowed) {
+				put(key, capture.buffer.toByteArray());
+			}
+		}
+
+		/**
+		 * write the cached chart
+		 * 
+		 * @param out
+		 *            where to write it
+		 * 
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		public void writeTo(OutputStream out) throws IOException {
+			if (svg == null) {
+				throw new IllegalStateException("cache miss");
+			}
+			out.write(svg);
+			out.flush();
+		}
+	}
+
+	/**
+	 * a tee that gives up keeping a copy once it gets bigger than the cache
+	 * could hold anyway
+	 */
+	private static class Capture extends FilterOutputStream {
+
+		private final long limit;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private boolean overflowed = false;
+
+		Capture(OutputStream out, long limit) {
+			super(out);
+			this.limit = limit;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			keep(b, off, len);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			keep(new byte[] { (byte) b }, 0, 1);
+		}
+
+		private void keep(byte[] b, int off, int len) {
+			if (overflowed) {
+				return;
+			}
+			if (buffer.size() + (long) len > limit) {
+				overflowed = true;
+				buffer = null;
+				return;
+			}
+			buffer.write(b, off, len);
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.data;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * a DataSet that stores its points column by column: one growable primitive
+ * double[] per dimension rather than one double[] object per point. minima
+ * and maxima are kept up to date as points are added.
+ * 
+ * getPoints() and iterator() still work, but they are a read-only,
+ * compatibility view: every point they hand out is a freshly allocated
+ * double[]. code that cares should use size(), get(int, int) or getColumn().
+ */
+public class ColumnarDataSet extends DataSet {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	// allocated on the first addPoint(), when the number of dimensions is known
+	private double[][] columns;
+	private int size;
+	private int capacity;
+
+	/**
+	 * create an empty dataset
+	 */
+	public ColumnarDataSet() {
+		this(null);
+	}
+
+	/**
+	 * create an empty dataset with name <em>name</em>
+	 * 
+	 * @param name
+	 *            the name of the dataset
+	 */
+	public ColumnarDataSet(String name) {
+		this(name, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * create an empty dataset with name <em>name</em> and room for
+	 * <em>capacity</em> points before it needs to grow
+	 * 
+	 * @param name
+	 *            the name of the dataset
+	 * @param capacity
+	 *            the expected number of points
+	 */
+	public ColumnarDataSet(String name, int capacity) {
+		super(name);
+		this.capacity = Math.max(capacity, 1);
+	}
+
+	/**
+	 * create a dataset with name <em>name</em> whose dimensions are the given
+	 * columns; the arrays are used as they are (not copied), and the first
+	 * <em>size</em> entries of each are taken to be the data
+	 * 
+	 * @param name
+	 *            the name of the dataset
+	 * @param columns
+	 *            one array per dimension, all at least <em>size</em> long
+	 * @param size
+	 *            the number of points
+	 */
+	public ColumnarDataSet(String name, double[][] columns, int size) {
+		super(name);
+		this.columns = columns;
+		this.size = size;
+		this.capacity = size;
+		for (double[] c : columns) {
+			this.capacity = Math.min(this.capacity, c.length);
+		}
+		if (capacity < size) {
+			throw new IllegalArgumentException("columns shorter than " + size);
+		}
+		recalculate();
+	}
+
+	@Override
+	public void addPoint(double... p) {
+		if (columns == null) {
+			columns = new double[p.length][];
+			for (int i = 0; i < p.length; i++) {
+				columns[i] = new double[capacity];
+			}
+		} else if (p.length != columns.length) {
+			throw new IllegalArgumentException("expected " + columns.length
+					+ " dimensions, got " + p.length);
+		}
+		if (minima == null) {
+			minima = new double[p.length];
+			maxima = new double[p.length];
+			for (int i = 0; i < p.length; i++) {
+				minima[i] = Double.MAX_VALUE;
+				maxima[i] = -Double.MAX_VALUE;
+			}
+		}
+		if (size == capacity) {
+			ensureCapacity(size + 1);
+		}
+		for (int i = 0; i < p.length; i++) {
+			double d = p[i];
+			columns[i][size] = d;
+			minima[i] = Math.min(minima[i], d);
+			maxima[i] = Math.max(maxima[i], d);
+		}
+		size++;
+	}
+
+	/**
+	 * @return the number of dimensions (0 until the first point is added)
+	 */
+	public int dimensions() {
+		return columns == null ? 0 : columns.length;
+	}
+
+	/**
+	 * make sure there is room for at least <em>n</em> points
+	 * 
+	 * @param n
+	 *            the number of points
+	 */
+	public void ensureCapacity(int n) {
+		if (n <= capacity) {
+			return;
+		}
+		capacity = Math.max(n, capacity + (capacity >> 1) + 1);
+		if (columns != null) {
+			for (int i = 0; i < columns.length; i++) {
+				double[] c = new double[capacity];
+				System.arraycopy(columns[i], 0, c, 0, size);
+				columns[i] = c;
+			}
+		}
+	}
+
+	@Override
+	public double get(int point, int dimension) {
+		if (point < 0 || point >= size) {
+			throw new IndexOutOfBoundsException("point " + point + " of "
+					+ size);
+		}
+		return columns[dimension][point];
+	}
+
+	/**
+	 * @param dimension
+	 *            the index of a dimension
+	 * @return the backing array for <em>dimension</em>; only the first size()
+	 *         entries are valid, and the array is replaced if the dataset
+	 *         grows
+	 */
+	public double[] getColumn(int dimension) {
+		return columns[dimension];
+	}
+
+	/**
+	 * @return a read-only view of the points; each element is a new array
+	 */
+	@Override
+	public List<double[]> getPoints() {
+		return new AbstractList<double[]>() {
+			@Override
+			public double[] get(int index) {
+				if (index < 0 || index >= size) {
+					throw new IndexOutOfBoundsException("point " + index
+							+ " of " + size);
+				}
+				double[] p = new double[columns.length];
+				for (int i = 0; i < p.length; i++) {
+					p[i] = columns[i][index];
+				}
+				return p;
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public Iterator<double[]> iterator() {
+		return getPoints().iterator();
+	}
+
+	/**
+	 * replace the contents of this dataset with (copies of) <em>points</em>
+	 */
+	@Override
+	public void setPoints(List<double[]> points) {
+		// note: called from the DataSet constructor, before our own fields are
+		// initialized
+		columns = null;
+		size = 0;
+		minima = null;
+		maxima = null;
+		capacity = Math.max(capacity, Math.max(points.size(), 1));
+		for (double[] p : points) {
+			addPoint(p);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * shrink the backing arrays to exactly size() points
+	 */
+	public void trimToSize() {
+		if (columns == null || capacity == size) {
+			return;
+		}
+		capacity = Math.max(size, 1);
+		for (int i = 0; i < columns.length; i++) {
+			double[] c = new double[capacity];
+			System.arraycopy(columns[i], 0, c, 0, size);
+			columns[i] = c;
+		}
+	}
+
+	private void recalculate() {
+		if (size == 0) {
+			minima = null;
+			maxima = null;
+			return;
+		}
+		minima = new double[columns.length];
+		maxima = new double[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+			double[] c = columns[i];
+			for (int j = 0; j < size; j++) {
+				min = Math.min(min, c[j]);
+				max = Math.max(max, c[j]);
+			}
+			minima[i] = min;
+			maxima[i] = max;
+		}
+	}
+}
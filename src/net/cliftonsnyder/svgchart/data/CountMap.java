@@ -0,0 +1,458 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.data;
+
+import java.util.Arrays;
+
+/**
+ * an insertion-ordered map from String keys to primitive double counts.
+ * 
+ * entries are kept in dense, parallel arrays in the order in which their keys
+ * were first seen; an open-addressing (linear probing) table of indices into
+ * those arrays is used for lookups. counts are updated in place, so adding to
+ * an existing key allocates nothing - not even a String, if the key is given
+ * as a range of characters.
+ * 
+ * this class is not synchronized.
+ */
+public class CountMap implements KeyCounter {
+
+	/**
+	 * orderings in which the entries of a CountMap can be viewed
+	 */
+	public enum Order {
+		/** the order in which keys were first seen */
+		INPUT,
+		/** the natural (lexicographic) order of the keys */
+		NAME,
+		/** descending count; ties keep input order */
+		VALUE
+	}
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private String[] keys;
+	private int[] hashes;
+	private double[] values;
+	private int size = 0;
+
+	// slot -> (index into the dense arrays) + 1; 0 marks an empty slot
+	private int[] table;
+	private int mask;
+
+	/**
+	 * create an empty map
+	 */
+	public CountMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * create an empty map with room for <em>capacity</em> keys before it
+	 * needs to grow
+	 * 
+	 * @param capacity
+	 *            the expected number of keys
+	 */
+	public CountMap(int capacity) {
+		capacity = Math.max(capacity, DEFAULT_CAPACITY);
+		keys = new String[capacity];
+		hashes = new int[capacity];
+		values = new double[capacity];
+		int slots = Integer.highestOneBit(capacity * 2 - 1) * 2;
+		table = new int[slots];
+		mask = slots - 1;
+	}
+
+	/**
+	 * add <em>value</em> to the count for the key made up of <em>len</em>
+	 * characters of <em>chars</em> starting at <em>off</em>; a String is only
+	 * created if the key has not been seen before
+	 * 
+	 * @param chars
+	 *            the characters
+	 * @param off
+	 *            the offset of the key in <em>chars</em>
+	 * @param len
+	 *            the length of the key
+	 * @param value
+	 *            the amount to add
+	 */
+	public void add(char[] chars, int off, int len, double value) {
+		int h = 0;
+		for (int i = off; i < off + len; i++) {
+			h = 31 * h + chars[i];
+		}
+		int slot = spread(h) & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (hashes[e - 1] == h && equals(keys[e - 1], chars, off, len)) {
+				values[e - 1] += value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		insert(slot, new String(chars, off, len), h, value);
+	}
+
+	/**
+	 * add <em>value</em> to the count for <em>key</em>
+	 * 
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the amount to add
+	 */
+	public void add(String key, double value) {
+		int h = key.hashCode();
+		int slot = spread(h) & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (hashes[e - 1] == h && keys[e - 1].equals(key)) {
+				values[e - 1] += value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		insert(slot, key, h, value);
+	}
+
+	/**
+	 * add every count in <em>other</em> to this map; keys new to this map are
+	 * appended in <em>other</em>'s input order
+	 * 
+	 * @param other
+	 *            the map to merge in
+	 */
+	public void addAll(CountMap other) {
+		for (int i = 0; i < other.size; i++) {
+			add(other.keys[i], other.values[i]);
+		}
+	}
+
+	/**
+	 * remove every entry
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(table, 0);
+		size = 0;
+	}
+
+	/**
+	 * @param key
+	 *            a key
+	 * @return true if <em>key</em> has been counted
+	 */
+	public boolean containsKey(String key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * @param chars
+	 *            the characters
+	 * @param off
+	 *            the offset of the key in <em>chars</em>
+	 * @param len
+	 *            the length of the key
+	 * @return the index of the entry for the key made up of <em>len</em>
+	 *         characters of <em>chars</em> starting at <em>off</em>, which is
+	 *         added (with a count of 0) if the key has not been seen before;
+	 *         entries are numbered in input order, so a new key gets size() - 1
+	 */
+	public int entry(char[] chars, int off, int len) {
+		int h = 0;
+		for (int i = off; i < off + len; i++) {
+			h = 31 * h + chars[i];
+		}
+		int slot = spread(h) & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (hashes[e - 1] == h && equals(keys[e - 1], chars, off, len)) {
+				return e - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		insert(slot, new String(chars, off, len), h, 0);
+		return size - 1;
+	}
+
+	/**
+	 * @param key
+	 *            a key
+	 * @return the count for <em>key</em>, or 0 if it has not been counted
+	 */
+	public double get(String key) {
+		int i = indexOf(key);
+		return i < 0 ? 0 : values[i];
+	}
+
+	/**
+	 * add <em>value</em> to the count of the <em>i</em>th entry
+	 * 
+	 * @param i
+	 *            an entry index, as returned by entry()
+	 * @param value
+	 *            the amount to add
+	 */
+	public void increment(int i, double value) {
+		checkIndex(i);
+		values[i] += value;
+	}
+
+	/**
+	 * @param key
+	 *            a key
+	 * @return the index of <em>key</em>'s entry, or -1 if it has not been
+	 *         counted
+	 */
+	public int indexOf(String key) {
+		int h = key.hashCode();
+		int slot = spread(h) & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (hashes[e - 1] == h && keys[e - 1].equals(key)) {
+				return e - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param i
+	 *            an entry index (0 &lt;= i &lt; size())
+	 * @return the key of the <em>i</em>th entry in input order
+	 */
+	public String key(int i) {
+		checkIndex(i);
+		return keys[i];
+	}
+
+	/**
+	 * @return the number of distinct keys
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the sum of all counts
+	 */
+	public double total() {
+		double total = 0;
+		for (int i = 0; i < size; i++) {
+			total += values[i];
+		}
+		return total;
+	}
+
+	/**
+	 * @param i
+	 *            an entry index (0 &lt;= i &lt; size())
+	 * @return the count of the <em>i</em>th entry in input order
+	 */
+	public double value(int i) {
+		checkIndex(i);
+		return values[i];
+	}
+
+	/**
+	 * @param order
+	 *            the desired order
+	 * @return the entry indices in the given order; the entries themselves
+	 *         are not copied
+	 */
+	public int[] view(Order order) {
+		int[] indices = new int[size];
+		for (int i = 0; i < size; i++) {
+			indices[i] = i;
+		}
+		if (order != Order.INPUT) {
+			mergeSort(indices, new int[size], 0, size, order);
+		}
+		return indices;
+	}
+
+	/**
+	 * @param n
+	 *            the number of entries wanted
+	 * @return the indices of the (at most) <em>n</em> entries with the highest
+	 *         counts, highest first; found with a bounded heap rather than by
+	 *         sorting every entry
+	 */
+	public int[] top(int n) {
+		n = Math.max(0, Math.min(n, size));
+		// min-heap (by count, then by reverse input order) of the best so far
+		int[] heap = new int[n];
+		int heapSize = 0;
+		for (int i = 0; i < size; i++) {
+			if (heapSize < n) {
+				heap[heapSize] = i;
+				siftUp(heap, heapSize++);
+			} else if (n > 0 && compare(i, heap[0], Order.VALUE) < 0) {
+				heap[0] = i;
+				siftDown(heap, 0, heapSize);
+			}
+		}
+		// drain the heap back to front to get highest first
+		for (int end = heapSize - 1; end > 0; end--) {
+			int t = heap[0];
+			heap[0] = heap[end];
+			heap[end] = t;
+			siftDown(heap, 0, end);
+		}
+		return heap;
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("entry " + i + " of " + size);
+		}
+	}
+
+	/**
+	 * negative if entry <em>a</em> comes before entry <em>b</em> in
+	 * <em>order</em>
+	 */
+	private int compare(int a, int b, Order order) {
+		int c = 0;
+		switch (order) {
+		case NAME:
+			c = keys[a].compareTo(keys[b]);
+			break;
+		case VALUE:
+			c = Double.compare(values[b], values[a]);
+			break;
+		default:
+			break;
+		}
+		return c != 0 ? c : (a < b ? -1 : (a == b ? 0 : 1));
+	}
+
+	private static boolean equals(String key, char[] chars, int off, int len) {
+		if (key.length() != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (key.charAt(i) != chars[off + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void grow() {
+		int capacity = keys.length * 2;
+		String[] k = new String[capacity];
+		System.arraycopy(keys, 0, k, 0, size);
+		keys = k;
+		int[] h = new int[capacity];
+		System.arraycopy(hashes, 0, h, 0, size);
+		hashes = h;
+		double[] v = new double[capacity];
+		System.arraycopy(values, 0, v, 0, size);
+		values = v;
+
+		table = new int[table.length * 2];
+		mask = table.length - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = spread(hashes[i]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+	}
+
+	private void insert(int slot, String key, int h, double value) {
+		if (size == keys.length) {
+			grow();
+			slot = spread(h) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+		}
+		keys[size] = key;
+		hashes[size] = h;
+		values[size] = value;
+		table[slot] = ++size;
+	}
+
+	private void mergeSort(int[] a, int[] tmp, int from, int to, Order order) {
+		if (to - from < 2) {
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(a, tmp, from, mid, order);
+		mergeSort(a, tmp, mid, to, order);
+		if (compare(a[mid - 1], a[mid], order) <= 0) {
+			return;
+		}
+		System.arraycopy(a, from, tmp, from, to - from);
+		int i = from, j = mid;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < mid && compare(tmp[i], tmp[j], order) <= 0)) {
+				a[k] = tmp[i++];
+			} else {
+				a[k] = tmp[j++];
+			}
+		}
+	}
+
+	private void siftDown(int[] heap, int i, int n) {
+		for (;;) {
+			int child = 2 * i + 1;
+			if (child >= n) {
+				return;
+			}
+			// the heap root is the entry that would come *last* by value
+			if (child + 1 < n
+					&& compare(heap[child + 1], heap[child], Order.VALUE) > 0) {
+				child++;
+			}
+			if (compare(heap[child], heap[i], Order.VALUE) <= 0) {
+				return;
+			}
+			int t = heap[i];
+			heap[i] = heap[child];
+			heap[child] = t;
+			i = child;
+		}
+	}
+
+	private void siftUp(int[] heap, int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (compare(heap[i], heap[parent], Order.VALUE) <= 0) {
+				return;
+			}
+			int t = heap[i];
+			heap[i] = heap[parent];
+			heap[parent] = t;
+			i = parent;
+		}
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+}
@@ -67,6 +67,18 @@ public class DataSet implements Iterable<double[]> {
 		checkMaxima(p);
 	}
 
+	/**
+	 * @param point
+	 *            the index of a data point
+	 * @param dimension
+	 *            the index of one of its dimensions
+	 * @return the value of dimension <em>dimension</em> of point
+	 *         <em>point</em>
+	 */
+	public double get(int point, int dimension) {
+		return points.get(point)[dimension];
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -80,6 +92,13 @@ public class DataSet implements Iterable<double[]> {
 		return points.iterator();
 	}
 
+	/**
+	 * @return the number of data points
+	 */
+	public int size() {
+		return points.size();
+	}
+
 	public void setName(String name) {
 		this.name = name;
 	}
@@ -110,7 +129,7 @@ public class DataSet implements Iterable<double[]> {
 		if (maxima == null) {
 			maxima = new double[d.length];
 			for (int i = 0; i < maxima.length; i++)
-				maxima[i] = Double.MIN_VALUE;
+				maxima[i] = -Double.MAX_VALUE;
 		}
 		for (int i = 0; i < maxima.length; i++) {
 			maxima[i] = Math.max(maxima[i], d[i]);
@@ -0,0 +1,391 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.data;
+
+/**
+ * a mergeable count of points (x, y) in a grid of cells, for charts with
+ * more points than can be drawn one by one. memory is fixed by the size of
+ * the grid, however many points are added.
+ * 
+ * cells are 2^ex wide and 2^ey high, and aligned to multiples of their size
+ * (cell i covers [i * 2^ex, (i + 1) * 2^ex)); the grid is a window of
+ * <em>columns</em> by <em>rows</em> of them. when a point falls outside the
+ * window, it moves to take the point in, and if it can't, the cells double
+ * in size (four becoming one) until it can. so the grid ends up with its
+ * cells as small as the spread of the points allows - between half and all
+ * of the columns (and rows) span the points - without the extent of the
+ * points having to be known in advance, and grids holding different points
+ * can be merged, cell for cell, by doubling the smaller cells of either.
+ * 
+ * until more than <em>maxPoints</em> points have been added, the points
+ * themselves are kept instead, so that they can be drawn exactly.
+ * 
+ * this class is not synchronized.
+ */
+public class DensityGrid {
+
+	public static final int DEFAULT_MAX_POINTS = 10000;
+
+	// cell indexes are kept below this, so that they fit a long
+	private static final double MAX_INDEX = 0x1p62;
+
+	// the smallest cells there can be
+	private static final int MIN_EXPONENT = Double.MIN_EXPONENT - 52;
+
+	private final int columns, rows;
+	private final int maxPoints;
+
+	private long count = 0;
+	private double minX = Double.POSITIVE_INFINITY;
+	private double maxX = Double.NEGATIVE_INFINITY;
+	private double minY = Double.POSITIVE_INFINITY;
+	private double maxY = Double.NEGATIVE_INFINITY;
+
+	// the points, until there are too many of them
+	private double[] xs, ys;
+	private int points = 0;
+
+	// the counts, row by row (null until the points run over); cell (i, j)
+	// is cell (ox + i, oy + j) of the aligned grid
+	private int[] cells;
+	private int ex, ey;
+	private long ox, oy;
+
+	/**
+	 * @param columns
+	 *            the number of columns in the grid (at least 2)
+	 * @param rows
+	 *            the number of rows (at least 2)
+	 * @param maxPoints
+	 *            the most points kept as they are (0 for none)
+	 */
+	public DensityGrid(int columns, int rows, int maxPoints) {
+		if (columns < 2 || rows < 2 || (long) columns * rows > Integer.MAX_VALUE
+				|| maxPoints < 0) {
+			throw new IllegalArgumentException("invalid grid size");
+		}
+		this.columns = columns;
+		this.rows = rows;
+		this.maxPoints = maxPoints;
+	}
+
+	/**
+	 * add a point
+	 * 
+	 * @param x
+	 *            a finite number
+	 * @param y
+	 *            a finite number
+	 */
+	public void add(double x, double y) {
+		if (Double.isNaN(x) || Double.isInfinite(x) || Double.isNaN(y)
+				|| Double.isInfinite(y)) {
+			throw new IllegalArgumentException("not a finite point: (" + x
+					+ ", " + y + ")");
+		}
+		count++;
+		minX = Math.min(minX, x);
+		maxX = Math.max(maxX, x);
+		minY = Math.min(minY, y);
+		maxY = Math.max(maxY, y);
+		if (cells == null) {
+			if (points < maxPoints) {
+				if (xs == null || points == xs.length) {
+					int capacity = xs == null ? 16 : (int) Math.min(maxPoints,
+							2L * xs.length);
+					xs = copyOf(xs, points, capacity);
+					ys = copyOf(ys, points, capacity);
+				}
+				xs[points] = x;
+				ys[points] = y;
+				points++;
+				return;
+			}
+			toGrid();
+		}
+		count(x, y, 1);
+	}
+
+	/**
+	 * @return the number of points added
+	 */
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * @return the number of points in cell (i, j) (0 while isExact())
+	 */
+	public int get(int i, int j) {
+		return cells == null ? 0 : cells[j * columns + i];
+	}
+
+	/**
+	 * @return the x in the middle of the cells of column <em>i</em>
+	 */
+	public double getCellX(int i) {
+		return Math.scalb(ox + i + 0.5, ex);
+	}
+
+	/**
+	 * @return the y in the middle of the cells of row <em>j</em>
+	 */
+	public double getCellY(int j) {
+		return Math.scalb(oy + j + 0.5, ey);
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+
+	public int getMaxPoints() {
+		return maxPoints;
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the x of point <em>i</em> (while isExact())
+	 */
+	public double getX(int i) {
+		return xs[i];
+	}
+
+	/**
+	 * @return the y of point <em>i</em> (while isExact())
+	 */
+	public double getY(int i) {
+		return ys[i];
+	}
+
+	/**
+	 * @return true if the points are kept as they are (see getX(), getY()),
+	 *         false if they have been counted into cells (see get())
+	 */
+	public boolean isExact() {
+		return cells == null;
+	}
+
+	/**
+	 * add the points of another grid (of the same size) to this one
+	 * 
+	 * @param other
+	 *            the grid to add
+	 */
+	public void merge(DensityGrid other) {
+		if (other.columns != columns || other.rows != rows) {
+			throw new IllegalArgumentException("can't merge grids of "
+					+ "different sizes");
+		}
+		if (other.cells == null) {
+			for (int k = 0; k < other.points; k++) {
+				add(other.xs[k], other.ys[k]);
+			}
+			return;
+		}
+		if (cells == null) {
+			// take the other grid's cells, and add the points to them
+			double[] x = xs, y = ys;
+			int n = points;
+			xs = ys = null;
+			points = 0;
+			cells = other.cells.clone();
+			ex = other.ex;
+			ey = other.ey;
+			ox = other.ox;
+			oy = other.oy;
+			count = other.count;
+			minX = other.minX;
+			maxX = other.maxX;
+			minY = other.minY;
+			maxY = other.maxY;
+			for (int k = 0; k < n; k++) {
+				add(x[k], y[k]);
+			}
+			return;
+		}
+
+		count += other.count;
+		minX = Math.min(minX, other.minX);
+		maxX = Math.max(maxX, other.maxX);
+		minY = Math.min(minY, other.minY);
+		maxY = Math.max(maxY, other.maxY);
+		fit(Math.max(ex, other.ex), Math.max(ey, other.ey));
+		addCells(other.cells, other.ox, other.oy, ex - other.ex, ey - other.ey,
+				cells, ox, oy);
+	}
+
+	/**
+	 * count a point (already within the bounds) into its cell
+	 */
+	private void count(double x, double y, int n) {
+		double i = Math.floor(Math.scalb(x, -ex)) - ox;
+		double j = Math.floor(Math.scalb(y, -ey)) - oy;
+		if (i < 0 || i >= columns || j < 0 || j >= rows) {
+			fit(ex, ey);
+			i = Math.floor(Math.scalb(x, -ex)) - ox;
+			j = Math.floor(Math.scalb(y, -ey)) - oy;
+		}
+		int k = (int) j * columns + (int) i;
+		cells[k] = sum(cells[k], n);
+	}
+
+	/**
+	 * move (and if need be, coarsen) the window to take in the bounds, with
+	 * cells no smaller than 2^minEx by 2^minEy
+	 */
+	private void fit(int minEx, int minEy) {
+		int nex = exponent(minX, maxX, columns, minEx);
+		int ney = exponent(minY, maxY, rows, minEy);
+		long nox = origin(minX, maxX, columns, nex);
+		long noy = origin(minY, maxY, rows, ney);
+		if (nex == ex && ney == ey && nox == ox && noy == oy) {
+			return;
+		}
+		int[] next = new int[columns * rows];
+		addCells(cells, ox, oy, nex - ex, ney - ey, next, nox, noy);
+		cells = next;
+		ex = nex;
+		ey = ney;
+		ox = nox;
+		oy = noy;
+	}
+
+	/**
+	 * add the cells of <em>from</em> (whose first cell is (fromX, fromY)) to
+	 * those of <em>to</em> (whose first is (toX, toY) in the grid of cells
+	 * 2^sx by 2^sy times as large), which must take them all in
+	 */
+	private void addCells(int[] from, long fromX, long fromY, int sx, int sy,
+			int[] to, long toX, long toY) {
+		if (sx == 0 && sy == 0) {
+			// the same cells, a whole row at a time
+			int di = (int) (fromX - toX), dj = (int) (fromY - toY);
+			int first = Math.max(0, -di);
+			int last = Math.min(columns, columns - di);
+			for (int j = Math.max(0, -dj); j < Math.min(rows, rows - dj); j++) {
+				int f = j * columns, t = (j + dj) * columns + di;
+				for (int i = first; i < last; i++) {
+					if (from[f + i] != 0) {
+						to[t + i] = sum(to[t + i], from[f + i]);
+					}
+				}
+			}
+			return;
+		}
+		for (int j = 0; j < rows; j++) {
+			int t = (int) (shift(fromY + j, sy) - toY) * columns;
+			for (int i = 0; i < columns; i++) {
+				int c = from[j * columns + i];
+				if (c != 0) {
+					int k = t + (int) (shift(fromX + i, sx) - toX);
+					to[k] = sum(to[k], c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * count the points kept so far into cells
+	 */
+	private void toGrid() {
+		cells = new int[columns * rows];
+		ex = exponent(minX, maxX, columns, MIN_EXPONENT);
+		ey = exponent(minY, maxY, rows, MIN_EXPONENT);
+		ox = origin(minX, maxX, columns, ex);
+		oy = origin(minY, maxY, rows, ey);
+		for (int k = 0; k < points; k++) {
+			count(xs[k], ys[k], 1);
+		}
+		xs = ys = null;
+		points = 0;
+	}
+
+	/**
+	 * @return the least e (at least <em>min</em>) for which [lo, hi] spans
+	 *         fewer than <em>cells</em> cells 2^e wide
+	 */
+	private static int exponent(double lo, double hi, int cells, int min) {
+		double span = hi - lo;
+		double magnitude = Math.max(Math.abs(lo), Math.abs(hi));
+		int e = span > 0 ? Math.getExponent(span / cells) : MIN_EXPONENT;
+		e = Math.max(e, Math.getExponent(magnitude)
+				- Math.getExponent(MAX_INDEX));
+		e = Math.max(e, min);
+		while (Math.floor(Math.scalb(hi, -e))
+				- Math.floor(Math.scalb(lo, -e)) >= cells
+				|| Math.scalb(magnitude, -e) >= MAX_INDEX) {
+			e++;
+		}
+		return e;
+	}
+
+	/**
+	 * @return the first of <em>cells</em> cells 2^e wide, placed so that
+	 *         [lo, hi] lies in the middle of them (leaving room for points
+	 *         yet to come on either side)
+	 */
+	private static long origin(double lo, double hi, int cells, int e) {
+		long first = (long) Math.floor(Math.scalb(lo, -e));
+		long last = (long) Math.floor(Math.scalb(hi, -e));
+		return first - (cells - 1 - (last - first)) / 2;
+	}
+
+	/**
+	 * @return floor(i / 2^s)
+	 */
+	private static long shift(long i, int s) {
+		return s < 64 ? i >> s : i < 0 ? -1 : 0;
+	}
+
+	private static int sum(int a, int b) {
+		long s = (long) a + b;
+		// a cell can't hold more than this, but it's a good deal more than
+		// there are pixels to shade
+		return s > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) s;
+	}
+
+	private static double[] copyOf(double[] a, int n, int capacity) {
+		double[] b = new double[capacity];
+		if (a != null) {
+			System.arraycopy(a, 0, b, 0, n);
+		}
+		return b;
+	}
+}
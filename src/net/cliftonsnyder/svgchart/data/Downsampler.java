@@ -0,0 +1,183 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.data;
+
+import java.util.Arrays;
+
+/**
+ * picks out the points of a long (x, y) series that are worth drawing at a
+ * given resolution. both methods make a single pass over primitive columns
+ * (e.g. those of a ColumnarDataSet) and return the indices of the points to
+ * keep, in their original order.
+ */
+public class Downsampler {
+
+	private Downsampler() {
+	}
+
+	/**
+	 * Largest-Triangle-Three-Buckets (Steinarsson, 2013): the first and last
+	 * points are kept, the rest are split into <em>threshold</em> - 2 buckets
+	 * of (nearly) equal size, and from each bucket the point that forms the
+	 * largest triangle with the point kept from the previous bucket and the
+	 * average of the next bucket is kept
+	 * 
+	 * @param x
+	 *            the x values
+	 * @param y
+	 *            the y values
+	 * @param n
+	 *            the number of points (the first n entries of x and y)
+	 * @param threshold
+	 *            the number of points wanted
+	 * @return the indices of the points to keep; every index, if
+	 *         <em>n</em> &lt;= <em>threshold</em> or <em>threshold</em> &lt; 3
+	 */
+	public static int[] lttb(double[] x, double[] y, int n, int threshold) {
+		if (threshold >= n || threshold < 3) {
+			return all(n);
+		}
+
+		int[] keep = new int[threshold];
+		int k = 0;
+		keep[k++] = 0;
+
+		double every = (double) (n - 2) / (threshold - 2);
+		int a = 0;
+		for (int i = 0; i < threshold - 2; i++) {
+			// the average of the next bucket (or of the last point)
+			int avgStart = (int) ((i + 1) * every) + 1;
+			int avgEnd = Math.min((int) ((i + 2) * every) + 1, n);
+			double avgX = 0, avgY = 0;
+			for (int j = avgStart; j < avgEnd; j++) {
+				avgX += x[j];
+				avgY += y[j];
+			}
+			int count = avgEnd - avgStart;
+			avgX /= count;
+			avgY /= count;
+
+			// the point in this bucket making the largest triangle
+			int from = (int) (i * every) + 1;
+			int to = (int) ((i + 1) * every) + 1;
+			double ax = x[a], ay = y[a];
+			double maxArea = -1;
+			int next = from;
+			for (int j = from; j < to; j++) {
+				double area = Math.abs((ax - avgX) * (y[j] - ay) - (ax - x[j])
+						* (avgY - ay));
+				if (area > maxArea) {
+					maxArea = area;
+					next = j;
+				}
+			}
+			keep[k++] = next;
+			a = next;
+		}
+
+		keep[k++] = n - 1;
+		return keep;
+	}
+
+	/**
+	 * min/max per bucket: the range [<em>xMin</em>, <em>xMax</em>] is split
+	 * into <em>buckets</em> equal slices (typically one per pixel), and from
+	 * each run of consecutive points that fall into the same slice the lowest
+	 * and highest are kept (in their original order), along with the first
+	 * and last points of the series. with x sorted, this draws exactly the
+	 * same vertical extent per slice as the full series would
+	 * 
+	 * @param x
+	 *            the x values
+	 * @param y
+	 *            the y values
+	 * @param n
+	 *            the number of points (the first n entries of x and y)
+	 * @param buckets
+	 *            the number of slices
+	 * @param xMin
+	 *            the left end of the range
+	 * @param xMax
+	 *            the right end of the range
+	 * @return the indices of the points to keep
+	 */
+	public static int[] minMax(double[] x, double[] y, int n, int buckets,
+			double xMin, double xMax) {
+		if (n <= 2 * buckets + 2 || buckets < 1) {
+			return all(n);
+		}
+
+		double width = (xMax - xMin) / buckets;
+		int[] keep = new int[Math.min(n, 2 * buckets + 2)];
+		int k = 0;
+		keep[k++] = 0;
+
+		int bucket = bucket(x[1], xMin, width, buckets);
+		int min = 1, max = 1;
+		for (int i = 2; i < n - 1; i++) {
+			int b = bucket(x[i], xMin, width, buckets);
+			if (b != bucket) {
+				if (k + 3 > keep.length) {
+					keep = Arrays.copyOf(keep, keep.length * 2);
+				}
+				k = flush(keep, k, min, max);
+				bucket = b;
+				min = max = i;
+			} else if (y[i] < y[min]) {
+				min = i;
+			} else if (y[i] > y[max]) {
+				max = i;
+			}
+		}
+		if (k + 3 > keep.length) {
+			keep = Arrays.copyOf(keep, keep.length + 3);
+		}
+		k = flush(keep, k, min, max);
+		keep[k++] = n - 1;
+		return Arrays.copyOf(keep, k);
+	}
+
+	private static int[] all(int n) {
+		int[] keep = new int[n];
+		for (int i = 0; i < n; i++) {
+			keep[i] = i;
+		}
+		return keep;
+	}
+
+	private static int bucket(double x, double xMin, double width, int buckets) {
+		if (!(width > 0)) {
+			return 0;
+		}
+		int b = (int) ((x - xMin) / width);
+		return b < 0 ? 0 : b >= buckets ? buckets - 1 : b;
+	}
+
+	private static int flush(int[] keep, int k, int min, int max) {
+		if (min == max) {
+			keep[k++] = min;
+		} else {
+			keep[k++] = Math.min(min, max);
+			keep[k++] = Math.max(min, max);
+		}
+		return k;
+	}
+}
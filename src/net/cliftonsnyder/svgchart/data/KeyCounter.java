@@ -0,0 +1,49 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.data;
+
+/**
+ * something that counts occurrences of keys given as ranges of characters
+ * (e.g. straight out of a parser's buffer)
+ */
+public interface KeyCounter {
+
+	/**
+	 * add <em>value</em> to the count for the key made up of <em>len</em>
+	 * characters of <em>chars</em> starting at <em>off</em>
+	 * 
+	 * @param chars
+	 *            the characters
+	 * @param off
+	 *            the offset of the key in <em>chars</em>
+	 * @param len
+	 *            the length of the key
+	 * @param value
+	 *            the amount to add
+	 */
+	public void add(char[] chars, int off, int len, double value);
+
+	/**
+	 * @return the number of distinct keys counted (or, for an approximate
+	 *         counter, tracked)
+	 */
+	public int size();
+}
@@ -0,0 +1,448 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.data;
+
+import java.util.Arrays;
+
+/**
+ * a fixed-size, mergeable sketch of the distribution of a stream of numbers,
+ * in logarithmic buckets of bounded relative width (as in HDR histograms and
+ * DDSketch).
+ * 
+ * a positive value v goes into bucket ceil(log(v) / log(gamma)), where
+ * gamma = (1 + a) / (1 - a) for a relative accuracy a; negative values go
+ * into a second set of buckets by magnitude, and zeros are counted apart.
+ * each bucket stands for the value 2 * gamma^i / (gamma + 1), which lies
+ * within a relative distance a of every value in the bucket, so quantiles
+ * and bin counts are accurate to within a (in value, not rank).
+ * 
+ * each set of buckets spans at most <em>maxBuckets</em> consecutive
+ * indexes; should the values spread further, the buckets of the smallest
+ * magnitudes are folded into the lowest one kept, so memory never grows
+ * beyond that, however many values are added. with the defaults, that is
+ * 2048 buckets per sign, 1% accuracy over values spanning some 17 orders of
+ * magnitude. the exact count, sum, minimum and maximum are kept as well.
+ * 
+ * until more than <em>maxExact</em> distinct values have been seen, they are
+ * also counted exactly, and quantiles and bins come from those counts; so
+ * data with few distinct values (small integers, say) is binned without
+ * any error, rather than spilling across the edges of bins.
+ * sketches with the same accuracy can be merged, with the same result as
+ * adding all of their values to one.
+ * 
+ * this class is not synchronized.
+ */
+public class LogHistogram {
+
+	public static final double DEFAULT_ACCURACY = 0.01;
+	public static final int DEFAULT_MAX_BUCKETS = 2048;
+	public static final int DEFAULT_MAX_EXACT = 4096;
+
+	private final double accuracy;
+	private final double gamma;
+	private final double logGamma;
+	private final Buckets positive, negative;
+	private final int maxExact;
+
+	// the exact count of each distinct value (by its bits), until there are
+	// too many of them
+	private LongCountMap exact = new LongCountMap();
+	private double zeros = 0;
+	private double count = 0;
+	private double sum = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public LogHistogram() {
+		this(DEFAULT_ACCURACY, DEFAULT_MAX_BUCKETS, DEFAULT_MAX_EXACT);
+	}
+
+	/**
+	 * @param accuracy
+	 *            the relative accuracy (between 0 and 1, exclusive)
+	 * @param maxBuckets
+	 *            the most buckets kept for each sign
+	 * @param maxExact
+	 *            the most distinct values counted exactly (0 for none)
+	 */
+	public LogHistogram(double accuracy, int maxBuckets, int maxExact) {
+		if (!(accuracy > 0 && accuracy < 1) || maxBuckets < 1) {
+			throw new IllegalArgumentException("invalid accuracy or bucket "
+					+ "count");
+		}
+		this.accuracy = accuracy;
+		gamma = (1 + accuracy) / (1 - accuracy);
+		logGamma = Math.log(gamma);
+		positive = new Buckets(maxBuckets);
+		negative = new Buckets(maxBuckets);
+		this.maxExact = maxExact;
+		if (maxExact == 0) {
+			exact = null;
+		}
+	}
+
+	/**
+	 * add a value
+	 * 
+	 * @param value
+	 *            a finite number
+	 */
+	public void add(double value) {
+		add(value, 1);
+	}
+
+	/**
+	 * add a value <em>weight</em> times
+	 * 
+	 * @param value
+	 *            a finite number
+	 * @param weight
+	 *            the weight (not negative)
+	 */
+	public void add(double value, double weight) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("not a finite number: " + value);
+		}
+		if (!(weight >= 0)) {
+			throw new IllegalArgumentException("negative weight: " + weight);
+		}
+		if (weight == 0) {
+			return;
+		}
+		if (value > 0) {
+			positive.add(index(value), weight);
+		} else if (value < 0) {
+			negative.add(index(-value), weight);
+		} else {
+			value = 0; // not -0
+			zeros += weight;
+		}
+		if (exact != null) {
+			exact.add(Double.doubleToLongBits(value), weight);
+			if (exact.size() > maxExact) {
+				exact = null;
+			}
+		}
+		count += weight;
+		sum += value * weight;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * count the values falling into each of a series of bins
+	 * 
+	 * @param edges
+	 *            the edges of the bins, in ascending order: bin i holds
+	 *            values from edges[i] up to (but, except in the last bin, not
+	 *            including) edges[i + 1]
+	 * @return the (approximate) count of each bin; values outside the bins
+	 *         aren't counted
+	 */
+	public double[] bin(double[] edges) {
+		double[] counts = new double[Math.max(edges.length - 1, 0)];
+		if (counts.length == 0) {
+			return counts;
+		}
+		if (exact != null) {
+			for (int i = 0; i < exact.size(); i++) {
+				binValue(edges, counts, Double.longBitsToDouble(exact.key(i)),
+						exact.value(i));
+			}
+			return counts;
+		}
+		for (int i = negative.max; i >= negative.min; i--) {
+			binValue(edges, counts, clamp(-value(i)), negative.get(i));
+		}
+		binValue(edges, counts, 0, zeros);
+		for (int i = positive.min; i <= positive.max; i++) {
+			binValue(edges, counts, clamp(value(i)), positive.get(i));
+		}
+		return counts;
+	}
+
+	/**
+	 * forget every value added so far
+	 */
+	public void clear() {
+		positive.clear();
+		negative.clear();
+		exact = maxExact == 0 ? null : new LongCountMap();
+		zeros = count = sum = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * @return the number of values added (the sum of their weights)
+	 */
+	public double count() {
+		return count;
+	}
+
+	public double getAccuracy() {
+		return accuracy;
+	}
+
+	/**
+	 * @return the greatest value added (exact), or -Infinity if none were
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the least value added (exact), or Infinity if none were
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return the number of distinct values, while they are counted exactly;
+	 *         otherwise the number of buckets holding values (counting zero
+	 *         as one)
+	 */
+	public int buckets() {
+		if (exact != null) {
+			return exact.size();
+		}
+		return positive.used() + negative.used() + (zeros > 0 ? 1 : 0);
+	}
+
+	/**
+	 * @return true if every value added so far has been counted exactly
+	 */
+	public boolean isExact() {
+		return exact != null;
+	}
+
+	/**
+	 * add the values of another sketch to this one
+	 * 
+	 * @param other
+	 *            a sketch with the same accuracy
+	 */
+	public void merge(LogHistogram other) {
+		if (other.accuracy != accuracy) {
+			throw new IllegalArgumentException("can't merge sketches of "
+					+ "different accuracy");
+		}
+		for (int i = other.positive.min; i <= other.positive.max; i++) {
+			positive.add(i, other.positive.get(i));
+		}
+		for (int i = other.negative.min; i <= other.negative.max; i++) {
+			negative.add(i, other.negative.get(i));
+		}
+		if (exact != null && other.exact != null) {
+			for (int i = 0; i < other.exact.size() && exact != null; i++) {
+				exact.add(other.exact.key(i), other.exact.value(i));
+				if (exact.size() > maxExact) {
+					exact = null;
+				}
+			}
+		} else {
+			exact = null;
+		}
+		zeros += other.zeros;
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * @param q
+	 *            a quantile, between 0 and 1
+	 * @return an estimate of the value at quantile <em>q</em> (exact at 0
+	 *         and 1), or NaN if no values were added
+	 */
+	public double quantile(double q) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		if (q <= 0) {
+			return min;
+		}
+		if (q >= 1) {
+			return max;
+		}
+		double rank = q * count, seen = 0;
+		if (exact != null) {
+			double[] values = new double[exact.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = Double.longBitsToDouble(exact.key(i));
+			}
+			Arrays.sort(values);
+			for (double value : values) {
+				seen += exact.get(Double.doubleToLongBits(value));
+				if (seen > rank) {
+					return value;
+				}
+			}
+			return max;
+		}
+		for (int i = negative.max; i >= negative.min; i--) {
+			seen += negative.get(i);
+			if (seen > rank) {
+				return clamp(-value(i));
+			}
+		}
+		seen += zeros;
+		if (seen > rank) {
+			return 0;
+		}
+		for (int i = positive.min; i <= positive.max; i++) {
+			seen += positive.get(i);
+			if (seen > rank) {
+				return clamp(value(i));
+			}
+		}
+		return max;
+	}
+
+	private static void binValue(double[] edges, double[] counts,
+			double value, double count) {
+		if (count == 0 || value < edges[0]
+				|| value > edges[edges.length - 1]) {
+			return;
+		}
+		int i = Arrays.binarySearch(edges, value);
+		if (i < 0) {
+			i = -i - 2; // the edge below
+		} else {
+			// on an edge: the bin above, unless it's the last edge
+			while (i + 1 < edges.length && edges[i + 1] == value) {
+				i++;
+			}
+		}
+		counts[Math.min(i, counts.length - 1)] += count;
+	}
+
+	private double clamp(double value) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	private int index(double magnitude) {
+		return (int) Math.ceil(Math.log(magnitude) / logGamma);
+	}
+
+	private double value(int index) {
+		return 2 * Math.exp(index * logGamma) / (gamma + 1);
+	}
+
+	/**
+	 * the counts of a range of consecutive bucket indexes, at most
+	 * <em>maxBuckets</em> long
+	 */
+	private static final class Buckets {
+		private final int maxBuckets;
+		private double[] counts = new double[0];
+		private int offset; // the index of counts[0]
+
+		// the range of indexes in use (empty if min > max)
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+
+		Buckets(int maxBuckets) {
+			this.maxBuckets = maxBuckets;
+		}
+
+		void add(int index, double weight) {
+			if (weight == 0) {
+				return;
+			}
+			if (index < min || index > max) {
+				extend(index);
+			}
+			// anything below the range has been folded into its bottom
+			counts[Math.max(index, min) - offset] += weight;
+		}
+
+		void clear() {
+			counts = new double[0];
+			min = Integer.MAX_VALUE;
+			max = Integer.MIN_VALUE;
+		}
+
+		double get(int index) {
+			return counts[index - offset];
+		}
+
+		int used() {
+			int n = 0;
+			for (int i = min; i <= max; i++) {
+				if (counts[i - offset] != 0) {
+					n++;
+				}
+			}
+			return n;
+		}
+
+		private void extend(int index) {
+			boolean empty = min > max;
+			int newMax = empty ? index : Math.max(max, index);
+			int newMin = empty ? index : Math.min(min, index);
+			if ((long) newMax - newMin + 1 > maxBuckets) {
+				// fold the smallest magnitudes into the lowest bucket kept
+				newMin = newMax - maxBuckets + 1;
+			}
+			if (newMin >= offset && newMax < offset + counts.length) {
+				if (!empty && newMin > min) {
+					fold(newMin);
+				}
+				min = newMin;
+				max = newMax;
+				return;
+			}
+
+			int span = newMax - newMin + 1;
+			int length = Math.min(maxBuckets, Math.max(Math.max(span, 16),
+					counts.length * 2));
+			int newOffset = newMin - (length - span) / 2;
+			double[] c = new double[length];
+			if (!empty) {
+				for (int i = min; i <= max; i++) {
+					c[Math.max(i, newMin) - newOffset] += counts[i - offset];
+				}
+			}
+			counts = c;
+			offset = newOffset;
+			min = newMin;
+			max = newMax;
+		}
+
+		/**
+		 * move the counts below <em>newMin</em> into it, in place
+		 */
+		private void fold(int newMin) {
+			double folded = 0;
+			for (int i = min; i < newMin; i++) {
+				folded += counts[i - offset];
+				counts[i - offset] = 0;
+			}
+			counts[newMin - offset] += folded;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.data;
+
+/**
+ * an insertion-ordered map from primitive long keys to primitive double
+ * counts; the long-keyed counterpart of CountMap, with the same layout (dense
+ * parallel arrays plus an open-addressing table of indices), so counting
+ * allocates nothing once a key has been seen.
+ * 
+ * this class is not synchronized.
+ */
+public class LongCountMap {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] keys;
+	private double[] values;
+	private int size = 0;
+
+	// slot -> (index into the dense arrays) + 1; 0 marks an empty slot
+	private int[] table;
+	private int mask;
+
+	/**
+	 * create an empty map
+	 */
+	public LongCountMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * create an empty map with room for <em>capacity</em> keys before it
+	 * needs to grow
+	 * 
+	 * @param capacity
+	 *            the expected number of keys
+	 */
+	public LongCountMap(int capacity) {
+		capacity = Math.max(capacity, DEFAULT_CAPACITY);
+		keys = new long[capacity];
+		values = new double[capacity];
+		int slots = Integer.highestOneBit(capacity * 2 - 1) * 2;
+		table = new int[slots];
+		mask = slots - 1;
+	}
+
+	/**
+	 * add <em>value</em> to the count for <em>key</em>
+	 * 
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the amount to add
+	 */
+	public void add(long key, double value) {
+		// entry() may grow the arrays, so it has to come first
+		int i = entry(key);
+		values[i] += value;
+	}
+
+	/**
+	 * @param key
+	 *            the key
+	 * @return the index of <em>key</em>'s entry, which is added (with a count
+	 *         of 0) if the key has not been seen before
+	 */
+	public int entry(long key) {
+		int slot = spread(key) & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (keys[e - 1] == key) {
+				return e - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size == keys.length) {
+			grow();
+			slot = spread(key) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+		}
+		keys[size] = key;
+		values[size] = 0;
+		table[slot] = ++size;
+		return size - 1;
+	}
+
+	/**
+	 * @param key
+	 *            a key
+	 * @return the count for <em>key</em>, or 0 if it has not been counted
+	 */
+	public double get(long key) {
+		int slot = spread(key) & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (keys[e - 1] == key) {
+				return values[e - 1];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * add <em>value</em> to the count of the <em>i</em>th entry
+	 * 
+	 * @param i
+	 *            an entry index, as returned by entry()
+	 * @param value
+	 *            the amount to add
+	 */
+	public void increment(int i, double value) {
+		checkIndex(i);
+		values[i] += value;
+	}
+
+	/**
+	 * @param i
+	 *            an entry index (0 &lt;= i &lt; size())
+	 * @return the key of the <em>i</em>th entry in input order
+	 */
+	public long key(int i) {
+		checkIndex(i);
+		return keys[i];
+	}
+
+	/**
+	 * @return the number of distinct keys
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i
+	 *            an entry index (0 &lt;= i &lt; size())
+	 * @return the count of the <em>i</em>th entry in input order
+	 */
+	public double value(int i) {
+		checkIndex(i);
+		return values[i];
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("entry " + i + " of " + size);
+		}
+	}
+
+	private void grow() {
+		int capacity = keys.length * 2;
+		long[] k = new long[capacity];
+		System.arraycopy(keys, 0, k, 0, size);
+		keys = k;
+		double[] v = new double[capacity];
+		System.arraycopy(values, 0, v, 0, size);
+		values = v;
+
+		table = new int[table.length * 2];
+		mask = table.length - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = spread(keys[i]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+	}
+
+	private static int spread(long key) {
+		// bucket numbers are often consecutive; mix them up (cf. SplitMix64)
+		long h = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+		return (int) (h ^ (h >>> 29));
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * a fixed-size heavy-hitters sketch (the Space-Saving algorithm of Metwally,
+ * Agrawal and El Abbadi, in its weighted form).
+ * 
+ * at most <em>capacity</em> keys are tracked at any time. when a new key
+ * arrives and the sketch is full, the key with the smallest count is evicted
+ * and the newcomer inherits its count, which is remembered as the
+ * newcomer's error. as a result, for every tracked key
+ * 
+ * <pre>
+ * count - error &lt;= true count &lt;= count
+ * </pre>
+ * 
+ * the error is never more than total() / capacity, and every key whose true
+ * count exceeds total() / capacity is guaranteed to be tracked. weights must
+ * not be negative for these bounds to hold.
+ * 
+ * this class is not synchronized.
+ */
+public class SpaceSaving implements KeyCounter {
+
+	private final int capacity;
+
+	// per-counter state, indexed by counter number
+	private final String[] keys;
+	private final int[] hashes;
+	private final double[] counts;
+	private final double[] errors;
+	private final int[] heapIndex;
+	private int size = 0;
+
+	// min-heap of counter numbers, ordered by count
+	private final int[] heap;
+
+	// slot -> counter number + 1; 0 marks an empty slot
+	private final int[] table;
+	private final int mask;
+
+	private double total = 0;
+
+	/**
+	 * create a sketch tracking at most <em>capacity</em> keys
+	 * 
+	 * @param capacity
+	 *            the number of counters
+	 */
+	public SpaceSaving(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+		keys = new String[capacity];
+		hashes = new int[capacity];
+		counts = new double[capacity];
+		errors = new double[capacity];
+		heapIndex = new int[capacity];
+		heap = new int[capacity];
+		int slots = Integer.highestOneBit(capacity * 2 - 1) * 2;
+		table = new int[slots];
+		mask = slots - 1;
+	}
+
+	/**
+	 * add <em>weight</em> occurrences of the key made up of <em>len</em>
+	 * characters of <em>chars</em> starting at <em>off</em>; a String is only
+	 * created if the key is not currently tracked
+	 * 
+	 * @param chars
+	 *            the characters
+	 * @param off
+	 *            the offset of the key in <em>chars</em>
+	 * @param len
+	 *            the length of the key
+	 * @param weight
+	 *            the (non-negative) weight
+	 */
+	public void add(char[] chars, int off, int len, double weight) {
+		int h = 0;
+		for (int i = off; i < off + len; i++) {
+			h = 31 * h + chars[i];
+		}
+		int slot = spread(h) & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (hashes[e - 1] == h && equals(keys[e - 1], chars, off, len)) {
+				increment(e - 1, weight);
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		insert(new String(chars, off, len), h, weight);
+	}
+
+	/**
+	 * add <em>weight</em> occurrences of <em>key</em>
+	 * 
+	 * @param key
+	 *            the key
+	 * @param weight
+	 *            the (non-negative) weight
+	 */
+	public void add(String key, double weight) {
+		int c = find(key, key.hashCode());
+		if (c >= 0) {
+			increment(c, weight);
+		} else {
+			insert(key, key.hashCode(), weight);
+		}
+	}
+
+	/**
+	 * @return the number of counters
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param i
+	 *            a counter number (0 &lt;= i &lt; size())
+	 * @return the (over-)estimated count of counter <em>i</em>'s key
+	 */
+	public double count(int i) {
+		checkIndex(i);
+		return counts[i];
+	}
+
+	/**
+	 * @param i
+	 *            a counter number (0 &lt;= i &lt; size())
+	 * @return the maximum amount by which count(i) overestimates the true
+	 *         count
+	 */
+	public double error(int i) {
+		checkIndex(i);
+		return errors[i];
+	}
+
+	/**
+	 * @param i
+	 *            a counter number (0 &lt;= i &lt; size())
+	 * @return the key tracked by counter <em>i</em>
+	 */
+	public String key(int i) {
+		checkIndex(i);
+		return keys[i];
+	}
+
+	/**
+	 * @return the number of keys currently tracked
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param n
+	 *            the number of keys wanted
+	 * @return the counter numbers of the (at most) <em>n</em> keys with the
+	 *         highest counts, highest first
+	 */
+	public int[] top(int n) {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		// the sketch is small (bounded by its capacity), so just sort it
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(counts[b], counts[a]);
+				return c != 0 ? c : Double.compare(errors[a], errors[b]);
+			}
+		});
+		int[] top = new int[Math.max(0, Math.min(n, size))];
+		for (int i = 0; i < top.length; i++) {
+			top[i] = order[i];
+		}
+		return top;
+	}
+
+	/**
+	 * @return the total weight added to the sketch
+	 */
+	public double total() {
+		return total;
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("counter " + i + " of " + size);
+		}
+	}
+
+	private static boolean equals(String key, char[] chars, int off, int len) {
+		if (key.length() != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (key.charAt(i) != chars[off + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int find(String key, int h) {
+		int slot = spread(h) & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (hashes[e - 1] == h && keys[e - 1].equals(key)) {
+				return e - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void increment(int c, double weight) {
+		counts[c] += weight;
+		total += weight;
+		// a negative weight (outside the contract, but possible) moves the
+		// counter towards the root rather than away from it
+		if (weight < 0) {
+			siftUp(heapIndex[c]);
+		} else {
+			siftDown(heapIndex[c]);
+		}
+	}
+
+	private void insert(String key, int h, double weight) {
+		int c;
+		if (size < capacity) {
+			c = size++;
+			counts[c] = weight;
+			errors[c] = 0;
+			heap[c] = c;
+			heapIndex[c] = c;
+			link(c, key, h);
+			siftUp(c);
+		} else {
+			// evict the smallest counter and hand its count to the newcomer
+			c = heap[0];
+			unlink(c);
+			errors[c] = counts[c];
+			counts[c] += weight;
+			link(c, key, h);
+			siftDown(0);
+		}
+		total += weight;
+	}
+
+	private void link(int c, String key, int h) {
+		keys[c] = key;
+		hashes[c] = h;
+		int slot = spread(h) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = c + 1;
+	}
+
+	private void siftDown(int i) {
+		for (;;) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				return;
+			}
+			if (child + 1 < size
+					&& counts[heap[child + 1]] < counts[heap[child]]) {
+				child++;
+			}
+			if (counts[heap[i]] <= counts[heap[child]]) {
+				return;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (counts[heap[parent]] <= counts[heap[i]]) {
+				return;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private void swap(int i, int j) {
+		int t = heap[i];
+		heap[i] = heap[j];
+		heap[j] = t;
+		heapIndex[heap[i]] = i;
+		heapIndex[heap[j]] = j;
+	}
+
+	/**
+	 * remove counter <em>c</em>'s key from the lookup table, shifting later
+	 * entries of the same probe run back so that lookups keep working
+	 */
+	private void unlink(int c) {
+		int slot = spread(hashes[c]) & mask;
+		while (table[slot] != c + 1) {
+			slot = (slot + 1) & mask;
+		}
+		int hole = slot;
+		for (;;) {
+			slot = (slot + 1) & mask;
+			int e = table[slot];
+			if (e == 0) {
+				break;
+			}
+			int home = spread(hashes[e - 1]) & mask;
+			// can the entry at slot move back into the hole? only if its home
+			// slot is not between the hole and slot (cyclically)
+			if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+				table[hole] = e;
+				hole = slot;
+			}
+		}
+		table[hole] = 0;
+		keys[c] = null;
+	}
+}
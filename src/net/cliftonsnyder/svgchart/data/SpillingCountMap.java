@@ -0,0 +1,519 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.data;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * an exact counter for more distinct keys than fit in memory.
+ * 
+ * keys are counted in a CountMap until its estimated footprint exceeds a
+ * budget; its entries are then written to a temporary file (a run) sorted by
+ * key, and counting carries on in an empty map. merge() reads the runs back,
+ * along with whatever is still in memory, and k-way merges them into a
+ * single stream in key order, summing each key's partial counts. each key
+ * also carries the position of the add() that first saw it, so that input
+ * order can be recovered.
+ * 
+ * a run holds, for each key, its length in chars, its chars (UTF-16), its
+ * count (a double) and its first position (a long). runs are read and
+ * written through FileChannels, a buffer at a time; when there are more than
+ * MAX_FAN_IN of them, groups of runs are merged into bigger ones first, so
+ * that only a bounded number of files are open (and buffers allocated) at
+ * once.
+ * 
+ * this class is not synchronized.
+ */
+public class SpillingCountMap implements KeyCounter, Closeable {
+
+	/**
+	 * the estimated footprint in bytes of an entry, besides the chars of its
+	 * key: the String, the CountMap's arrays and hash table, and the first
+	 * position
+	 */
+	public static final int ENTRY_OVERHEAD = 96;
+
+	/**
+	 * the most runs merged at once
+	 */
+	public static final int MAX_FAN_IN = 64;
+
+	private static final int MIN_BUFFER_SIZE = 4096;
+	private static final int MAX_BUFFER_SIZE = 1 << 16;
+
+	// the order of sources in a merge: by current key
+	private static final Comparator<Source> BY_KEY = new Comparator<Source>() {
+		public int compare(Source a, Source b) {
+			return a.key.compareTo(b.key);
+		}
+	};
+
+	private final long budget;
+	private final int bufferSize;
+	private final CountMap counts = new CountMap();
+	private long[] firstSeen = new long[16];
+	private long footprint = 0;
+	private long added = 0;
+	private final List<File> runs = new ArrayList<File>();
+
+	/**
+	 * create an empty map
+	 * 
+	 * @param budget
+	 *            the (estimated) number of bytes the keys held in memory may
+	 *            take up before they are spilled to a run
+	 */
+	public SpillingCountMap(long budget) {
+		if (budget <= 0) {
+			throw new IllegalArgumentException("memory budget must be > 0: "
+					+ budget);
+		}
+		this.budget = budget;
+		bufferSize = (int) Math.max(MIN_BUFFER_SIZE,
+				Math.min(MAX_BUFFER_SIZE, budget / (4 * MAX_FAN_IN)));
+	}
+
+	/**
+	 * add <em>value</em> to the count for the key made up of <em>len</em>
+	 * characters of <em>chars</em> starting at <em>off</em>, spilling the keys
+	 * in memory to a run if that takes them over budget
+	 * 
+	 * @param chars
+	 *            the characters
+	 * @param off
+	 *            the offset of the key in <em>chars</em>
+	 * @param len
+	 *            the length of the key
+	 * @param value
+	 *            the amount to add
+	 * @throws UncheckedIOException
+	 *             if the run can't be written
+	 */
+	public void add(char[] chars, int off, int len, double value) {
+		int size = counts.size();
+		int i = counts.entry(chars, off, len);
+		if (i == size) {
+			if (i == firstSeen.length) {
+				long[] bigger = new long[i * 2];
+				System.arraycopy(firstSeen, 0, bigger, 0, i);
+				firstSeen = bigger;
+			}
+			firstSeen[i] = added;
+			footprint += ENTRY_OVERHEAD + 2L * len;
+		}
+		counts.increment(i, value);
+		added++;
+		if (footprint > budget) {
+			try {
+				spill();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * delete the runs
+	 */
+	public void close() {
+		for (File run : runs) {
+			run.delete();
+		}
+		runs.clear();
+	}
+
+	/**
+	 * @return the keys held in memory: if the map hasn't spilled, every key
+	 *         counted, in input order
+	 */
+	public CountMap getCounts() {
+		return counts;
+	}
+
+	/**
+	 * @return whether any keys have been spilled to a run
+	 */
+	public boolean hasSpilled() {
+		return !runs.isEmpty();
+	}
+
+	/**
+	 * merge the runs and the keys held in memory. nothing may be added once
+	 * the merge has begun
+	 * 
+	 * @return every key counted, once each, in key order
+	 * @throws IOException
+	 *             if a run can't be read or written
+	 */
+	public Merge merge() throws IOException {
+		// leave room for the keys in memory
+		while (runs.size() >= MAX_FAN_IN) {
+			List<File> group = new ArrayList<File>(runs.subList(0,
+					MAX_FAN_IN));
+			File run = createRun();
+			Merge merge = new Merge(open(group));
+			try {
+				RunWriter writer = new RunWriter(run, bufferSize);
+				try {
+					while (merge.next()) {
+						writer.write(merge.key, merge.count, merge.firstSeen);
+					}
+				} finally {
+					writer.close();
+				}
+			} finally {
+				merge.close();
+			}
+			for (File f : group) {
+				f.delete();
+			}
+			runs.removeAll(group);
+		}
+		List<Source> sources = open(runs);
+		sources.add(new MemorySource(counts, firstSeen));
+		return new Merge(sources);
+	}
+
+	/**
+	 * @return the number of distinct keys held in memory; once the map has
+	 *         spilled, the number of distinct keys counted is only known after
+	 *         merge()
+	 */
+	public int size() {
+		return counts.size();
+	}
+
+	/**
+	 * @return a new, empty run, which close() will delete
+	 */
+	private File createRun() throws IOException {
+		File run = File.createTempFile("svgchart-", ".run");
+		run.deleteOnExit();
+		runs.add(run);
+		return run;
+	}
+
+	private List<Source> open(List<File> runs) throws IOException {
+		List<Source> sources = new ArrayList<Source>(runs.size() + 1);
+		try {
+			for (File run : runs) {
+				sources.add(new RunReader(run, bufferSize));
+			}
+		} catch (IOException e) {
+			for (Source source : sources) {
+				source.close();
+			}
+			throw e;
+		}
+		return sources;
+	}
+
+	/**
+	 * write the keys in memory to a new run, in key order, and forget them
+	 */
+	private void spill() throws IOException {
+		RunWriter writer = new RunWriter(createRun(), bufferSize);
+		try {
+			for (int i : counts.view(CountMap.Order.NAME)) {
+				writer.write(counts.key(i), counts.value(i), firstSeen[i]);
+			}
+		} finally {
+			writer.close();
+		}
+		counts.clear();
+		footprint = 0;
+	}
+
+	/**
+	 * the merged entries of a SpillingCountMap, one key at a time
+	 */
+	public static class Merge implements Closeable {
+
+		private final List<Source> sources;
+		private final PriorityQueue<Source> queue;
+
+		private String key;
+		private double count;
+		private long firstSeen;
+
+		private Merge(List<Source> sources) throws IOException {
+			this.sources = sources;
+			queue = new PriorityQueue<Source>(Math.max(1, sources.size()),
+					BY_KEY);
+			try {
+				for (Source source : sources) {
+					advance(source);
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * close the runs being merged
+		 */
+		public void close() {
+			for (Source source : sources) {
+				source.close();
+			}
+		}
+
+		/**
+		 * @return the current key's total count
+		 */
+		public double count() {
+			return count;
+		}
+
+		/**
+		 * @return the position of the add() that first saw the current key
+		 */
+		public long firstSeen() {
+			return firstSeen;
+		}
+
+		/**
+		 * @return the current key
+		 */
+		public String key() {
+			return key;
+		}
+
+		/**
+		 * move on to the next key
+		 * 
+		 * @return false if there are no more
+		 * @throws IOException
+		 *             if a run can't be read
+		 */
+		public boolean next() throws IOException {
+			Source source = queue.poll();
+			if (source == null) {
+				key = null;
+				return false;
+			}
+			key = source.key;
+			count = source.count;
+			firstSeen = source.firstSeen;
+			advance(source);
+			while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+				source = queue.poll();
+				count += source.count;
+				firstSeen = Math.min(firstSeen, source.firstSeen);
+				advance(source);
+			}
+			return true;
+		}
+
+		private void advance(Source source) throws IOException {
+			if (source.next()) {
+				queue.add(source);
+			}
+		}
+	}
+
+	/**
+	 * a sequence of entries in key order
+	 */
+	private static abstract class Source {
+
+		// the current entry
+		String key;
+		double count;
+		long firstSeen;
+
+		/**
+		 * move on to the next entry
+		 * 
+		 * @return false if there are no more
+		 */
+		abstract boolean next() throws IOException;
+
+		void close() {
+		}
+	}
+
+	/**
+	 * the entries held in memory
+	 */
+	private static class MemorySource extends Source {
+
+		private final CountMap counts;
+		private final long[] positions;
+		private final int[] order;
+		private int next = 0;
+
+		MemorySource(CountMap counts, long[] positions) {
+			this.counts = counts;
+			this.positions = positions;
+			order = counts.view(CountMap.Order.NAME);
+		}
+
+		boolean next() {
+			if (next == order.length) {
+				return false;
+			}
+			int i = order[next++];
+			key = counts.key(i);
+			count = counts.value(i);
+			firstSeen = positions[i];
+			return true;
+		}
+	}
+
+	/**
+	 * the entries of a run, read a buffer at a time
+	 */
+	private static class RunReader extends Source {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private char[] chars = new char[64];
+
+		RunReader(File run, int bufferSize) throws IOException {
+			channel = new FileInputStream(run).getChannel();
+			buffer = ByteBuffer.allocate(bufferSize);
+			buffer.flip();
+		}
+
+		boolean next() throws IOException {
+			if (!fill(4)) {
+				if (buffer.hasRemaining()) {
+					throw new EOFException("truncated run");
+				}
+				return false;
+			}
+			int len = buffer.getInt();
+			if (len > chars.length) {
+				chars = new char[Math.max(len, chars.length * 2)];
+			}
+			for (int i = 0; i < len; i++) {
+				require(2);
+				chars[i] = buffer.getChar();
+			}
+			require(16);
+			key = new String(chars, 0, len);
+			count = buffer.getDouble();
+			firstSeen = buffer.getLong();
+			return true;
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing more to read anyway
+			}
+		}
+
+		/**
+		 * make sure at least <em>n</em> bytes are buffered, if there are that
+		 * many left
+		 * 
+		 * @return false if there aren't
+		 */
+		private boolean fill(int n) throws IOException {
+			if (buffer.remaining() >= n) {
+				return true;
+			}
+			buffer.compact();
+			while (buffer.position() < n) {
+				if (channel.read(buffer) < 0) {
+					buffer.flip();
+					return false;
+				}
+			}
+			buffer.flip();
+			return true;
+		}
+
+		private void require(int n) throws IOException {
+			if (!fill(n)) {
+				throw new EOFException("truncated run");
+			}
+		}
+	}
+
+	/**
+	 * writes entries to a run, a buffer at a time
+	 */
+	private static class RunWriter {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+
+		RunWriter(File run, int bufferSize) throws IOException {
+			channel = new FileOutputStream(run).getChannel();
+			buffer = ByteBuffer.allocate(bufferSize);
+		}
+
+		void write(String key, double count, long firstSeen)
+				throws IOException {
+			reserve(4);
+			buffer.putInt(key.length());
+			for (int i = 0; i < key.length(); i++) {
+				reserve(2);
+				buffer.putChar(key.charAt(i));
+			}
+			reserve(16);
+			buffer.putDouble(count);
+			buffer.putLong(firstSeen);
+		}
+
+		/**
+		 * write out what's buffered and close the run
+		 */
+		void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		private void reserve(int n) throws IOException {
+			if (buffer.remaining() < n) {
+				flush();
+			}
+		}
+	}
+}
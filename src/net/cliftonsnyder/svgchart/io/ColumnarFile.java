@@ -0,0 +1,639 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import net.cliftonsnyder.svgchart.data.CountMap;
+
+/**
+ * chart input in a binary, column-oriented form, so that data which is
+ * charted again and again is read without parsing any text. each row has the
+ * same columns, and each column holds either names or numbers; names are
+ * stored as indexes into a dictionary of distinct names.
+ * 
+ * a columnar file is laid out as follows (numbers are little-endian, and
+ * every block starts on a multiple of 8 bytes):
+ * 
+ * <pre>
+ * 0x89 'S' 'V' 'C'         magic
+ * byte                     version (1)
+ * byte                     c, the number of columns (at most MAX_COLUMNS)
+ * 10 * byte                the kind of each column, NAME or NUMBER (0 past c)
+ * blocks                   the rows, BLOCK_ROWS (or, in the last block, fewer)
+ *                          at a time:
+ *     int                  n, the number of rows in the block
+ *     int                  0
+ *     c * column           each column's values: n ints (dictionary indexes,
+ *                          padded with 0 to a multiple of 8 bytes) for a
+ *                          NAME column, or n doubles for a NUMBER column
+ * int                      d, the number of names in the dictionary
+ * d * (int, bytes)         the names, as UTF-8, each preceded by its length
+ * long                     the offset of the dictionary
+ * long                     the number of rows
+ * </pre>
+ * 
+ * like PNG's, the magic starts with a byte that can't start a line of ASCII
+ * or UTF-8 text, so text input is never taken for a columnar file.
+ * 
+ * a file is read by map(), block by block, straight out of memory-mapped
+ * windows of at most MAX_WINDOW bytes: nextBlock() hands out views of each
+ * column of the current block, so no object is made per row, and files far
+ * bigger than the heap can be read. data read from a stream by read() is
+ * held in memory instead.
+ */
+public class ColumnarFile implements Closeable {
+
+	public static final int VERSION = 1;
+
+	/**
+	 * the kind of column that holds names
+	 */
+	public static final byte NAME = 0;
+
+	/**
+	 * the kind of column that holds numbers
+	 */
+	public static final byte NUMBER = 1;
+
+	public static final int MAX_COLUMNS = 10;
+
+	/**
+	 * the most rows in a block
+	 */
+	public static final int BLOCK_ROWS = 1 << 16;
+
+	/**
+	 * the largest part of a file mapped at once
+	 */
+	public static final int MAX_WINDOW = 1 << 30;
+
+	private static final byte[] MAGIC = { (byte) 0x89, 'S', 'V', 'C' };
+	private static final int HEADER_SIZE = 16;
+	private static final int TRAILER_SIZE = 16;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final FileChannel channel; // null if the data is in memory
+	private final long size;
+	private final byte[] kinds;
+	private final String[] names;
+	private final long rows;
+	private final long blocksEnd;
+
+	// the mapped part of the file, and where it starts
+	private ByteBuffer window;
+	private long windowStart;
+
+	// the current block, and where the next one starts
+	private long position = HEADER_SIZE;
+	private int blockRows;
+	private final IntBuffer[] nameColumns;
+	private final DoubleBuffer[] numberColumns;
+
+	private ColumnarFile(FileChannel channel, ByteBuffer data, long size)
+			throws IOException {
+		this.channel = channel;
+		this.size = size;
+		if (size < HEADER_SIZE + TRAILER_SIZE) {
+			throw new IOException("truncated columnar file");
+		}
+		if (data != null) {
+			window = data;
+		} else {
+			map(0, HEADER_SIZE);
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (window.get(i) != MAGIC[i]) {
+				throw new IOException("not a columnar file");
+			}
+		}
+		int version = window.get(4) & 0xff;
+		if (version != VERSION) {
+			throw new IOException("unsupported columnar file version "
+					+ version);
+		}
+		int columns = window.get(5) & 0xff;
+		if (columns > MAX_COLUMNS) {
+			throw new IOException("corrupt columnar file");
+		}
+		kinds = new byte[columns];
+		for (int i = 0; i < columns; i++) {
+			kinds[i] = window.get(6 + i);
+			if (kinds[i] != NAME && kinds[i] != NUMBER) {
+				throw new IOException("corrupt columnar file");
+			}
+		}
+
+		ensureMapped(size - TRAILER_SIZE, TRAILER_SIZE);
+		blocksEnd = window.getLong((int) (size - TRAILER_SIZE - windowStart));
+		rows = window.getLong((int) (size - 8 - windowStart));
+		if (blocksEnd < HEADER_SIZE || blocksEnd > size - TRAILER_SIZE - 4
+				|| rows < 0) {
+			throw new IOException("corrupt columnar file");
+		}
+		names = readDictionary();
+		nameColumns = new IntBuffer[columns];
+		numberColumns = new DoubleBuffer[columns];
+	}
+
+	/**
+	 * @param file
+	 *            a file
+	 * @return true if <em>file</em> is an (uncompressed) columnar file
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static boolean isColumnar(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return isColumnar(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param in
+	 *            an InputStream that supports mark() (or, if it is to be read
+	 *            no further, any InputStream), positioned at the start of the
+	 *            data (which is left unread)
+	 * @return true if the data starts with a valid columnar file header (the
+	 *         magic, a supported version and known column kinds); anything
+	 *         else is left to be read as text
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static boolean isColumnar(InputStream in) throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		boolean mark = in.markSupported();
+		if (mark) {
+			in.mark(header.length);
+		}
+		int n = 0, r;
+		while (n < header.length
+				&& (r = in.read(header, n, header.length - n)) > 0) {
+			n += r;
+		}
+		if (mark) {
+			in.reset();
+		}
+		if (n < header.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		int columns = header[5] & 0xff;
+		if ((header[4] & 0xff) != VERSION || columns > MAX_COLUMNS) {
+			return false;
+		}
+		for (int i = 0; i < MAX_COLUMNS; i++) {
+			byte kind = header[6 + i];
+			if (i < columns ? kind != NAME && kind != NUMBER : kind != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * open a columnar file, to be read from memory-mapped windows; it should
+	 * be closed once read
+	 * 
+	 * @param file
+	 *            the (uncompressed) file
+	 * @return the columnar file, positioned before its first block
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs, or the file isn't a columnar file
+	 */
+	public static ColumnarFile map(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			return new ColumnarFile(channel, null, channel.size());
+		} catch (IOException e) {
+			channel.close();
+			throw new IOException(file + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * read columnar data from a stream into memory
+	 * 
+	 * @param in
+	 *            the InputStream from which to read, positioned at the start
+	 *            of the (uncompressed) data
+	 * @return the columnar file, positioned before its first block
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs, or the data isn't a columnar file
+	 */
+	public static ColumnarFile read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+		byte[] buf = new byte[1 << 16];
+		int n;
+		while ((n = in.read(buf)) > 0) {
+			bytes.write(buf, 0, n);
+		}
+		ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray()).order(
+				ByteOrder.LITTLE_ENDIAN);
+		return new ColumnarFile(null, data, data.capacity());
+	}
+
+	public void close() throws IOException {
+		window = null;
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the number of rows in the current block
+	 */
+	public int getBlockRows() {
+		return blockRows;
+	}
+
+	public int getColumns() {
+		return kinds.length;
+	}
+
+	/**
+	 * @return the number of names in the dictionary
+	 */
+	public int getDictionarySize() {
+		return names.length;
+	}
+
+	/**
+	 * @param column
+	 *            a column index
+	 * @return the kind of the column: NAME or NUMBER
+	 */
+	public byte getKind(int column) {
+		return kinds[column];
+	}
+
+	/**
+	 * @param name
+	 *            a dictionary index, as found in a NAME column
+	 * @return the name
+	 */
+	public String getName(int name) {
+		return names[name];
+	}
+
+	/**
+	 * @param column
+	 *            the index of a NAME column
+	 * @return the dictionary indexes in the column, for the rows of the
+	 *         current block (each less than getDictionarySize())
+	 */
+	public IntBuffer getNames(int column) {
+		return nameColumns[column];
+	}
+
+	/**
+	 * @param column
+	 *            the index of a NUMBER column
+	 * @return the numbers in the column, for the rows of the current block
+	 */
+	public DoubleBuffer getNumbers(int column) {
+		return numberColumns[column];
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * @param kinds
+	 *            the kind of each column
+	 * @return true if the columns are of those kinds
+	 */
+	public boolean hasColumns(byte... kinds) {
+		return Arrays.equals(this.kinds, kinds);
+	}
+
+	/**
+	 * move on to the next block of rows
+	 * 
+	 * @return false if there are no more blocks
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs, or the file is corrupt
+	 */
+	public boolean nextBlock() throws IOException {
+		if (position >= blocksEnd) {
+			blockRows = 0;
+			return false;
+		}
+		if (position + 8 > blocksEnd) {
+			throw new IOException("corrupt columnar file");
+		}
+		ensureMapped(position, 8);
+		int n = window.getInt((int) (position - windowStart));
+		if (n <= 0 || n > BLOCK_ROWS) {
+			throw new IOException("corrupt columnar file");
+		}
+		long length = 8;
+		for (byte kind : kinds) {
+			length += columnSize(kind, n);
+		}
+		if (position + length > blocksEnd) {
+			throw new IOException("truncated columnar file");
+		}
+		ensureMapped(position, length);
+
+		int offset = (int) (position - windowStart) + 8;
+		for (int c = 0; c < kinds.length; c++) {
+			int len = columnSize(kinds[c], n);
+			ByteBuffer column = window.duplicate();
+			column.limit(offset + len).position(offset);
+			column = column.slice().order(ByteOrder.LITTLE_ENDIAN);
+			if (kinds[c] == NAME) {
+				IntBuffer ids = column.asIntBuffer();
+				ids.limit(n);
+				for (int i = 0; i < n; i++) {
+					if (ids.get(i) < 0 || ids.get(i) >= names.length) {
+						throw new IOException("corrupt columnar file");
+					}
+				}
+				nameColumns[c] = ids;
+			} else {
+				numberColumns[c] = column.asDoubleBuffer();
+			}
+			offset += len;
+		}
+		blockRows = n;
+		position += length;
+		return true;
+	}
+
+	private static int columnSize(byte kind, int rows) {
+		return kind == NAME ? (4 * rows + 7) & ~7 : 8 * rows;
+	}
+
+	/**
+	 * make sure that <em>length</em> bytes at <em>offset</em> are mapped
+	 */
+	private void ensureMapped(long offset, long length) throws IOException {
+		if (offset < windowStart
+				|| offset + length > windowStart + window.capacity()) {
+			map(offset, length);
+		}
+	}
+
+	/**
+	 * map as much of the file as a window holds, starting at <em>offset</em>
+	 */
+	private void map(long offset, long length) throws IOException {
+		if (channel == null) {
+			// all of it is in memory
+			if (offset + length > size) {
+				throw new IOException("truncated columnar file");
+			}
+			return;
+		}
+		long len = Math.min(Math.max(length, MAX_WINDOW), size - offset);
+		if (len < length) {
+			throw new IOException("truncated columnar file");
+		}
+		// drop the old window first, so that only one is mapped at a time
+		window = null;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, offset, len)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		windowStart = offset;
+	}
+
+	private String[] readDictionary() throws IOException {
+		long end = size - TRAILER_SIZE;
+		ensureMapped(blocksEnd, end - blocksEnd);
+		ByteBuffer dictionary = window.duplicate().order(
+				ByteOrder.LITTLE_ENDIAN);
+		dictionary.limit((int) (end - windowStart)).position(
+				(int) (blocksEnd - windowStart));
+		int n = dictionary.getInt();
+		if (n < 0 || n > dictionary.remaining() / 4) {
+			throw new IOException("corrupt columnar file");
+		}
+		String[] names = new String[n];
+		for (int i = 0; i < n; i++) {
+			if (dictionary.remaining() < 4) {
+				throw new IOException("truncated columnar file");
+			}
+			int len = dictionary.getInt();
+			if (len < 0 || len > dictionary.remaining()) {
+				throw new IOException("corrupt columnar file");
+			}
+			byte[] bytes = new byte[len];
+			dictionary.get(bytes);
+			names[i] = new String(bytes, UTF8);
+		}
+		return names;
+	}
+
+	/**
+	 * writes rows as a columnar file, a block at a time, to any
+	 * OutputStream. names are given as characters, and numbered in the order
+	 * in which they first appear
+	 */
+	public static class Writer {
+		private final OutputStream out;
+		private final byte[] kinds;
+		private final CountMap dictionary = new CountMap();
+		private final int[][] ids;
+		private final double[][] numbers;
+		private final ByteBuffer block;
+		private int blockRows = 0;
+		private long rows = 0;
+		private long written = 0;
+
+		/**
+		 * write the header of a columnar file to <em>out</em>
+		 * 
+		 * @param out
+		 *            the OutputStream to write to
+		 * @param kinds
+		 *            the kind of each column, NAME or NUMBER
+		 * 
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		public Writer(OutputStream out, byte... kinds) throws IOException {
+			if (kinds.length > MAX_COLUMNS) {
+				throw new IllegalArgumentException("too many columns: "
+						+ kinds.length);
+			}
+			this.out = new BufferedOutputStream(out, Streams.GZIP_BUFFER_SIZE);
+			this.kinds = kinds.clone();
+			ids = new int[kinds.length][];
+			numbers = new double[kinds.length][];
+			int length = 8;
+			for (int c = 0; c < kinds.length; c++) {
+				if (kinds[c] == NAME) {
+					ids[c] = new int[BLOCK_ROWS];
+				} else if (kinds[c] == NUMBER) {
+					numbers[c] = new double[BLOCK_ROWS];
+				} else {
+					throw new IllegalArgumentException("unknown column kind "
+							+ kinds[c]);
+				}
+				length += columnSize(kinds[c], BLOCK_ROWS);
+			}
+			block = ByteBuffer.allocate(Math.max(length, HEADER_SIZE)).order(
+					ByteOrder.LITTLE_ENDIAN);
+
+			block.put(MAGIC).put((byte) VERSION).put((byte) kinds.length);
+			block.put(kinds);
+			block.position(HEADER_SIZE);
+			flushBlock();
+		}
+
+		/**
+		 * @return the number of rows written so far
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * set a NAME column of the current row
+		 * 
+		 * @param column
+		 *            the column index
+		 * @param chars
+		 *            the characters
+		 * @param off
+		 *            the offset of the name in <em>chars</em>
+		 * @param len
+		 *            the length of the name
+		 */
+		public void name(int column, char[] chars, int off, int len) {
+			ids[column][blockRows] = dictionary.entry(chars, off, len);
+		}
+
+		/**
+		 * set a NUMBER column of the current row
+		 * 
+		 * @param column
+		 *            the column index
+		 * @param value
+		 *            the number
+		 */
+		public void number(int column, double value) {
+			numbers[column][blockRows] = value;
+		}
+
+		/**
+		 * finish the current row (every column of which must have been set)
+		 * 
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		public void endRow() throws IOException {
+			rows++;
+			if (++blockRows == BLOCK_ROWS) {
+				writeBlock();
+			}
+		}
+
+		/**
+		 * write the last block, the dictionary and the trailer; <em>out</em>
+		 * is flushed, but not closed
+		 * 
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		public void finish() throws IOException {
+			if (blockRows > 0) {
+				writeBlock();
+			}
+			long dictionaryOffset = written;
+			block.putInt(dictionary.size());
+			for (int i = 0; i < dictionary.size(); i++) {
+				byte[] name = dictionary.key(i).getBytes(UTF8);
+				if (block.remaining() < 4 + name.length) {
+					flushBlock();
+				}
+				if (block.remaining() < 4 + name.length) {
+					block.putInt(name.length);
+					flushBlock();
+					out.write(name);
+					written += name.length;
+				} else {
+					block.putInt(name.length).put(name);
+				}
+			}
+			if (block.remaining() < TRAILER_SIZE) {
+				flushBlock();
+			}
+			block.putLong(dictionaryOffset).putLong(rows);
+			flushBlock();
+			out.flush();
+		}
+
+		private void writeBlock() throws IOException {
+			int n = blockRows;
+			block.putInt(n).putInt(0);
+			for (int c = 0; c < kinds.length; c++) {
+				if (kinds[c] == NAME) {
+					block.asIntBuffer().put(ids[c], 0, n);
+					block.position(block.position() + 4 * n);
+					if (n % 2 == 1) {
+						block.putInt(0);
+					}
+				} else {
+					block.asDoubleBuffer().put(numbers[c], 0, n);
+					block.position(block.position() + 8 * n);
+				}
+			}
+			flushBlock();
+			blockRows = 0;
+		}
+
+		private void flushBlock() throws IOException {
+			out.write(block.array(), 0, block.position());
+			written += block.position();
+			block.clear();
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.cliftonsnyder.svgchart.data.CountMap;
+
+/**
+ * the aggregated counts of one- or two-column bar chart input, in a compact
+ * binary form that can be written on one machine, merged with others and
+ * charted without parsing any text again. merging adds up the counts key by
+ * key, keeping keys in the order they first appear, so it is associative
+ * but for rounding: snapshots can be combined in any grouping (though not in
+ * any order, if input order matters) with the same keys and the same whole
+ * counts (up to 2^53), but fractional counts are floating-point sums, and
+ * may differ in the last digits from one grouping to another, or from a
+ * snapshot of all the input at once.
+ * 
+ * a snapshot is laid out as follows (numbers are big-endian):
+ * 
+ * <pre>
+ * 0x89 'S' 'V' 'S'         magic
+ * byte                     version (1)
+ * long                     the number of input lines counted
+ * varint                   n, the number of keys
+ * n * (varint, bytes)      the keys, as UTF-8, each preceded by its length
+ * n * double               the count of each key, in the same order
+ * </pre>
+ * 
+ * a varint is 7 bits per byte, least significant first, with the top bit set
+ * on every byte but the last. like PNG's, the magic starts with a byte that
+ * can't start a line of ASCII or UTF-8 text, so text input is never taken for
+ * a snapshot. the keys form a dictionary, and the counts a
+ * plain array of doubles indexed by it, so that a snapshot is about as big as
+ * its distinct keys, however much input went into it. snapshots may be gzip
+ * (or zstd) compressed; see Streams.decompress().
+ */
+public class Snapshot {
+
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = { (byte) 0x89, 'S', 'V', 'S' };
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final CountMap counts;
+	private long rows;
+
+	/**
+	 * create an empty snapshot
+	 */
+	public Snapshot() {
+		this(new CountMap(), 0);
+	}
+
+	/**
+	 * @param counts
+	 *            the counts (not copied)
+	 * @param rows
+	 *            the number of input lines counted
+	 */
+	public Snapshot(CountMap counts, long rows) {
+		this.counts = counts;
+		this.rows = rows;
+	}
+
+	/**
+	 * @param in
+	 *            an InputStream that supports mark(), positioned at the start
+	 *            of the data (which is left unread)
+	 * @return true if the data starts with a snapshot header (the magic and
+	 *         a supported version); anything else is left to be read as text
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static boolean isSnapshot(InputStream in) throws IOException {
+		byte[] header = new byte[MAGIC.length + 1];
+		in.mark(header.length);
+		int n = 0, r;
+		while (n < header.length
+				&& (r = in.read(header, n, header.length - n)) > 0) {
+			n += r;
+		}
+		in.reset();
+		if (n < header.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return (header[MAGIC.length] & 0xff) == VERSION;
+	}
+
+	/**
+	 * read a snapshot file, which may be compressed
+	 * 
+	 * @param file
+	 *            the file
+	 * @return the snapshot
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs, or the file isn't a snapshot
+	 */
+	public static Snapshot read(File file) throws IOException {
+		InputStream in = Streams.open(file);
+		try {
+			return read(in);
+		} catch (IOException e) {
+			throw new IOException(file + ": " + e.getMessage(), e);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * read a snapshot
+	 * 
+	 * @param in
+	 *            the InputStream from which to read, positioned at the start
+	 *            of the (uncompressed) snapshot
+	 * @return the snapshot
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs, or the data isn't a snapshot
+	 */
+	public static Snapshot read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			data.readFully(magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i]) {
+					throw new IOException("not a snapshot");
+				}
+			}
+			int version = data.readUnsignedByte();
+			if (version != VERSION) {
+				throw new IOException("unsupported snapshot version "
+						+ version);
+			}
+			long rows = data.readLong();
+			int n = readVarInt(data);
+
+			// don't trust n with memory until the keys have been read
+			List<String> keys = new ArrayList<String>(Math.min(n, 1 << 16));
+			byte[] buf = new byte[64];
+			for (int i = 0; i < n; i++) {
+				int len = readVarInt(data);
+				if (len > buf.length) {
+					buf = new byte[Math.max(len, buf.length * 2)];
+				}
+				data.readFully(buf, 0, len);
+				keys.add(new String(buf, 0, len, UTF8));
+			}
+			CountMap counts = new CountMap(n);
+			for (int i = 0; i < n; i++) {
+				counts.add(keys.get(i), data.readDouble());
+			}
+			return new Snapshot(counts, rows);
+		} catch (EOFException e) {
+			throw new IOException("truncated snapshot");
+		}
+	}
+
+	public CountMap getCounts() {
+		return counts;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * add another snapshot's counts to this one's; keys new to this snapshot
+	 * are appended in <em>other</em>'s order
+	 * 
+	 * @param other
+	 *            the snapshot to merge in
+	 */
+	public void merge(Snapshot other) {
+		counts.addAll(other.counts);
+		rows += other.rows;
+	}
+
+	/**
+	 * write the snapshot; <em>out</em> is flushed, but not closed
+	 * 
+	 * @param out
+	 *            the OutputStream to write to
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+				out, Streams.GZIP_BUFFER_SIZE));
+		data.write(MAGIC);
+		data.writeByte(VERSION);
+		data.writeLong(rows);
+		int n = counts.size();
+		writeVarInt(data, n);
+		for (int i = 0; i < n; i++) {
+			byte[] key = counts.key(i).getBytes(UTF8);
+			writeVarInt(data, key.length);
+			data.write(key);
+		}
+		for (int i = 0; i < n; i++) {
+			data.writeDouble(counts.value(i));
+		}
+		data.flush();
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				if (v < 0) {
+					break;
+				}
+				return v;
+			}
+		}
+		throw new IOException("corrupt snapshot");
+	}
+
+	private static void writeVarInt(DataOutputStream out, int v)
+			throws IOException {
+		while ((v & ~0x7f) != 0) {
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+}
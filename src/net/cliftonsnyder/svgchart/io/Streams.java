@@ -0,0 +1,263 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * opens input and output for svgchart: input is decompressed transparently
+ * if its first bytes say it is gzip (or zstd) compressed, and output goes
+ * through a file channel with a large buffer, gzip-compressed if wanted
+ * (e.g. for .svgz files).
+ * 
+ * zstd is read with aircompressor (io.airlift:aircompressor), a pure-Java
+ * codec, if it is on the classpath.
+ */
+public class Streams {
+
+	/**
+	 * the buffer size for reading and writing files
+	 */
+	public static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * the buffer size used by the gzip codec
+	 */
+	public static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * the file name extension that calls for gzip-compressed output
+	 */
+	public static final String SVGZ_EXTENSION = ".svgz";
+
+	private static final String ZSTD_INPUT_STREAM = "io.airlift.compress.zstd.ZstdInputStream";
+
+	private Streams() {
+	}
+
+	/**
+	 * @param in
+	 *            an InputStream, positioned at the start of the data
+	 * @return an InputStream that reads the data of <em>in</em>, decompressed
+	 *         if it is gzip or zstd compressed
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs, or the data is compressed in a
+	 *             format that can't be read
+	 */
+	public static InputStream decompress(InputStream in) throws IOException {
+		if (!in.markSupported()) {
+			in = new BufferedInputStream(in, GZIP_BUFFER_SIZE);
+		}
+		byte[] magic = new byte[4];
+		in.mark(magic.length);
+		int n = 0, r;
+		while (n < magic.length
+				&& (r = in.read(magic, n, magic.length - n)) > 0) {
+			n += r;
+		}
+		in.reset();
+
+		switch (Format.of(magic, n)) {
+		case GZIP:
+			return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+		case ZSTD:
+			return zstd(in);
+		default:
+			return in;
+		}
+	}
+
+	/**
+	 * @param file
+	 *            a file
+	 * @return true if <em>file</em> is gzip or zstd compressed
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static boolean isCompressed(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] magic = new byte[4];
+			int n = 0, r;
+			while (n < magic.length
+					&& (r = in.read(magic, n, magic.length - n)) > 0) {
+				n += r;
+			}
+			return Format.of(magic, n) != Format.NONE;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param file
+	 *            the file to read
+	 * @return an InputStream that reads <em>file</em> through its channel,
+	 *         decompressed if it is gzip or zstd compressed
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static InputStream open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			return decompress(new BufferedInputStream(Channels
+					.newInputStream(channel), BUFFER_SIZE));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param file
+	 *            the file to (over)write
+	 * @param gzip
+	 *            whether to gzip-compress the output
+	 * @return an OutputStream that writes to <em>file</em> through its
+	 *         channel; close it when done
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static OutputStream create(File file, boolean gzip)
+			throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		return wrap(Channels.newOutputStream(channel), gzip);
+	}
+
+	/**
+	 * move a finished file over <em>target</em>, atomically if the file
+	 * system allows it, so that readers of <em>target</em> never see a
+	 * partly written file
+	 * 
+	 * @param file
+	 *            the finished file, in the same directory as <em>target</em>
+	 * @param target
+	 *            the file to replace
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static void moveIntoPlace(File file, File target)
+			throws IOException {
+		try {
+			Files.move(file.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(file.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @param gzip
+	 *            whether to gzip-compress the output
+	 * @return an OutputStream that writes to standard output through its
+	 *         channel; close it (or at least flush it) when done
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static OutputStream stdout(boolean gzip) throws IOException {
+		return wrap(Channels.newOutputStream(new FileOutputStream(
+				FileDescriptor.out).getChannel()), gzip);
+	}
+
+	/**
+	 * @param file
+	 *            an output file
+	 * @return true if <em>file</em>'s name calls for gzip-compressed output
+	 */
+	public static boolean isSVGZ(File file) {
+		return file.getName().toLowerCase().endsWith(SVGZ_EXTENSION);
+	}
+
+	private static OutputStream wrap(OutputStream out, boolean gzip)
+			throws IOException {
+		out = new BufferedOutputStream(out, BUFFER_SIZE);
+		return gzip ? new GZIPOutputStream(out, GZIP_BUFFER_SIZE) : out;
+	}
+
+	private static InputStream zstd(InputStream in) throws IOException {
+		Constructor<?> constructor;
+		try {
+			constructor = Class.forName(ZSTD_INPUT_STREAM).getConstructor(
+					InputStream.class);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("zstd-compressed input needs aircompressor "
+					+ "on the classpath");
+		} catch (NoSuchMethodException e) {
+			throw new IOException("zstd-compressed input needs a newer "
+					+ "aircompressor");
+		}
+		try {
+			return (InputStream) constructor.newInstance(in);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private enum Format {
+		NONE, GZIP, ZSTD;
+
+		static Format of(byte[] magic, int n) {
+			if (n >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+				return GZIP;
+			}
+			if (n >= 4 && (magic[0] & 0xff) == 0x28
+					&& (magic[1] & 0xff) == 0xb5 && (magic[2] & 0xff) == 0x2f
+					&& (magic[3] & 0xff) == 0xfd) {
+				return ZSTD;
+			}
+			return NONE;
+		}
+	}
+}
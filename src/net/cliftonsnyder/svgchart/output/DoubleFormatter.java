@@ -0,0 +1,109 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.output;
+
+/**
+ * formats doubles with a fixed number of decimal places (dropping trailing
+ * zeros) into a caller-supplied char array, without allocating. values are
+ * rounded half up, as Math.round() rounds them; values too large to scale
+ * into a long, and NaN and the infinities, can't be formatted this way.
+ */
+public class DoubleFormatter {
+
+	/**
+	 * the most decimal places supported
+	 */
+	public static final int MAX_PRECISION = 15;
+
+	/**
+	 * the most chars format() writes
+	 */
+	public static final int MAX_LENGTH = 40;
+
+	private static final long[] POWERS = new long[MAX_PRECISION + 1];
+
+	static {
+		POWERS[0] = 1;
+		for (int i = 1; i < POWERS.length; i++) {
+			POWERS[i] = POWERS[i - 1] * 10;
+		}
+	}
+
+	private DoubleFormatter() {
+	}
+
+	/**
+	 * format <em>value</em> with at most <em>precision</em> decimal places
+	 * 
+	 * @param value
+	 *            the value
+	 * @param precision
+	 *            the number of decimal places, from 0 to MAX_PRECISION
+	 * @param buf
+	 *            where to write the digits, with room for MAX_LENGTH chars
+	 *            from <em>off</em>
+	 * @param off
+	 *            where in <em>buf</em> to start
+	 * @return the offset just past the last char written, or -1 if the value
+	 *         can't be formatted (see above); buf is untouched in that case
+	 */
+	public static int format(double value, int precision, char[] buf, int off) {
+		long power = POWERS[precision];
+		double scaled = value * power;
+		// Long.MAX_VALUE is about 9.2e18; stay well clear of it
+		if (!(Math.abs(scaled) < 1e18)) {
+			return -1;
+		}
+		long v = Math.round(scaled);
+		if (v < 0) {
+			buf[off++] = '-';
+			v = -v;
+		}
+		off = digits(v / power, buf, off);
+		long frac = v % power;
+		if (frac != 0) {
+			buf[off++] = '.';
+			int places = precision;
+			while (frac % 10 == 0) {
+				frac /= 10;
+				places--;
+			}
+			for (int i = off + places - 1; i >= off; i--) {
+				buf[i] = (char) ('0' + frac % 10);
+				frac /= 10;
+			}
+			off += places;
+		}
+		return off;
+	}
+
+	private static int digits(long v, char[] buf, int off) {
+		int n = 1;
+		for (long t = v; t >= 10; t /= 10) {
+			n++;
+		}
+		for (int i = off + n - 1; i >= off; i--) {
+			buf[i] = (char) ('0' + v % 10);
+			v /= 10;
+		}
+		return off + n;
+	}
+}
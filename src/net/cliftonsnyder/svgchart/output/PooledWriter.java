@@ -0,0 +1,152 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.output;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * a buffered UTF-8 Writer (with a buffer as big as SVGWriter's) that is
+ * taken from a pool by open() and given back by close(), so that rendering
+ * one chart after another doesn't allocate, and leave to be collected, a
+ * fresh buffer and encoder for each of them. the pool is shared by all
+ * threads rather than kept per thread, so that it works as well for
+ * short-lived (e.g. virtual) threads; it holds at most MAX_POOLED writers,
+ * and writers beyond that are simply dropped.
+ * 
+ * close() flushes the writer but doesn't close the stream it writes to; a
+ * writer is only given back once that has succeeded, so nothing written for
+ * one stream can turn up in another. a writer must not be used by more than
+ * one thread at a time.
+ */
+public final class PooledWriter extends Writer {
+
+	/**
+	 * the most writers kept for reuse
+	 */
+	public static final int MAX_POOLED = 2 * Runtime.getRuntime()
+			.availableProcessors();
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final BlockingQueue<PooledWriter> POOL = new ArrayBlockingQueue<PooledWriter>(
+			MAX_POOLED);
+
+	private final Target target = new Target();
+	private final Writer out = new BufferedWriter(new OutputStreamWriter(
+			target, UTF8), BUFFER_SIZE);
+	private boolean open = false;
+
+	private PooledWriter() {
+	}
+
+	/**
+	 * @param out
+	 *            the stream to write to
+	 * @return a writer from the pool (or a new one, if it's empty) that
+	 *         writes UTF-8 to <em>out</em>
+	 */
+	public static PooledWriter open(OutputStream out) {
+		PooledWriter writer = POOL.poll();
+		if (writer == null) {
+			writer = new PooledWriter();
+		}
+		writer.target.out = out;
+		writer.open = true;
+		return writer;
+	}
+
+	/**
+	 * flush the writer, let go of its stream (which is left open) and give
+	 * the writer back to the pool; it mustn't be used again
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		out.flush();
+		open = false;
+		target.out = null;
+		POOL.offer(this);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		check();
+		out.flush();
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		check();
+		out.write(cbuf, off, len);
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		check();
+		out.write(c);
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		check();
+		out.write(str, off, len);
+	}
+
+	private void check() throws IOException {
+		if (!open) {
+			throw new IOException("writer closed");
+		}
+	}
+
+	/**
+	 * the end of the chain of streams, which can be pointed at one stream
+	 * after another
+	 */
+	private static class Target extends OutputStream {
+
+		OutputStream out;
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.output;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * draws charts into images with Java2D (headless; no display is needed), and
+ * encodes them as PNG, without any SVG being written along the way.
+ * 
+ * an image larger than a tile is cut into square tiles, which are drawn by
+ * several threads at once: each thread takes the next tile not yet drawn and
+ * paints the whole chart into it, letting Java2D clip away whatever falls
+ * outside. the PNG encoder is created once per thread and reused.
+ * 
+ * there's no CSS here: charts are drawn in the colors of the example
+ * stylesheet, which are given below for painters to use.
+ */
+public class Rasterizer {
+
+	/**
+	 * the width and height of a tile, in pixels
+	 */
+	public static final int TILE_SIZE = 512;
+
+	/**
+	 * the file name extension that calls for PNG output
+	 */
+	public static final String PNG_EXTENSION = ".png";
+
+	static {
+		// there's never a display to draw on (this has to come before
+		// anything touches AWT)
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+		// write straight to the stream, not through a temporary file
+		ImageIO.setUseCache(false);
+	}
+
+	public static final Color BAR_FILL = Color.LIGHT_GRAY;
+	public static final Color OTHER_FILL = Color.WHITE;
+	public static final Color OUTLINE = Color.BLACK;
+	public static final Stroke BAR_STROKE = new BasicStroke(0.1f);
+	public static final Color TEXT_COLOR = new Color(0x666666);
+	public static final Font FONT = new Font("Verdana", Font.PLAIN, 11);
+
+	/**
+	 * something that can paint itself with Java2D; paint() may be called by
+	 * several threads at once (each with its own Graphics2D), so it mustn't
+	 * change any state
+	 */
+	public interface Painter {
+		void paint(Graphics2D g);
+	}
+
+	private static final ThreadLocal<ImageWriter> PNG_WRITER = new ThreadLocal<ImageWriter>() {
+		@Override
+		protected ImageWriter initialValue() {
+			return ImageIO.getImageWritersByFormatName("png").next();
+		}
+	};
+
+	// tile threads; idle ones die off after a minute
+	private static final ExecutorService TILE_THREADS = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "svgchart-tile-"
+							+ count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private Rasterizer() {
+	}
+
+	/**
+	 * draw <em>painter</em> into a new (transparent) image
+	 * 
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param parallelism
+	 *            the most threads to draw tiles with (including the calling
+	 *            thread)
+	 * @param painter
+	 *            what to draw
+	 * @return the image
+	 */
+	public static BufferedImage render(int width, int height,
+			int parallelism, final Painter painter) {
+		final BufferedImage image = new BufferedImage(Math.max(width, 1),
+				Math.max(height, 1), BufferedImage.TYPE_INT_ARGB);
+		final int columns = (image.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+		final int tiles = columns
+				* ((image.getHeight() + TILE_SIZE - 1) / TILE_SIZE);
+		final AtomicInteger next = new AtomicInteger();
+		Runnable worker = new Runnable() {
+			public void run() {
+				int tile;
+				while ((tile = next.getAndIncrement()) < tiles) {
+					int x = (tile % columns) * TILE_SIZE;
+					int y = (tile / columns) * TILE_SIZE;
+					paint(image.getSubimage(x, y, Math.min(TILE_SIZE, image
+							.getWidth()
+							- x), Math.min(TILE_SIZE, image.getHeight() - y)),
+							x, y, painter);
+				}
+			}
+		};
+
+		List<Future<?>> helpers = new ArrayList<Future<?>>();
+		for (int i = 1; i < Math.min(parallelism, tiles); i++) {
+			helpers.add(TILE_THREADS.submit(worker));
+		}
+		worker.run();
+		for (Future<?> helper : helpers) {
+			try {
+				helper.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while drawing");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * fill a rectangle and outline it, as the stylesheet draws a bar
+	 * 
+	 * @param g
+	 *            where to draw
+	 * @param bar
+	 *            the rectangle
+	 * @param fill
+	 *            the fill color
+	 */
+	public static void drawBar(Graphics2D g, Rectangle2D bar, Color fill) {
+		g.setColor(fill);
+		g.fill(bar);
+		g.setColor(OUTLINE);
+		g.setStroke(BAR_STROKE);
+		g.draw(bar);
+	}
+
+	/**
+	 * draw text centered on a point, as the stylesheet draws an x label
+	 * 
+	 * @param g
+	 *            where to draw
+	 * @param text
+	 *            the text
+	 * @param x
+	 *            the horizontal center
+	 * @param y
+	 *            the vertical center
+	 */
+	public static void drawLabel(Graphics2D g, String text, double x, double y) {
+		g.setColor(TEXT_COLOR);
+		g.setFont(FONT);
+		FontMetrics metrics = g.getFontMetrics();
+		g.drawString(text, (float) (x - metrics.stringWidth(text) / 2.0),
+				(float) (y + (metrics.getAscent() - metrics.getDescent()) / 2.0));
+	}
+
+	/**
+	 * @param file
+	 *            an output file
+	 * @return true if <em>file</em>'s name calls for PNG output
+	 */
+	public static boolean isPNG(File file) {
+		return file.getName().toLowerCase().endsWith(PNG_EXTENSION);
+	}
+
+	/**
+	 * encode an image as PNG; <em>out</em> is flushed, but not closed
+	 * 
+	 * @param image
+	 *            the image
+	 * @param out
+	 *            the OutputStream to write to
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static void writePNG(RenderedImage image, OutputStream out)
+			throws IOException {
+		ImageWriter writer = PNG_WRITER.get();
+		ImageOutputStream ios = ImageIO.createImageOutputStream(out);
+		try {
+			writer.setOutput(ios);
+			writer.write(image);
+		} finally {
+			writer.reset();
+			ios.close(); // flushes, but leaves out open
+		}
+		out.flush();
+	}
+
+	private static void paint(BufferedImage tile, int x, int y,
+			Painter painter) {
+		Graphics2D g = tile.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+					RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
+					RenderingHints.VALUE_STROKE_PURE);
+			g.translate(-x, -y);
+			painter.paint(g);
+		} finally {
+			g.dispose();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.output;
+
+/**
+ * the start of an SVG document, up to and including the start tag of the
+ * element its content goes in (left open, so that attributes may still
+ * follow), captured once by SVGWriter.startTemplate() and endTemplate() and
+ * replayed by SVGWriter.writeTemplate() as the start of any number of later
+ * documents. a template is immutable, so threads may share it.
+ */
+public final class SVGTemplate {
+
+	private final String text;
+	private final String[] names;
+	private final boolean[] elementContent;
+	private final boolean tagOpen;
+	private final boolean indent;
+	private final int precision;
+
+	SVGTemplate(String text, String[] names, boolean[] elementContent,
+			boolean tagOpen, boolean indent, int precision) {
+		this.text = text;
+		this.names = names;
+		this.elementContent = elementContent;
+		this.tagOpen = tagOpen;
+		this.indent = indent;
+		this.precision = precision;
+	}
+
+	/**
+	 * @return the number of elements left open at the end of the template
+	 */
+	public int getDepth() {
+		return names.length;
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @return the text of the template
+	 */
+	public String getText() {
+		return text;
+	}
+
+	public boolean isIndent() {
+		return indent;
+	}
+
+	boolean hasElementContent(int depth) {
+		return elementContent[depth];
+	}
+
+	String getName(int depth) {
+		return names[depth];
+	}
+
+	boolean isTagOpen() {
+		return tagOpen;
+	}
+}
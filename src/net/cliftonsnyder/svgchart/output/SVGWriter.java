@@ -0,0 +1,637 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.output;
+
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * a streaming writer for SVG documents. elements are written to the
+ * underlying stream as soon as they are complete, so the amount of memory used
+ * does not depend on the size of the document (only on its depth).
+ * 
+ * the (pretty-printed) output is laid out the same way the DOM serializer lays
+ * it out: one element per line, indented by four spaces per level, with
+ * text-only elements kept on a single line. attributes are written in the
+ * order they are given; callers wanting canonical output should give them in
+ * alphabetical order.
+ * 
+ * numbers are written in full (as Double.toString() writes them) unless the
+ * writer is given a precision, in which case they are rounded to that many
+ * decimal places by DoubleFormatter, with no allocation per number.
+ * attribute values that are long lists of numbers, such as path data, can be
+ * streamed with startAttribute(), value() and endAttribute().
+ * 
+ * a run of complete elements can be captured as a fragment (see
+ * startFragment()) and written again, verbatim, in a later document, which
+ * is how charts that are rendered over and over skip re-rendering the parts
+ * that haven't changed. in the same way, the start of a document that
+ * depends only on a chart's type, size and stylesheet can be captured as a
+ * template (see startTemplate()), so that it is written once rather than
+ * element by element for every chart rendered from the same settings.
+ */
+public class SVGWriter implements Flushable {
+
+	public static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+	public static final String SVG_PUBLIC_ID = "-//W3C//DTD SVG 1.1//EN";
+	public static final String SVG_SYSTEM_ID = "http://www.w3.org/Graphics/SVG/1.1/DTD/svg11.dtd";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String INDENT = "    ";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private Writer out;
+	private final boolean indent;
+	private final int precision;
+	private final char[] number = new char[DoubleFormatter.MAX_LENGTH];
+
+	// names of the currently open elements, and whether each has element
+	// (rather than text) content
+	private String[] names = new String[8];
+	private boolean[] elementContent = new boolean[8];
+	private int depth = 0;
+
+	// true if we're still inside a start tag (i.e. attributes may follow)
+	private boolean tagOpen = false;
+	private boolean attributeOpen = false;
+	private boolean started = false;
+
+	// while a fragment is being captured, the real output, and the depth at
+	// which the fragment started
+	private Writer fragmentTarget;
+	private int fragmentDepth;
+
+	// while a template is being captured, the real output
+	private Writer templateTarget;
+
+	/**
+	 * create a writer that writes UTF-8 encoded SVG to <em>out</em>
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param indent
+	 *            whether to pretty-print the output
+	 */
+	public SVGWriter(OutputStream out, boolean indent) {
+		this(out, indent, -1);
+	}
+
+	/**
+	 * create a writer that writes UTF-8 encoded SVG to <em>out</em>
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param indent
+	 *            whether to pretty-print the output
+	 * @param precision
+	 *            the number of decimal places to round numbers to (at most
+	 *            DoubleFormatter.MAX_PRECISION), or -1 to write them in full
+	 */
+	public SVGWriter(OutputStream out, boolean indent, int precision) {
+		this(new BufferedWriter(new OutputStreamWriter(out, UTF8), BUFFER_SIZE),
+				indent, precision);
+	}
+
+	/**
+	 * create a writer that writes SVG to <em>out</em>; note that the XML
+	 * declaration always claims UTF-8
+	 * 
+	 * @param out
+	 *            the Writer to write to
+	 * @param indent
+	 *            whether to pretty-print the output
+	 */
+	public SVGWriter(Writer out, boolean indent) {
+		this(out, indent, -1);
+	}
+
+	/**
+	 * create a writer that writes SVG to <em>out</em>; note that the XML
+	 * declaration always claims UTF-8
+	 * 
+	 * @param out
+	 *            the Writer to write to
+	 * @param indent
+	 *            whether to pretty-print the output
+	 * @param precision
+	 *            the number of decimal places to round numbers to (at most
+	 *            DoubleFormatter.MAX_PRECISION), or -1 to write them in full
+	 */
+	public SVGWriter(Writer out, boolean indent, int precision) {
+		if (precision > DoubleFormatter.MAX_PRECISION) {
+			throw new IllegalArgumentException("precision out of range: "
+					+ precision);
+		}
+		this.out = out;
+		this.indent = indent;
+		this.precision = precision;
+	}
+
+	/**
+	 * write an attribute of the current start tag
+	 * 
+	 * @param name
+	 *            the attribute name
+	 * @param value
+	 *            the attribute value
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void attribute(String name, double value) throws IOException {
+		startAttribute(name);
+		value(value);
+		endAttribute();
+	}
+
+	/**
+	 * write an attribute of the current start tag
+	 * 
+	 * @param name
+	 *            the attribute name
+	 * @param value
+	 *            the attribute value (will be escaped)
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void attribute(String name, String value) throws IOException {
+		startAttribute(name);
+		escape(value, true);
+		endAttribute();
+	}
+
+	/**
+	 * finish an attribute begun with startAttribute()
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void endAttribute() throws IOException {
+		if (!attributeOpen) {
+			throw new IllegalStateException("no open attribute");
+		}
+		out.write('"');
+		attributeOpen = false;
+	}
+
+	/**
+	 * close the most recently opened element
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void endElement() throws IOException {
+		if (depth == 0) {
+			throw new IllegalStateException("no open element");
+		}
+		if (attributeOpen) {
+			throw new IllegalStateException("attribute left open");
+		}
+		String name = names[--depth];
+		names[depth] = null;
+		if (tagOpen) {
+			out.write("/>");
+			tagOpen = false;
+		} else {
+			if (indent && elementContent[depth]) {
+				newline(depth);
+			}
+			out.write("</");
+			out.write(name);
+			out.write('>');
+		}
+		if (indent && depth == 0) {
+			out.write('\n');
+		}
+	}
+
+	/**
+	 * finish capturing a fragment begun with startFragment(); every element
+	 * opened since then must have been closed. the fragment is written out
+	 * as usual, as well as being returned
+	 * 
+	 * @return the fragment, for writeFragment()
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public String endFragment() throws IOException {
+		if (fragmentTarget == null || depth != fragmentDepth || tagOpen) {
+			throw new IllegalStateException("no complete fragment");
+		}
+		String fragment = out.toString();
+		out = fragmentTarget;
+		fragmentTarget = null;
+		out.write(fragment);
+		return fragment;
+	}
+
+	/**
+	 * finish capturing a template begun with startTemplate(). the elements
+	 * opened since then are left open, and the template is written out as
+	 * well
+	 * 
+	 * @return the template, for writeTemplate()
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public SVGTemplate endTemplate() throws IOException {
+		if (templateTarget == null || attributeOpen) {
+			throw new IllegalStateException("no template to finish");
+		}
+		String text = out.toString();
+		out = templateTarget;
+		templateTarget = null;
+		out.write(text);
+		String[] n = new String[depth];
+		System.arraycopy(names, 0, n, 0, depth);
+		boolean[] c = new boolean[depth];
+		System.arraycopy(elementContent, 0, c, 0, depth);
+		return new SVGTemplate(text, n, c, tagOpen, indent, precision);
+	}
+
+	/**
+	 * flush any buffered output to the underlying stream
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * @return the number of decimal places numbers are rounded to, or -1 if
+	 *         they are written in full
+	 */
+	public int getPrecision() {
+		return precision;
+	}
+
+	public boolean isIndent() {
+		return indent;
+	}
+
+	/**
+	 * begin an attribute of the current start tag whose value will be written
+	 * piecemeal, with value(), and finished with endAttribute()
+	 * 
+	 * @param name
+	 *            the attribute name
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void startAttribute(String name) throws IOException {
+		if (!tagOpen || attributeOpen) {
+			throw new IllegalStateException("attribute '" + name
+					+ "' written outside of a start tag");
+		}
+		out.write(' ');
+		out.write(name);
+		out.write("=\"");
+		attributeOpen = true;
+	}
+
+	/**
+	 * open a new element; attributes may be written until the next call to
+	 * startElement(), text() or endElement()
+	 * 
+	 * @param name
+	 *            the element name
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void startElement(String name) throws IOException {
+		closeStartTag();
+		if (depth > 0) {
+			elementContent[depth - 1] = true;
+		}
+		if (indent && started) {
+			newline(depth);
+		}
+		out.write('<');
+		out.write(name);
+
+		if (depth == names.length) {
+			String[] n = new String[depth * 2];
+			System.arraycopy(names, 0, n, 0, depth);
+			names = n;
+			boolean[] c = new boolean[depth * 2];
+			System.arraycopy(elementContent, 0, c, 0, depth);
+			elementContent = c;
+		}
+		names[depth] = name;
+		elementContent[depth] = false;
+		depth++;
+		tagOpen = true;
+		started = true;
+	}
+
+	/**
+	 * start capturing a fragment: a run of complete elements inside the
+	 * current element, to be finished with endFragment()
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void startFragment() throws IOException {
+		if (fragmentTarget != null || depth == 0) {
+			throw new IllegalStateException("can't start a fragment here");
+		}
+		closeStartTag();
+		fragmentTarget = out;
+		fragmentDepth = depth;
+		out = new StringWriter();
+	}
+
+	/**
+	 * start capturing a template: the start of the document, to be finished
+	 * with endTemplate()
+	 */
+	public void startTemplate() {
+		if (started || templateTarget != null) {
+			throw new IllegalStateException("can't start a template here");
+		}
+		templateTarget = out;
+		out = new StringWriter();
+	}
+
+	/**
+	 * write character data inside the current element
+	 * 
+	 * @param text
+	 *            the text (will be escaped)
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void text(String text) throws IOException {
+		closeStartTag();
+		escape(text, false);
+	}
+
+	/**
+	 * append a character to the open attribute's value; it is not escaped,
+	 * so it mustn't be one of &amp;, &lt; or &quot;
+	 * 
+	 * @param c
+	 *            the character
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void value(char c) throws IOException {
+		if (!attributeOpen) {
+			throw new IllegalStateException("no open attribute");
+		}
+		out.write(c);
+	}
+
+	/**
+	 * append a number to the open attribute's value, rounded to the writer's
+	 * precision
+	 * 
+	 * @param d
+	 *            the number
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void value(double d) throws IOException {
+		if (!attributeOpen) {
+			throw new IllegalStateException("no open attribute");
+		}
+		int end = precision < 0 ? -1 : DoubleFormatter.format(d, precision,
+				number, 0);
+		if (end < 0) {
+			out.write(Double.toString(d));
+		} else {
+			out.write(number, 0, end);
+		}
+	}
+
+	/**
+	 * write the XML declaration
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void writeDeclaration() throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		started = true;
+	}
+
+	/**
+	 * write a fragment returned by endFragment(), at the same depth (and by a
+	 * writer with the same indentation) as it was captured
+	 * 
+	 * @param fragment
+	 *            the fragment
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void writeFragment(String fragment) throws IOException {
+		if (depth == 0) {
+			throw new IllegalStateException("no open element");
+		}
+		closeStartTag();
+		elementContent[depth - 1] = true;
+		out.write(fragment);
+		started = true;
+	}
+
+	/**
+	 * write a document type declaration
+	 * 
+	 * @param root
+	 *            the name of the root element
+	 * @param publicId
+	 *            the public identifier
+	 * @param systemId
+	 *            the system identifier
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void writeDocType(String root, String publicId, String systemId)
+			throws IOException {
+		out.write("<!DOCTYPE ");
+		out.write(root);
+		out.write(" PUBLIC \"");
+		out.write(publicId);
+		out.write("\" \"");
+		out.write(systemId);
+		out.write("\">");
+		started = true;
+	}
+
+	/**
+	 * write a processing instruction
+	 * 
+	 * @param target
+	 *            the PI target
+	 * @param data
+	 *            the PI data (not escaped; see escapeAttribute() for
+	 *            pseudo-attribute values)
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <em>data</em> contains "?&gt;", which would end the PI
+	 */
+	public void writeProcessingInstruction(String target, String data)
+			throws IOException {
+		if (data.indexOf("?>") >= 0) {
+			throw new IllegalArgumentException("processing instruction data "
+					+ "can't contain '?>'");
+		}
+		closeStartTag();
+		out.write("<?");
+		out.write(target);
+		out.write(' ');
+		out.write(data);
+		out.write("?>");
+		started = true;
+	}
+
+	/**
+	 * write a template returned by endTemplate() as the start of the
+	 * document, leaving the writer as it was when the template was captured
+	 * 
+	 * @param template
+	 *            the template, captured with the same indentation and
+	 *            precision as this writer's
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void writeTemplate(SVGTemplate template) throws IOException {
+		if (started) {
+			throw new IllegalStateException("document already started");
+		}
+		if (template.isIndent() != indent
+				|| template.getPrecision() != precision) {
+			throw new IllegalArgumentException("template written with "
+					+ "different settings");
+		}
+		out.write(template.getText());
+		int d = template.getDepth();
+		if (d > names.length) {
+			names = new String[d * 2];
+			elementContent = new boolean[d * 2];
+		}
+		for (int i = 0; i < d; i++) {
+			names[i] = template.getName(i);
+			elementContent[i] = template.hasElementContent(i);
+		}
+		depth = d;
+		tagOpen = template.isTagOpen();
+		started = true;
+	}
+
+	private void closeStartTag() throws IOException {
+		if (attributeOpen) {
+			throw new IllegalStateException("attribute left open");
+		}
+		if (tagOpen) {
+			out.write('>');
+			tagOpen = false;
+		}
+	}
+
+	/**
+	 * @param value
+	 *            an attribute value
+	 * @return <em>value</em>, escaped for use between double quotes
+	 */
+	public static String escapeAttribute(String value) {
+		StringWriter out = new StringWriter(value.length() + 16);
+		try {
+			escape(out, value, true);
+		} catch (IOException e) {
+			throw new AssertionError(e); // StringWriter doesn't throw
+		}
+		return out.toString();
+	}
+
+	private void escape(String s, boolean attribute) throws IOException {
+		escape(out, s, attribute);
+	}
+
+	private static void escape(Writer out, String s, boolean attribute)
+			throws IOException {
+		int start = 0;
+		for (int i = 0; i < s.length(); i++) {
+			String entity;
+			char c = s.charAt(i);
+			switch (c) {
+			case '&':
+				entity = "&amp;";
+				break;
+			case '<':
+				entity = "&lt;";
+				break;
+			case '>':
+				entity = "&gt;";
+				break;
+			case '"':
+				entity = attribute ? "&quot;" : null;
+				break;
+			case '\t':
+				entity = attribute ? "&#9;" : null;
+				break;
+			case '\n':
+				entity = attribute ? "&#10;" : null;
+				break;
+			case '\r':
+				entity = "&#13;";
+				break;
+			default:
+				entity = null;
+			}
+			if (entity != null) {
+				out.write(s, start, i - start);
+				out.write(entity);
+				start = i + 1;
+			}
+		}
+		out.write(s, start, s.length() - start);
+	}
+
+	private void newline(int level) throws IOException {
+		out.write('\n');
+		for (int i = 0; i < level; i++) {
+			out.write(INDENT);
+		}
+	}
+}
@@ -20,21 +20,75 @@
  */
 package net.cliftonsnyder.svgchart.parse;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
+import net.cliftonsnyder.svgchart.data.ColumnarDataSet;
+import net.cliftonsnyder.svgchart.data.CountMap;
 import net.cliftonsnyder.svgchart.data.DataSet;
+import net.cliftonsnyder.svgchart.data.KeyCounter;
+import net.cliftonsnyder.svgchart.data.SpaceSaving;
+import net.cliftonsnyder.svgchart.data.SpillingCountMap;
+import net.cliftonsnyder.svgchart.io.ColumnarFile;
+import net.cliftonsnyder.svgchart.io.Snapshot;
+import net.cliftonsnyder.svgchart.io.Streams;
+import net.cliftonsnyder.svgchart.stats.Stats;
 
 public class BarChartDataParser {
 
+	/**
+	 * the name of the DataSet that sums up everything outside the top N
+	 */
+	public static final String OTHER = "other";
+
+	/**
+	 * in top-N mode, the sketch tracks this many keys per key wanted
+	 */
+	public static final int SKETCH_CAPACITY_FACTOR = 10;
+
+	// the kinds of the columns of a ColumnarFile made from one-, two- and
+	// three-column input
+	private static final byte[][] COLUMNAR_KINDS = {
+			{ ColumnarFile.NAME },
+			{ ColumnarFile.NAME, ColumnarFile.NUMBER },
+			{ ColumnarFile.NAME, ColumnarFile.NAME, ColumnarFile.NUMBER } };
+
 	private List<double[]> xData;
+	private List<String> groups;
 	private Collection<DataSet> yData;
+	private DataSet other;
+	private CountMap.Order order = CountMap.Order.INPUT;
+	private int top = 0;
+	private long memoryBudget = 0;
+	private Stats stats = Stats.DISABLED;
+
+	// what parseMore() has counted so far (or parseInput() counted)
+	private KeyCounter counts;
+	private long rows = 0;
+
+	// the merged counts of input that spilled to disk (without top-N), in
+	// key order, and the merged index of each item in input order; kept for
+	// toSnapshot()
+	private String[] mergedKeys;
+	private double[] mergedValues;
+	private int[] mergedInputOrder;
 
 	public BarChartDataParser() {
 		// xData = new ArrayList<Point>(); // only initialize this if we need
@@ -42,6 +96,11 @@ public class BarChartDataParser {
 		yData = new ArrayList<DataSet>();
 	}
 
+	/**
+	 * @return for three-column input, one point per x group: the numeric value
+	 *         of its x column, or the group's index where that isn't a number;
+	 *         otherwise, null
+	 */
 	public List<double[]> getXData() {
 		return xData;
 	}
@@ -50,6 +109,98 @@ public class BarChartDataParser {
 		return yData;
 	}
 
+	/**
+	 * @return for three-column input, the x column of each group, in input
+	 *         order; otherwise, null
+	 */
+	public List<String> getGroups() {
+		return groups;
+	}
+
+	public CountMap.Order getOrder() {
+		return order;
+	}
+
+	/**
+	 * @return in top-N mode, a DataSet named OTHER whose single point is
+	 *         (count, error): the total count of every item not in getYData()
+	 *         and the most by which that total may fall short; otherwise (or
+	 *         if every item made it into the top N), null
+	 */
+	public DataSet getOther() {
+		return other;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	public int getTop() {
+		return top;
+	}
+
+	/**
+	 * count one- and two-column text input exactly, however many distinct
+	 * items it has, holding the counts of at most about <em>bytes</em> bytes'
+	 * worth of items in memory; beyond that, they are spilled to temporary
+	 * files in sorted runs, which are merged once the input has been read
+	 * (see SpillingCountMap). in top-N mode, only the top N items are then
+	 * kept, and getOther() sums up the rest exactly; otherwise every item
+	 * still becomes a DataSet, so those must fit in memory. either way, the
+	 * result is what counting in memory would produce. input is then read
+	 * sequentially, and if the counts did spill, toSnapshot() is only
+	 * available without top-N mode
+	 * 
+	 * @param bytes
+	 *            the memory budget, or 0 to count in memory only (the
+	 *            default)
+	 */
+	public void setMemoryBudget(long bytes) {
+		this.memoryBudget = bytes;
+	}
+
+	/**
+	 * set the order in which counted items are returned by getYData()
+	 * 
+	 * @param order
+	 *            the order (default: the order in which items first appear in
+	 *            the input)
+	 */
+	public void setOrder(CountMap.Order order) {
+		this.order = order;
+	}
+
+	/**
+	 * record the read and aggregate phases, the number of rows and the number
+	 * of distinct keys in <em>stats</em>
+	 * 
+	 * @param stats
+	 *            where to record them (or null, not to)
+	 */
+	public void setStats(Stats stats) {
+		this.stats = stats == null ? Stats.DISABLED : stats;
+	}
+
+	/**
+	 * count only (approximately) the <em>top</em> most frequent items, using
+	 * a fixed amount of memory proportional to <em>top</em>. each DataSet
+	 * returned by getYData() then has a single point (count, error), where
+	 * the true count lies between count - error and count; everything else
+	 * is summed up in getOther(). items are returned in descending order of
+	 * count (or by name, if the order is NAME)
+	 * 
+	 * @param top
+	 *            the number of items wanted, or 0 to count every item exactly
+	 *            (the default)
+	 */
+	public void setTop(int top) {
+		this.top = top;
+	}
+
 	/**
 	 * valid histogram input includes:
 	 * 
@@ -59,12 +210,21 @@ public class BarChartDataParser {
 	 * <li>two-column*: a list of already-counted items; two items per line -
 	 * (name,value) pairs delimited by one of ParsePatterns.DELIMITERS (no x
 	 * data)</li>
-	 * <li>three-column (UNIMPLEMENTED!): a list of already-counted items; three
-	 * items per line - (x,name,count) tuples delimited by one of
-	 * ParsePatterns.DELIMITERS (x data in first column; parser expects input to
-	 * be sorted by x column)</li>
+	 * <li>three-column: a list of already-counted items; three items per line
+	 * - (x,name,count) tuples delimited by one of ParsePatterns.DELIMITERS (x
+	 * data in first column; parser expects input to be sorted by x column, so
+	 * that all lines with the same x are adjacent)</li>
 	 * </ul>
 	 * 
+	 * three-column input is merged as it streams past: only the current x
+	 * group is held, and each name gets a ColumnarDataSet with one value per
+	 * group (0 where the name doesn't appear in a group). the order and top
+	 * settings don't apply to it.
+	 * 
+	 * the input may also be a Snapshot, which stands in for the one- or
+	 * two-column input it was made from, or a ColumnarFile made by export(),
+	 * which is read as the text it was made from would be.
+	 * 
 	 * * note: one- and two-column datasets can be mixed; the parser will assume
 	 * that there are partial sums included in the input and act accordingly. if
 	 * a three-column dataset is included along with one- and/or two-column
@@ -82,53 +242,784 @@ public class BarChartDataParser {
 	 *             if the input is invalid
 	 */
 	public void parseInput(InputStream in) throws IOException, ParseException {
-		BufferedReader br = new BufferedReader(new InputStreamReader(in));
-		String line = br.readLine();
-
-		if (line != null) { // could have empty input
-			String[] items = line.split(ParsePatterns.DELIMITERS);
+		stats.begin(Stats.Phase.READ);
+		if (!in.markSupported()) {
+			in = new BufferedInputStream(in);
+		}
+		if (Snapshot.isSnapshot(in)) {
+			Snapshot snapshot = Snapshot.read(in);
+			collectExact(snapshot.getCounts(), snapshot.getRows());
+			return;
+		}
+		if (ColumnarFile.isColumnar(in)) {
+			ColumnarFile columns = ColumnarFile.read(in);
+			try {
+				read(columns);
+			} finally {
+				columns.close();
+			}
+			return;
+		}
+		LineScanner scanner = new LineScanner(new InputStreamReader(in));
+		counts = null;
+		rows = 0;
+		mergedKeys = null;
+		mergedValues = null;
+		mergedInputOrder = null;
 
-			switch (items.length) {
+		if (scanner.next()) { // could have empty input
+			switch (scanner.fieldCount()) {
 			case 1: // let's count these up
 			case 2: // already counted; we just need to collect the data
 			{
-				Hashtable<String, Double> counts = new Hashtable<String, Double>();
-				do {
-					// TODO ignore empty lines
-					items = line.split(ParsePatterns.DELIMITERS);
-					String key = line;
-					double value = 1;
-					if (items.length == 2) {
-						key = items[0];
-						value = Double.parseDouble(items[1]);
-					} else if (items.length > 2) {
-						throw new ParseException("unexpected data value '"
-								+ line + "'");
+				if (memoryBudget > 0) {
+					spill(scanner);
+				} else if (top > 0) {
+					SpaceSaving sketch = new SpaceSaving(top
+							* SKETCH_CAPACITY_FACTOR);
+					rows = count(scanner, sketch);
+					read(rows, sketch);
+					counts = sketch;
+					stats.begin(Stats.Phase.AGGREGATE);
+					collect(sketch);
+					stats.end(Stats.Phase.AGGREGATE);
+				} else {
+					CountMap counts = new CountMap();
+					rows = count(scanner, counts);
+					read(rows, counts);
+					this.counts = counts;
+					stats.begin(Stats.Phase.AGGREGATE);
+					collect(counts);
+					stats.end(Stats.Phase.AGGREGATE);
+				}
+			}
+				break;
+			case 3: // counted, *with* x data
+				merge(scanner);
+				break;
+			default:
+				throw new ParseException("parse error at line '"
+						+ scanner.line() + "'");
+			}
+		} else {
+			read(0, null);
+		}
+	}
+
+	/**
+	 * like parseInput(InputStream), but add to the counts kept from earlier
+	 * calls rather than starting afresh, for input that arrives a piece at a
+	 * time (such as a growing log file); each piece must end with a complete
+	 * line. only one- and two-column input can be read this way. getYData()
+	 * and getOther() then describe everything read so far, and are rebuilt
+	 * from the counts rather than the input, so the work done by each call
+	 * depends on the size of the piece and the number of distinct items, but
+	 * not on how much was read before
+	 * 
+	 * @param in
+	 *            the InputStream from which to read the next piece
+	 * @return the number of lines read from <em>in</em>
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public long parseMore(InputStream in) throws IOException, ParseException {
+		stats.begin(Stats.Phase.READ);
+		LineScanner scanner = new LineScanner(new InputStreamReader(in));
+		long lines = 0;
+		if (scanner.next()) {
+			if (scanner.fieldCount() > 2) {
+				throw new ParseException("only one- and two-column input can "
+						+ "be read a piece at a time: '" + scanner.line()
+						+ "'");
+			}
+			if (counts == null) {
+				counts = top > 0 ? new SpaceSaving(top
+						* SKETCH_CAPACITY_FACTOR) : new CountMap();
+			}
+			lines = count(scanner, counts);
+		}
+		rows += lines;
+		read(rows, counts);
+
+		stats.begin(Stats.Phase.AGGREGATE);
+		yData = new ArrayList<DataSet>();
+		other = null;
+		if (counts instanceof SpaceSaving) {
+			collect((SpaceSaving) counts);
+		} else if (counts != null) {
+			collect((CountMap) counts);
+		}
+		stats.end(Stats.Phase.AGGREGATE);
+		return lines;
+	}
+
+	/**
+	 * @return the exact counts of the one- or two-column input (or snapshot)
+	 *         read so far, as a Snapshot that shares them
+	 * @throws IllegalStateException
+	 *             if there are none: the input had three columns, or was
+	 *             counted approximately (in top-N mode)
+	 */
+	public Snapshot toSnapshot() {
+		if (counts == null && groups == null) {
+			return new Snapshot();
+		}
+		if (counts instanceof SpillingCountMap) {
+			if (mergedInputOrder == null) {
+				throw new IllegalStateException("top-N counts that spilled "
+						+ "to disk can't be snapshotted");
+			}
+			CountMap counts = new CountMap(mergedInputOrder.length);
+			for (int i : mergedInputOrder) {
+				counts.add(mergedKeys[i], mergedValues[i]);
+			}
+			return new Snapshot(counts, rows);
+		}
+		if (!(counts instanceof CountMap)) {
+			throw new IllegalStateException(top > 0 ? "approximate (top-N) "
+					+ "counts can't be snapshotted"
+					: "only one- and two-column input can be snapshotted");
+		}
+		return new Snapshot((CountMap) counts, rows);
+	}
+
+	/**
+	 * forget everything read by parseMore()
+	 */
+	public void reset() {
+		counts = null;
+		rows = 0;
+		mergedKeys = null;
+		mergedValues = null;
+		mergedInputOrder = null;
+		yData = new ArrayList<DataSet>();
+		other = null;
+	}
+
+	/**
+	 * like parseInput(InputStream), but for a regular file: one- and
+	 * two-column input is split into chunks on line boundaries and counted by
+	 * <em>parallelism</em> threads, each with its own CountMap; the partial
+	 * counts are merged at the end, in file order. the items and their order
+	 * are what parseInput(InputStream) would produce, and so are the counts of
+	 * one-column input and of whole counts; fractional counts are added up in
+	 * a different order, so they may differ in the last digits (whole counts
+	 * are exact up to 2^53). other input, top-N mode, a memory budget,
+	 * compressed files (see Streams.open()) or a parallelism of 1, is read
+	 * sequentially.
+	 * 
+	 * @param file
+	 *            the file from which to read
+	 * @param parallelism
+	 *            the number of threads to use
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void parseInput(File file, int parallelism) throws IOException,
+			ParseException {
+		boolean compressed = Streams.isCompressed(file);
+		if (!compressed && ColumnarFile.isColumnar(file)) {
+			stats.begin(Stats.Phase.READ);
+			ColumnarFile columns = ColumnarFile.map(file);
+			try {
+				read(columns);
+			} finally {
+				columns.close();
+			}
+			return;
+		}
+		InputStream in = Streams.open(file);
+		try {
+			if (parallelism > 1 && top == 0 && memoryBudget == 0
+					&& !compressed && ParallelFileCounter.isSupported()
+					&& !Snapshot.isSnapshot(in)) {
+				stats.begin(Stats.Phase.READ);
+				LineScanner scanner = new LineScanner(new InputStreamReader(
+						in), 4096);
+				if (!scanner.next()) {
+					counts = null;
+					rows = 0;
+					read(0, null);
+					return;
+				}
+				int items = scanner.fieldCount();
+				if (items == 1 || items == 2) {
+					LongAdder rows = new LongAdder();
+					CountMap counts = ParallelFileCounter.count(file,
+							parallelism, rows);
+					this.counts = counts;
+					this.rows = rows.sum();
+					read(rows.sum(), counts);
+					stats.begin(Stats.Phase.AGGREGATE);
+					collect(counts);
+					stats.end(Stats.Phase.AGGREGATE);
+					return;
+				}
+				// let the sequential parser take care of (or complain about)
+				// anything else
+				in.close();
+				in = Streams.open(file);
+			}
+			parseInput(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * convert one-, two- or three-column text input (see parseInput()) into a
+	 * ColumnarFile: names for the name (and x) columns, numbers for the
+	 * counts. one- and two-column lines may be mixed, as they may be when
+	 * counting, and are all written as (name, count) rows, a one-column line
+	 * counting 1; otherwise every line must have three columns
+	 * 
+	 * @param in
+	 *            the InputStream from which to read the text
+	 * @param out
+	 *            the OutputStream to write to; it is flushed, but not closed
+	 * @return the number of rows written
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public static long export(InputStream in, OutputStream out)
+			throws IOException, ParseException {
+		LineScanner scanner = new LineScanner(new InputStreamReader(in));
+		if (!scanner.next()) {
+			ColumnarFile.Writer writer = new ColumnarFile.Writer(out);
+			writer.finish();
+			return 0;
+		}
+		int columns = scanner.fieldCount();
+		if (columns > 3) {
+			throw new ParseException("parse error at line '" + scanner.line()
+					+ "'");
+		}
+		boolean merged = columns == 3;
+		byte[] kinds = COLUMNAR_KINDS[merged ? 2 : 1];
+		ColumnarFile.Writer writer = new ColumnarFile.Writer(out, kinds);
+		do {
+			int items = scanner.fieldCount();
+			if (merged ? items != 3 : items > 2) {
+				throw new ParseException("unexpected data value '"
+						+ scanner.line() + "'");
+			}
+			char[] buf = scanner.buffer();
+			if (items == 1) {
+				// the whole line is the name, as count() has it
+				writer.name(0, buf, scanner.lineStart(), scanner.lineLength());
+				writer.number(1, 1);
+			} else {
+				for (int c = 0; c < items - 1; c++) {
+					writer.name(c, buf, scanner.fieldStart(c), scanner
+							.fieldLength(c));
+				}
+				writer.number(items - 1, scanner.parseDouble(items - 1));
+			}
+			writer.endRow();
+		} while (scanner.next());
+		writer.finish();
+		return writer.getRows();
+	}
+
+	/**
+	 * count one- and two-column lines from the scanner's current line to the
+	 * end of its input
+	 * 
+	 * @return the number of lines counted
+	 */
+	static long count(LineScanner scanner, KeyCounter counts)
+			throws IOException, ParseException {
+		long lines = 0;
+		do {
+			lines++;
+			// TODO ignore empty lines
+			int items = scanner.fieldCount();
+			char[] buf = scanner.buffer();
+			if (items == 2) {
+				double value = scanner.parseDouble(1);
+				if (value < 0 && counts instanceof SpaceSaving) {
+					// the sketch's error bounds need non-negative weights
+					throw new ParseException("negative count " + value
+							+ " can't be used with top-N at line "
+							+ scanner.lineNumber());
+				}
+				counts.add(buf, scanner.fieldStart(0), scanner.fieldLength(0),
+						value);
+			} else if (items > 2) {
+				throw new ParseException("unexpected data value '"
+						+ scanner.line() + "'");
+			} else {
+				counts.add(buf, scanner.lineStart(), scanner.lineLength(), 1);
+			}
+		} while (scanner.next());
+		return lines;
+	}
+
+	/**
+	 * read (x, name, count) lines sorted by x from the scanner's current line
+	 * to the end of its input, summing the counts of each name within each x
+	 * group
+	 */
+	private void merge(LineScanner scanner) throws IOException,
+			ParseException {
+		groups = new ArrayList<String>();
+		xData = new ArrayList<double[]>();
+		CountMap names = new CountMap(); // name -> series index
+		List<ColumnarDataSet> series = new ArrayList<ColumnarDataSet>();
+
+		// the current group: its x, and its sum for each series
+		String x = null;
+		double[] sums = new double[16];
+		Set<String> seen = new HashSet<String>();
+
+		long rows = 0;
+		do {
+			if (scanner.fieldCount() != 3) {
+				throw new ParseException("unexpected data value '"
+						+ scanner.line() + "'");
+			}
+			char[] buf = scanner.buffer();
+			if (x == null
+					|| !equals(x, buf, scanner.fieldStart(0), scanner
+							.fieldLength(0))) {
+				if (x != null) {
+					endGroup(x, series, sums);
+				}
+				x = scanner.field(0);
+				if (!seen.add(x)) {
+					throw new ParseException("input is not sorted by x: '" + x
+							+ "' appears again at line "
+							+ scanner.lineNumber());
+				}
+			}
+
+			int s = names.entry(buf, scanner.fieldStart(1), scanner
+					.fieldLength(1));
+			if (s == series.size()) {
+				// a new name: it was missing from every group so far
+				ColumnarDataSet data = new ColumnarDataSet(names.key(s),
+						groups.size() + 16);
+				for (int g = 0; g < groups.size(); g++) {
+					data.addPoint(0);
+				}
+				series.add(data);
+				if (s == sums.length) {
+					double[] tmp = new double[sums.length * 2];
+					System.arraycopy(sums, 0, tmp, 0, sums.length);
+					sums = tmp;
+				}
+			}
+			sums[s] += scanner.parseDouble(2);
+			rows++;
+		} while (scanner.next());
+		endGroup(x, series, sums);
+
+		stats.end(Stats.Phase.READ);
+		stats.setRows(rows);
+		stats.setDistinctKeys(series.size());
+
+		stats.begin(Stats.Phase.AGGREGATE);
+		for (ColumnarDataSet data : series) {
+			data.trimToSize();
+			yData.add(data);
+		}
+		stats.end(Stats.Phase.AGGREGATE);
+	}
+
+	/**
+	 * read a ColumnarFile made from one-, two- or three-column input, block by
+	 * block, in the same way as the text it was made from would be read
+	 */
+	private void read(ColumnarFile columns) throws IOException,
+			ParseException {
+		counts = null;
+		rows = 0;
+		int n = columns.getDictionarySize();
+		if (columns.getColumns() == 0) {
+			read(0, null);
+		} else if (columns.hasColumns(COLUMNAR_KINDS[0])
+				|| columns.hasColumns(COLUMNAR_KINDS[1])) {
+			// names are numbered in input order, so sum by number
+			boolean counted = columns.getColumns() == 2;
+			double[] sums = new double[n];
+			while (columns.nextBlock()) {
+				IntBuffer names = columns.getNames(0);
+				if (counted) {
+					DoubleBuffer values = columns.getNumbers(1);
+					for (int i = 0; i < columns.getBlockRows(); i++) {
+						sums[names.get(i)] += values.get(i);
+					}
+				} else {
+					for (int i = 0; i < columns.getBlockRows(); i++) {
+						sums[names.get(i)]++;
 					}
-					double count = counts.containsKey(key) ? counts.get(key)
-							+ value : value;
-					counts.put(key, count);
+				}
+			}
+			CountMap counts = new CountMap(n);
+			for (int i = 0; i < n; i++) {
+				counts.add(columns.getName(i), sums[i]);
+			}
+			collectExact(counts, columns.getRows());
+		} else if (columns.hasColumns(COLUMNAR_KINDS[2])) {
+			merge(columns);
+		} else {
+			throw new ParseException("columnar input doesn't hold bar chart "
+					+ "data");
+		}
+	}
 
-				} while ((line = br.readLine()) != null);
+	/**
+	 * like merge(LineScanner), but for (x, name, count) rows of a
+	 * ColumnarFile, whose names are already numbered
+	 */
+	private void merge(ColumnarFile columns) throws IOException,
+			ParseException {
+		groups = new ArrayList<String>();
+		xData = new ArrayList<double[]>();
+		int[] seriesOf = new int[columns.getDictionarySize()];
+		Arrays.fill(seriesOf, -1);
+		boolean[] seen = new boolean[columns.getDictionarySize()];
+		List<ColumnarDataSet> series = new ArrayList<ColumnarDataSet>();
 
-				for (String key : counts.keySet()) {
-					DataSet data = new DataSet(key);
-					data.addPoint(counts.get(key));
-					yData.add(data);
+		int x = -1;
+		double[] sums = new double[16];
+		long rows = 0;
+		while (columns.nextBlock()) {
+			IntBuffer xs = columns.getNames(0);
+			IntBuffer names = columns.getNames(1);
+			DoubleBuffer values = columns.getNumbers(2);
+			for (int i = 0; i < columns.getBlockRows(); i++) {
+				if (xs.get(i) != x) {
+					if (x >= 0) {
+						endGroup(columns.getName(x), series, sums);
+					}
+					x = xs.get(i);
+					if (seen[x]) {
+						throw new ParseException("input is not sorted by x: '"
+								+ columns.getName(x) + "' appears again at row "
+								+ (rows + 1));
+					}
+					seen[x] = true;
+				}
+				int s = seriesOf[names.get(i)];
+				if (s < 0) {
+					s = seriesOf[names.get(i)] = series.size();
+					ColumnarDataSet data = new ColumnarDataSet(columns
+							.getName(names.get(i)), groups.size() + 16);
+					for (int g = 0; g < groups.size(); g++) {
+						data.addPoint(0);
+					}
+					series.add(data);
+					if (s == sums.length) {
+						double[] tmp = new double[sums.length * 2];
+						System.arraycopy(sums, 0, tmp, 0, sums.length);
+						sums = tmp;
+					}
 				}
+				sums[s] += values.get(i);
+				rows++;
+			}
+		}
+		if (x >= 0) {
+			endGroup(columns.getName(x), series, sums);
+		}
+
+		stats.end(Stats.Phase.READ);
+		stats.setRows(rows);
+		stats.setDistinctKeys(series.size());
 
-				xData = null;
+		stats.begin(Stats.Phase.AGGREGATE);
+		for (ColumnarDataSet data : series) {
+			data.trimToSize();
+			yData.add(data);
+		}
+		stats.end(Stats.Phase.AGGREGATE);
+	}
+
+	/**
+	 * append the current group's sums to the series, and start afresh
+	 */
+	private void endGroup(String x, List<ColumnarDataSet> series,
+			double[] sums) {
+		double value;
+		try {
+			value = Double.parseDouble(x);
+		} catch (NumberFormatException e) {
+			value = groups.size();
+		}
+		groups.add(x);
+		xData.add(new double[] { value });
+		for (int i = 0; i < series.size(); i++) {
+			series.get(i).addPoint(sums[i]);
+			sums[i] = 0;
+		}
+	}
+
+	private static boolean equals(String s, char[] chars, int off, int len) {
+		if (s.length() != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (s.charAt(i) != chars[off + i]) {
+				return false;
 			}
-				break;
-			case 3: // counted, *with* x data
-			{
-				// TODO implement 3-column histogram input
-				throw new ParseException(
-						"3-column histogram input is UNIMPLEMENTED");
-			}// break;
-			default:
-				throw new ParseException("parse error at line '" + line + "'");
+		}
+		return true;
+	}
+
+	/**
+	 * end the read phase, having read <em>rows</em> rows into <em>counts</em>
+	 * (null if there were none)
+	 */
+	private void read(long rows, KeyCounter counts) {
+		stats.end(Stats.Phase.READ);
+		stats.setRows(rows);
+		stats.setDistinctKeys(counts == null ? 0 : counts.size());
+	}
+
+	/**
+	 * end the read phase, having counted <em>rows</em> rows exactly into
+	 * <em>counts</em> (from a snapshot or a ColumnarFile), and collect them
+	 */
+	private void collectExact(CountMap counts, long rows) {
+		read(rows, counts);
+		this.counts = counts;
+		this.rows = rows;
+		stats.begin(Stats.Phase.AGGREGATE);
+		if (top > 0) {
+			// a sketch with room for every key counts exactly
+			SpaceSaving sketch = new SpaceSaving(Math.max(top
+					* SKETCH_CAPACITY_FACTOR, counts.size()));
+			for (int i = 0; i < counts.size(); i++) {
+				sketch.add(counts.key(i), counts.value(i));
+			}
+			collect(sketch);
+		} else {
+			collect(counts);
+		}
+		stats.end(Stats.Phase.AGGREGATE);
+	}
+
+	/**
+	 * count the scanner's current line to the end of its input within the
+	 * memory budget, and collect the counts
+	 */
+	private void spill(LineScanner scanner) throws IOException,
+			ParseException {
+		SpillingCountMap spilling = new SpillingCountMap(memoryBudget);
+		try {
+			try {
+				rows = count(scanner, spilling);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			if (!spilling.hasSpilled()) {
+				collectExact(spilling.getCounts(), rows);
+				return;
+			}
+			read(rows, spilling);
+			counts = spilling;
+			stats.begin(Stats.Phase.AGGREGATE);
+			SpillingCountMap.Merge merge = spilling.merge();
+			try {
+				if (top > 0) {
+					collectTop(merge);
+				} else {
+					collect(merge);
+				}
+			} finally {
+				merge.close();
+			}
+			stats.end(Stats.Phase.AGGREGATE);
+		} finally {
+			spilling.close();
+		}
+	}
+
+	/**
+	 * collect every merged item, in the order counting them in memory would
+	 * have
+	 */
+	private void collect(SpillingCountMap.Merge merge) throws IOException {
+		String[] keys = new String[16];
+		double[] values = new double[16];
+		long[] positions = new long[16];
+		int n = 0;
+		while (merge.next()) {
+			if (n == keys.length) {
+				keys = Arrays.copyOf(keys, n * 2);
+				values = Arrays.copyOf(values, n * 2);
+				positions = Arrays.copyOf(positions, n * 2);
+			}
+			keys[n] = merge.key();
+			values[n] = merge.count();
+			positions[n] = merge.firstSeen();
+			n++;
+		}
+
+		// the merge is in key order; no two items were first seen at the same
+		// position, so an item's rank among those positions is its index in
+		// input order
+		long[] sorted = Arrays.copyOf(positions, n);
+		Arrays.sort(sorted);
+		int[] inputOrder = new int[n];
+		for (int i = 0; i < n; i++) {
+			inputOrder[Arrays.binarySearch(sorted, positions[i])] = i;
+		}
+		positions = null;
+		sorted = null;
+
+		switch (order) {
+		case NAME:
+			// the merge's key order is the order of CountMap.Order.NAME
+			for (int i = 0; i < n; i++) {
+				addItem(keys[i], values[i]);
+			}
+			break;
+		case VALUE:
+			// ties keep input order, as CountMap's sort does
+			CountMap counts = new CountMap(n);
+			for (int i : inputOrder) {
+				counts.add(keys[i], values[i]);
+			}
+			collect(counts);
+			break;
+		default:
+			for (int i : inputOrder) {
+				addItem(keys[i], values[i]);
 			}
 		}
+		xData = null;
+		mergedKeys = keys;
+		mergedValues = values;
+		mergedInputOrder = inputOrder;
+		stats.setDistinctKeys(n);
+	}
+
+	/**
+	 * collect the top N merged items exactly, holding only those
+	 */
+	private void collectTop(SpillingCountMap.Merge merge) throws IOException {
+		PriorityQueue<Item> best = new PriorityQueue<Item>(top,
+				Collections.reverseOrder(Item.BY_COUNT));
+		long distinct = 0;
+		double total = 0;
+		while (merge.next()) {
+			distinct++;
+			total += merge.count();
+			Item item = new Item(merge.key(), merge.count(),
+					merge.firstSeen());
+			if (best.size() < top) {
+				best.add(item);
+			} else if (Item.BY_COUNT.compare(item, best.peek()) < 0) {
+				best.poll();
+				best.add(item);
+			}
+		}
+
+		Item[] items = best.toArray(new Item[best.size()]);
+		Arrays.sort(items, order == CountMap.Order.NAME ? Item.BY_NAME
+				: Item.BY_COUNT);
+		double rest = total;
+		for (Item item : items) {
+			DataSet data = new DataSet(item.key);
+			data.addPoint(item.count, 0);
+			yData.add(data);
+			rest -= item.count;
+		}
+		if (distinct > items.length) {
+			other = new DataSet(OTHER);
+			other.addPoint(rest, 0);
+		}
+		stats.setDistinctKeys(distinct);
+		xData = null;
+	}
+
+	private void collect(CountMap counts) {
+		for (int i : counts.view(order)) {
+			addItem(counts.key(i), counts.value(i));
+		}
+
+		xData = null;
+	}
+
+	private void addItem(String key, double value) {
+		DataSet data = new DataSet(key);
+		data.addPoint(value);
+		yData.add(data);
+	}
+
+	private void collect(SpaceSaving sketch) {
+		int[] top = sketch.top(this.top);
+		if (order == CountMap.Order.NAME) {
+			CountMap names = new CountMap(top.length);
+			for (int i : top) {
+				names.add(sketch.key(i), i);
+			}
+			int j = 0;
+			for (int i : names.view(CountMap.Order.NAME)) {
+				top[j++] = (int) names.value(i);
+			}
+		}
+
+		// the counts of all tracked keys add up to the total, so whatever the
+		// top N don't account for belongs to the rest - give or take the
+		// amount by which the top N are overestimated
+		double rest = sketch.total(), error = 0;
+		for (int i : top) {
+			DataSet data = new DataSet(sketch.key(i));
+			data.addPoint(sketch.count(i), sketch.error(i));
+			yData.add(data);
+			rest -= sketch.count(i);
+			error += sketch.error(i);
+		}
+		if (sketch.size() > top.length) {
+			other = new DataSet(OTHER);
+			other.addPoint(rest, error);
+		}
+
+		xData = null;
+	}
+
+	/**
+	 * a counted item, for picking the top N of a merge
+	 */
+	private static class Item {
+
+		// descending count; ties in input order, as CountMap.top() has them
+		static final Comparator<Item> BY_COUNT = new Comparator<Item>() {
+			public int compare(Item a, Item b) {
+				int c = Double.compare(b.count, a.count);
+				return c != 0 ? c : Long.compare(a.firstSeen, b.firstSeen);
+			}
+		};
+
+		static final Comparator<Item> BY_NAME = new Comparator<Item>() {
+			public int compare(Item a, Item b) {
+				return a.key.compareTo(b.key);
+			}
+		};
+
+		final String key;
+		final double count;
+		final long firstSeen;
+
+		Item(String key, double count, long firstSeen) {
+			this.key = key;
+			this.count = count;
+			this.firstSeen = firstSeen;
+		}
 	}
 }
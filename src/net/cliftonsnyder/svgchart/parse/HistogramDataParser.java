@@ -0,0 +1,242 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.parse;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.DoubleBuffer;
+
+import net.cliftonsnyder.svgchart.data.LogHistogram;
+import net.cliftonsnyder.svgchart.io.ColumnarFile;
+import net.cliftonsnyder.svgchart.io.Streams;
+import net.cliftonsnyder.svgchart.stats.Stats;
+
+public class HistogramDataParser {
+
+	private final LogHistogram histogram = new LogHistogram();
+	private long rows = 0;
+	private Stats stats = Stats.DISABLED;
+
+	/**
+	 * @return the sketch holding every value read so far
+	 */
+	public LogHistogram getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * @return the number of lines (or rows) read so far
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	/**
+	 * valid histogram input includes:
+	 * 
+	 * <ul>
+	 * <li>one-column: a list of numbers, one per line</li>
+	 * <li>two-column: (value,count) pairs delimited by one of
+	 * ParsePatterns.DELIMITERS, each standing for <em>count</em> occurrences
+	 * of <em>value</em></li>
+	 * </ul>
+	 * 
+	 * values are added to a LogHistogram as they stream past, so the memory
+	 * used doesn't depend on the amount of input. the input may also be a
+	 * ColumnarFile made from such input (as LineChartDataParser.export()
+	 * makes it).
+	 * 
+	 * @param in
+	 *            the InputStream from which to read
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void parseInput(InputStream in) throws IOException, ParseException {
+		stats.begin(Stats.Phase.READ);
+		if (!in.markSupported()) {
+			in = new BufferedInputStream(in);
+		}
+		if (ColumnarFile.isColumnar(in)) {
+			ColumnarFile columns = ColumnarFile.read(in);
+			try {
+				read(columns);
+			} finally {
+				columns.close();
+			}
+			return;
+		}
+		parseMore(in);
+		read();
+	}
+
+	/**
+	 * like parseInput(InputStream), but for a regular file, which may be
+	 * compressed; a ColumnarFile is read from memory-mapped windows rather
+	 * than through a stream
+	 * 
+	 * @param file
+	 *            the file from which to read
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void parseInput(File file) throws IOException, ParseException {
+		if (!Streams.isCompressed(file) && ColumnarFile.isColumnar(file)) {
+			stats.begin(Stats.Phase.READ);
+			ColumnarFile columns = ColumnarFile.map(file);
+			try {
+				read(columns);
+			} finally {
+				columns.close();
+			}
+			return;
+		}
+		InputStream in = Streams.open(file);
+		try {
+			parseInput(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * read more text input, adding it to what earlier calls read; each piece
+	 * must end with a complete line
+	 * 
+	 * @param in
+	 *            the InputStream from which to read the next piece
+	 * @return the number of lines read from <em>in</em>
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public long parseMore(InputStream in) throws IOException, ParseException {
+		LineScanner scanner = new LineScanner(new InputStreamReader(in));
+		long lines = 0;
+		while (scanner.next()) {
+			int items = scanner.fieldCount();
+			try {
+				if (items == 1) {
+					add(scanner.parseDouble(0), 1, scanner);
+				} else if (items == 2) {
+					add(scanner.parseDouble(0), scanner.parseDouble(1),
+							scanner);
+				} else {
+					items = 0;
+				}
+			} catch (NumberFormatException e) {
+				items = 0;
+			}
+			if (items == 0) {
+				throw new ParseException("unexpected data value '"
+						+ scanner.line() + "'");
+			}
+			lines++;
+		}
+		rows += lines;
+		return lines;
+	}
+
+	/**
+	 * forget everything read so far
+	 */
+	public void reset() {
+		histogram.clear();
+		rows = 0;
+	}
+
+	/**
+	 * record the read phase, the number of rows and the number of distinct
+	 * values (or of buckets, once there are too many) in <em>stats</em>
+	 * 
+	 * @param stats
+	 *            where to record them (or null, not to)
+	 */
+	public void setStats(Stats stats) {
+		this.stats = stats == null ? Stats.DISABLED : stats;
+	}
+
+	private void add(double value, double count, LineScanner scanner)
+			throws ParseException {
+		try {
+			histogram.add(value, count);
+		} catch (IllegalArgumentException e) {
+			throw new ParseException(e.getMessage() + " at line "
+					+ scanner.lineNumber());
+		}
+	}
+
+	/**
+	 * read a ColumnarFile of one or two NUMBER columns, block by block
+	 */
+	private void read(ColumnarFile columns) throws IOException,
+			ParseException {
+		boolean counted = columns.hasColumns(ColumnarFile.NUMBER,
+				ColumnarFile.NUMBER);
+		if (!counted && !columns.hasColumns(ColumnarFile.NUMBER)
+				&& columns.getColumns() > 0) {
+			throw new ParseException("columnar input doesn't hold histogram "
+					+ "data");
+		}
+		long lines = 0;
+		while (columns.nextBlock()) {
+			DoubleBuffer values = columns.getNumbers(0);
+			DoubleBuffer counts = counted ? columns.getNumbers(1) : null;
+			for (int i = 0; i < columns.getBlockRows(); i++) {
+				try {
+					histogram.add(values.get(i), counted ? counts.get(i) : 1);
+				} catch (IllegalArgumentException e) {
+					throw new ParseException(e.getMessage() + " at row "
+							+ (lines + i + 1));
+				}
+			}
+			lines += columns.getBlockRows();
+		}
+		rows += lines;
+		read();
+	}
+
+	/**
+	 * end the read phase
+	 */
+	private void read() {
+		stats.end(Stats.Phase.READ);
+		stats.setRows(rows);
+		stats.setDistinctKeys(histogram.buckets());
+	}
+}
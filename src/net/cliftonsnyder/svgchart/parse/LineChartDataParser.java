@@ -0,0 +1,335 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.parse;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import net.cliftonsnyder.svgchart.data.ColumnarDataSet;
+import net.cliftonsnyder.svgchart.data.CountMap;
+import net.cliftonsnyder.svgchart.data.DataSet;
+import net.cliftonsnyder.svgchart.io.ColumnarFile;
+import net.cliftonsnyder.svgchart.io.Streams;
+import net.cliftonsnyder.svgchart.stats.Stats;
+
+public class LineChartDataParser {
+
+	/**
+	 * the name of the series in one- and two-column input
+	 */
+	public static final String DEFAULT_SERIES = "line";
+
+	// the kinds of the columns of a ColumnarFile made from one-, two- and
+	// three-column input
+	private static final byte[][] COLUMNAR_KINDS = {
+			{ ColumnarFile.NUMBER },
+			{ ColumnarFile.NUMBER, ColumnarFile.NUMBER },
+			{ ColumnarFile.NUMBER, ColumnarFile.NAME, ColumnarFile.NUMBER } };
+
+	private Collection<DataSet> yData;
+	private Stats stats = Stats.DISABLED;
+
+	public LineChartDataParser() {
+		yData = new ArrayList<DataSet>();
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @return one ColumnarDataSet per series, in the order in which they first
+	 *         appear in the input; each point is (x, y)
+	 */
+	public Collection<DataSet> getYData() {
+		return yData;
+	}
+
+	/**
+	 * valid line chart input includes:
+	 * 
+	 * <ul>
+	 * <li>one-column: a list of y values, one per line; x is the line number
+	 * (starting from 0)</li>
+	 * <li>two-column: (x,y) pairs delimited by one of ParsePatterns.DELIMITERS</li>
+	 * <li>three-column: (x,name,y) tuples delimited by one of
+	 * ParsePatterns.DELIMITERS, where name is the series the point belongs to
+	 * </li>
+	 * </ul>
+	 * 
+	 * the first line decides which; every line must then have the same number
+	 * of columns. points are drawn in the order in which they appear, so the
+	 * input would normally be sorted by x. the input may also be a
+	 * ColumnarFile made by export().
+	 * 
+	 * @param in
+	 *            the InputStream from which to read
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void parseInput(InputStream in) throws IOException, ParseException {
+		stats.begin(Stats.Phase.READ);
+		if (!in.markSupported()) {
+			in = new BufferedInputStream(in);
+		}
+		if (ColumnarFile.isColumnar(in)) {
+			ColumnarFile columns = ColumnarFile.read(in);
+			try {
+				read(columns);
+			} finally {
+				columns.close();
+			}
+			return;
+		}
+		LineScanner scanner = new LineScanner(new InputStreamReader(in));
+
+		CountMap names = new CountMap();
+		List<ColumnarDataSet> series = new ArrayList<ColumnarDataSet>();
+		long rows = 0;
+		if (scanner.next()) { // could have empty input
+			int columns = scanner.fieldCount();
+			if (columns < 1 || columns > 3) {
+				throw new ParseException("parse error at line '"
+						+ scanner.line() + "'");
+			}
+			ColumnarDataSet data = null;
+			if (columns < 3) {
+				data = new ColumnarDataSet(DEFAULT_SERIES);
+				series.add(data);
+			}
+			do {
+				if (scanner.fieldCount() != columns) {
+					throw new ParseException("unexpected data value '"
+							+ scanner.line() + "'");
+				}
+				switch (columns) {
+				case 1:
+					data.addPoint(rows, scanner.parseDouble(0));
+					break;
+				case 2:
+					data.addPoint(scanner.parseDouble(0), scanner
+							.parseDouble(1));
+					break;
+				default:
+					int i = names.entry(scanner.buffer(),
+							scanner.fieldStart(1), scanner.fieldLength(1));
+					if (i == series.size()) {
+						series.add(new ColumnarDataSet(names.key(i)));
+					}
+					series.get(i).addPoint(scanner.parseDouble(0),
+							scanner.parseDouble(2));
+				}
+				rows++;
+			} while (scanner.next());
+		}
+		stats.end(Stats.Phase.READ);
+		stats.setRows(rows);
+		stats.setDistinctKeys(series.size());
+
+		stats.begin(Stats.Phase.AGGREGATE);
+		for (ColumnarDataSet data : series) {
+			data.trimToSize();
+			yData.add(data);
+		}
+		stats.end(Stats.Phase.AGGREGATE);
+	}
+
+	/**
+	 * like parseInput(InputStream), but for a regular file, which may be
+	 * compressed; a ColumnarFile is read from memory-mapped windows rather
+	 * than through a stream
+	 * 
+	 * @param file
+	 *            the file from which to read
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void parseInput(File file) throws IOException, ParseException {
+		if (!Streams.isCompressed(file) && ColumnarFile.isColumnar(file)) {
+			stats.begin(Stats.Phase.READ);
+			ColumnarFile columns = ColumnarFile.map(file);
+			try {
+				read(columns);
+			} finally {
+				columns.close();
+			}
+			return;
+		}
+		InputStream in = Streams.open(file);
+		try {
+			parseInput(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * convert one-, two- or three-column text input (see parseInput()) into a
+	 * ColumnarFile: numbers for the x and y columns, names for the series.
+	 * the first line decides how many columns there are
+	 * 
+	 * @param in
+	 *            the InputStream from which to read the text
+	 * @param out
+	 *            the OutputStream to write to; it is flushed, but not closed
+	 * @return the number of rows written
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public static long export(InputStream in, OutputStream out)
+			throws IOException, ParseException {
+		LineScanner scanner = new LineScanner(new InputStreamReader(in));
+		if (!scanner.next()) {
+			ColumnarFile.Writer writer = new ColumnarFile.Writer(out);
+			writer.finish();
+			return 0;
+		}
+		int columns = scanner.fieldCount();
+		if (columns > 3) {
+			throw new ParseException("parse error at line '" + scanner.line()
+					+ "'");
+		}
+		byte[] kinds = COLUMNAR_KINDS[columns - 1];
+		ColumnarFile.Writer writer = new ColumnarFile.Writer(out, kinds);
+		do {
+			if (scanner.fieldCount() != columns) {
+				throw new ParseException("unexpected data value '"
+						+ scanner.line() + "'");
+			}
+			for (int c = 0; c < columns; c++) {
+				if (kinds[c] == ColumnarFile.NAME) {
+					writer.name(c, scanner.buffer(), scanner.fieldStart(c),
+							scanner.fieldLength(c));
+				} else {
+					writer.number(c, scanner.parseDouble(c));
+				}
+			}
+			writer.endRow();
+		} while (scanner.next());
+		writer.finish();
+		return writer.getRows();
+	}
+
+	/**
+	 * read a ColumnarFile made from one-, two- or three-column input, block by
+	 * block; the points of one- and two-column input are copied straight into
+	 * the columns of a single ColumnarDataSet
+	 */
+	private void read(ColumnarFile columns) throws IOException,
+			ParseException {
+		List<ColumnarDataSet> series = new ArrayList<ColumnarDataSet>();
+		long rows = columns.getRows();
+		if (columns.getColumns() == 0) {
+			rows = 0;
+		} else if (columns.hasColumns(COLUMNAR_KINDS[0])
+				|| columns.hasColumns(COLUMNAR_KINDS[1])) {
+			if (rows > Integer.MAX_VALUE - 8) {
+				throw new ParseException("too many points: " + rows);
+			}
+			double[] x = new double[(int) rows], y = new double[(int) rows];
+			int n = 0;
+			boolean indexed = columns.getColumns() == 1;
+			while (columns.nextBlock()) {
+				int len = columns.getBlockRows();
+				if (n + len > x.length) {
+					throw new IOException("corrupt columnar file");
+				}
+				if (indexed) {
+					for (int i = 0; i < len; i++) {
+						x[n + i] = n + i;
+					}
+					columns.getNumbers(0).get(y, n, len);
+				} else {
+					columns.getNumbers(0).get(x, n, len);
+					columns.getNumbers(1).get(y, n, len);
+				}
+				n += len;
+			}
+			if (n > 0) {
+				series.add(new ColumnarDataSet(DEFAULT_SERIES, new double[][] {
+						x, y }, n));
+			}
+		} else if (columns.hasColumns(COLUMNAR_KINDS[2])) {
+			int[] seriesOf = new int[columns.getDictionarySize()];
+			Arrays.fill(seriesOf, -1);
+			while (columns.nextBlock()) {
+				DoubleBuffer x = columns.getNumbers(0);
+				IntBuffer names = columns.getNames(1);
+				DoubleBuffer y = columns.getNumbers(2);
+				for (int i = 0; i < columns.getBlockRows(); i++) {
+					int s = seriesOf[names.get(i)];
+					if (s < 0) {
+						s = seriesOf[names.get(i)] = series.size();
+						series.add(new ColumnarDataSet(columns.getName(names
+								.get(i))));
+					}
+					series.get(s).addPoint(x.get(i), y.get(i));
+				}
+			}
+		} else {
+			throw new ParseException("columnar input doesn't hold line chart "
+					+ "data");
+		}
+		stats.end(Stats.Phase.READ);
+		stats.setRows(rows);
+		stats.setDistinctKeys(series.size());
+
+		stats.begin(Stats.Phase.AGGREGATE);
+		for (ColumnarDataSet data : series) {
+			data.trimToSize();
+			yData.add(data);
+		}
+		stats.end(Stats.Phase.AGGREGATE);
+	}
+
+	/**
+	 * record the read and aggregate phases, the number of rows and the number
+	 * of series in <em>stats</em>
+	 * 
+	 * @param stats
+	 *            where to record them (or null, not to)
+	 */
+	public void setStats(Stats stats) {
+		this.stats = stats == null ? Stats.DISABLED : stats;
+	}
+}
@@ -0,0 +1,396 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.parse;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * a line-at-a-time tokenizer that works directly on a reusable character
+ * buffer. it splits each line on ParsePatterns.DELIMITERS exactly the way
+ * String.split() would (including leading empty fields and the removal of
+ * trailing empty fields), but without compiling a regex or allocating a
+ * String per line or per field. line terminators are those understood by
+ * BufferedReader.readLine().
+ * 
+ * the buffer and the field offsets are only valid until the next call to
+ * next().
+ */
+public class LineScanner {
+
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	// largest mantissa that converts to a double exactly
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final Reader in;
+	private char[] buf;
+	private int pos = 0, limit = 0;
+	private boolean eof = false;
+	private boolean skipLF = false;
+
+	private int lineStart, lineEnd;
+	// field i spans [fields[2i], fields[2i+1])
+	private int[] fields = new int[16];
+	private int fieldCount;
+	private long lineNumber = 0;
+
+	/**
+	 * create a scanner reading from <em>in</em>
+	 * 
+	 * @param in
+	 *            the Reader from which to read
+	 */
+	public LineScanner(Reader in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * create a scanner reading from <em>in</em> with an initial buffer of
+	 * <em>size</em> characters (the buffer grows to fit long lines)
+	 * 
+	 * @param in
+	 *            the Reader from which to read
+	 * @param size
+	 *            the initial buffer size
+	 */
+	public LineScanner(Reader in, int size) {
+		this.in = in;
+		this.buf = new char[Math.max(size, 16)];
+	}
+
+	/**
+	 * @param c
+	 *            a character
+	 * @return true if <em>c</em> matches ParsePatterns.DELIMITERS
+	 */
+	public static boolean isDelimiter(char c) {
+		switch (c) {
+		case ',':
+		case ':':
+		case ';':
+		case ' ':
+		case '\t':
+		case '\n':
+		case '\u000B':
+		case '\f':
+		case '\r':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return the buffer holding the current line
+	 */
+	public char[] buffer() {
+		return buf;
+	}
+
+	/**
+	 * @param i
+	 *            a field index
+	 * @return the current line's <em>i</em>th field as a String
+	 */
+	public String field(int i) {
+		return new String(buf, fieldStart(i), fieldLength(i));
+	}
+
+	/**
+	 * @return the number of fields in the current line, as
+	 *         line.split(ParsePatterns.DELIMITERS).length would count them
+	 */
+	public int fieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * @param i
+	 *            a field index
+	 * @return the length of field <em>i</em> of the current line
+	 */
+	public int fieldLength(int i) {
+		return fields[2 * i + 1] - fields[2 * i];
+	}
+
+	/**
+	 * @param i
+	 *            a field index
+	 * @return the offset of field <em>i</em> of the current line in buffer()
+	 */
+	public int fieldStart(int i) {
+		if (i < 0 || i >= fieldCount) {
+			throw new IndexOutOfBoundsException("field " + i + " of "
+					+ fieldCount);
+		}
+		return fields[2 * i];
+	}
+
+	/**
+	 * @return the current line as a String (without its terminator)
+	 */
+	public String line() {
+		return new String(buf, lineStart, lineEnd - lineStart);
+	}
+
+	/**
+	 * @return the length of the current line
+	 */
+	public int lineLength() {
+		return lineEnd - lineStart;
+	}
+
+	/**
+	 * @return the 1-based number of the current line
+	 */
+	public long lineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return the offset of the current line in buffer()
+	 */
+	public int lineStart() {
+		return lineStart;
+	}
+
+	/**
+	 * advance to the next line
+	 * 
+	 * @return false if there are no more lines
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public boolean next() throws IOException {
+		int scan = pos;
+		for (;;) {
+			if (scan == limit) {
+				int offset = scan - pos;
+				if (!fill()) {
+					// end of input; a final unterminated line still counts
+					if (pos == limit) {
+						return false;
+					}
+					setLine(pos, limit);
+					pos = limit;
+					return true;
+				}
+				scan = pos + offset;
+				continue;
+			}
+			char c = buf[scan];
+			if (skipLF) {
+				skipLF = false;
+				if (c == '\n') {
+					pos = ++scan;
+					continue;
+				}
+			}
+			if (c == '\n' || c == '\r') {
+				setLine(pos, scan);
+				pos = scan + 1;
+				skipLF = (c == '\r');
+				return true;
+			}
+			scan++;
+		}
+	}
+
+	/**
+	 * parse field <em>i</em> of the current line as Double.parseDouble()
+	 * would, without creating a String for the common plain-decimal case
+	 * 
+	 * @param i
+	 *            a field index
+	 * @return the parsed value
+	 * 
+	 * @throws NumberFormatException
+	 *             if the field is not a valid number
+	 */
+	public double parseDouble(int i) {
+		return parseDouble(buf, fieldStart(i), fieldLength(i));
+	}
+
+	/**
+	 * parse <em>len</em> characters of <em>chars</em> starting at
+	 * <em>off</em> as Double.parseDouble() would. plain decimals whose value
+	 * can be computed exactly (at most 2^53 for the digits, and a power of ten
+	 * no larger than 10^22) are handled in place; anything else falls back to
+	 * Double.parseDouble(), so results and exceptions are always identical.
+	 * 
+	 * @param chars
+	 *            the characters
+	 * @param off
+	 *            the offset of the first character
+	 * @param len
+	 *            the number of characters
+	 * @return the parsed value
+	 * 
+	 * @throws NumberFormatException
+	 *             if the characters are not a valid number
+	 */
+	public static double parseDouble(char[] chars, int off, int len) {
+		int i = off, end = off + len;
+		boolean negative = false;
+		if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+			negative = chars[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0, significant = 0, scale = 0;
+		boolean point = false;
+		for (; i < end; i++) {
+			char c = chars[i];
+			if (c >= '0' && c <= '9') {
+				digits++;
+				if (mantissa != 0 || c != '0') {
+					if (++significant > 18) {
+						return slowParse(chars, off, len);
+					}
+				}
+				mantissa = mantissa * 10 + (c - '0');
+				if (point) {
+					scale--;
+				}
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (digits == 0) {
+			return slowParse(chars, off, len);
+		}
+
+		if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+				negativeExponent = chars[i] == '-';
+				i++;
+			}
+			int exponent = 0, exponentDigits = 0;
+			for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+				if (++exponentDigits > 4) {
+					return slowParse(chars, off, len);
+				}
+				exponent = exponent * 10 + (chars[i] - '0');
+			}
+			if (exponentDigits == 0) {
+				return slowParse(chars, off, len);
+			}
+			scale += negativeExponent ? -exponent : exponent;
+		}
+		if (i != end || mantissa > MAX_EXACT_MANTISSA) {
+			return slowParse(chars, off, len);
+		}
+
+		double value = mantissa;
+		if (mantissa != 0 && scale != 0) {
+			if (scale < 0 && scale >= -22) {
+				value /= POWERS_OF_TEN[-scale];
+			} else if (scale > 0 && scale <= 22) {
+				value *= POWERS_OF_TEN[scale];
+			} else {
+				return slowParse(chars, off, len);
+			}
+		}
+		return negative ? -value : value;
+	}
+
+	private static double slowParse(char[] chars, int off, int len) {
+		return Double.parseDouble(new String(chars, off, len));
+	}
+
+	/**
+	 * read more input, first moving the partial line starting at pos to the
+	 * front of the buffer (or growing the buffer if the line fills it)
+	 */
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+		if (limit == buf.length) {
+			char[] b = new char[buf.length * 2];
+			System.arraycopy(buf, 0, b, 0, limit);
+			buf = b;
+		}
+		int n;
+		do {
+			n = in.read(buf, limit, buf.length - limit);
+		} while (n == 0);
+		if (n < 0) {
+			eof = true;
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+
+	private void setLine(int start, int end) {
+		lineStart = start;
+		lineEnd = end;
+		lineNumber++;
+
+		// split the way String.split() does: every delimiter character ends a
+		// field, trailing empty fields are dropped, and a line without any
+		// delimiters is a single field (even if it is empty)
+		int n = 0, fieldStart = start;
+		boolean delimited = false;
+		for (int i = start; i < end; i++) {
+			if (isDelimiter(buf[i])) {
+				n = addField(n, fieldStart, i);
+				fieldStart = i + 1;
+				delimited = true;
+			}
+		}
+		n = addField(n, fieldStart, end);
+		if (delimited) {
+			while (n > 0 && fields[2 * n - 1] == fields[2 * n - 2]) {
+				n--;
+			}
+		}
+		fieldCount = n;
+	}
+
+	private int addField(int n, int start, int end) {
+		if (2 * n + 1 >= fields.length) {
+			int[] f = new int[fields.length * 2];
+			System.arraycopy(fields, 0, f, 0, fields.length);
+			fields = f;
+		}
+		fields[2 * n] = start;
+		fields[2 * n + 1] = end;
+		return n + 1;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.cliftonsnyder.svgchart.data.CountMap;
+
+/**
+ * counts one- and two-column input from a regular file in parallel: each
+ * chunk (see ParallelFileReader) is counted into its own CountMap, and each
+ * chunk's counts are merged into those of the chunk before it, so keys keep
+ * the order in which they first appear in the file. a key's count is summed
+ * chunk by chunk rather than line by line, so fractional counts can differ
+ * from a sequential count in the last digits; whole counts (up to 2^53) are
+ * the same.
+ */
+class ParallelFileCounter extends ParallelFileReader<CountMap> {
+
+	private final LongAdder rows;
+
+	private ParallelFileCounter(LongAdder rows) {
+		this.rows = rows;
+	}
+
+	/**
+	 * count the lines of <em>file</em> as BarChartDataParser.count() would
+	 * 
+	 * @param file
+	 *            a regular file
+	 * @param parallelism
+	 *            the number of threads to use
+	 * @param rows
+	 *            the number of lines counted is added to this
+	 * @return the counts
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	static CountMap count(File file, int parallelism, LongAdder rows)
+			throws IOException, ParseException {
+		return new ParallelFileCounter(rows).read(file, parallelism);
+	}
+
+	@Override
+	protected CountMap readChunk(LineScanner scanner) throws IOException,
+			ParseException {
+		CountMap counts = new CountMap();
+		if (scanner.next()) {
+			rows.add(BarChartDataParser.count(scanner, counts));
+		}
+		return counts;
+	}
+
+	@Override
+	protected CountMap merge(CountMap left, CountMap right) {
+		left.addAll(right);
+		return left;
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * reads a regular file in parallel. the file is memory-mapped in chunks that
+ * end on line boundaries; each chunk is read into a result of its own on a
+ * fork-join worker, and neighbouring results are merged pairwise (the
+ * right one into the left) as the workers finish, so the merged result sees the chunks in the
+ * order in which they appear in the file.
+ */
+abstract class ParallelFileReader<T> {
+
+	private static final long MIN_CHUNK_SIZE = 1L << 20;
+	private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+	// chunks per thread; a few more than one evens out the load
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * @return true if the platform's default charset encodes a newline as a
+	 *         single '\n' byte (which makes it safe to split the raw bytes on
+	 *         line boundaries)
+	 */
+	static boolean isSupported() {
+		byte[] nl = "\n".getBytes(Charset.defaultCharset());
+		return nl.length == 1 && nl[0] == '\n';
+	}
+
+	/**
+	 * read <em>file</em>, chunk by chunk
+	 * 
+	 * @param file
+	 *            a regular file
+	 * @param parallelism
+	 *            the number of threads to use
+	 * @return the merged result of all the chunks
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	T read(File file, int parallelism) throws IOException, ParseException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long[] bounds = split(channel, parallelism);
+
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				return pool.invoke(new ReadTask(channel, bounds, 0,
+						bounds.length - 1));
+			} catch (ChunkException e) {
+				// tasks that fail on another thread get re-wrapped when they
+				// are joined; dig out what actually went wrong
+				Throwable t = e;
+				while (t instanceof ChunkException && t.getCause() != null) {
+					t = t.getCause();
+				}
+				if (t instanceof IOException) {
+					throw (IOException) t;
+				} else if (t instanceof ParseException) {
+					throw (ParseException) t;
+				} else if (t instanceof RuntimeException) {
+					throw (RuntimeException) t;
+				}
+				throw e;
+			} finally {
+				pool.shutdown();
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * read one chunk; this is called by several threads at once
+	 * 
+	 * @param scanner
+	 *            the lines of the chunk, before the first
+	 * @return the chunk's result
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	protected abstract T readChunk(LineScanner scanner) throws IOException,
+			ParseException;
+
+	/**
+	 * merge the result of a chunk into that of the chunk before it
+	 * 
+	 * @return the merged result (normally <em>left</em>)
+	 */
+	protected abstract T merge(T left, T right);
+
+	/**
+	 * @return chunk boundaries: chunk i spans [bounds[i], bounds[i + 1]), and
+	 *         every chunk but the last ends just after a '\n'
+	 */
+	private static long[] split(FileChannel channel, int parallelism)
+			throws IOException {
+		long size = channel.size();
+		long chunkSize = size / ((long) parallelism * CHUNKS_PER_THREAD);
+		chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		ByteBuffer buf = ByteBuffer.allocate(8192);
+		long pos = 0;
+		while (size - pos > chunkSize) {
+			// a chunk may run over by however long the line is, but never past
+			// what a single mapping can hold
+			long end = nextLineStart(channel, buf, pos + chunkSize,
+					pos + Integer.MAX_VALUE);
+			if (end >= size) {
+				break;
+			}
+			bounds.add(end);
+			pos = end;
+		}
+		bounds.add(size);
+
+		long[] b = new long[bounds.size()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = bounds.get(i);
+		}
+		return b;
+	}
+
+	/**
+	 * @return the position just after the first '\n' at or after <em>from</em>
+	 *         (or the end of the file)
+	 */
+	private static long nextLineStart(FileChannel channel, ByteBuffer buf,
+			long from, long limit) throws IOException {
+		long pos = from;
+		for (;;) {
+			buf.clear();
+			int n = channel.read(buf, pos);
+			if (n < 0) {
+				return channel.size();
+			}
+			for (int i = 0; i < n; i++) {
+				if (buf.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += n;
+			if (pos >= limit) {
+				throw new IOException("line too long near offset " + from);
+			}
+		}
+	}
+
+	/**
+	 * reads chunks [from, to) by splitting the range in two, reading the
+	 * halves in parallel and merging the right-hand result into the left
+	 */
+	private class ReadTask extends RecursiveTask<T> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long[] bounds;
+		private final int from, to;
+
+		ReadTask(FileChannel channel, long[] bounds, int from, int to) {
+			this.channel = channel;
+			this.bounds = bounds;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected T compute() {
+			if (to - from == 1) {
+				return readChunk(bounds[from], bounds[to]);
+			}
+			int mid = (from + to) >>> 1;
+			ReadTask left = new ReadTask(channel, bounds, from, mid);
+			ReadTask right = new ReadTask(channel, bounds, mid, to);
+			left.fork();
+
+			// an error in the left half comes first in the file, so it wins
+			T r = null;
+			RuntimeException error = null;
+			try {
+				r = right.compute();
+			} catch (RuntimeException e) {
+				error = e;
+			}
+			T l = left.join();
+			if (error != null) {
+				throw error;
+			}
+			return merge(l, r);
+		}
+
+		private T readChunk(long start, long end) {
+			try {
+				ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+						start, end - start);
+				return ParallelFileReader.this.readChunk(new LineScanner(
+						new InputStreamReader(new ByteBufferInputStream(buf))));
+			} catch (IOException e) {
+				throw new ChunkException(e);
+			} catch (ParseException e) {
+				throw new ChunkException(e);
+			} catch (RuntimeException e) {
+				throw new ChunkException(e);
+			}
+		}
+	}
+
+	/**
+	 * carries a chunk's failure out of the fork-join pool
+	 */
+	private static class ChunkException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public ChunkException(Throwable cause) {
+			super(cause);
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buf;
+
+		ByteBufferInputStream(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		@Override
+		public int available() {
+			return buf.remaining();
+		}
+
+		@Override
+		public int read() {
+			return buf.hasRemaining() ? buf.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buf.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buf.remaining());
+			buf.get(b, off, len);
+			return len;
+		}
+	}
+}
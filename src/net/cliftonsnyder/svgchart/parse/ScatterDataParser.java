@@ -0,0 +1,231 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.parse;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.DoubleBuffer;
+
+import net.cliftonsnyder.svgchart.data.DensityGrid;
+import net.cliftonsnyder.svgchart.io.ColumnarFile;
+import net.cliftonsnyder.svgchart.io.Streams;
+import net.cliftonsnyder.svgchart.stats.Stats;
+
+public class ScatterDataParser {
+
+	private final int columns, rows, maxPoints;
+	private DensityGrid grid;
+	private Stats stats = Stats.DISABLED;
+
+	/**
+	 * @param columns
+	 *            the number of columns of the DensityGrid to count the points
+	 *            into
+	 * @param rows
+	 *            the number of rows of the grid
+	 * @param maxPoints
+	 *            the most points the grid keeps as they are
+	 */
+	public ScatterDataParser(int columns, int rows, int maxPoints) {
+		this.columns = columns;
+		this.rows = rows;
+		this.maxPoints = maxPoints;
+		grid = new DensityGrid(columns, rows, maxPoints);
+	}
+
+	/**
+	 * @return the grid holding every point read
+	 */
+	public DensityGrid getGrid() {
+		return grid;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	/**
+	 * valid scatter chart input is two-column: (x,y) pairs delimited by one
+	 * of ParsePatterns.DELIMITERS, in any order. the points are counted into
+	 * a DensityGrid as they stream past, so the memory used doesn't depend on
+	 * the number of points. the input may also be a ColumnarFile made from
+	 * such input (as LineChartDataParser.export() makes it).
+	 * 
+	 * @param in
+	 *            the InputStream from which to read
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void parseInput(InputStream in) throws IOException, ParseException {
+		stats.begin(Stats.Phase.READ);
+		if (!in.markSupported()) {
+			in = new BufferedInputStream(in);
+		}
+		if (ColumnarFile.isColumnar(in)) {
+			ColumnarFile columns = ColumnarFile.read(in);
+			try {
+				read(columns);
+			} finally {
+				columns.close();
+			}
+			return;
+		}
+		count(new LineScanner(new InputStreamReader(in)), grid);
+		read();
+	}
+
+	/**
+	 * like parseInput(InputStream), but for a regular file, which may be
+	 * compressed. with more than one thread, an uncompressed text file is
+	 * split into chunks that are counted into grids of their own in parallel
+	 * (see ParallelFileReader), which are then merged; a ColumnarFile is read
+	 * from memory-mapped windows
+	 * 
+	 * @param file
+	 *            the file from which to read
+	 * @param parallelism
+	 *            the number of threads to use
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public void parseInput(File file, int parallelism) throws IOException,
+			ParseException {
+		boolean compressed = Streams.isCompressed(file);
+		if (!compressed && ColumnarFile.isColumnar(file)) {
+			stats.begin(Stats.Phase.READ);
+			ColumnarFile columns = ColumnarFile.map(file);
+			try {
+				read(columns);
+			} finally {
+				columns.close();
+			}
+			return;
+		}
+		if (parallelism > 1 && !compressed
+				&& ParallelFileReader.isSupported()) {
+			stats.begin(Stats.Phase.READ);
+			grid = new ParallelFileReader<DensityGrid>() {
+				@Override
+				protected DensityGrid readChunk(LineScanner scanner)
+						throws IOException, ParseException {
+					DensityGrid chunk = new DensityGrid(columns, rows,
+							maxPoints);
+					count(scanner, chunk);
+					return chunk;
+				}
+
+				@Override
+				protected DensityGrid merge(DensityGrid left,
+						DensityGrid right) {
+					left.merge(right);
+					return left;
+				}
+			}.read(file, parallelism);
+			read();
+			return;
+		}
+		InputStream in = Streams.open(file);
+		try {
+			parseInput(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * record the read phase and the number of rows in <em>stats</em>
+	 * 
+	 * @param stats
+	 *            where to record them (or null, not to)
+	 */
+	public void setStats(Stats stats) {
+		this.stats = stats == null ? Stats.DISABLED : stats;
+	}
+
+	/**
+	 * count the points of a ColumnarFile of two NUMBER columns, block by
+	 * block
+	 */
+	private void read(ColumnarFile columns) throws IOException,
+			ParseException {
+		if (!columns.hasColumns(ColumnarFile.NUMBER, ColumnarFile.NUMBER)
+				&& columns.getColumns() > 0) {
+			throw new ParseException("columnar input doesn't hold (x,y) "
+					+ "points");
+		}
+		long lines = 0;
+		while (columns.nextBlock()) {
+			DoubleBuffer x = columns.getNumbers(0);
+			DoubleBuffer y = columns.getNumbers(1);
+			for (int i = 0; i < columns.getBlockRows(); i++) {
+				try {
+					grid.add(x.get(i), y.get(i));
+				} catch (IllegalArgumentException e) {
+					throw new ParseException(e.getMessage() + " at row "
+							+ (lines + i + 1));
+				}
+			}
+			lines += columns.getBlockRows();
+		}
+		read();
+	}
+
+	/**
+	 * end the read phase
+	 */
+	private void read() {
+		stats.end(Stats.Phase.READ);
+		stats.setRows(grid.count());
+	}
+
+	/**
+	 * count every line of <em>scanner</em> into <em>grid</em>
+	 */
+	private static void count(LineScanner scanner, DensityGrid grid)
+			throws IOException, ParseException {
+		while (scanner.next()) {
+			boolean valid = scanner.fieldCount() == 2;
+			if (valid) {
+				try {
+					grid.add(scanner.parseDouble(0), scanner.parseDouble(1));
+				} catch (IllegalArgumentException e) {
+					// not a number, or not a finite one
+					valid = false;
+				}
+			}
+			if (!valid) {
+				throw new ParseException("unexpected data value '"
+						+ scanner.line() + "'");
+			}
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.parse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+import net.cliftonsnyder.svgchart.data.LongCountMap;
+import net.cliftonsnyder.svgchart.stats.Stats;
+
+/**
+ * counts lines (e.g. of a log file) per fixed-width time bucket, in one
+ * streaming pass. each line is counted in the bucket of the first timestamp
+ * found on it (see TimestampParser for the formats recognised); lines without
+ * one are skipped. buckets are aligned to the epoch, in UTC.
+ * 
+ * memory depends on the number of buckets, not the number of lines.
+ */
+public class TimeSeriesParser {
+
+	/**
+	 * empty buckets between the first and last are filled in (with zero
+	 * counts) unless there would be more than this many buckets in all; a
+	 * stray timestamp years away shouldn't cost gigabytes
+	 */
+	public static final int MAX_FILLED_BUCKETS = 1 << 20;
+
+	private static final long SECOND = 1000;
+	private static final long MINUTE = 60 * SECOND;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+
+	private static final DateTimeFormatter DAYS = DateTimeFormatter.ofPattern(
+			"yyyy-MM-dd").withZone(ZoneOffset.UTC);
+	private static final DateTimeFormatter MINUTES = DateTimeFormatter
+			.ofPattern("yyyy-MM-dd'T'HH:mm").withZone(ZoneOffset.UTC);
+	private static final DateTimeFormatter SECONDS = DateTimeFormatter
+			.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneOffset.UTC);
+	private static final DateTimeFormatter MILLISECONDS = DateTimeFormatter
+			.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
+
+	private final long bucketWidth;
+	private long[] buckets = new long[0];
+	private double[] counts = new double[0];
+	private long rows = 0, skipped = 0;
+	private Stats stats = Stats.DISABLED;
+
+	/**
+	 * @param bucketWidth
+	 *            the width of a bucket, in milliseconds
+	 */
+	public TimeSeriesParser(long bucketWidth) {
+		if (bucketWidth <= 0) {
+			throw new IllegalArgumentException("invalid bucket width "
+					+ bucketWidth);
+		}
+		this.bucketWidth = bucketWidth;
+	}
+
+	/**
+	 * @param millis
+	 *            the start of a bucket, in milliseconds since the epoch
+	 * @param bucketWidth
+	 *            the width of the bucket
+	 * @return a label for the bucket: its start as an ISO-8601 date and time
+	 *         (UTC), down to the finest unit <em>bucketWidth</em> needs
+	 */
+	public static String format(long millis, long bucketWidth) {
+		Instant instant = Instant.ofEpochMilli(millis);
+		if (bucketWidth % DAY == 0) {
+			return DAYS.format(instant);
+		} else if (bucketWidth % MINUTE == 0) {
+			return MINUTES.format(instant);
+		} else if (bucketWidth % SECOND == 0) {
+			return SECONDS.format(instant);
+		}
+		return MILLISECONDS.format(instant);
+	}
+
+	/**
+	 * parse a duration such as 500ms, 30s, 5m, 1h or 1d
+	 * 
+	 * @param s
+	 *            the duration: a positive whole number followed by a unit
+	 *            (ms, s, m, h or d)
+	 * @return the duration in milliseconds
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <em>s</em> isn't a valid duration
+	 */
+	public static long parseDuration(String s) {
+		int i = 0;
+		while (i < s.length() && Character.isDigit(s.charAt(i))) {
+			i++;
+		}
+		String unit = s.substring(i);
+		long unitMillis;
+		if ("ms".equals(unit)) {
+			unitMillis = 1;
+		} else if ("s".equals(unit)) {
+			unitMillis = SECOND;
+		} else if ("m".equals(unit)) {
+			unitMillis = MINUTE;
+		} else if ("h".equals(unit)) {
+			unitMillis = HOUR;
+		} else if ("d".equals(unit)) {
+			unitMillis = DAY;
+		} else {
+			throw new IllegalArgumentException("invalid duration '" + s + "'");
+		}
+		long n;
+		try {
+			n = Long.parseLong(s.substring(0, i));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid duration '" + s + "'");
+		}
+		if (n <= 0 || n > Long.MAX_VALUE / unitMillis) {
+			throw new IllegalArgumentException("invalid duration '" + s + "'");
+		}
+		return n * unitMillis;
+	}
+
+	/**
+	 * @return the start of each bucket (in milliseconds since the epoch), in
+	 *         ascending order
+	 */
+	public long[] getBuckets() {
+		return buckets;
+	}
+
+	public long getBucketWidth() {
+		return bucketWidth;
+	}
+
+	/**
+	 * @return the number of lines in each bucket, parallel to getBuckets()
+	 */
+	public double[] getCounts() {
+		return counts;
+	}
+
+	/**
+	 * @return the number of lines read (counted or skipped)
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the number of lines skipped for want of a timestamp
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	/**
+	 * count every line of <em>in</em> in its time bucket
+	 * 
+	 * @param in
+	 *            the InputStream from which to read
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void parseInput(InputStream in) throws IOException {
+		stats.begin(Stats.Phase.READ);
+		LineScanner scanner = new LineScanner(new InputStreamReader(in));
+		LongCountMap map = new LongCountMap();
+
+		// lines come mostly in time order, so most land in the same bucket
+		// as the line before
+		long lastBucket = TimestampParser.NONE;
+		int lastEntry = -1;
+		while (scanner.next()) {
+			rows++;
+			long t = TimestampParser.find(scanner.buffer(), scanner
+					.lineStart(), scanner.lineLength());
+			if (t == TimestampParser.NONE) {
+				skipped++;
+				continue;
+			}
+			long bucket = Math.floorDiv(t, bucketWidth);
+			if (bucket != lastBucket) {
+				lastBucket = bucket;
+				lastEntry = map.entry(bucket);
+			}
+			map.increment(lastEntry, 1);
+		}
+		stats.end(Stats.Phase.READ);
+		stats.setRows(rows);
+		stats.setDistinctKeys(map.size());
+
+		stats.begin(Stats.Phase.AGGREGATE);
+		collect(map);
+		stats.end(Stats.Phase.AGGREGATE);
+	}
+
+	/**
+	 * record the read and aggregate phases, the number of rows and the number
+	 * of (non-empty) buckets in <em>stats</em>
+	 * 
+	 * @param stats
+	 *            where to record them (or null, not to)
+	 */
+	public void setStats(Stats stats) {
+		this.stats = stats == null ? Stats.DISABLED : stats;
+	}
+
+	private void collect(LongCountMap map) {
+		int n = map.size();
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = map.key(i);
+		}
+		Arrays.sort(keys);
+
+		if (n > 0 && keys[n - 1] - keys[0] < MAX_FILLED_BUCKETS) {
+			int span = (int) (keys[n - 1] - keys[0]) + 1;
+			buckets = new long[span];
+			counts = new double[span];
+			for (int i = 0; i < span; i++) {
+				buckets[i] = (keys[0] + i) * bucketWidth;
+				counts[i] = map.get(keys[0] + i);
+			}
+		} else {
+			buckets = new long[n];
+			counts = new double[n];
+			for (int i = 0; i < n; i++) {
+				buckets[i] = keys[i] * bucketWidth;
+				counts[i] = map.get(keys[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.parse;
+
+/**
+ * recognises timestamps in ranges of characters, without regular expressions
+ * and without allocating. the formats understood are:
+ * 
+ * <ul>
+ * <li>ISO-8601: 2000-10-10, 2000-10-10T13:55, 2000-10-10 13:55:36.123,
+ * 2000-10-10T13:55:36Z, 2000-10-10T13:55:36+02:00 (or +0200, or +02)</li>
+ * <li>Common Log Format: [10/Oct/2000:13:55:36 -0700]</li>
+ * <li>epoch seconds (9 or 10 digits, optionally with a fraction) or epoch
+ * milliseconds (12 or 13 digits)</li>
+ * </ul>
+ * 
+ * timestamps without a zone are taken to be in UTC. results are milliseconds
+ * since the epoch, or NONE. fractions of a second beyond milliseconds are
+ * dropped.
+ */
+public class TimestampParser {
+
+	/**
+	 * returned when there is no timestamp
+	 */
+	public static final long NONE = Long.MIN_VALUE;
+
+	private static final long SECOND = 1000;
+	private static final long MINUTE = 60 * SECOND;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+
+	private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+	private TimestampParser() {
+	}
+
+	/**
+	 * find the first timestamp in a range of characters (e.g. a line of a log
+	 * file); a timestamp must start at the beginning of the range or after a
+	 * separator (whitespace, punctuation other than . : - /), and must be
+	 * followed by one (or by the end of the range)
+	 * 
+	 * @param c
+	 *            the characters
+	 * @param off
+	 *            the start of the range
+	 * @param len
+	 *            the length of the range
+	 * @return the first timestamp, in milliseconds since the epoch, or NONE
+	 */
+	public static long find(char[] c, int off, int len) {
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			char ch = c[i];
+			if (i > off && !isSeparator(c[i - 1])) {
+				continue;
+			}
+			long t = NONE;
+			if (ch == '[') {
+				t = parseCommonLog(c, i, end);
+			} else if (ch >= '0' && ch <= '9') {
+				t = parseISO(c, i, end);
+				if (t == NONE) {
+					t = parseEpoch(c, i, end);
+				}
+			}
+			if (t != NONE) {
+				return t;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * @return the number of days from 1970-01-01 to the given date (which
+	 *         must be valid) in the proleptic Gregorian calendar
+	 */
+	static long daysFromCivil(int year, int month, int day) {
+		// H. Hinnant, "chrono-Compatible Low-Level Date Algorithms"
+		year -= month <= 2 ? 1 : 0;
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yoe = year - era * 400;
+		long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29
+					: 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * @return the value of <em>n</em> digits at <em>i</em>, or -1 if they
+	 *         aren't all digits (or run past <em>end</em>)
+	 */
+	private static int digits(char[] c, int i, int n, int end) {
+		if (i + n > end) {
+			return -1;
+		}
+		int v = 0;
+		for (int j = i; j < i + n; j++) {
+			char ch = c[j];
+			if (ch < '0' || ch > '9') {
+				return -1;
+			}
+			v = v * 10 + (ch - '0');
+		}
+		return v;
+	}
+
+	private static boolean isSeparator(char c) {
+		return !Character.isLetterOrDigit(c) && c != '.' && c != ':'
+				&& c != '-' && c != '/';
+	}
+
+	private static boolean endsAt(char[] c, int i, int end) {
+		return i == end || isSeparator(c[i]);
+	}
+
+	/**
+	 * [dd/Mon/yyyy:HH:mm:ss +zzzz]
+	 */
+	private static long parseCommonLog(char[] c, int i, int end) {
+		if (i + 28 > end || c[i + 3] != '/' || c[i + 7] != '/'
+				|| c[i + 12] != ':' || c[i + 15] != ':' || c[i + 18] != ':'
+				|| c[i + 21] != ' ' || c[i + 27] != ']') {
+			return NONE;
+		}
+		int day = digits(c, i + 1, 2, end);
+		int month = -1;
+		for (int m = 0; m < 12; m++) {
+			if (MONTHS.charAt(m * 3) == c[i + 4]
+					&& MONTHS.charAt(m * 3 + 1) == c[i + 5]
+					&& MONTHS.charAt(m * 3 + 2) == c[i + 6]) {
+				month = m + 1;
+				break;
+			}
+		}
+		int year = digits(c, i + 8, 4, end);
+		int hour = digits(c, i + 13, 2, end);
+		int minute = digits(c, i + 16, 2, end);
+		int second = digits(c, i + 19, 2, end);
+		char sign = c[i + 22];
+		int zone = digits(c, i + 23, 4, end);
+		if (month < 0 || year < 0 || !valid(year, month, day, hour, minute,
+				second) || zone < 0 || (sign != '+' && sign != '-')) {
+			return NONE;
+		}
+		long offset = (zone / 100) * HOUR + (zone % 100) * MINUTE;
+		return toMillis(year, month, day, hour, minute, second, 0)
+				- (sign == '+' ? offset : -offset);
+	}
+
+	/**
+	 * 9-10 digits of seconds (with an optional fraction), or 12-13 of
+	 * milliseconds
+	 */
+	private static long parseEpoch(char[] c, int i, int end) {
+		int j = i;
+		long v = 0;
+		while (j < end && c[j] >= '0' && c[j] <= '9' && j - i < 14) {
+			v = v * 10 + (c[j++] - '0');
+		}
+		int n = j - i;
+		if (n == 9 || n == 10) {
+			v *= SECOND;
+			if (j < end && c[j] == '.') {
+				j++;
+				int start = j;
+				long scale = 100;
+				while (j < end && c[j] >= '0' && c[j] <= '9') {
+					v += (c[j++] - '0') * scale;
+					scale /= 10;
+				}
+				if (j == start) {
+					return NONE;
+				}
+			}
+		} else if (n != 12 && n != 13) {
+			return NONE;
+		}
+		return endsAt(c, j, end) ? v : NONE;
+	}
+
+	/**
+	 * yyyy-MM-dd[(T| )HH:mm[:ss[(.|,)SSS...]]][Z|(+|-)HH[[:]mm]]
+	 */
+	private static long parseISO(char[] c, int i, int end) {
+		int year = digits(c, i, 4, end);
+		if (year < 0 || i + 10 > end || c[i + 4] != '-' || c[i + 7] != '-') {
+			return NONE;
+		}
+		int month = digits(c, i + 5, 2, end);
+		int day = digits(c, i + 8, 2, end);
+		if (!valid(year, month, day, 0, 0, 0)) {
+			return NONE;
+		}
+		int j = i + 10;
+		int hour = 0, minute = 0, second = 0, millis = 0;
+		if (j + 6 <= end && (c[j] == 'T' || c[j] == ' ')
+				&& c[j + 3] == ':' && digits(c, j + 1, 2, end) >= 0
+				&& digits(c, j + 4, 2, end) >= 0) {
+			hour = digits(c, j + 1, 2, end);
+			minute = digits(c, j + 4, 2, end);
+			j += 6;
+			if (j + 3 <= end && c[j] == ':' && digits(c, j + 1, 2, end) >= 0) {
+				second = digits(c, j + 1, 2, end);
+				j += 3;
+				if (j + 1 < end && (c[j] == '.' || c[j] == ',')
+						&& c[j + 1] >= '0' && c[j + 1] <= '9') {
+					j++;
+					int scale = 100;
+					while (j < end && c[j] >= '0' && c[j] <= '9') {
+						millis += (c[j++] - '0') * scale;
+						scale /= 10;
+					}
+				}
+			}
+			if (!valid(year, month, day, hour, minute, second)) {
+				return NONE;
+			}
+
+			// zone
+			if (j < end && c[j] == 'Z') {
+				j++;
+			} else if (j + 3 <= end && (c[j] == '+' || c[j] == '-')) {
+				int h = digits(c, j + 1, 2, end);
+				if (h < 0 || h > 18) {
+					return NONE;
+				}
+				int k = j + 3, m = 0;
+				if (k < end && c[k] == ':') {
+					m = digits(c, k + 1, 2, end);
+					k += 3;
+				} else if (digits(c, k, 2, end) >= 0) {
+					m = digits(c, k, 2, end);
+					k += 2;
+				}
+				if (m < 0 || m > 59) {
+					return NONE;
+				}
+				long offset = h * HOUR + m * MINUTE;
+				if (!endsAt(c, k, end)) {
+					return NONE;
+				}
+				return toMillis(year, month, day, hour, minute, second,
+						millis)
+						- (c[j] == '+' ? offset : -offset);
+			}
+		}
+		return endsAt(c, j, end) ? toMillis(year, month, day, hour, minute,
+				second, millis) : NONE;
+	}
+
+	private static long toMillis(int year, int month, int day, int hour,
+			int minute, int second, int millis) {
+		return daysFromCivil(year, month, day) * DAY + hour * HOUR + minute
+				* MINUTE + second * SECOND + millis;
+	}
+
+	private static boolean valid(int year, int month, int day, int hour,
+			int minute, int second) {
+		return month >= 1 && month <= 12 && day >= 1
+				&& day <= daysInMonth(year, month) && hour >= 0 && hour < 24
+				&& minute >= 0 && minute < 60 && second >= 0 && second <= 60;
+	}
+}
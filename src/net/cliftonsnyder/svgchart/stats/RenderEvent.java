@@ -0,0 +1,51 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * a whole rendering, as recorded by Stats; -1 stands for "unknown"
+ */
+@Name("net.cliftonsnyder.svgchart.Render")
+@Label("Chart Rendering")
+@Category("svgchart")
+@Description("Rendering a chart, from reading the input to writing the "
+		+ "last byte")
+class RenderEvent extends jdk.jfr.Event {
+
+	@Label("Input")
+	String input;
+
+	@Label("Rows")
+	long rows;
+
+	@Label("Distinct Keys")
+	long distinctKeys;
+
+	@Label("Output Bytes")
+	@DataAmount
+	long outputBytes;
+}
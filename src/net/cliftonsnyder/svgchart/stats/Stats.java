@@ -0,0 +1,368 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.stats;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * per-phase measurements of a single rendering: for each phase, the wall
+ * time, the CPU time and the bytes allocated by the thread that ran it; and
+ * for the rendering as a whole, the number of input rows, the number of
+ * distinct keys and the number of output bytes. every phase is also reported
+ * as a JFR event (see PhaseEvent and RenderEvent), which costs next to
+ * nothing unless a recording is running.
+ * 
+ * a phase must begin and end on the same thread. CPU time and allocations
+ * are those of that thread only, so work handed off to other threads (e.g.
+ * a parallel read) shows up in the wall time alone. a phase that is begun
+ * but never ended (because of an error, say) isn't recorded; a phase that
+ * runs more than once is recorded as the sum of its runs.
+ * 
+ * a Stats object is meant for one rendering at a time, and isn't
+ * thread-safe.
+ */
+public class Stats {
+
+	public enum Phase {
+		ARGS, READ, AGGREGATE, LAYOUT, SERIALIZE;
+	}
+
+	/**
+	 * records nothing; for charts and parsers that nobody is measuring
+	 */
+	public static final Stats DISABLED = new Stats(false);
+
+	private static final ThreadMXBean THREADS = ManagementFactory
+			.getThreadMXBean();
+
+	private static final int PHASES = Phase.values().length;
+
+	private final boolean enabled;
+	private String input;
+
+	private final long[] wallStart = new long[PHASES],
+			cpuStart = new long[PHASES], allocatedStart = new long[PHASES];
+	private final long[] wall = new long[PHASES], cpu = new long[PHASES],
+			allocated = new long[PHASES];
+	private final boolean[] ran = new boolean[PHASES];
+	private final PhaseEvent[] events = new PhaseEvent[PHASES];
+
+	private long rows = -1, distinctKeys = -1, outputBytes = -1;
+	private final RenderEvent render;
+
+	public Stats() {
+		this(true);
+	}
+
+	private Stats(boolean enabled) {
+		this.enabled = enabled;
+		if (enabled) {
+			render = new RenderEvent();
+			render.begin();
+		} else {
+			render = null;
+		}
+	}
+
+	/**
+	 * start timing <em>phase</em> on the current thread
+	 * 
+	 * @param phase
+	 *            the phase
+	 */
+	public void begin(Phase phase) {
+		if (!enabled) {
+			return;
+		}
+		int p = phase.ordinal();
+		PhaseEvent event = new PhaseEvent();
+		event.phase = phase.name().toLowerCase();
+		event.begin();
+		events[p] = event;
+		allocatedStart[p] = allocatedBytes();
+		cpuStart[p] = cpuTime();
+		wallStart[p] = System.nanoTime();
+	}
+
+	/**
+	 * wrap <em>out</em> so that everything written to it is counted as output
+	 * 
+	 * @param out
+	 *            the OutputStream to which output is written
+	 * @return an OutputStream that writes to <em>out</em>
+	 */
+	public OutputStream countOutput(OutputStream out) {
+		if (!enabled) {
+			return out;
+		}
+		outputBytes = Math.max(outputBytes, 0);
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				outputBytes += len;
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				outputBytes++;
+			}
+		};
+	}
+
+	/**
+	 * stop timing <em>phase</em>, which must have been begun on the current
+	 * thread
+	 * 
+	 * @param phase
+	 *            the phase
+	 */
+	public void end(Phase phase) {
+		if (!enabled) {
+			return;
+		}
+		long now = System.nanoTime();
+		long cpuNow = cpuTime();
+		long allocatedNow = allocatedBytes();
+
+		int p = phase.ordinal();
+		PhaseEvent event = events[p];
+		if (event == null) {
+			return;
+		}
+		events[p] = null;
+		wall[p] += now - wallStart[p];
+		long c = cpuNow < 0 || cpuStart[p] < 0 ? -1 : cpuNow - cpuStart[p];
+		long a = allocatedNow < 0 || allocatedStart[p] < 0 ? -1
+				: allocatedNow - allocatedStart[p];
+		cpu[p] = ran[p] && cpu[p] < 0 || c < 0 ? -1 : cpu[p] + c;
+		allocated[p] = ran[p] && allocated[p] < 0 || a < 0 ? -1
+				: allocated[p] + a;
+		ran[p] = true;
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.input = input;
+			event.cpuTime = c;
+			event.allocated = a;
+			event.commit();
+		}
+	}
+
+	/**
+	 * report the rendering as a whole as a JFR event; call this once, when
+	 * everything is done
+	 */
+	public void finish() {
+		if (!enabled) {
+			return;
+		}
+		render.end();
+		if (render.shouldCommit()) {
+			render.input = input;
+			render.rows = rows;
+			render.distinctKeys = distinctKeys;
+			render.outputBytes = outputBytes;
+			render.commit();
+		}
+	}
+
+	/**
+	 * @return the bytes allocated during <em>phase</em>, or -1 if it didn't
+	 *         run (or the JVM can't tell)
+	 */
+	public long getAllocatedBytes(Phase phase) {
+		return ran[phase.ordinal()] ? allocated[phase.ordinal()] : -1;
+	}
+
+	/**
+	 * @return the CPU time taken by <em>phase</em>, in nanoseconds, or -1 if it
+	 *         didn't run (or the JVM can't tell)
+	 */
+	public long getCpuNanos(Phase phase) {
+		return ran[phase.ordinal()] ? cpu[phase.ordinal()] : -1;
+	}
+
+	/**
+	 * @return the number of distinct keys in the input, or -1 if unknown
+	 */
+	public long getDistinctKeys() {
+		return distinctKeys;
+	}
+
+	public String getInput() {
+		return input;
+	}
+
+	/**
+	 * @return the number of bytes written, or -1 if output wasn't counted
+	 */
+	public long getOutputBytes() {
+		return outputBytes;
+	}
+
+	/**
+	 * @return the number of input rows, or -1 if unknown
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the wall time taken by <em>phase</em>, in nanoseconds, or -1 if
+	 *         it didn't run
+	 */
+	public long getWallNanos(Phase phase) {
+		return ran[phase.ordinal()] ? wall[phase.ordinal()] : -1;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setDistinctKeys(long distinctKeys) {
+		if (enabled) {
+			this.distinctKeys = distinctKeys;
+		}
+	}
+
+	/**
+	 * @param input
+	 *            a name for what is being rendered (e.g. the input file),
+	 *            included in the events and the JSON
+	 */
+	public void setInput(String input) {
+		if (enabled) {
+			this.input = input;
+		}
+	}
+
+	public void setRows(long rows) {
+		if (enabled) {
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * @return the measurements as a single line of JSON; values that are
+	 *         unknown are null, and phases that didn't run are left out
+	 */
+	public String toJSON() {
+		StringBuilder sb = new StringBuilder("{\"input\":");
+		if (input == null) {
+			sb.append("null");
+		} else {
+			quote(sb, input);
+		}
+		sb.append(",\"rows\":");
+		number(sb, rows);
+		sb.append(",\"distinctKeys\":");
+		number(sb, distinctKeys);
+		sb.append(",\"outputBytes\":");
+		number(sb, outputBytes);
+		sb.append(",\"phases\":{");
+		boolean first = true;
+		for (Phase phase : Phase.values()) {
+			int p = phase.ordinal();
+			if (!ran[p]) {
+				continue;
+			}
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			sb.append('"').append(phase.name().toLowerCase()).append(
+					"\":{\"wallNanos\":");
+			number(sb, wall[p]);
+			sb.append(",\"cpuNanos\":");
+			number(sb, cpu[p]);
+			sb.append(",\"allocatedBytes\":");
+			number(sb, allocated[p]);
+			sb.append('}');
+		}
+		return sb.append("}}").toString();
+	}
+
+	@Override
+	public String toString() {
+		return toJSON();
+	}
+
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+			if (threads.isThreadAllocatedMemoryEnabled()) {
+				return threads.getThreadAllocatedBytes(Thread.currentThread()
+						.getId());
+			}
+		}
+		return -1;
+	}
+
+	private static long cpuTime() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS
+				.getCurrentThreadCpuTime() : -1;
+	}
+
+	private static void number(StringBuilder sb, long n) {
+		if (n < 0) {
+			sb.append("null");
+		} else {
+			sb.append(n);
+		}
+	}
+
+	private static void quote(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+}
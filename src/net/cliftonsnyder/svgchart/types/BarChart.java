@@ -20,66 +20,147 @@
  */
 package net.cliftonsnyder.svgchart.types;
 
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
 import net.cliftonsnyder.svgchart.SVGChart;
+import net.cliftonsnyder.svgchart.data.CountMap;
 import net.cliftonsnyder.svgchart.data.DataSet;
+import net.cliftonsnyder.svgchart.output.Rasterizer;
+import net.cliftonsnyder.svgchart.output.SVGWriter;
 import net.cliftonsnyder.svgchart.parse.BarChartDataParser;
 import net.cliftonsnyder.svgchart.parse.ParseException;
-
-import org.w3c.dom.Element;
+import net.cliftonsnyder.svgchart.parse.TimeSeriesParser;
 
 public class BarChart extends SVGChart {
+
+	private CountMap.Order order = CountMap.Order.INPUT;
+	private int top = 0;
+	private long memoryBudget = 0;
+	private boolean stacked = false;
+	private boolean mergeBars = false;
+	private boolean barClasses = true;
+
+	// in top-N mode, everything that didn't make the cut
+	private DataSet other;
+
+	// for three-column input, the x groups; yData then holds one series per
+	// name, with one value per group
+	private List<String> groups;
+
+	// the layout, from layout() to the end of the next createChart()
+	private Collection<DataSet> bars;
+	private double scale, plotWidth;
+
+	// for parseMore(): the parser holding the counts so far, and the last
+	// rendering of each bar (with the name - null for "other" - and the count
+	// and error it was drawn with), good for as long as the layout is
+	private BarChartDataParser following;
+	private String layout;
+	private String[] fragments, fragmentNames;
+	private double[] fragmentValues;
+
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see net.cliftonsnyder.svgchart.SVGChart#createChart(org.w3c.dom.Element)
+	 * @see
+	 * net.cliftonsnyder.svgchart.SVGChart#createChart(net.cliftonsnyder.svgchart
+	 * .output.SVGWriter)
 	 */
-	public void createChart(Element canvas) {
+	public void createChart(SVGWriter out) throws IOException {
 		// TODO xData?
+		if (bars == null) {
+			layout();
+		}
+		if (groups != null) {
+			createGroups(out);
+			discardLayout();
+			return;
+		}
 		double chartX = calculateChartX();
 		double chartY = calculateChartY();
 		double chartHeight = calculateChartHeight();
-		System.err.println("ch: " + chartHeight);
-		double chartWidth = calculateChartWidth();
-
-		double globalMinimum = Double.MAX_VALUE;
-		double globalMaximum = Double.MIN_VALUE;
 
-		// first pass: find global minimum/maximum
-		for (DataSet data : yData) {
-			globalMinimum = Math.min(globalMinimum, data.minima[0]);
-			globalMaximum = Math.max(globalMaximum, data.maxima[0]);
+		// titles need an element per bar
+		if (mergeBars && top == 0) {
+			createPaths(out);
+			createLabels(out);
+			discardLayout();
+			return;
 		}
 
-		double scale = chartHeight / globalMaximum;
-
-		double plotWidth = chartWidth / yData.size();
+		boolean reuse = false;
+		if (following != null) {
+			String key = getSettings() + ";scale=" + scale + ";plotWidth="
+					+ plotWidth + ";indent=" + out.isIndent();
+			reuse = key.equals(layout) && fragments.length == bars.size();
+			if (!reuse) {
+				layout = key;
+				fragments = new String[bars.size()];
+				fragmentNames = new String[bars.size()];
+				fragmentValues = new double[bars.size() * 2];
+			}
+		}
 
-		// second pass: append the chart to the DOM
+		// second pass: stream the chart out
 		int i = 0;
-		for (DataSet data : yData) {
+		for (DataSet data : bars) {
 			double x = chartX + plotWidth * i++;
-			double rectHeight = data.getPoints().get(0)[0] * scale;
+			double rectHeight = data.get(0, 0) * scale;
+			if (following != null) {
+				String name = data == other ? null : data.getName();
+				double error = top > 0 ? data.get(0, 1) : 0;
+				int f = i - 1;
+				if (reuse && fragments[f] != null
+						&& fragmentValues[2 * f] == data.get(0, 0)
+						&& fragmentValues[2 * f + 1] == error
+						&& (name == null ? fragmentNames[f] == null : name
+								.equals(fragmentNames[f]))) {
+					out.writeFragment(fragments[f]);
+					continue;
+				}
+				fragmentNames[f] = name;
+				fragmentValues[2 * f] = data.get(0, 0);
+				fragmentValues[2 * f + 1] = error;
+				out.startFragment();
+			}
 
-			Element rect = xmldoc.createElement("rect");
-			rect.setAttribute("x", "" + x);
-			rect.setAttribute("y", "" + (chartHeight + chartY - rectHeight));
-			rect.setAttribute("width", "" + plotWidth);
-			rect.setAttribute("height", "" + rectHeight);
-			rect.setAttribute("class", "_" + data.getName());
-			canvas.appendChild(rect);
+			out.startElement("rect");
+			out.attribute("class", className(data));
+			out.attribute("height", rectHeight);
+			out.attribute("width", plotWidth);
+			out.attribute("x", x);
+			out.attribute("y", chartHeight + chartY - rectHeight);
+			if (top > 0) {
+				// approximate counts: say how far off they might be
+				out.startElement("title");
+				out.text(describe(data, data == other));
+				out.endElement();
+			}
+			out.endElement();
 
 			if (bottomMargin > 0) { // we have some room to put labels
-				Element text = xmldoc.createElement("text");
-				text.setAttribute("class", "xlabel");
-				text.setAttribute("x", "" + (x + plotWidth / 2));
-				text.setAttribute("y", "" + (height - bottomMargin / 2));
-				text.appendChild(xmldoc.createTextNode(data.getName()));
-				canvas.appendChild(text);
+				out.startElement("text");
+				out.attribute("class", "xlabel");
+				out.attribute("x", x + plotWidth / 2);
+				out.attribute("y", height - bottomMargin / 2);
+				out.text(data.getName());
+				out.endElement();
+			}
+			if (following != null) {
+				fragments[i - 1] = out.endFragment();
 			}
 		}
+		discardLayout();
 	}
 
 	/*
@@ -90,9 +171,572 @@ public class BarChart extends SVGChart {
 	 * io.InputStream)
 	 */
 	public void parseInput(InputStream in) throws IOException, ParseException {
+		following = null;
+		if (timeBucket > 0) {
+			parseTimeSeries(in);
+			return;
+		}
 		BarChartDataParser parser = new BarChartDataParser();
+		parser.setOrder(order);
+		parser.setTop(top);
+		parser.setMemoryBudget(memoryBudget);
+		parser.setStats(stats);
 		parser.parseInput(in);
 		xData = parser.getXData();
 		yData = parser.getYData();
+		other = parser.getOther();
+		groups = parser.getGroups();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#parseInput(java.io.File, int)
+	 */
+	@Override
+	public void parseInput(File file, int parallelism) throws IOException,
+			ParseException {
+		following = null;
+		if (timeBucket > 0) {
+			super.parseInput(file, parallelism);
+			return;
+		}
+		BarChartDataParser parser = new BarChartDataParser();
+		parser.setOrder(order);
+		parser.setTop(top);
+		parser.setMemoryBudget(memoryBudget);
+		parser.setStats(stats);
+		parser.parseInput(file, parallelism);
+		xData = parser.getXData();
+		yData = parser.getYData();
+		other = parser.getOther();
+		groups = parser.getGroups();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#discardLayout()
+	 */
+	@Override
+	protected void discardLayout() {
+		bars = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#layout()
+	 */
+	@Override
+	protected void layout() {
+		if (groups != null) {
+			layoutGroups();
+			return;
+		}
+		bars = yData;
+		if (other != null) {
+			bars = new ArrayList<DataSet>(yData);
+			bars.add(other);
+		}
+
+		double globalMinimum = Double.MAX_VALUE;
+		double globalMaximum = Double.MIN_VALUE;
+
+		// first pass: find global minimum/maximum
+		for (DataSet data : bars) {
+			globalMinimum = Math.min(globalMinimum, data.minima[0]);
+			globalMaximum = Math.max(globalMaximum, data.maxima[0]);
+		}
+
+		if (following != null) {
+			globalMaximum = headroom(globalMaximum);
+		}
+		scale = calculateChartHeight() / globalMaximum;
+
+		plotWidth = calculateChartWidth() / bars.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#paint(java.awt.Graphics2D)
+	 */
+	@Override
+	protected void paint(Graphics2D graphics) {
+		double chartX = calculateChartX();
+		double baseline = calculateChartY() + calculateChartHeight();
+		// only bars within this tile need drawing
+		Rectangle clip = graphics.getClipBounds();
+		double left = clip == null ? Double.NEGATIVE_INFINITY : clip.getMinX();
+		double right = clip == null ? Double.POSITIVE_INFINITY : clip
+				.getMaxX();
+
+		Rectangle2D.Double rect = new Rectangle2D.Double();
+		int n = groups != null ? groups.size() : bars.size();
+		if (groups != null) {
+			double barWidth = stacked ? plotWidth : plotWidth / bars.size();
+			for (int g = 0; g < n; g++) {
+				double x = chartX + plotWidth * g;
+				if (x + plotWidth < left || x > right) {
+					continue;
+				}
+				double y = baseline;
+				int s = 0;
+				for (DataSet data : bars) {
+					double rectHeight = data.get(g, 0) * scale;
+					double rectX = stacked ? x : x + barWidth * s;
+					s++;
+					if (rectHeight == 0) {
+						continue;
+					}
+					rect.setRect(rectX, y - rectHeight, barWidth, rectHeight);
+					Rasterizer.drawBar(graphics, rect, Rasterizer.BAR_FILL);
+					if (stacked) {
+						y -= rectHeight;
+					}
+				}
+			}
+		} else {
+			int i = 0;
+			for (DataSet data : bars) {
+				double x = chartX + plotWidth * i++;
+				if (x + plotWidth < left || x > right) {
+					continue;
+				}
+				double rectHeight = data.get(0, 0) * scale;
+				rect.setRect(x, baseline - rectHeight, plotWidth, rectHeight);
+				Rasterizer.drawBar(graphics, rect,
+						data == other ? Rasterizer.OTHER_FILL
+								: Rasterizer.BAR_FILL);
+			}
+		}
+
+		if (bottomMargin > 0) { // we have some room to put labels
+			Iterator<DataSet> it = groups != null ? null : bars.iterator();
+			for (int i = 0; i < n; i++) {
+				String label = it == null ? groups.get(i) : it.next()
+						.getName();
+				Rasterizer.drawLabel(graphics, label, chartX + plotWidth * i
+						+ plotWidth / 2, height - bottomMargin / 2);
+			}
+		}
+	}
+
+	/**
+	 * read more one- or two-column input, adding it to what earlier calls
+	 * read (see BarChartDataParser.parseMore()); parseInput() starts afresh.
+	 * a chart read this way remembers how it drew each bar, and when it is
+	 * printed again, redraws only the bars that have changed since - as long
+	 * as the layout hasn't changed. to keep it from changing with every new
+	 * line, the scale runs to the next 1, 2 or 5 times a power of ten above
+	 * the tallest bar, rather than to the tallest bar itself. (merged bars,
+	 * see setMergeBars(), are always redrawn.)
+	 * 
+	 * @param in
+	 *            the InputStream from which to read the next piece, which
+	 *            must end with a complete line
+	 * @return the number of lines read
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * 
+	 * @throws ParseException
+	 *             if the input is invalid
+	 */
+	public long parseMore(InputStream in) throws IOException, ParseException {
+		if (timeBucket > 0) {
+			throw new IllegalStateException(
+					"time series can't be read a piece at a time");
+		}
+		if (following == null) {
+			following = new BarChartDataParser();
+			following.setOrder(order);
+			following.setTop(top);
+		}
+		following.setStats(stats);
+		long lines = following.parseMore(in);
+		xData = null;
+		yData = following.getYData();
+		other = following.getOther();
+		groups = null;
+		return lines;
+	}
+
+	/**
+	 * forget everything read by parseMore(), e.g. because the file being
+	 * followed has been truncated
+	 */
+	public void reset() {
+		if (following != null) {
+			following.reset();
+			yData = following.getYData();
+		}
+		other = null;
+		layout = null;
+		fragments = null;
+		fragmentNames = null;
+		fragmentValues = null;
+	}
+
+	public CountMap.Order getOrder() {
+		return order;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#getSettings()
+	 */
+	@Override
+	public String getSettings() {
+		// with a budget, top-N counts are exact rather than approximate; the
+		// size of the budget changes how they're counted, but not the result
+		return super.getSettings() + ";order=" + order + ";top=" + top
+				+ ";exact=" + (memoryBudget > 0) + ";stacked=" + stacked
+				+ ";mergeBars=" + mergeBars + ";barClasses=" + barClasses;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public int getTop() {
+		return top;
+	}
+
+	public boolean hasBarClasses() {
+		return barClasses;
+	}
+
+	public boolean isMergeBars() {
+		return mergeBars;
+	}
+
+	public boolean isStacked() {
+		return stacked;
+	}
+
+	/**
+	 * give each bar of a single-series chart a class of its own, "_" plus its
+	 * name, so that bars can be styled one by one (the default); otherwise
+	 * they all get the class "bar" (and "other", the "other" bar)
+	 * 
+	 * @param barClasses
+	 *            whether each bar gets a class of its own
+	 */
+	public void setBarClasses(boolean barClasses) {
+		this.barClasses = barClasses;
+	}
+
+	/**
+	 * write consecutive bars of the same class as a single &lt;path&gt;
+	 * rather than one &lt;rect&gt; each, which makes for much smaller output;
+	 * the paths have the class "bar" as well as that of their bars.
+	 * the bars of a series always share a class; those of a single-series
+	 * chart only do without setBarClasses(). bars with a title (in top-N mode)
+	 * are never merged
+	 * 
+	 * @param mergeBars
+	 *            whether to merge bars
+	 */
+	public void setMergeBars(boolean mergeBars) {
+		this.mergeBars = mergeBars;
+	}
+
+	/**
+	 * count items exactly within a memory budget, spilling to temporary files
+	 * beyond it (see BarChartDataParser.setMemoryBudget()); with setTop(),
+	 * this makes the top N and the "other" bar exact. it doesn't apply to
+	 * parseMore()
+	 * 
+	 * @param bytes
+	 *            the memory budget, or 0 to count in memory only (the
+	 *            default)
+	 */
+	public void setMemoryBudget(long bytes) {
+		this.memoryBudget = bytes;
+	}
+
+	/**
+	 * set the order in which bars are drawn
+	 * 
+	 * @param order
+	 *            the order (default: the order in which items first appear in
+	 *            the input)
+	 */
+	public void setOrder(CountMap.Order order) {
+		this.order = order;
+	}
+
+	/**
+	 * for three-column (x, name, count) input, stack the bars of each x group
+	 * on top of one another rather than drawing them side by side
+	 * 
+	 * @param stacked
+	 *            true to stack, false to group (the default)
+	 */
+	public void setStacked(boolean stacked) {
+		this.stacked = stacked;
+	}
+
+	/**
+	 * draw only the <em>top</em> most frequent items, followed by a single
+	 * "other" bar for everything else; counting is then approximate, but
+	 * takes a fixed amount of memory (see BarChartDataParser.setTop())
+	 * 
+	 * @param top
+	 *            the number of bars wanted, or 0 to draw every item
+	 */
+	public void setTop(int top) {
+		this.top = top;
+	}
+
+	/**
+	 * one bar per time bucket, labelled with the start of the bucket, in the
+	 * chart's order (INPUT and NAME are both chronological); top-N doesn't
+	 * apply
+	 */
+	private void parseTimeSeries(InputStream in) throws IOException,
+			ParseException {
+		TimeSeriesParser parser = new TimeSeriesParser(timeBucket);
+		parser.setStats(stats);
+		parser.parseInput(in);
+		if (parser.getSkipped() > 0 && parser.getSkipped() == parser.getRows()) {
+			throw new ParseException("no timestamps found");
+		}
+
+		long[] buckets = parser.getBuckets();
+		double[] counts = parser.getCounts();
+		CountMap bars = new CountMap(buckets.length);
+		for (int i = 0; i < buckets.length; i++) {
+			bars.add(TimeSeriesParser.format(buckets[i], timeBucket), counts[i]);
+		}
+		yData = new ArrayList<DataSet>(buckets.length);
+		for (int i : bars.view(order)) {
+			DataSet data = new DataSet(bars.key(i));
+			data.addPoint(bars.value(i));
+			yData.add(data);
+		}
+		xData = null;
+		other = null;
+		groups = null;
+	}
+
+	/**
+	 * one cluster (or stack) of bars per x group, one bar per series
+	 */
+	private void createGroups(SVGWriter out) throws IOException {
+		double chartX = calculateChartX();
+		double baseline = calculateChartY() + calculateChartHeight();
+		double barWidth = stacked ? plotWidth : plotWidth / bars.size();
+
+		if (mergeBars) {
+			// one path per series; the bars don't overlap, so drawing them
+			// series by series rather than group by group looks the same
+			double[] tops = new double[groups.size()];
+			Arrays.fill(tops, baseline);
+			int s = 0;
+			for (DataSet data : bars) {
+				out.startElement("path");
+				out.attribute("class", "bar _" + data.getName());
+				out.startAttribute("d");
+				for (int g = 0; g < groups.size(); g++) {
+					double rectHeight = data.get(g, 0) * scale;
+					if (rectHeight == 0) {
+						continue;
+					}
+					double x = chartX + plotWidth * g;
+					rect(out, stacked ? x : x + barWidth * s, tops[g]
+							- rectHeight, barWidth, rectHeight);
+					if (stacked) {
+						tops[g] -= rectHeight;
+					}
+				}
+				out.endAttribute();
+				out.endElement();
+				s++;
+			}
+			createLabels(out);
+			return;
+		}
+
+		for (int g = 0; g < groups.size(); g++) {
+			double x = chartX + plotWidth * g;
+			double y = baseline;
+			int s = 0;
+			for (DataSet data : bars) {
+				double rectHeight = data.get(g, 0) * scale;
+				double rectX = stacked ? x : x + barWidth * s;
+				s++;
+				if (rectHeight == 0) {
+					continue;
+				}
+
+				out.startElement("rect");
+				out.attribute("class", "_" + data.getName());
+				out.attribute("height", rectHeight);
+				out.attribute("width", barWidth);
+				out.attribute("x", rectX);
+				out.attribute("y", y - rectHeight);
+				out.endElement();
+				if (stacked) {
+					y -= rectHeight;
+				}
+			}
+
+			if (bottomMargin > 0) { // we have some room to put labels
+				out.startElement("text");
+				out.attribute("class", "xlabel");
+				out.attribute("x", x + plotWidth / 2);
+				out.attribute("y", height - bottomMargin / 2);
+				out.text(groups.get(g));
+				out.endElement();
+			}
+		}
+	}
+
+	/**
+	 * a label under each bar (or x group), if there's room for them
+	 */
+	private void createLabels(SVGWriter out) throws IOException {
+		if (bottomMargin <= 0) {
+			return;
+		}
+		int n = groups != null ? groups.size() : bars.size();
+		Iterator<DataSet> it = groups != null ? null : bars.iterator();
+		for (int i = 0; i < n; i++) {
+			out.startElement("text");
+			out.attribute("class", "xlabel");
+			out.attribute("x", calculateChartX() + plotWidth * i + plotWidth
+					/ 2);
+			out.attribute("y", height - bottomMargin / 2);
+			out.text(it == null ? groups.get(i) : it.next().getName());
+			out.endElement();
+		}
+	}
+
+	/**
+	 * the bars of a single-series chart, as paths: a new one each time the
+	 * class changes
+	 */
+	private void createPaths(SVGWriter out) throws IOException {
+		double chartX = calculateChartX();
+		double baseline = calculateChartY() + calculateChartHeight();
+		String open = null;
+		int i = 0;
+		for (DataSet data : bars) {
+			String className = className(data);
+			if (!className.equals(open)) {
+				if (open != null) {
+					out.endAttribute();
+					out.endElement();
+				}
+				out.startElement("path");
+				out.attribute("class", "bar".equals(className) ? className
+						: "bar " + className);
+				out.startAttribute("d");
+				open = className;
+			}
+			double rectHeight = data.get(0, 0) * scale;
+			rect(out, chartX + plotWidth * i++, baseline - rectHeight,
+					plotWidth, rectHeight);
+		}
+		if (open != null) {
+			out.endAttribute();
+			out.endElement();
+		}
+	}
+
+	private String className(DataSet data) {
+		if (data == other) {
+			return "other";
+		}
+		return barClasses ? "_" + data.getName() : "bar";
+	}
+
+	/**
+	 * append a rectangle to the open path data
+	 */
+	private static void rect(SVGWriter out, double x, double y, double width,
+			double height) throws IOException {
+		out.value('M');
+		out.value(x);
+		out.value(',');
+		out.value(y);
+		out.value('h');
+		out.value(width);
+		out.value('v');
+		out.value(height);
+		out.value('h');
+		out.value(-width);
+		out.value('z');
+	}
+
+	/**
+	 * scale to the tallest bar (or stack)
+	 */
+	private void layoutGroups() {
+		bars = yData;
+		double maximum = 0;
+		if (stacked) {
+			for (int g = 0; g < groups.size(); g++) {
+				double sum = 0;
+				for (DataSet data : bars) {
+					sum += data.get(g, 0);
+				}
+				maximum = Math.max(maximum, sum);
+			}
+		} else {
+			for (DataSet data : bars) {
+				maximum = Math.max(maximum, data.maxima[0]);
+			}
+		}
+
+		scale = maximum > 0 ? calculateChartHeight() / maximum : 0;
+
+		plotWidth = calculateChartWidth() / groups.size();
+	}
+
+	/**
+	 * @return the smallest 1, 2 or 5 times a power of ten that is at least
+	 *         <em>maximum</em>
+	 */
+	private static double headroom(double maximum) {
+		if (!(maximum > 0) || Double.isInfinite(maximum)) {
+			return maximum;
+		}
+		double power = Math.pow(10, Math.floor(Math.log10(maximum)));
+		if (power >= maximum) {
+			return power;
+		} else if (2 * power >= maximum) {
+			return 2 * power;
+		} else if (5 * power >= maximum) {
+			return 5 * power;
+		}
+		return 10 * power;
+	}
+
+	/**
+	 * @return a description of an approximate (count, error) bar
+	 */
+	private static String describe(DataSet data, boolean other) {
+		double count = data.get(0, 0), error = data.get(0, 1);
+		StringBuilder sb = new StringBuilder(data.getName()).append(": ")
+				.append(format(count));
+		if (error > 0) {
+			// the sketch overestimates counts, so "other" is an underestimate
+			sb.append(other ? " (at most " : " (at least ")
+					.append(format(other ? count + error : count - error))
+					.append(')');
+		}
+		return sb.toString();
+	}
+
+	private static String format(double d) {
+		if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+			return Long.toString((long) d);
+		}
+		return Double.toString(d);
 	}
 }
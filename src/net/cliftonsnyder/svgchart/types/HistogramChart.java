@@ -0,0 +1,334 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.types;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+
+import net.cliftonsnyder.svgchart.data.DataSet;
+import net.cliftonsnyder.svgchart.data.LogHistogram;
+import net.cliftonsnyder.svgchart.parse.HistogramDataParser;
+import net.cliftonsnyder.svgchart.parse.ParseException;
+import net.cliftonsnyder.svgchart.stats.Stats;
+
+/**
+ * a histogram of numeric input: the values stream through a LogHistogram
+ * (so memory doesn't grow with the input), which is then cut into bins, one
+ * bar each, laid out and drawn as a BarChart draws its bars. each bar is
+ * labelled with the lower edge of its bin, and has the class "bar".
+ */
+public class HistogramChart extends BarChart {
+
+	public enum Binning {
+		/**
+		 * bins of equal width; chosen automatically, the width follows the
+		 * Freedman-Diaconis rule, rounded to 1, 2 or 5 times a power of ten
+		 */
+		FIXED,
+
+		/**
+		 * bins of equal width on a log scale, from the least value to the
+		 * greatest (which must be positive); chosen automatically, there are
+		 * LOG_BINS_PER_DECADE per power of ten
+		 */
+		LOG,
+
+		/**
+		 * bins holding (about) equal numbers of values, DEFAULT_QUANTILE_BINS
+		 * unless asked otherwise; they are drawn equally wide, so each bar's
+		 * height is the density of its bin (count per unit) rather than its
+		 * count
+		 */
+		QUANTILE;
+	}
+
+	/**
+	 * the most bins a histogram may be asked for
+	 */
+	public static final int MAX_BINS = 1000;
+
+	/**
+	 * the most bins chosen automatically
+	 */
+	public static final int MAX_AUTO_BINS = 100;
+
+	public static final int LOG_BINS_PER_DECADE = 5;
+	public static final int DEFAULT_QUANTILE_BINS = 10;
+
+	private Binning binning = Binning.FIXED;
+	private int bins = 0;
+
+	// holds the values read so far, for parseMore()
+	private HistogramDataParser parser;
+
+	public HistogramChart() {
+		setBarClasses(false);
+	}
+
+	public Binning getBinning() {
+		return binning;
+	}
+
+	/**
+	 * @return the number of bins asked for, or 0 if they are chosen
+	 *         automatically
+	 */
+	public int getBins() {
+		return bins;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.types.BarChart#getSettings()
+	 */
+	@Override
+	public String getSettings() {
+		return super.getSettings() + ";binning=" + binning + ";bins=" + bins;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * net.cliftonsnyder.svgchart.types.BarChart#parseInput(java.io.InputStream)
+	 */
+	@Override
+	public void parseInput(InputStream in) throws IOException, ParseException {
+		checkTimeBucket();
+		parser = new HistogramDataParser();
+		parser.setStats(stats);
+		parser.parseInput(in);
+		bin(parser.getHistogram());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.types.BarChart#parseInput(java.io.File,
+	 * int)
+	 */
+	@Override
+	public void parseInput(File file, int parallelism) throws IOException,
+			ParseException {
+		checkTimeBucket();
+		parser = new HistogramDataParser();
+		parser.setStats(stats);
+		parser.parseInput(file);
+		bin(parser.getHistogram());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * net.cliftonsnyder.svgchart.types.BarChart#parseMore(java.io.InputStream)
+	 */
+	@Override
+	public long parseMore(InputStream in) throws IOException, ParseException {
+		checkTimeBucket();
+		if (parser == null) {
+			parser = new HistogramDataParser();
+		}
+		parser.setStats(stats);
+		stats.begin(Stats.Phase.READ);
+		long lines = parser.parseMore(in);
+		stats.end(Stats.Phase.READ);
+		stats.setRows(parser.getRows());
+		stats.setDistinctKeys(parser.getHistogram().buckets());
+		bin(parser.getHistogram());
+		return lines;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.types.BarChart#reset()
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		if (parser != null) {
+			parser.reset();
+		}
+		yData = new ArrayList<DataSet>();
+	}
+
+	/**
+	 * set how the values are cut into bins
+	 * 
+	 * @param binning
+	 *            the kind of bins (default: FIXED)
+	 */
+	public void setBinning(Binning binning) {
+		this.binning = binning;
+	}
+
+	/**
+	 * @param bins
+	 *            the number of bins (at most MAX_BINS), or 0 to choose them
+	 *            automatically (the default)
+	 */
+	public void setBins(int bins) {
+		if (bins < 0 || bins > MAX_BINS) {
+			throw new IllegalArgumentException("number of bins out of range: "
+					+ bins);
+		}
+		this.bins = bins;
+	}
+
+	/**
+	 * cut the histogram into bins, one DataSet (a bar) each
+	 */
+	private void bin(LogHistogram histogram) throws ParseException {
+		stats.begin(Stats.Phase.AGGREGATE);
+		double[] edges = edges(histogram);
+		double[] counts = histogram.bin(edges);
+		yData = new ArrayList<DataSet>(counts.length);
+		for (int i = 0; i < counts.length; i++) {
+			double width = edges[i + 1] - edges[i];
+			DataSet data = new DataSet(label(edges[i]));
+			data.addPoint(binning == Binning.QUANTILE && width > 0 ? counts[i]
+					/ width : counts[i]);
+			yData.add(data);
+		}
+		xData = null;
+		stats.end(Stats.Phase.AGGREGATE);
+	}
+
+	/**
+	 * @return the edges of the bins, in ascending order (none, if there are
+	 *         no values)
+	 */
+	private double[] edges(LogHistogram histogram) throws ParseException {
+		double min = histogram.getMin(), max = histogram.getMax();
+		if (histogram.count() == 0) {
+			return new double[0];
+		}
+		if (min == max) {
+			return new double[] { min, max };
+		}
+		int n;
+		double[] edges;
+		switch (binning) {
+		case LOG:
+			if (min <= 0) {
+				throw new ParseException("log bins need positive values, but "
+						+ "the least is " + min);
+			}
+			double ratio = max / min;
+			n = bins > 0 ? bins : bound((int) Math.ceil(Math.log10(ratio)
+					* LOG_BINS_PER_DECADE));
+			edges = new double[n + 1];
+			for (int i = 0; i < n; i++) {
+				edges[i] = min * Math.pow(ratio, (double) i / n);
+			}
+			edges[n] = max;
+			return edges;
+
+		case QUANTILE:
+			n = bins > 0 ? bins : DEFAULT_QUANTILE_BINS;
+			edges = new double[n + 1];
+			int m = 0;
+			edges[m++] = min;
+			for (int i = 1; i <= n; i++) {
+				double edge = i == n ? max : histogram.quantile((double) i / n);
+				// a value making up more than a bin gets a single bin
+				if (edge > edges[m - 1]) {
+					edges[m++] = edge;
+				}
+			}
+			double[] distinct = new double[m];
+			System.arraycopy(edges, 0, distinct, 0, m);
+			return distinct;
+
+		default:
+			if (bins > 0) {
+				edges = new double[bins + 1];
+				for (int i = 0; i < bins; i++) {
+					edges[i] = min + (max - min) * i / bins;
+				}
+				edges[bins] = max;
+				return edges;
+			}
+			// Freedman-Diaconis, or Sturges' rule where the IQR is 0
+			double iqr = histogram.quantile(0.75) - histogram.quantile(0.25);
+			double width = iqr > 0 ? 2 * iqr / Math.cbrt(histogram.count())
+					: (max - min)
+							/ (Math.ceil(Math.log(histogram.count())
+									/ Math.log(2)) + 1);
+			width = Math.max(width, (max - min) / MAX_AUTO_BINS);
+
+			// a round width (m * 10^e), and edges on multiples of it
+			int e = (int) Math.floor(Math.log10(width));
+			double f = width / Math.pow(10, e);
+			long step = f <= 1 ? 1 : f <= 2 ? 2 : f <= 5 ? 5 : 10;
+			long first = (long) Math.floor(min / (step * Math.pow(10, e)));
+			n = Math.max(1, (int) Math.ceil((max - edge(first, step, e))
+					/ (step * Math.pow(10, e))));
+			if (edge(first + n, step, e) < max) {
+				n++;
+			}
+			edges = new double[n + 1];
+			for (int i = 0; i <= n; i++) {
+				edges[i] = edge(first + i, step, e);
+			}
+			return edges;
+		}
+	}
+
+	private void checkTimeBucket() {
+		if (timeBucket > 0) {
+			throw new IllegalStateException(
+					"histograms can't be bucketed by time");
+		}
+	}
+
+	private static int bound(int bins) {
+		return Math.max(1, Math.min(bins, MAX_AUTO_BINS));
+	}
+
+	/**
+	 * @return i * step * 10^e, rounded once (so that 3 * 10^-1 is 0.3)
+	 */
+	private static double edge(long i, long step, int e) {
+		double units = (double) (i * step);
+		return e >= 0 ? units * Math.pow(10, e) : units / Math.pow(10, -e);
+	}
+
+	/**
+	 * @return <em>value</em> to (at most) 4 significant digits
+	 */
+	static String label(double value) {
+		if (value == 0) {
+			return "0";
+		}
+		BigDecimal d = new BigDecimal(value).round(new MathContext(4))
+				.stripTrailingZeros();
+		double magnitude = Math.abs(value);
+		return magnitude >= 1e-4 && magnitude < 1e7 ? d.toPlainString() : d
+				.toString();
+	}
+}
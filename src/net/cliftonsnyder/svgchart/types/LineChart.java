@@ -0,0 +1,265 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.types;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import net.cliftonsnyder.svgchart.SVGChart;
+import net.cliftonsnyder.svgchart.data.ColumnarDataSet;
+import net.cliftonsnyder.svgchart.data.DataSet;
+import net.cliftonsnyder.svgchart.data.Downsampler;
+import net.cliftonsnyder.svgchart.output.SVGWriter;
+import net.cliftonsnyder.svgchart.parse.LineChartDataParser;
+import net.cliftonsnyder.svgchart.parse.ParseException;
+import net.cliftonsnyder.svgchart.parse.TimeSeriesParser;
+
+/**
+ * one &lt;path&gt; per series. a series with more points than there are
+ * pixels across the plot is downsampled to about one point per pixel (see
+ * setDownsampling()), so the size of the output depends on the size of the
+ * chart rather than that of the input. coordinates are rounded to hundredths
+ * of a pixel unless setPrecision() says otherwise.
+ */
+public class LineChart extends SVGChart {
+
+	public enum Downsampling {
+		/**
+		 * draw every point
+		 */
+		NONE,
+
+		/**
+		 * Largest-Triangle-Three-Buckets: about one point per pixel, chosen
+		 * to keep the shape of the line
+		 */
+		LTTB,
+
+		/**
+		 * the lowest and highest point in each pixel column: up to two points
+		 * per pixel, keeping every peak and trough
+		 */
+		MINMAX;
+	}
+
+	private Downsampling downsampling = Downsampling.LTTB;
+
+	// the layout, from layout() to the end of the next createChart()
+	private boolean laidOut = false;
+	private double xMin, xMax, xScale, yMin, yScale;
+
+	public LineChart() {
+		// a hundredth of a pixel is plenty for a line
+		precision = 2;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * net.cliftonsnyder.svgchart.SVGChart#createChart(net.cliftonsnyder.svgchart
+	 * .output.SVGWriter)
+	 */
+	public void createChart(SVGWriter out) throws IOException {
+		if (!laidOut) {
+			layout();
+		}
+		double chartX = calculateChartX();
+		double bottom = calculateChartY() + calculateChartHeight();
+		int pixels = (int) Math.ceil(calculateChartWidth());
+
+		for (DataSet data : yData) {
+			int n = data.size();
+			if (n == 0) {
+				continue;
+			}
+			double[] x, y;
+			if (data instanceof ColumnarDataSet) {
+				x = ((ColumnarDataSet) data).getColumn(0);
+				y = ((ColumnarDataSet) data).getColumn(1);
+			} else {
+				x = new double[n];
+				y = new double[n];
+				for (int i = 0; i < n; i++) {
+					x[i] = data.get(i, 0);
+					y[i] = data.get(i, 1);
+				}
+			}
+
+			int[] keep;
+			switch (downsampling) {
+			case LTTB:
+				keep = Downsampler.lttb(x, y, n, pixels);
+				break;
+			case MINMAX:
+				keep = Downsampler.minMax(x, y, n, pixels, xMin, xMax);
+				break;
+			default:
+				keep = null;
+			}
+
+			out.startElement("path");
+			out.attribute("class", "_" + data.getName());
+			out.startAttribute("d");
+			int count = keep == null ? n : keep.length;
+			for (int i = 0; i < count; i++) {
+				int p = keep == null ? i : keep[i];
+				out.value(i == 0 ? 'M' : i == 1 ? 'L' : ' ');
+				out.value(chartX + (x[p] - xMin) * xScale);
+				out.value(',');
+				out.value(bottom - (y[p] - yMin) * yScale);
+			}
+			out.endAttribute();
+			out.endElement();
+		}
+		discardLayout();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#discardLayout()
+	 */
+	@Override
+	protected void discardLayout() {
+		laidOut = false;
+	}
+
+	public Downsampling getDownsampling() {
+		return downsampling;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#getSettings()
+	 */
+	@Override
+	public String getSettings() {
+		return super.getSettings() + ";downsampling=" + downsampling;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#layout()
+	 */
+	@Override
+	protected void layout() {
+		double yMax = -Double.MAX_VALUE;
+		xMin = yMin = Double.MAX_VALUE;
+		xMax = -Double.MAX_VALUE;
+		for (DataSet data : yData) {
+			if (data.size() > 0) {
+				xMin = Math.min(xMin, data.minima[0]);
+				xMax = Math.max(xMax, data.maxima[0]);
+				yMin = Math.min(yMin, data.minima[1]);
+				yMax = Math.max(yMax, data.maxima[1]);
+			}
+		}
+
+		// a flat line (or a single point) sits in the middle
+		xScale = xMax > xMin ? calculateChartWidth() / (xMax - xMin) : 0;
+		yScale = yMax > yMin ? calculateChartHeight() / (yMax - yMin) : 0;
+		if (xScale == 0) {
+			xMin -= calculateChartWidth() / 2;
+			xScale = 1;
+		}
+		if (yScale == 0) {
+			yMin -= calculateChartHeight() / 2;
+			yScale = 1;
+		}
+		laidOut = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#parseInput(java.io.InputStream)
+	 */
+	public void parseInput(InputStream in) throws IOException, ParseException {
+		if (timeBucket > 0) {
+			parseTimeSeries(in);
+			return;
+		}
+		LineChartDataParser parser = new LineChartDataParser();
+		parser.setStats(stats);
+		parser.parseInput(in);
+		xData = null;
+		yData = parser.getYData();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#parseInput(java.io.File, int)
+	 */
+	@Override
+	public void parseInput(File file, int parallelism) throws IOException,
+			ParseException {
+		if (timeBucket > 0) {
+			super.parseInput(file, parallelism);
+			return;
+		}
+		LineChartDataParser parser = new LineChartDataParser();
+		parser.setStats(stats);
+		parser.parseInput(file);
+		xData = null;
+		yData = parser.getYData();
+	}
+
+	/**
+	 * set how series with more points than pixels are thinned out
+	 * 
+	 * @param downsampling
+	 *            the method (default: LTTB)
+	 */
+	public void setDownsampling(Downsampling downsampling) {
+		this.downsampling = downsampling;
+	}
+
+	/**
+	 * a single series of (bucket start, count) points, x in milliseconds
+	 */
+	private void parseTimeSeries(InputStream in) throws IOException,
+			ParseException {
+		TimeSeriesParser parser = new TimeSeriesParser(timeBucket);
+		parser.setStats(stats);
+		parser.parseInput(in);
+		if (parser.getSkipped() > 0 && parser.getSkipped() == parser.getRows()) {
+			throw new ParseException("no timestamps found");
+		}
+
+		long[] buckets = parser.getBuckets();
+		double[] x = new double[buckets.length];
+		for (int i = 0; i < x.length; i++) {
+			x[i] = buckets[i];
+		}
+		yData = new ArrayList<DataSet>();
+		if (x.length > 0) {
+			yData.add(new ColumnarDataSet(LineChartDataParser.DEFAULT_SERIES,
+					new double[][] { x, parser.getCounts() }, x.length));
+		}
+		xData = null;
+	}
+}
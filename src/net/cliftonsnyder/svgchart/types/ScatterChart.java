@@ -0,0 +1,406 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.types;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import net.cliftonsnyder.svgchart.SVGChart;
+import net.cliftonsnyder.svgchart.data.DataSet;
+import net.cliftonsnyder.svgchart.data.DensityGrid;
+import net.cliftonsnyder.svgchart.data.LongCountMap;
+import net.cliftonsnyder.svgchart.output.SVGWriter;
+import net.cliftonsnyder.svgchart.parse.ParseException;
+import net.cliftonsnyder.svgchart.parse.ScatterDataParser;
+
+/**
+ * points (x, y), read into a DensityGrid. as long as there are no more than
+ * getMaxPoints() of them, each is drawn as a &lt;circle class="point"&gt;.
+ * beyond that, the points are binned - into squares, or hexagons, of
+ * getBinSize() pixels across - and each bin holding any is drawn as one
+ * shape, with the class "density<em>N</em>", where N runs from 0 (the fewest
+ * points) to DENSITY_LEVELS - 1 (the most) on a log scale; the shapes of a
+ * level are merged into one &lt;path&gt;. so the size of the output depends on
+ * the size of the chart rather than the number of points.
+ */
+public class ScatterChart extends SVGChart {
+
+	public enum Binning {
+		/**
+		 * square bins
+		 */
+		GRID,
+
+		/**
+		 * hexagonal bins (which follow the shape of the points more closely
+		 * than squares of the same size)
+		 */
+		HEX;
+	}
+
+	public static final int DENSITY_LEVELS = 8;
+	public static final double DEFAULT_BIN_SIZE = 4.0;
+	public static final double POINT_RADIUS = 2.0;
+
+	// cells of the DensityGrid per pixel of the plot, each way; the grid
+	// spans the points with between half and all of its cells, so that no
+	// cell is wider (or taller) than a pixel
+	private static final int CELLS_PER_PIXEL = 2;
+
+	private Binning binning = Binning.HEX;
+	private double binSize = DEFAULT_BIN_SIZE;
+	private int maxPoints = DensityGrid.DEFAULT_MAX_POINTS;
+	private DensityGrid grid;
+
+	// the layout, from layout() to the end of the next createChart(): the
+	// scales, and the number of points in each bin (keyed by row and column)
+	private boolean laidOut = false;
+	private double xMin, xScale, yMin, yScale;
+	private LongCountMap bins;
+
+	public ScatterChart() {
+		// a hundredth of a pixel is plenty for a point
+		precision = 2;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * net.cliftonsnyder.svgchart.SVGChart#createChart(net.cliftonsnyder.svgchart
+	 * .output.SVGWriter)
+	 */
+	public void createChart(SVGWriter out) throws IOException {
+		if (!laidOut) {
+			layout();
+		}
+		if (grid == null || grid.count() == 0) {
+			discardLayout();
+			return;
+		}
+		double chartX = calculateChartX(), chartY = calculateChartY();
+		double bottom = chartY + calculateChartHeight();
+
+		if (grid.isExact()) {
+			for (int i = 0; i < grid.count(); i++) {
+				out.startElement("circle");
+				out.attribute("class", "point");
+				out.attribute("cx", chartX + (grid.getX(i) - xMin) * xScale);
+				out.attribute("cy", bottom - (grid.getY(i) - yMin) * yScale);
+				out.attribute("r", POINT_RADIUS);
+				out.endElement();
+			}
+			discardLayout();
+			return;
+		}
+
+		double most = 0;
+		for (int i = 0; i < bins.size(); i++) {
+			most = Math.max(most, bins.value(i));
+		}
+		int[] levels = new int[bins.size()];
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = most > 1 ? Math.min(DENSITY_LEVELS - 1,
+					(int) (DENSITY_LEVELS * Math.log(bins.value(i)) / Math
+							.log(most))) : 0;
+		}
+
+		double r = binSize / Math.sqrt(3);
+		for (int level = 0; level < DENSITY_LEVELS; level++) {
+			boolean open = false;
+			for (int i = 0; i < levels.length; i++) {
+				if (levels[i] != level) {
+					continue;
+				}
+				if (!open) {
+					out.startElement("path");
+					out.attribute("class", "density" + level);
+					out.startAttribute("d");
+					open = true;
+				}
+				long key = bins.key(i);
+				int column = (int) key, row = (int) (key >> 32);
+				if (binning == Binning.HEX) {
+					hexagon(out, chartX + (column + (row & 1) / 2.0)
+							* binSize, chartY + row * r * 1.5, r);
+				} else {
+					square(out, chartX + column * binSize, chartY + row
+							* binSize);
+				}
+			}
+			if (open) {
+				out.endAttribute();
+				out.endElement();
+			}
+		}
+		discardLayout();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#discardLayout()
+	 */
+	@Override
+	protected void discardLayout() {
+		laidOut = false;
+		bins = null;
+	}
+
+	public Binning getBinning() {
+		return binning;
+	}
+
+	/**
+	 * @return the width of a bin, in pixels
+	 */
+	public double getBinSize() {
+		return binSize;
+	}
+
+	/**
+	 * @return the most points drawn one by one
+	 */
+	public int getMaxPoints() {
+		return maxPoints;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#getSettings()
+	 */
+	@Override
+	public String getSettings() {
+		return super.getSettings() + ";binning=" + binning + ";binSize="
+				+ binSize + ";maxPoints=" + maxPoints;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#layout()
+	 */
+	@Override
+	protected void layout() {
+		laidOut = true;
+		if (grid == null || grid.count() == 0) {
+			return;
+		}
+		double chartWidth = calculateChartWidth();
+		double chartHeight = calculateChartHeight();
+		xMin = grid.getMinX();
+		yMin = grid.getMinY();
+		double xMax = grid.getMaxX(), yMax = grid.getMaxY();
+
+		// a single point (or a line of them) sits in the middle
+		xScale = xMax > xMin ? chartWidth / (xMax - xMin) : 0;
+		yScale = yMax > yMin ? chartHeight / (yMax - yMin) : 0;
+		if (xScale == 0) {
+			xMin -= chartWidth / 2;
+			xScale = 1;
+		}
+		if (yScale == 0) {
+			yMin -= chartHeight / 2;
+			yScale = 1;
+		}
+		if (grid.isExact()) {
+			return;
+		}
+
+		// each cell of the grid goes into the bin holding its middle, which
+		// is off by less than a pixel
+		bins = new LongCountMap();
+		for (int j = 0; j < grid.getRows(); j++) {
+			double y = chartHeight - (grid.getCellY(j) - yMin) * yScale;
+			y = Math.max(0, Math.min(chartHeight, y));
+			for (int i = 0; i < grid.getColumns(); i++) {
+				int count = grid.get(i, j);
+				if (count > 0) {
+					double x = (grid.getCellX(i) - xMin) * xScale;
+					x = Math.max(0, Math.min(chartWidth, x));
+					bins.add(bin(x, y, chartWidth, chartHeight), count);
+				}
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#parseInput(java.io.InputStream)
+	 */
+	public void parseInput(InputStream in) throws IOException, ParseException {
+		ScatterDataParser parser = newParser();
+		parser.parseInput(in);
+		grid = parser.getGrid();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.cliftonsnyder.svgchart.SVGChart#parseInput(java.io.File, int)
+	 */
+	@Override
+	public void parseInput(File file, int parallelism) throws IOException,
+			ParseException {
+		ScatterDataParser parser = newParser();
+		parser.parseInput(file, parallelism);
+		grid = parser.getGrid();
+	}
+
+	/**
+	 * set the shape of the bins
+	 * 
+	 * @param binning
+	 *            the shape (default: HEX)
+	 */
+	public void setBinning(Binning binning) {
+		this.binning = binning;
+	}
+
+	/**
+	 * @param binSize
+	 *            the width of a bin (side to side), in pixels (default: 4)
+	 */
+	public void setBinSize(double binSize) {
+		if (!(binSize >= 1)) {
+			throw new IllegalArgumentException("bin size out of range: "
+					+ binSize);
+		}
+		this.binSize = binSize;
+	}
+
+	/**
+	 * set the most points drawn one by one, rather than binned; this has to
+	 * be set before the input is read
+	 * 
+	 * @param maxPoints
+	 *            the number of points (0 to bin them however few there are)
+	 */
+	public void setMaxPoints(int maxPoints) {
+		if (maxPoints < 0) {
+			throw new IllegalArgumentException("invalid number of points: "
+					+ maxPoints);
+		}
+		this.maxPoints = maxPoints;
+	}
+
+	/**
+	 * @return the key of the bin holding the point (x, y), measured in pixels
+	 *         from the top left corner of the plot
+	 */
+	private long bin(double x, double y, double chartWidth,
+			double chartHeight) {
+		long column, row;
+		if (binning == Binning.HEX) {
+			// the nearer of the two hexagons whose rows the point lies
+			// between (as in d3-hexbin)
+			double dx = binSize, dy = binSize / Math.sqrt(3) * 1.5;
+			double py = y / dy;
+			row = Math.round(py);
+			double px = x / dx - (row & 1) / 2.0;
+			column = Math.round(px);
+			double py1 = py - row;
+			if (Math.abs(py1) * 3 > 1) {
+				double px1 = px - column;
+				double column2 = column + (px < column ? -0.5 : 0.5);
+				long row2 = row + (py < row ? -1 : 1);
+				double px2 = px - column2, py2 = py - row2;
+				if (px1 * px1 * dx * dx + py1 * py1 * dy * dy > px2 * px2 * dx
+						* dx + py2 * py2 * dy * dy) {
+					column = Math.round(column2
+							+ ((row & 1) != 0 ? 0.5 : -0.5));
+					row = row2;
+				}
+			}
+		} else {
+			column = Math.min((long) (x / binSize),
+					(long) Math.ceil(chartWidth / binSize) - 1);
+			row = Math.min((long) (y / binSize),
+					(long) Math.ceil(chartHeight / binSize) - 1);
+		}
+		return row << 32 | (column & 0xffffffffL);
+	}
+
+	private ScatterDataParser newParser() {
+		if (timeBucket > 0) {
+			throw new IllegalStateException(
+					"scatter charts can't be bucketed by time");
+		}
+		yData = new ArrayList<DataSet>();
+		xData = null;
+		ScatterDataParser parser = new ScatterDataParser(Math.max(2,
+				CELLS_PER_PIXEL * (int) Math.ceil(calculateChartWidth())),
+				Math.max(2, CELLS_PER_PIXEL
+						* (int) Math.ceil(calculateChartHeight())), maxPoints);
+		parser.setStats(stats);
+		return parser;
+	}
+
+	/**
+	 * append a hexagon, pointy side up, to the open path data
+	 */
+	private static void hexagon(SVGWriter out, double x, double y, double r)
+			throws IOException {
+		double half = r * Math.sqrt(3) / 2;
+		out.value('M');
+		out.value(x);
+		out.value(',');
+		out.value(y - r);
+		out.value('l');
+		out.value(half);
+		out.value(',');
+		out.value(r / 2);
+		out.value('v');
+		out.value(r);
+		out.value('l');
+		out.value(-half);
+		out.value(',');
+		out.value(r / 2);
+		out.value('l');
+		out.value(-half);
+		out.value(',');
+		out.value(-r / 2);
+		out.value('v');
+		out.value(-r);
+		out.value('z');
+	}
+
+	/**
+	 * append a square, binSize across, to the open path data
+	 */
+	private void square(SVGWriter out, double x, double y) throws IOException {
+		out.value('M');
+		out.value(x);
+		out.value(',');
+		out.value(y);
+		out.value('h');
+		out.value(binSize);
+		out.value('v');
+		out.value(binSize);
+		out.value('h');
+		out.value(-binSize);
+		out.value('z');
+	}
+}
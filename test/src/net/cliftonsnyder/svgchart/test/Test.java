@@ -0,0 +1,67 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.test;
+
+/**
+ * a single test. subclasses do their checking in run(), and fail by throwing
+ * (usually through one of the check methods below).
+ */
+public abstract class Test {
+
+	private final String name;
+
+	protected Test(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * run the test
+	 * 
+	 * @throws Exception
+	 *             if the test fails
+	 */
+	protected abstract void run() throws Exception;
+
+	/**
+	 * @throws AssertionError
+	 *             unless <em>condition</em> holds
+	 */
+	protected static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	/**
+	 * @throws AssertionError
+	 *             unless <em>expected</em> equals <em>actual</em>
+	 */
+	protected static void checkEquals(Object expected, Object actual) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			throw new AssertionError("expected <" + expected + "> but was <"
+					+ actual + ">");
+		}
+	}
+}
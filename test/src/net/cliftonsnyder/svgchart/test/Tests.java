@@ -0,0 +1,1030 @@
+/*
+ * svgchart - create and print charts using SVG
+ * 
+ * Copyright (c) 2011 Clifton Snyder <cliff@cliftonsnyder.net>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  
+ * 02110-1301, USA.
+ */
+package net.cliftonsnyder.svgchart.test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import net.cliftonsnyder.svgchart.BatchRenderer;
+import net.cliftonsnyder.svgchart.RenderOptions;
+import net.cliftonsnyder.svgchart.SVGChart;
+import net.cliftonsnyder.svgchart.data.CountMap;
+import net.cliftonsnyder.svgchart.data.DataSet;
+import net.cliftonsnyder.svgchart.data.DensityGrid;
+import net.cliftonsnyder.svgchart.data.LogHistogram;
+import net.cliftonsnyder.svgchart.data.SpaceSaving;
+import net.cliftonsnyder.svgchart.io.ColumnarFile;
+import net.cliftonsnyder.svgchart.io.Snapshot;
+import net.cliftonsnyder.svgchart.parse.BarChartDataParser;
+import net.cliftonsnyder.svgchart.parse.LineScanner;
+import net.cliftonsnyder.svgchart.parse.ParseException;
+import net.cliftonsnyder.svgchart.parse.ParsePatterns;
+import net.cliftonsnyder.svgchart.parse.TimestampParser;
+import net.cliftonsnyder.svgchart.types.BarChart;
+
+/**
+ * the svgchart tests. each prints "ok" or "FAIL" and its name; the exit status
+ * is non-zero if any failed.
+ * 
+ * usage (with the main classes in build/ and these in build-test/):
+ * 
+ * <pre>
+ * bin/svgchart-test [REGEX]
+ * </pre>
+ * 
+ * REGEX selects tests by name.
+ */
+public class Tests {
+
+	public static void main(String[] args) {
+		Pattern filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+		int run = 0, failed = 0;
+		for (Test t : all()) {
+			if (!filter.matcher(t.getName()).find()) {
+				continue;
+			}
+			run++;
+			try {
+				t.run();
+				System.out.println("ok   " + t.getName());
+			} catch (Throwable e) {
+				failed++;
+				System.out.println("FAIL " + t.getName() + ": " + e);
+			}
+		}
+		System.out.println(run + " run, " + failed + " failed");
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+
+	static List<Test> all() {
+		List<Test> all = new ArrayList<Test>();
+		all.add(new ScannerSplitTest());
+		all.add(new ScannerNumberTest());
+		all.add(new ParseErrorTest());
+		all.add(new TimestampFormatTest());
+		all.add(new TimestampFindTest());
+		all.add(new HistogramMergeTest());
+		all.add(new HistogramQuantileTest());
+		all.add(new GridMergeTest());
+		all.add(new NegativeWeightTest());
+		all.add(new TopNegativeCountTest());
+		all.add(new MemoryBudgetSettingsTest());
+		all.add(new MemoryBudgetOrderTest());
+		all.add(new StyleSheetTest());
+		all.add(new BatchOutputTest());
+		all.add(new SizeTest());
+		all.add(new SnapshotLookalikeTest());
+		all.add(new ColumnarLookalikeTest());
+		all.add(new MixedExportTest());
+		return all;
+	}
+
+	static BarChartDataParser parse(String input, int top) throws Exception {
+		BarChartDataParser parser = new BarChartDataParser();
+		parser.setTop(top);
+		parser.parseInput(new ByteArrayInputStream(input.getBytes("UTF-8")));
+		return parser;
+	}
+
+	/**
+	 * a negative weight must leave the sketch's heap in order, so that the
+	 * smallest counter is still the one evicted
+	 */
+	static class NegativeWeightTest extends Test {
+		NegativeWeightTest() {
+			super("spacesaving.negativeWeight");
+		}
+
+		@Override
+		protected void run() {
+			SpaceSaving sketch = new SpaceSaving(3);
+			sketch.add("a", 5);
+			sketch.add("b", 3);
+			sketch.add("c", 2);
+			sketch.add("b", -4);
+			sketch.add("d", 1);
+			Set<String> keys = new HashSet<String>();
+			for (int i = 0; i < sketch.size(); i++) {
+				keys.add(sketch.key(i));
+			}
+			check(!keys.contains("b"), "b (the smallest) wasn't evicted: "
+					+ keys);
+			check(keys.contains("c"), "c was evicted instead of b: " + keys);
+		}
+	}
+
+	/**
+	 * top-N counting rejects negative counts, naming the line
+	 */
+	static class TopNegativeCountTest extends Test {
+		TopNegativeCountTest() {
+			super("parse.top.negativeCount");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			try {
+				parse("a 5\nb 3\nc 2\nb -4\n", 2);
+			} catch (ParseException e) {
+				check(e.getMessage().endsWith("at line 4"), e.getMessage());
+				return;
+			}
+			throw new AssertionError("no ParseException");
+		}
+	}
+
+	/**
+	 * the stylesheet URL can't break out of the xml-stylesheet PI: it is
+	 * escaped when written, and rejected outright by RenderOptions
+	 */
+	static class StyleSheetTest extends Test {
+		private static final String PAYLOAD = "x\"?><svg onload=\"alert(1)\">"
+				+ "<!--";
+
+		StyleSheetTest() {
+			super("svg.styleSheet");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			SVGChart chart = SVGChart.newInstance("bar");
+			chart.setStyleSheet(PAYLOAD);
+			chart.parseInput(new ByteArrayInputStream("a\n".getBytes("UTF-8")));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			chart.printChart(out, false);
+			String svg = out.toString("UTF-8");
+			check(!svg.contains("<svg onload"), svg);
+			check(svg.contains("href=\"x&quot;?&gt;&lt;svg"), svg);
+
+			try {
+				new RenderOptions.Builder().setType("bar").setStyleSheet(
+						PAYLOAD).build().createChart();
+			} catch (IllegalArgumentException e) {
+				return;
+			}
+			throw new AssertionError("no IllegalArgumentException");
+		}
+	}
+
+	/**
+	 * text that happens to start like a snapshot's magic is read as text,
+	 * and so is a snapshot header with an unknown version
+	 */
+	static class SnapshotLookalikeTest extends Test {
+		SnapshotLookalikeTest() {
+			super("snapshot.lookalike");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			CountMap counts = parse("SVGSTUDIO\nfoo\nSVGSTUDIO\n", 0)
+					.toSnapshot().getCounts();
+			checkEquals("SVGSTUDIO", counts.key(0));
+			checkEquals(2.0, counts.value(0));
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new Snapshot().write(out);
+			byte[] header = out.toByteArray();
+			check(Snapshot.isSnapshot(new ByteArrayInputStream(header)),
+					"not a snapshot");
+			header[4] = (byte) (Snapshot.VERSION + 1);
+			check(!Snapshot.isSnapshot(new ByteArrayInputStream(header)),
+					"unknown version taken for a snapshot");
+		}
+	}
+
+	/**
+	 * text that happens to start like a columnar file's magic is read as
+	 * text, and so is a header with an unknown column kind
+	 */
+	static class ColumnarLookalikeTest extends Test {
+		ColumnarLookalikeTest() {
+			super("columnar.lookalike");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			CountMap counts = parse("SVGCOLOR 3\nfoo\nSVGCOLOR 2\n", 0)
+					.toSnapshot().getCounts();
+			checkEquals("SVGCOLOR", counts.key(0));
+			checkEquals(5.0, counts.value(0));
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ColumnarFile.Writer writer = new ColumnarFile.Writer(out,
+					new byte[] { ColumnarFile.NAME, ColumnarFile.NUMBER });
+			writer.finish();
+			byte[] header = out.toByteArray();
+			check(ColumnarFile.isColumnar(new ByteArrayInputStream(header)),
+					"not a columnar file");
+			header[7] = 2;
+			check(!ColumnarFile.isColumnar(new ByteArrayInputStream(header)),
+					"unknown column kind taken for a columnar file");
+		}
+	}
+
+	/**
+	 * mixed one- and two-column input converts to a columnar file holding the
+	 * same counts as the text
+	 */
+	static class MixedExportTest extends Test {
+		MixedExportTest() {
+			super("columnar.export.mixed");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			for (String text : new String[] { "a 1\nb 2.5\na 3\nc\n",
+					"a\nb 2\n" }) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				long rows = BarChartDataParser.export(new ByteArrayInputStream(
+						text.getBytes("UTF-8")), out);
+				checkEquals((long) text.split("\n").length, rows);
+
+				BarChartDataParser parser = new BarChartDataParser();
+				parser.parseInput(new ByteArrayInputStream(out.toByteArray()));
+				CountMap expected = parse(text, 0).toSnapshot().getCounts();
+				CountMap actual = parser.toSnapshot().getCounts();
+				checkEquals(expected.size(), actual.size());
+				for (int i = 0; i < expected.size(); i++) {
+					checkEquals(expected.key(i), actual.key(i));
+					checkEquals(expected.value(i), actual.value(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * sizes that aren't finite and positive, or that would make too big an
+	 * image, are rejected before the chart is made
+	 */
+	static class SizeTest extends Test {
+		SizeTest() {
+			super("options.size");
+		}
+
+		@Override
+		protected void run() {
+			RenderOptions.Builder builder = new RenderOptions.Builder()
+					.setType("bar");
+			check(builder.setWidth(4096).setHeight(4096).setFormat(
+					RenderOptions.Format.PNG).build().createChart() != null,
+					"4096 x 4096 PNG rejected");
+			double[][] sizes = { { 0, 300 }, { -1, 300 },
+					{ Double.POSITIVE_INFINITY, 300 }, { 400, Double.NaN },
+					{ 400, RenderOptions.MAX_SIZE + 1 } };
+			for (double[] size : sizes) {
+				checkRejected(builder.setFormat(RenderOptions.Format.SVG)
+						.setWidth(size[0]).setHeight(size[1]));
+			}
+			checkRejected(builder.setWidth(100000).setHeight(100000)
+					.setFormat(RenderOptions.Format.PNG));
+		}
+
+		private static void checkRejected(RenderOptions.Builder builder) {
+			RenderOptions options = builder.build();
+			try {
+				options.createChart();
+			} catch (IllegalArgumentException e) {
+				return;
+			}
+			throw new AssertionError(options.getWidth() + " x "
+					+ options.getHeight() + " " + options.getFormat()
+					+ " accepted");
+		}
+	}
+
+	/**
+	 * exact (memory budget) and approximate top-N charts have different
+	 * settings, so the render cache keeps them apart
+	 */
+	static class MemoryBudgetSettingsTest extends Test {
+		MemoryBudgetSettingsTest() {
+			super("bar.settings.memoryBudget");
+		}
+
+		@Override
+		protected void run() {
+			BarChart approximate = new BarChart();
+			approximate.setTop(10);
+			BarChart exact = new BarChart();
+			exact.setTop(10);
+			exact.setMemoryBudget(1 << 20);
+			check(!approximate.getSettings().equals(exact.getSettings()),
+					"same settings: " + exact.getSettings());
+
+			BarChart larger = new BarChart();
+			larger.setTop(10);
+			larger.setMemoryBudget(1 << 30);
+			checkEquals(exact.getSettings(), larger.getSettings());
+		}
+	}
+
+	/**
+	 * a batch job replaces its output only once the chart is complete: a
+	 * failed job leaves the old output, and no temporary file, behind
+	 */
+	static class BatchOutputTest extends Test {
+		BatchOutputTest() {
+			super("batch.output");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			File dir = Files.createTempDirectory("svgchart-test").toFile();
+			try {
+				File good = new File(dir, "good.txt");
+				Files.write(good.toPath(), "a\nb\na\n".getBytes("UTF-8"));
+				File bad = new File(dir, "bad.txt");
+				Files.write(bad.toPath(), "a 1\nb x y z\n".getBytes("UTF-8"));
+				File output = new File(dir, "chart.svgz");
+				Files.write(output.toPath(), "old".getBytes("UTF-8"));
+
+				BatchRenderer renderer = new BatchRenderer(1);
+				try {
+					renderer.render(new BatchRenderer.Job(1, "bar", bad
+							.getPath(), output.getPath(), 400, 300, "x.css"));
+					throw new AssertionError("bad input rendered");
+				} catch (ParseException e) {
+					// expected
+				}
+				checkEquals("old", new String(Files.readAllBytes(output
+						.toPath()), "UTF-8"));
+				checkEquals(3, dir.list().length);
+
+				renderer.render(new BatchRenderer.Job(2, "bar", good.getPath(),
+						output.getPath(), 400, 300, "x.css"));
+				check(output.length() > 3, "output not replaced");
+				checkEquals(3, dir.list().length);
+			} finally {
+				for (File f : dir.listFiles()) {
+					f.delete();
+				}
+				dir.delete();
+			}
+		}
+	}
+
+	/**
+	 * input that spills to disk is collected in every order just as it is
+	 * when counted in memory, and snapshots the same
+	 */
+	static class MemoryBudgetOrderTest extends Test {
+		MemoryBudgetOrderTest() {
+			super("parse.memoryBudget.order");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			Random random = new Random(1);
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < 50000; i++) {
+				text.append("key").append(random.nextInt(20000));
+				if (random.nextBoolean()) {
+					text.append(' ').append(random.nextInt(5));
+				}
+				text.append('\n');
+			}
+			byte[] input = text.toString().getBytes("UTF-8");
+
+			for (CountMap.Order order : CountMap.Order.values()) {
+				BarChartDataParser memory = new BarChartDataParser();
+				memory.setOrder(order);
+				memory.parseInput(new ByteArrayInputStream(input));
+				BarChartDataParser spilled = new BarChartDataParser();
+				spilled.setOrder(order);
+				spilled.setMemoryBudget(1 << 16);
+				spilled.parseInput(new ByteArrayInputStream(input));
+
+				checkEquals(memory.getYData().size(), spilled.getYData()
+						.size());
+				Iterator<DataSet> it = spilled.getYData().iterator();
+				for (DataSet expected : memory.getYData()) {
+					DataSet actual = it.next();
+					checkEquals(order + " " + expected.getName() + " "
+							+ expected.get(0, 0), order + " "
+							+ actual.getName() + " " + actual.get(0, 0));
+				}
+
+				CountMap expected = memory.toSnapshot().getCounts();
+				CountMap actual = spilled.toSnapshot().getCounts();
+				checkEquals(expected.size(), actual.size());
+				for (int i = 0; i < expected.size(); i++) {
+					checkEquals(expected.key(i), actual.key(i));
+					checkEquals(expected.value(i), actual.value(i));
+				}
+			}
+		}
+	}
+
+	// lines with delimiter runs, leading and trailing delimiters, empty lines
+	// and every kind of line ending, for the LineScanner tests
+	private static final String[] SCANNER_INPUTS = { "", "a", "a\n", "a b",
+			"a  b", "a,,b", " a", "a ", " a b ", ",", ",,,", "\n", "\n\n",
+			"a\n\nb", "a\r\nb\r\n", "a\rb\r", "a\r\rb", "a\r\n\r\nb",
+			"a;b:c,d\te\u000Bf\fg", "a b\r\n,\r\n ,x\n\t\n",
+			"x 1\ny 2.5\nz,3\r\n w 4\n v  5", "\u00e9t\u00e9 \u2603 1",
+			"0 a 1.5\n1 b 2\r2,c,3" };
+
+	/**
+	 * @return the fields of <em>line</em>, as the parsers split them before
+	 *         LineScanner
+	 */
+	static String[] split(String line) {
+		return line.split(ParsePatterns.DELIMITERS);
+	}
+
+	/**
+	 * LineScanner finds the same lines as BufferedReader.readLine(), and the
+	 * same fields in them as String.split(ParsePatterns.DELIMITERS); a small
+	 * buffer makes it refill and grow mid-line
+	 */
+	static class ScannerSplitTest extends Test {
+		ScannerSplitTest() {
+			super("scanner.split");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			StringBuilder long_ = new StringBuilder();
+			for (int i = 0; i < 200; i++) {
+				long_.append("key").append(i % 7 == 0 ? ",, " : " ").append(i)
+						.append(i % 13 == 0 ? "\r\n" : "\n");
+			}
+			List<String> inputs = new ArrayList<String>();
+			for (String input : SCANNER_INPUTS) {
+				inputs.add(input);
+			}
+			inputs.add(long_.toString());
+
+			for (String input : inputs) {
+				for (int size : new int[] { 16, 4096 }) {
+					BufferedReader reader = new BufferedReader(
+							new StringReader(input));
+					LineScanner scanner = new LineScanner(new StringReader(
+							input), size);
+					String line;
+					long number = 0;
+					while ((line = reader.readLine()) != null) {
+						check(scanner.next(), "missing line '" + line + "' in '"
+								+ input + "'");
+						checkEquals(line, scanner.line());
+						checkEquals(++number, scanner.lineNumber());
+						String[] fields = split(line);
+						checkEquals(line + ": " + fields.length, line + ": "
+								+ scanner.fieldCount());
+						for (int i = 0; i < fields.length; i++) {
+							checkEquals(fields[i], scanner.field(i));
+						}
+						checkEquals(line.length(), scanner.lineLength());
+					}
+					check(!scanner.next(), "extra line in '" + input + "'");
+				}
+			}
+		}
+	}
+
+	/**
+	 * LineScanner.parseDouble() gives the same values as Double.parseDouble(),
+	 * and the same NumberFormatException messages
+	 */
+	static class ScannerNumberTest extends Test {
+		ScannerNumberTest() {
+			super("scanner.parseDouble");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			List<String> numbers = new ArrayList<String>();
+			for (String n : new String[] { "0", "-0", "1", "+1", "-1", "1.5",
+					".5", "5.", "007", "1e3", "1E-3", "-2.5e+10", "0.1",
+					"0.30000000000000004", "123456789012345678901234567890",
+					"9007199254740993", "1.7976931348623157E308", "1e309",
+					"4.9e-324", "1e-400", "NaN", "Infinity", "-Infinity",
+					"0x1p3", "1d", "2f", "", "-", ".", "e5", "1e", "1..2",
+					"abc", "--1", "\u0661" }) {
+				numbers.add(n);
+			}
+			Random random = new Random(2);
+			for (int i = 0; i < 10000; i++) {
+				double scale = Math.pow(10, random.nextInt(20) - 10);
+				numbers.add(Double.toString(random.nextDouble() * scale));
+				numbers.add(String.format(Locale.ROOT, "%." + random.nextInt(8)
+						+ "f", random.nextDouble() * scale));
+				numbers.add(Long.toString(random.nextLong()));
+			}
+
+			for (String n : numbers) {
+				// the field ends at a delimiter, so empty ones are parsed too
+				LineScanner scanner = new LineScanner(new StringReader("x," + n
+						+ ",y\n"));
+				scanner.next();
+				String expected, actual;
+				try {
+					expected = Long.toHexString(Double.doubleToRawLongBits(Double
+							.parseDouble(n)));
+				} catch (NumberFormatException e) {
+					expected = e.getMessage();
+				}
+				try {
+					actual = Long.toHexString(Double.doubleToRawLongBits(scanner
+							.parseDouble(1)));
+				} catch (NumberFormatException e) {
+					actual = e.getMessage();
+				}
+				checkEquals("'" + n + "': " + expected, "'" + n + "': "
+						+ actual);
+			}
+		}
+	}
+
+	/**
+	 * bar chart input that doesn't parse fails with the messages the parser
+	 * gave when it split lines with String.split()
+	 */
+	static class ParseErrorTest extends Test {
+		ParseErrorTest() {
+			super("parse.errors");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			String[] inputs = { "a b c d\n", "a,,b,\n", "a 1\nb 2 3\n",
+					"a 1\nb,,2\n", "a 1\n b,2\n", "a\nb  c\n", "a\r\nb 1 2\r\n",
+					"a x\n", "a 1\nb\t\tx\n", "a 1\n,x\n", "1 a 2\n1 b\n" };
+			for (String input : inputs) {
+				String expected = splitError(input), actual = null;
+				try {
+					parse(input, 0);
+				} catch (ParseException e) {
+					actual = e.getMessage();
+				} catch (NumberFormatException e) {
+					actual = e.getMessage();
+				}
+				checkEquals(expected, actual);
+			}
+		}
+
+		/**
+		 * @return the error the parser made of one- and two-column input
+		 *         (or a first line with more columns) when it used split()
+		 */
+		private static String splitError(String input) throws Exception {
+			BufferedReader reader = new BufferedReader(new StringReader(input));
+			String line = reader.readLine();
+			int columns = split(line).length;
+			if (columns > 3) {
+				return "parse error at line '" + line + "'";
+			}
+			do {
+				String[] items = split(line);
+				if (columns == 3 ? items.length != 3 : items.length > 2) {
+					return "unexpected data value '" + line + "'";
+				}
+				try {
+					Double.parseDouble(items[items.length - 1]);
+				} catch (NumberFormatException e) {
+					if (items.length > 1) {
+						return e.getMessage();
+					}
+				}
+			} while ((line = reader.readLine()) != null);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the timestamp TimestampParser finds in <em>line</em>
+	 */
+	static long find(String line) {
+		char[] c = ("<" + line + ">").toCharArray();
+		return TimestampParser.find(c, 1, c.length - 2);
+	}
+
+	/**
+	 * each timestamp format gives the same time as java.time does, for every
+	 * day over several centuries and for random times and zones
+	 */
+	static class TimestampFormatTest extends Test {
+		TimestampFormatTest() {
+			super("timestamp.formats");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			for (LocalDate d = LocalDate.of(1600, 1, 1); d.getYear() < 2400; d = d
+					.plusDays(1)) {
+				checkEquals(d + ": " + d.toEpochDay() * 86400000L, d + ": "
+						+ find(d.toString()));
+			}
+
+			DateTimeFormatter clf = DateTimeFormatter.ofPattern(
+					"'['dd/MMM/yyyy:HH:mm:ss xx']'", Locale.ROOT);
+			Random random = new Random(3);
+			for (int i = 0; i < 20000; i++) {
+				long millis = (random.nextLong() >>> 22) - (1L << 40);
+				ZoneOffset zone = ZoneOffset.ofTotalSeconds((random
+						.nextInt(37) - 18) * 1800);
+				OffsetDateTime t = OffsetDateTime.ofInstant(
+						Instant.ofEpochMilli(millis), zone);
+				long seconds = Math.floorDiv(millis, 1000L) * 1000;
+				long minutes = Math.floorDiv(millis, 60000L) * 60000;
+				String date = String.format(Locale.ROOT,
+						"%04d-%02d-%02d", t.getYear(), t.getMonthValue(),
+						t.getDayOfMonth());
+				String hm = String.format(Locale.ROOT, "%02d:%02d",
+						t.getHour(), t.getMinute());
+				String s = String.format(Locale.ROOT, ":%02d", t.getSecond());
+				String ms = String.format(Locale.ROOT, "%03d",
+						t.getNano() / 1000000);
+				String offset = zone.getId().equals("Z") ? "+00:00" : zone
+						.getId();
+				if (t.getYear() < 1000 || t.getYear() > 9999) {
+					continue;
+				}
+
+				checkEquals(millis, find(date + "T" + hm + s + "." + ms
+						+ offset));
+				checkEquals(millis, find(date + " " + hm + s + "," + ms
+						+ "000" + offset.replace(":", "")));
+				checkEquals(seconds, find(date + "T" + hm + s + offset));
+				checkEquals(minutes, find(date + "T" + hm + offset));
+				checkEquals(minutes, find(t.withOffsetSameInstant(
+						ZoneOffset.UTC).format(
+						DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm'Z'"))));
+				if (zone.getTotalSeconds() % 3600 == 0) {
+					checkEquals(seconds, find(date + "T" + hm + s
+							+ offset.substring(0, 3)));
+				}
+				checkEquals(seconds, find(clf.format(t)));
+
+				// local times are UTC
+				checkEquals(millis + zone.getTotalSeconds() * 1000L, find(date
+						+ " " + hm + s + "." + ms));
+
+				if (millis >= 100000000000L && millis < 10000000000000L) {
+					checkEquals(millis, find(Long.toString(millis)));
+					checkEquals(millis, find(millis / 1000 + "." + ms));
+					checkEquals(seconds, find(Long.toString(millis / 1000)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * TimestampParser finds the first timestamp that stands on its own in a
+	 * line, and not invalid dates or numbers that only look like timestamps
+	 */
+	static class TimestampFindTest extends Test {
+		TimestampFindTest() {
+			super("timestamp.find");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			long none = TimestampParser.NONE;
+			long day = 86400000L;
+			long d2020 = LocalDate.of(2020, 1, 1).toEpochDay() * day;
+			long d2021 = LocalDate.of(2021, 1, 1).toEpochDay() * day;
+
+			Object[] cases = { "", none, "hello", none, "2020-01-01", d2020,
+					"x 2020-01-01 y", d2020, "2020-01-01 2021-01-01", d2020,
+					"x2020-01-01 2021-01-01", d2021,
+					"2020-01-01x 2021-01-01", d2021,
+					"/2020-01-01 .2020-01-01 (2021-01-01)", d2021,
+					"2020-01-01-02", none, "2020-01-01/", none,
+					"2020-01-01, 2021-01-01", d2020,
+					"\"2020-01-01T00:00:01Z\"", d2020 + 1000,
+					"2020-01-01 00:01 UTC", d2020 + 60000,
+					"2020-01-01 0001", d2020, "2020-01-01T", none,
+					"2020-01-01T00:00:00.5", d2020 + 500,
+					"2020-01-01T00:00:00.", none,
+					"2020-01-01T00:00:00+0130", d2020 - 5400000,
+					"2020-01-01T00:00:00-01", d2020 + 3600000,
+					"2020-01-01T00:00:00+19", none,
+					"2020-01-01T00:00:00+01:60", none,
+					"2020-01-01T00:00:00+01x", none,
+					"2020-01-01T24:00", none, "2020-01-01T23:60", none,
+					"2020-02-29", LocalDate.of(2020, 2, 29).toEpochDay() * day,
+					"2021-02-29", none, "2100-02-29", none, "2020-04-31", none,
+					"2020-00-01", none, "2020-13-01", none, "2020-01-00", none,
+					"2020-1-01", none, "20-01-01", none,
+					"[01/Jan/2020:00:00:00 +0000]", d2020,
+					"1.2.3.4 - - [01/Jan/2020:01:00:00 +0100] \"GET /\"", d2020,
+					"[01/Jan/2020:00:00:00 -0030]", d2020 + 1800000,
+					"[01/Foo/2020:00:00:00 +0000]", none,
+					"[30/Feb/2020:00:00:00 +0000]", none,
+					"[01/Jan/2020:00:00:00 *0000]", none,
+					"[01/Jan/2020:00:00:00 +0000", none,
+					"1577836800", d2020, "577836800", 577836800000L,
+					"1577836800.25", d2020 + 250, "1577836800.", none,
+					"1577836800000", d2020, "157783680000", 157783680000L,
+					"12345678", none, "12345678901", none, "12345678901234",
+					none, "123456789012345", none, "1577836800x", none,
+					"1577836800:", none, "id=1577836800", d2020,
+					"42 1577836800", d2020, "v1577836800 1577836800000", d2020 };
+			for (int i = 0; i < cases.length; i += 2) {
+				checkEquals(cases[i] + ": " + cases[i + 1], cases[i] + ": "
+						+ find((String) cases[i]));
+			}
+		}
+	}
+
+	/**
+	 * @return <em>n</em> values of mixed sign and magnitude, with zeros and
+	 *         repeats, <em>distinct</em> of them at most
+	 */
+	static double[] values(Random random, int n, int distinct) {
+		double[] pool = new double[distinct];
+		for (int i = 0; i < distinct; i++) {
+			switch (i % 5) {
+			case 0:
+				pool[i] = random.nextInt(10);
+				break;
+			case 1:
+				pool[i] = -Math.exp(random.nextGaussian() * 5);
+				break;
+			default:
+				pool[i] = Math.exp(random.nextGaussian() * 10);
+			}
+		}
+		double[] values = new double[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = pool[random.nextInt(distinct)];
+		}
+		return values;
+	}
+
+	/**
+	 * merging LogHistograms gives the same sketch as adding all of their
+	 * values to one, whether they're counted exactly or in buckets, or go
+	 * from one to the other (or fold buckets) on the way
+	 */
+	static class HistogramMergeTest extends Test {
+		HistogramMergeTest() {
+			super("loghistogram.merge");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			Random random = new Random(4);
+			int[][] shapes = { // values, distinct values, maxBuckets, maxExact
+			{ 100, 10, 2048, 4096 }, { 1000, 80, 2048, 100 },
+					{ 1000, 300, 2048, 100 }, { 1000, 300, 2048, 0 },
+					{ 5000, 5000, 50, 0 }, { 5000, 5000, 50, 4000 },
+					{ 10, 10, 1, 0 } };
+			double[] qs = { 0, 0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99,
+					0.999, 1 };
+			double[] edges = { -100, -1, -0.5, 0, 0.5, 1, 2, 10, 1e3, 1e6 };
+			for (int[] shape : shapes) {
+				for (int parts : new int[] { 1, 2, 3, 7 }) {
+					double[] values = values(random, shape[0], shape[1]);
+					LogHistogram all = new LogHistogram(0.02, shape[2],
+							shape[3]);
+					LogHistogram merged = new LogHistogram(0.02, shape[2],
+							shape[3]);
+					LogHistogram[] part = new LogHistogram[parts];
+					for (int i = 0; i < parts; i++) {
+						part[i] = new LogHistogram(0.02, shape[2], shape[3]);
+					}
+					for (int i = 0; i < values.length; i++) {
+						double w = 1 + random.nextInt(3);
+						all.add(values[i], w);
+						part[i * parts / values.length].add(values[i], w);
+					}
+					for (LogHistogram h : part) {
+						merged.merge(h);
+					}
+
+					String what = Arrays.toString(shape) + " in " + parts
+							+ ": ";
+					checkEquals(what + all.isExact(), what + merged.isExact());
+					checkEquals(what + all.count(), what + merged.count());
+					checkEquals(what + all.getMin(), what + merged.getMin());
+					checkEquals(what + all.getMax(), what + merged.getMax());
+					checkEquals(what + all.buckets(), what + merged.buckets());
+					check(Math.abs(all.getSum() - merged.getSum()) <= 1e-9 * Math
+							.abs(all.getSum()), what + "sum");
+					for (double q : qs) {
+						checkEquals(what + q + " " + all.quantile(q), what + q
+								+ " " + merged.quantile(q));
+					}
+					checkEquals(what + Arrays.toString(all.bin(edges)), what
+							+ Arrays.toString(merged.bin(edges)));
+				}
+			}
+
+			try {
+				new LogHistogram(0.01, 10, 10).merge(new LogHistogram(0.02,
+						10, 10));
+				check(false, "merged sketches of different accuracy");
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	/**
+	 * LogHistogram quantiles are exact while the values are counted exactly,
+	 * and within the sketch's relative accuracy of the true quantile after
+	 */
+	static class HistogramQuantileTest extends Test {
+		HistogramQuantileTest() {
+			super("loghistogram.quantile");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			LogHistogram empty = new LogHistogram();
+			check(Double.isNaN(empty.quantile(0.5)), "quantile of nothing");
+
+			Random random = new Random(5);
+			double[] qs = new double[101];
+			for (int i = 0; i < qs.length; i++) {
+				qs[i] = i / 100.0;
+			}
+			for (int n : new int[] { 1, 2, 10, 1000, 100000 }) {
+				for (int maxExact : new int[] { 0, 4096 }) {
+					double[] values = values(random, n, Math.min(n, 2000));
+					// enough buckets that none are folded
+					LogHistogram h = new LogHistogram(0.01, 10000, maxExact);
+					for (double v : values) {
+						h.add(v);
+					}
+					Arrays.sort(values);
+					for (double q : qs) {
+						double expected = values[(int) Math.min(
+								Math.floor(q * n), n - 1)];
+						double actual = h.quantile(q);
+						String what = n + " values, " + maxExact + " exact, "
+								+ q + ": ";
+						if (h.isExact() || q == 0 || q == 1) {
+							checkEquals(what + expected, what + actual);
+						} else {
+							check(Math.abs(actual - expected) <= 0.01 * Math
+									.abs(expected) * (1 + 1e-9), what + expected
+									+ " ~ " + actual);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * merging DensityGrids, whether they keep their points or count them in
+	 * cells, keeps every point: each cell holds exactly the points within
+	 * its bounds
+	 */
+	static class GridMergeTest extends Test {
+		GridMergeTest() {
+			super("densitygrid.merge");
+		}
+
+		@Override
+		protected void run() throws Exception {
+			Random random = new Random(6);
+			for (int round = 0; round < 200; round++) {
+				int columns = 2 + random.nextInt(20), rows = 2 + random
+						.nextInt(20);
+				int parts = 1 + random.nextInt(5);
+				DensityGrid merged = new DensityGrid(columns, rows, random
+						.nextInt(30));
+				List<double[]> points = new ArrayList<double[]>();
+				for (int p = 0; p < parts; p++) {
+					// some parts far from the others, so the cells coarsen
+					// and the grid moves as they're merged
+					double cx = random.nextGaussian() * Math.pow(10, random
+							.nextInt(6)), cy = random.nextGaussian()
+							* Math.pow(10, random.nextInt(6));
+					double scale = Math.pow(10, random.nextInt(5) - 2);
+					DensityGrid part = new DensityGrid(columns, rows, random
+							.nextInt(30));
+					for (int k = random.nextInt(60); k > 0; k--) {
+						double x = cx + random.nextGaussian() * scale;
+						double y = random.nextInt(4) == 0 ? cy : cy
+								+ random.nextGaussian() * scale;
+						part.add(x, y);
+						points.add(new double[] { x, y });
+					}
+					merged.merge(part);
+				}
+				checkGrid(merged, points, "round " + round);
+			}
+
+			try {
+				new DensityGrid(3, 3, 0).merge(new DensityGrid(3, 4, 0));
+				check(false, "merged grids of different sizes");
+			} catch (IllegalArgumentException e) {
+			}
+		}
+
+		/**
+		 * check that <em>grid</em> holds exactly <em>points</em>
+		 */
+		private static void checkGrid(DensityGrid grid,
+				List<double[]> points, String what) {
+			checkEquals(what + ": " + points.size(), what + ": " + grid.count());
+			if (points.isEmpty()) {
+				return;
+			}
+			double minX = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			for (double[] p : points) {
+				minX = Math.min(minX, p[0]);
+				maxX = Math.max(maxX, p[0]);
+				minY = Math.min(minY, p[1]);
+				maxY = Math.max(maxY, p[1]);
+			}
+			checkEquals(what + ": " + minX, what + ": " + grid.getMinX());
+			checkEquals(what + ": " + maxX, what + ": " + grid.getMaxX());
+			checkEquals(what + ": " + minY, what + ": " + grid.getMinY());
+			checkEquals(what + ": " + maxY, what + ": " + grid.getMaxY());
+
+			int columns = grid.getColumns(), rows = grid.getRows();
+			int[] expected = new int[columns * rows];
+			if (grid.isExact()) {
+				Set<String> kept = new HashSet<String>();
+				List<String> listed = new ArrayList<String>();
+				for (int k = 0; k < grid.count(); k++) {
+					listed.add(grid.getX(k) + "," + grid.getY(k));
+				}
+				for (double[] p : points) {
+					kept.add(p[0] + "," + p[1]);
+				}
+				check(kept.containsAll(listed) && new HashSet<String>(listed)
+						.containsAll(kept), what + ": points kept");
+			} else {
+				for (double[] p : points) {
+					int i = cell(p[0], grid.getCellX(0), grid.getCellX(1));
+					int j = cell(p[1], grid.getCellY(0), grid.getCellY(1));
+					check(i >= 0 && i < columns && j >= 0 && j < rows, what
+							+ ": (" + p[0] + ", " + p[1] + ") outside the grid");
+					expected[j * columns + i]++;
+				}
+			}
+			for (int j = 0; j < rows; j++) {
+				for (int i = 0; i < columns; i++) {
+					checkEquals(what + " (" + i + ", " + j + "): "
+							+ expected[j * columns + i], what + " (" + i
+							+ ", " + j + "): " + grid.get(i, j));
+				}
+			}
+		}
+
+		/**
+		 * @return the cell holding <em>v</em>, given the middles of the
+		 *         first two: cell i covers [middle - w/2, middle + w/2)
+		 */
+		private static int cell(double v, double middle0, double middle1) {
+			double w = middle1 - middle0;
+			double left = middle0 - w / 2;
+			int i = (int) Math.floor((v - left) / w);
+			while (v < left + i * w) {
+				i--;
+			}
+			while (v >= left + (i + 1) * w) {
+				i++;
+			}
+			return i;
+		}
+	}
+}